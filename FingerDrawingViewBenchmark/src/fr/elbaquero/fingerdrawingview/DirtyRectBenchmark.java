@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dirty region tracking: one reset per touch event, then one expansion per sample, as in the view.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirtyRectBenchmark
+{
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Replayed gestures. */
+    private Stroke[] mGestures;
+
+    /** Number of samples per touch event. */
+    private int mSamplesPerEvent;
+
+    /** Tracked region. */
+    private final DirtyRect mDirtyRect = new DirtyRect();
+
+    /**
+     * Load the dataset.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        GestureDataset dataset = GestureDataset.load(mDataset);
+        mGestures = dataset.getGestures();
+        mSamplesPerEvent = dataset.getSamplesPerEvent();
+    }
+
+    /**
+     * Track the region of every touch event.
+     * 
+     * @return the sum of the regions areas.
+     */
+    @Benchmark
+    public float track()
+    {
+        float area = 0;
+
+        for (Stroke gesture : mGestures)
+        {
+            int lastX = (int) gesture.getX(0);
+            int lastY = (int) gesture.getY(0);
+
+            for (int first = 1; first < gesture.size(); first += mSamplesPerEvent)
+            {
+                int last = Math.min(gesture.size(), first + mSamplesPerEvent) - 1;
+                int eventX = (int) gesture.getX(last);
+                int eventY = (int) gesture.getY(last);
+
+                mDirtyRect.reset(lastX, lastY, eventX, eventY);
+
+                for (int i = first; i < last; ++i)
+                {
+                    mDirtyRect.expand((int) gesture.getX(i), (int) gesture.getY(i));
+                }
+
+                area += (mDirtyRect.getRight() - mDirtyRect.getLeft())
+                        * (mDirtyRect.getBottom() - mDirtyRect.getTop());
+                lastX = eventX;
+                lastY = eventY;
+            }
+        }
+
+        return area;
+    }
+}
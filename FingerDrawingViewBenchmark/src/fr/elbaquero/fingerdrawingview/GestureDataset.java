@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Gestures replayed by the benchmarks, as raw touch samples grouped into touch events.
+ * <p>
+ * The built-in datasets are generated from a fixed seed, so that results are comparable across commits. They mimic
+ * what the view receives from the digitizer: integer coordinates, sample times at the digitizer rate and several
+ * samples per touch event when the digitizer is faster than the display. A recorded drawing can be used instead by
+ * giving the path of a stroke file, see {@link StrokeDocumentWriter}.
+ */
+final class GestureDataset
+{
+    /** Handwriting: short cursive strokes, 120 Hz digitizer, 2 samples per event. */
+    static final String HANDWRITING = "handwriting";
+
+    /** Scribble: long, fast strokes, 240 Hz digitizer, 4 samples per event. */
+    static final String SCRIBBLE = "scribble";
+
+    /** Diagram: straight lines and boxes, 120 Hz digitizer, 2 samples per event. */
+    static final String DIAGRAM = "diagram";
+
+    /** Drawing width, in pixels. */
+    private static final int WIDTH = 1080;
+
+    /** Drawing height, in pixels. */
+    private static final int HEIGHT = 1920;
+
+    /** Random generator seed. */
+    private static final long SEED = 0x46445657L;
+
+    /** Raw gestures, one stroke per gesture. */
+    private final Stroke[] mGestures;
+
+    /** Number of samples per touch event. */
+    private final int mSamplesPerEvent;
+
+    /** Total number of samples. */
+    private final int mSampleCount;
+
+    /**
+     * Create a new {@link GestureDataset}.
+     * 
+     * @param gestures
+     *            the raw gestures.
+     * @param samplesPerEvent
+     *            the number of samples per touch event.
+     */
+    private GestureDataset(final Stroke[] gestures, final int samplesPerEvent)
+    {
+        int sampleCount = 0;
+
+        for (Stroke gesture : gestures)
+        {
+            sampleCount += gesture.size();
+        }
+
+        mGestures = gestures;
+        mSamplesPerEvent = samplesPerEvent;
+        mSampleCount = sampleCount;
+    }
+
+    /**
+     * Load a dataset.
+     * 
+     * @param name
+     *            a built-in dataset name, or the path of a stroke file.
+     * @return the dataset.
+     * @throws IOException
+     *             if the stroke file cannot be read.
+     */
+    static GestureDataset load(final String name) throws IOException
+    {
+        if (HANDWRITING.equals(name))
+        {
+            return handwriting();
+        }
+        else if (SCRIBBLE.equals(name))
+        {
+            return scribble();
+        }
+        else if (DIAGRAM.equals(name))
+        {
+            return diagram();
+        }
+
+        StrokeDocumentReader reader = new StrokeDocumentReader(new File(name));
+
+        try
+        {
+            Stroke[] gestures = new Stroke[reader.getStrokeCount()];
+
+            for (int i = 0; i < gestures.length; ++i)
+            {
+                gestures[i] = reader.readStroke(i);
+            }
+
+            return new GestureDataset(gestures, 2);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the raw gestures.
+     */
+    Stroke[] getGestures()
+    {
+        return mGestures;
+    }
+
+    /**
+     * @return the number of samples per touch event.
+     */
+    int getSamplesPerEvent()
+    {
+        return mSamplesPerEvent;
+    }
+
+    /**
+     * @return the total number of samples.
+     */
+    int getSampleCount()
+    {
+        return mSampleCount;
+    }
+
+    /**
+     * Build a document holding the gestures, with a single pen style.
+     * 
+     * @return the document.
+     */
+    StrokeDocument toDocument()
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+        PenStyle style = new PenStyle(0xFF000000, 4, false);
+
+        for (Stroke gesture : mGestures)
+        {
+            Stroke stroke = gesture.copy();
+
+            if (stroke.getStyle() == null)
+            {
+                stroke.setStyle(style);
+            }
+
+            document.add(stroke);
+        }
+
+        return document;
+    }
+
+    /**
+     * @return the handwriting dataset.
+     */
+    private static GestureDataset handwriting()
+    {
+        Random random = new Random(SEED);
+        Stroke[] gestures = new Stroke[400];
+
+        for (int i = 0; i < gestures.length; ++i)
+        {
+            // Lines of words, each gesture being a word of loops
+            float x = 40 + (i % 8) * 125;
+            float y = 80 + (i / 8) * 36 % (HEIGHT - 160);
+            int size = 60 + random.nextInt(80);
+            double phase = random.nextDouble() * Math.PI;
+            Stroke gesture = new Stroke(size);
+
+            for (int j = 0; j < size; ++j)
+            {
+                double t = (double) j / size;
+                double angle = phase + 2 * Math.PI * 5 * t;
+                float sampleX = (float) (x + 100 * t + 8 * Math.cos(angle) + random.nextGaussian() * 0.4);
+                float sampleY = (float) (y + 12 * Math.sin(angle) + 4 * Math.sin(angle / 3) + random.nextGaussian()
+                        * 0.4);
+                float pressure = (float) (0.5 + 0.2 * Math.sin(Math.PI * t));
+
+                gesture.add((int) sampleX, (int) sampleY, 1000L * i + j * 8, pressure);
+            }
+
+            gestures[i] = gesture;
+        }
+
+        return new GestureDataset(gestures, 2);
+    }
+
+    /**
+     * @return the scribble dataset.
+     */
+    private static GestureDataset scribble()
+    {
+        Random random = new Random(SEED + 1);
+        Stroke[] gestures = new Stroke[60];
+
+        for (int i = 0; i < gestures.length; ++i)
+        {
+            // Random walk with momentum, bouncing on the edges
+            int size = 400 + random.nextInt(600);
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            float dx = 0;
+            float dy = 0;
+            Stroke gesture = new Stroke(size);
+
+            for (int j = 0; j < size; ++j)
+            {
+                dx = 0.9f * dx + (float) random.nextGaussian() * 3;
+                dy = 0.9f * dy + (float) random.nextGaussian() * 3;
+                x = Math.max(0, Math.min(WIDTH - 1, x + dx));
+                y = Math.max(0, Math.min(HEIGHT - 1, y + dy));
+
+                gesture.add((int) x, (int) y, 10000L * i + j * 4, 0.3f + 0.4f * random.nextFloat());
+            }
+
+            gestures[i] = gesture;
+        }
+
+        return new GestureDataset(gestures, 4);
+    }
+
+    /**
+     * @return the diagram dataset.
+     */
+    private static GestureDataset diagram()
+    {
+        Random random = new Random(SEED + 2);
+        Stroke[] gestures = new Stroke[200];
+
+        for (int i = 0; i < gestures.length; ++i)
+        {
+            // Straight segments between a few corners, with a slowdown at each corner
+            int cornerCount = 2 + random.nextInt(4);
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            Stroke gesture = new Stroke();
+            long time = 2000L * i;
+
+            for (int corner = 0; corner < cornerCount; ++corner)
+            {
+                float targetX = Math.max(0, Math.min(WIDTH - 1, x + (random.nextFloat() - 0.5f) * 600));
+                float targetY = Math.max(0, Math.min(HEIGHT - 1, y + (random.nextFloat() - 0.5f) * 600));
+                int steps = 20 + random.nextInt(40);
+
+                for (int j = 0; j < steps; ++j)
+                {
+                    double t = 0.5 - 0.5 * Math.cos(Math.PI * j / steps);
+                    float sampleX = (float) (x + (targetX - x) * t + random.nextGaussian() * 0.5);
+                    float sampleY = (float) (y + (targetY - y) * t + random.nextGaussian() * 0.5);
+
+                    gesture.add((int) sampleX, (int) sampleY, time, 0.6f);
+                    time += 8;
+                }
+
+                x = targetX;
+                y = targetY;
+            }
+
+            gestures[i] = gesture;
+        }
+
+        return new GestureDataset(gestures, 2);
+    }
+}
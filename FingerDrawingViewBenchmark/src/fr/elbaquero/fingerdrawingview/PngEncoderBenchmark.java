@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * PNG encoding of the dataset gestures, rasterized as thick opaque lines on a transparent canvas, streamed by rows of
+ * tiles as in an export.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PngEncoderBenchmark
+{
+    /** Canvas width, in pixels. */
+    private static final int WIDTH = 1080;
+
+    /** Canvas height, in pixels. */
+    private static final int HEIGHT = 1920;
+
+    /** Number of rows written at once, a row of tiles. */
+    private static final int BAND_HEIGHT = 256;
+
+    /** Half the width of the rasterized lines, in pixels. */
+    private static final int PEN_RADIUS = 2;
+
+    /** Colors of the rasterized strokes. */
+    private static final int[] COLORS = { 0xFF000000, 0xFFE53935, 0xFF1E88E5, 0xFF43A047 };
+
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Indicator of the parallel deflating, on one thread per core. */
+    @Param({ "false", "true" })
+    public boolean mParallel;
+
+    /** Rasterized canvas, as non-premultiplied ARGB colors. */
+    private int[] mPixels;
+
+    /** Executor deflating in parallel, null if disabled. */
+    private ExecutorService mExecutor;
+
+    /** Encoded file. */
+    private File mOutputFile;
+
+    /**
+     * Load and rasterize the dataset.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        Stroke[] gestures = GestureDataset.load(mDataset).getGestures();
+        mPixels = new int[WIDTH * HEIGHT];
+
+        for (int i = 0; i < gestures.length; ++i)
+        {
+            rasterize(gestures[i], COLORS[i % COLORS.length]);
+        }
+
+        mExecutor = mParallel ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+        mOutputFile = File.createTempFile("benchmark", ".png");
+    }
+
+    /**
+     * Stop the executor and delete the temporary file.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        if (mExecutor != null)
+        {
+            mExecutor.shutdown();
+        }
+
+        mOutputFile.delete();
+    }
+
+    /**
+     * Encode the canvas.
+     * 
+     * @return the encoded size, in bytes.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Benchmark
+    public long encode() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(mOutputFile);
+
+        try
+        {
+            PngEncoder encoder = new PngEncoder(out.getChannel(), WIDTH, HEIGHT, mExecutor);
+
+            for (int y = 0; y < HEIGHT; y += BAND_HEIGHT)
+            {
+                encoder.writeRows(mPixels, y * WIDTH, WIDTH, Math.min(BAND_HEIGHT, HEIGHT - y));
+            }
+
+            encoder.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return mOutputFile.length();
+    }
+
+    /**
+     * Draw a gesture as a line of squares.
+     * 
+     * @param gesture
+     *            the gesture to draw.
+     * @param color
+     *            the line color.
+     */
+    private void rasterize(final Stroke gesture, final int color)
+    {
+        for (int i = 1; i < gesture.size(); ++i)
+        {
+            float startX = gesture.getX(i - 1);
+            float startY = gesture.getY(i - 1);
+            float dx = gesture.getX(i) - startX;
+            float dy = gesture.getY(i) - startY;
+            int steps = Math.max(1, (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy))));
+
+            for (int step = 0; step <= steps; ++step)
+            {
+                int x = Math.round(startX + dx * step / steps);
+                int y = Math.round(startY + dy * step / steps);
+
+                for (int py = Math.max(0, y - PEN_RADIUS); py <= Math.min(HEIGHT - 1, y + PEN_RADIUS); ++py)
+                {
+                    for (int px = Math.max(0, x - PEN_RADIUS); px <= Math.min(WIDTH - 1, x + PEN_RADIUS); ++px)
+                    {
+                        mPixels[py * WIDTH + px] = color;
+                    }
+                }
+            }
+        }
+    }
+}
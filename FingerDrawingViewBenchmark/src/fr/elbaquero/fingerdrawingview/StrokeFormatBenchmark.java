@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Binary stroke format encoding and decoding of the dataset gestures, through temporary files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeFormatBenchmark
+{
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Encoded document. */
+    private StrokeDocument mDocument;
+
+    /** File written by the encoding benchmark. */
+    private File mOutputFile;
+
+    /** File read by the decoding benchmarks. */
+    private File mInputFile;
+
+    /**
+     * Load the dataset and encode it once for the decoding benchmarks.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded or encoded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        mDocument = GestureDataset.load(mDataset).toDocument();
+        mOutputFile = File.createTempFile("benchmark", ".fdv");
+        mInputFile = File.createTempFile("benchmark", ".fdv");
+        StrokeDocumentWriter.write(mDocument, mInputFile);
+    }
+
+    /**
+     * Delete the temporary files.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        mOutputFile.delete();
+        mInputFile.delete();
+    }
+
+    /**
+     * Encode the document.
+     * 
+     * @return the encoded size, in bytes.
+     * @throws IOException
+     *             if the document cannot be written.
+     */
+    @Benchmark
+    public long encode() throws IOException
+    {
+        StrokeDocumentWriter.write(mDocument, mOutputFile);
+        return mOutputFile.length();
+    }
+
+    /**
+     * Open the file, indexing the stroke blocks without decoding them.
+     * 
+     * @return the number of strokes.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    @Benchmark
+    public int index() throws IOException
+    {
+        StrokeDocumentReader reader = new StrokeDocumentReader(mInputFile);
+
+        try
+        {
+            return reader.getStrokeCount();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decode the whole document.
+     * 
+     * @return the number of strokes.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    @Benchmark
+    public int decode() throws IOException
+    {
+        StrokeDocumentReader reader = new StrokeDocumentReader(mInputFile);
+
+        try
+        {
+            return reader.readDocument().size();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Spatial index queries on a large document, built from the dataset gestures scattered over a large canvas with one
+ * gesture out of {@link #ERASER_PERIOD} used as an eraser: strokes intersecting a screen-sized area, as when redrawing
+ * a viewport, and nearest stroke to a point, as when picking a stroke under a finger.
+ * <p>
+ * Both queries must take less than {@link #TARGET_MICROSECONDS} on every dataset: {@link #main(String[])} runs the
+ * benchmark and fails if one misses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeIndexBenchmark
+{
+    /** Target average time of a query, in microseconds. */
+    private static final double TARGET_MICROSECONDS = 1000;
+
+    /** Canvas size, in pixels. */
+    private static final int CANVAS_SIZE = 8192;
+
+    /** Width of the queried area, in pixels. */
+    private static final int AREA_WIDTH = 1080;
+
+    /** Height of the queried area, in pixels. */
+    private static final int AREA_HEIGHT = 1920;
+
+    /** Maximum distance of the nearest stroke queries, in pixels. */
+    private static final float PICK_DISTANCE = 32;
+
+    /** Number of precomputed query positions, cycled through. */
+    private static final int QUERY_COUNT = 1024;
+
+    /** Period of the gestures used as erasers. */
+    private static final int ERASER_PERIOD = 10;
+
+    /** Seed of the random gesture offsets and query positions. */
+    private static final long SEED = 0x53494458L;
+
+    /** Style of the drawn strokes. */
+    private static final PenStyle STYLE = new PenStyle(0xFF000000, 4, false);
+
+    /** Style of the eraser strokes. */
+    private static final PenStyle ERASER_STYLE = new PenStyle(0, 16, true);
+
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Number of strokes of the document. */
+    @Param({ "100000" })
+    public int mStrokeCount;
+
+    /** Queried index. */
+    private StrokeIndex mIndex;
+
+    /** Query X coordinates. */
+    private final float[] mQueryX = new float[QUERY_COUNT];
+
+    /** Query Y coordinates. */
+    private final float[] mQueryY = new float[QUERY_COUNT];
+
+    /** Next query position. */
+    private int mNextQuery;
+
+    /**
+     * Build the document, indexing its strokes, and the query positions.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        Stroke[] gestures = GestureDataset.load(mDataset).getGestures();
+        StrokeDocument document = new StrokeDocument(CANVAS_SIZE, CANVAS_SIZE);
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < mStrokeCount; ++i)
+        {
+            Stroke gesture = gestures[i % gestures.length];
+            Stroke stroke = new Stroke(gesture.size());
+            float offsetX = random.nextInt(CANVAS_SIZE - AREA_WIDTH);
+            float offsetY = random.nextInt(CANVAS_SIZE - AREA_HEIGHT);
+
+            stroke.setStyle(((i % ERASER_PERIOD) == ERASER_PERIOD - 1) ? ERASER_STYLE : STYLE);
+
+            for (int j = 0; j < gesture.size(); ++j)
+            {
+                stroke.add(offsetX + gesture.getX(j), offsetY + gesture.getY(j), gesture.getTime(j),
+                        gesture.getPressure(j));
+            }
+
+            document.add(stroke);
+        }
+
+        mIndex = document.getIndex();
+
+        for (int i = 0; i < QUERY_COUNT; ++i)
+        {
+            mQueryX[i] = random.nextFloat() * CANVAS_SIZE;
+            mQueryY[i] = random.nextFloat() * CANVAS_SIZE;
+        }
+    }
+
+    /**
+     * Find the strokes intersecting a screen-sized area.
+     * 
+     * @return the number of strokes found.
+     */
+    @Benchmark
+    public int findIntersecting()
+    {
+        int query = nextQuery();
+        float left = mQueryX[query] - AREA_WIDTH / 2;
+        float top = mQueryY[query] - AREA_HEIGHT / 2;
+
+        return mIndex.findIntersecting(left, top, left + AREA_WIDTH, top + AREA_HEIGHT).length;
+    }
+
+    /**
+     * Find the stroke nearest to a point.
+     * 
+     * @return the nearest stroke index, -1 if none.
+     */
+    @Benchmark
+    public int findNearest()
+    {
+        int query = nextQuery();
+
+        return mIndex.findNearest(mQueryX[query], mQueryY[query], PICK_DISTANCE);
+    }
+
+    /**
+     * Run the benchmark and check that every query meets the target time.
+     * 
+     * @param args
+     *            the JMH command line options.
+     * @throws CommandLineOptionException
+     *             if the options are invalid.
+     * @throws RunnerException
+     *             if the benchmark cannot be run.
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException
+    {
+        Collection<RunResult> results = new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(StrokeIndexBenchmark.class.getSimpleName()).build()).run();
+        StringBuilder missed = new StringBuilder();
+
+        for (RunResult result : results)
+        {
+            double score = result.getPrimaryResult().getScore();
+
+            if (score > TARGET_MICROSECONDS)
+            {
+                missed.append(String.format("\n%s %s: %.1f us", result.getParams().getBenchmark(),
+                        result.getParams().getParam("mDataset"), score));
+            }
+        }
+
+        if (missed.length() > 0)
+        {
+            throw new IllegalStateException("Queries slower than " + TARGET_MICROSECONDS + " us:" + missed);
+        }
+    }
+
+    /**
+     * @return the next query position index.
+     */
+    private int nextQuery()
+    {
+        int query = mNextQuery;
+        mNextQuery = (query + 1) % QUERY_COUNT;
+
+        return query;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Touch sample ingestion: recording every sample of the dataset gestures, as the view does for each touch event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeIngestionBenchmark
+{
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Replayed gestures. */
+    private Stroke[] mGestures;
+
+    /** Recorded stroke, reused for every gesture like in the view. */
+    private final Stroke mStroke = new Stroke();
+
+    /** Touch samples buffer. */
+    private final TouchSamples mTouchSamples = new TouchSamples();
+
+    /** Number of samples per touch event. */
+    private int mSamplesPerEvent;
+
+    /**
+     * Load the dataset.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        GestureDataset dataset = GestureDataset.load(mDataset);
+        mGestures = dataset.getGestures();
+        mSamplesPerEvent = dataset.getSamplesPerEvent();
+    }
+
+    /**
+     * Record the samples into a reused stroke.
+     * 
+     * @return the number of recorded samples.
+     */
+    @Benchmark
+    public int record()
+    {
+        int count = 0;
+
+        for (Stroke gesture : mGestures)
+        {
+            mStroke.reset();
+
+            for (int i = 0; i < gesture.size(); ++i)
+            {
+                mStroke.add(gesture.getX(i), gesture.getY(i), gesture.getStartTime() + (long) gesture.getTime(i),
+                        gesture.getPressure(i));
+            }
+
+            count += mStroke.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Copy the samples into the batch listener buffer, one touch event at a time.
+     * 
+     * @return the number of copied samples.
+     */
+    @Benchmark
+    public int batch()
+    {
+        int count = 0;
+
+        for (Stroke gesture : mGestures)
+        {
+            for (int first = 0; first < gesture.size(); first += mSamplesPerEvent)
+            {
+                int last = Math.min(gesture.size(), first + mSamplesPerEvent);
+                mTouchSamples.reset(last - first);
+
+                for (int i = first; i < last; ++i)
+                {
+                    mTouchSamples.add(gesture.getX(i), gesture.getY(i), gesture.getStartTime()
+                            + (long) gesture.getTime(i), gesture.getPressure(i));
+                }
+
+                count += mTouchSamples.getCount();
+            }
+        }
+
+        return count;
+    }
+}
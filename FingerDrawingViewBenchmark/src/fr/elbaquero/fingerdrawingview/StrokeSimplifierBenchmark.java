@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Online stroke simplification of the dataset gestures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeSimplifierBenchmark
+{
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Tolerance, in pixels. */
+    @Param({ "0.5", "1", "2" })
+    public float mTolerance;
+
+    /** Replayed gestures. */
+    private Stroke[] mGestures;
+
+    /** Simplified stroke, reused for every gesture. */
+    private final Stroke mStroke = new Stroke();
+
+    /** Simplifier. */
+    private StrokeSimplifier mSimplifier;
+
+    /**
+     * Load the dataset.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        mGestures = GestureDataset.load(mDataset).getGestures();
+        mSimplifier = new StrokeSimplifier(mTolerance);
+    }
+
+    /**
+     * Simplify every gesture.
+     * 
+     * @return the number of kept samples.
+     */
+    @Benchmark
+    public int simplify()
+    {
+        int count = 0;
+
+        for (Stroke gesture : mGestures)
+        {
+            mStroke.reset();
+            mSimplifier.begin(mStroke);
+
+            for (int i = 0; i < gesture.size(); ++i)
+            {
+                mSimplifier.add(gesture.getX(i), gesture.getY(i), gesture.getStartTime() + (long) gesture.getTime(i),
+                        gesture.getPressure(i));
+            }
+
+            mSimplifier.end();
+            count += mStroke.size();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Live stroke streaming of the dataset gestures: encoding of one frame per touch event while the gestures are drawn,
+ * and decoding of the recorded frames by a reader joining with a snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeStreamBenchmark
+{
+    /** Canvas width, in pixels. */
+    private static final int WIDTH = 1080;
+
+    /** Canvas height, in pixels. */
+    private static final int HEIGHT = 1920;
+
+    /** Style of the streamed strokes. */
+    private static final PenStyle STYLE = new PenStyle(0xFF000000, 4, false);
+
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Raw gestures. */
+    private Stroke[] mGestures;
+
+    /** Number of samples per touch event. */
+    private int mSamplesPerEvent;
+
+    /** Frames of the whole dataset, starting with a snapshot of the empty drawing. */
+    private List<byte[]> mFrames;
+
+    /**
+     * Load the dataset and record its frames once for the decoding benchmark.
+     * 
+     * @throws Exception
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        GestureDataset dataset = GestureDataset.load(mDataset);
+        mGestures = dataset.getGestures();
+        mSamplesPerEvent = dataset.getSamplesPerEvent();
+
+        FrameRecorder recorder = new FrameRecorder();
+        StrokeStreamWriter writer = createWriter(recorder);
+        writer.sendSnapshot();
+        stream(writer);
+        mFrames = recorder.mFrames;
+    }
+
+    /**
+     * Encode the gestures as they are drawn, one frame per touch event.
+     * 
+     * @return the streamed size, in bytes.
+     */
+    @Benchmark
+    public long encode()
+    {
+        FrameRecorder recorder = new FrameRecorder();
+        stream(createWriter(recorder));
+        return recorder.mByteCount;
+    }
+
+    /**
+     * Decode the recorded frames.
+     * 
+     * @return the number of committed strokes.
+     */
+    @Benchmark
+    public int decode()
+    {
+        final int[] committedCount = new int[1];
+        StrokeStreamReader reader = new StrokeStreamReader(new FrameRecorder(), new StrokeStreamReader.Listener()
+        {
+            @Override
+            public void onReset(final int width, final int height, final List<Stroke> strokes)
+            {
+            }
+
+            @Override
+            public void onStrokeSamples(final Stroke stroke, final int from)
+            {
+            }
+
+            @Override
+            public void onStrokeEnded(final Stroke stroke)
+            {
+                ++committedCount[0];
+            }
+
+            @Override
+            public void onStrokeCancelled(final Stroke stroke)
+            {
+            }
+
+            @Override
+            public void onUndo()
+            {
+            }
+
+            @Override
+            public void onRedo()
+            {
+            }
+
+            @Override
+            public void onClear()
+            {
+            }
+        });
+
+        for (byte[] frame : mFrames)
+        {
+            reader.onFrame(frame);
+        }
+
+        return committedCount[0];
+    }
+
+    /**
+     * @param transport
+     *            the destination transport.
+     * @return a writer streaming an initially empty drawing.
+     */
+    private static StrokeStreamWriter createWriter(final StrokeTransport transport)
+    {
+        return new StrokeStreamWriter(transport, new StrokeStreamWriter.Source()
+        {
+            @Override
+            public int getWidth()
+            {
+                return WIDTH;
+            }
+
+            @Override
+            public int getHeight()
+            {
+                return HEIGHT;
+            }
+
+            @Override
+            public List<Stroke> getStrokes()
+            {
+                return Collections.emptyList();
+            }
+        });
+    }
+
+    /**
+     * Draw the gestures, the way the view streams them: the samples of each touch event are sent in a frame.
+     * 
+     * @param writer
+     *            the writer.
+     */
+    private void stream(final StrokeStreamWriter writer)
+    {
+        for (Stroke gesture : mGestures)
+        {
+            Stroke stroke = new Stroke(gesture.size());
+            stroke.setStyle(STYLE);
+
+            for (int i = 0; i < gesture.size(); ++i)
+            {
+                stroke.add(gesture.getX(i), gesture.getY(i), gesture.getStartTime() + (long) gesture.getTime(i),
+                        gesture.getPressure(i));
+
+                if (i == 0)
+                {
+                    writer.beginStroke(stroke);
+                    writer.flush();
+                }
+                else if ((i % mSamplesPerEvent) == 0)
+                {
+                    writer.addSamples();
+                    writer.flush();
+                }
+            }
+
+            writer.endStroke();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Transport keeping the sent frames.
+     */
+    private static final class FrameRecorder implements StrokeTransport
+    {
+        /** Sent frames. */
+        private final List<byte[]> mFrames = new ArrayList<byte[]>();
+
+        /** Total size of the sent frames, in bytes. */
+        private long mByteCount;
+
+        @Override
+        public void open(final Receiver receiver)
+        {
+        }
+
+        @Override
+        public void send(final byte[] frame)
+        {
+            mFrames.add(frame);
+            mByteCount += frame.length;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Vector export of the dataset gestures, drawn in a few colors with one gesture out of {@link #ERASER_PERIOD} used as
+ * an eraser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VectorExporterBenchmark
+{
+    /** Canvas width, in pixels. */
+    private static final int WIDTH = 1080;
+
+    /** Canvas height, in pixels. */
+    private static final int HEIGHT = 1920;
+
+    /** Period of the gestures used as erasers. */
+    private static final int ERASER_PERIOD = 10;
+
+    /** Styles of the drawn strokes. */
+    private static final PenStyle[] STYLES = { new PenStyle(0xFF000000, 4, false),
+            new PenStyle(0xFFE53935, 6, false), new PenStyle(0x801E88E5, 12, false) };
+
+    /** Style of the eraser strokes. */
+    private static final PenStyle ERASER_STYLE = new PenStyle(0, 16, true);
+
+    /** Dataset name or stroke file path. */
+    @Param({ GestureDataset.HANDWRITING, GestureDataset.SCRIBBLE, GestureDataset.DIAGRAM })
+    public String mDataset;
+
+    /** Exported format, "svg" or "pdf". */
+    @Param({ "svg", "pdf" })
+    public String mFormat;
+
+    /** Exported document. */
+    private StrokeDocument mDocument;
+
+    /** Exported file. */
+    private File mOutputFile;
+
+    /**
+     * Load the dataset and style its gestures.
+     * 
+     * @throws IOException
+     *             if the dataset cannot be loaded.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        Stroke[] gestures = GestureDataset.load(mDataset).getGestures();
+        mDocument = new StrokeDocument(WIDTH, HEIGHT);
+
+        for (int i = 0; i < gestures.length; ++i)
+        {
+            Stroke stroke = gestures[i].copy();
+            stroke.setStyle(((i % ERASER_PERIOD) == ERASER_PERIOD - 1) ? ERASER_STYLE : STYLES[i % STYLES.length]);
+            mDocument.add(stroke);
+        }
+
+        mOutputFile = File.createTempFile("benchmark", "." + mFormat);
+    }
+
+    /**
+     * Delete the temporary file.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        mOutputFile.delete();
+    }
+
+    /**
+     * Export the document.
+     * 
+     * @return the exported size, in bytes.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Benchmark
+    public long export() throws IOException
+    {
+        if ("pdf".equals(mFormat))
+        {
+            VectorExporter.writePdf(mDocument, mOutputFile);
+        }
+        else
+        {
+            VectorExporter.writeSvg(mDocument, mOutputFile);
+        }
+
+        return mOutputFile.length();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.app.Activity;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.MotionEvent;
+import fr.elbaquero.fingerdrawingview.FingerDrawingView;
+import fr.elbaquero.fingerdrawingview.FingerDrawingViewTestActivity;
+import fr.elbaquero.fingerdrawingview.GestureTrace;
+import fr.elbaquero.fingerdrawingview.GestureTracePlayer;
+import fr.elbaquero.fingerdrawingview.ReplayStats;
+
+/**
+ * Replay of a checked-in {@link GestureTrace} into a new {@link FingerDrawingView}.
+ * <p>
+ * The trace, recorded on a 320x320 area, holds three strokes, a pinch zooming the canvas, and a last stroke drawn on
+ * the zoomed canvas. The pinch starts as a stroke, which is dropped when the second finger touches the view. The
+ * expected counters are derived from the trace itself, so that another recording can replace it.
+ */
+public class GestureTraceReplayTest extends ActivityInstrumentationTestCase2<FingerDrawingViewTestActivity>
+{
+    /** Name of the trace asset. */
+    private static final String TRACE_ASSET = "gestures.trace";
+
+    /** Replayed trace. */
+    private GestureTrace mTrace;
+
+    /**
+     * Create a new {@link GestureTraceReplayTest}.
+     */
+    public GestureTraceReplayTest()
+    {
+        super(FingerDrawingViewTestActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        mTrace = readTrace();
+    }
+
+    /**
+     * Check that every event of the trace is replayed, and that each single-finger gesture commits a stroke.
+     * 
+     * @throws Throwable
+     *             if the replay fails.
+     */
+    public void testReplayStats() throws Throwable
+    {
+        ReplayStats stats = replayInNewView();
+
+        assertEquals(mTrace.getEventCount(), stats.getEventCount());
+        assertEquals(countSingleFingerGestures(mTrace), stats.getCommitCount());
+        assertTrue(stats.getFrameCount() > 0);
+        assertTrue(stats.getFrameCount() <= stats.getEventCount());
+        assertTrue(stats.getInvalidationCount() > 0);
+        assertTrue(stats.getInvalidatedPixelCount() > 0);
+    }
+
+    /**
+     * Check that two replays of the same trace do the same work.
+     * 
+     * @throws Throwable
+     *             if a replay fails.
+     */
+    public void testReplayIsDeterministic() throws Throwable
+    {
+        ReplayStats first = replayInNewView();
+        ReplayStats second = replayInNewView();
+
+        assertEquals(first.getFrameCount(), second.getFrameCount());
+        assertEquals(first.getInvalidationCount(), second.getInvalidationCount());
+        assertEquals(first.getInvalidatedPixelCount(), second.getInvalidatedPixelCount());
+        assertEquals(first.getCommitCount(), second.getCommitCount());
+    }
+
+    /**
+     * Replay the trace into a new view, zoom enabled, filling the activity.
+     * 
+     * @return the replay counters.
+     * @throws Throwable
+     *             if the replay fails.
+     */
+    private ReplayStats replayInNewView() throws Throwable
+    {
+        final Activity activity = getActivity();
+        final FingerDrawingView[] view = new FingerDrawingView[1];
+        final ReplayStats[] stats = new ReplayStats[1];
+
+        runTestOnUiThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                view[0] = new FingerDrawingView(activity);
+                view[0].setZoomEnabled(true);
+                activity.setContentView(view[0]);
+            }
+        });
+
+        // Laid out before the replay
+        getInstrumentation().waitForIdleSync();
+
+        runTestOnUiThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stats[0] = GestureTracePlayer.replay(view[0], mTrace);
+            }
+        });
+
+        return stats[0];
+    }
+
+    /**
+     * Count the gestures drawing a stroke: from a down to an up event, without a second finger in between.
+     * 
+     * @param trace
+     *            the trace.
+     * @return the number of single-finger gestures.
+     */
+    private static long countSingleFingerGestures(final GestureTrace trace)
+    {
+        long count = 0;
+        boolean isSingleFinger = false;
+
+        for (int event = 0; event < trace.getEventCount(); ++event)
+        {
+            switch (trace.getAction(event) & MotionEvent.ACTION_MASK)
+            {
+                case MotionEvent.ACTION_DOWN:
+                    isSingleFinger = true;
+                    break;
+
+                case MotionEvent.ACTION_POINTER_DOWN:
+                case MotionEvent.ACTION_CANCEL:
+                    isSingleFinger = false;
+                    break;
+
+                case MotionEvent.ACTION_UP:
+                    if (isSingleFinger)
+                    {
+                        ++count;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Read the trace asset of the test package, copied to a file first.
+     * 
+     * @return the trace.
+     * @throws IOException
+     *             if the trace cannot be read.
+     */
+    private GestureTrace readTrace() throws IOException
+    {
+        File file = new File(getInstrumentation().getTargetContext().getCacheDir(), TRACE_ASSET);
+        InputStream input = getInstrumentation().getContext().getAssets().open(TRACE_ASSET);
+
+        try
+        {
+            OutputStream output = new FileOutputStream(file);
+
+            try
+            {
+                byte[] buffer = new byte[4096];
+                int length;
+
+                while ((length = input.read(buffer)) > 0)
+                {
+                    output.write(buffer, 0, length);
+                }
+            }
+            finally
+            {
+                output.close();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+
+        try
+        {
+            return GestureTrace.read(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Executors shared by the drawing views for their background work (encoding, file I/O): a single thread running the
+ * tasks in order, and a pool of one thread per core for the tasks split into parallel parts. The display content is
+ * rendered on a thread of its own, so that it is never stale while a long task, such as an export, is running.
+ */
+final class BackgroundExecutor
+{
+    /** Factory of the low priority daemon threads of both executors. */
+    private static final ThreadFactory sThreadFactory = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, FingerDrawingView.class.getSimpleName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    };
+
+    /** Background executor instance. */
+    private static ExecutorService sExecutor;
+
+    /** Parallel executor instance. */
+    private static ExecutorService sWorkers;
+
+    /** Display rendering executor instance. */
+    private static ExecutorService sRenderer;
+
+    /** Main thread handler instance. */
+    private static Handler sMainHandler;
+
+    /**
+     * Empty, private constructor.
+     */
+    private BackgroundExecutor()
+    {
+    }
+
+    /**
+     * @return the background executor, a single low priority thread.
+     */
+    static synchronized ExecutorService get()
+    {
+        if (sExecutor == null)
+        {
+            sExecutor = Executors.newSingleThreadExecutor(sThreadFactory);
+        }
+
+        return sExecutor;
+    }
+
+    /**
+     * @return the parallel executor, a pool of low priority threads, one per core. Its tasks must not wait for each
+     *         other.
+     */
+    static synchronized ExecutorService getWorkers()
+    {
+        if (sWorkers == null)
+        {
+            sWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), sThreadFactory);
+        }
+
+        return sWorkers;
+    }
+
+    /**
+     * @return the display rendering executor, a single low priority thread running the tasks in order.
+     */
+    static synchronized ExecutorService getRenderer()
+    {
+        if (sRenderer == null)
+        {
+            sRenderer = Executors.newSingleThreadExecutor(sThreadFactory);
+        }
+
+        return sRenderer;
+    }
+
+    /**
+     * Run a task on the main thread.
+     * 
+     * @param runnable
+     *            the task to run.
+     */
+    static synchronized void postToMainThread(final Runnable runnable)
+    {
+        if (sMainHandler == null)
+        {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+
+        sMainHandler.post(runnable);
+    }
+}
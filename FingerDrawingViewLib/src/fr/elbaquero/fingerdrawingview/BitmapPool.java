@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Pool of mutable bitmaps shared by the drawing views, so that tiles released by a view (detached, resized, cleared)
+ * are reused by the next one instead of being garbage collected.
+ * <p>
+ * Bitmaps are bucketed by size and configuration. The pool keeps at most {@link #getMaxSize()} bytes; beyond that, the
+ * least recently released bitmaps are recycled. This class can be used from any thread.
+ */
+final class BitmapPool
+{
+    /** Default maximum size of the pooled bitmaps: an eighth of the heap. */
+    private static final long DEFAULT_MAX_SIZE = Runtime.getRuntime().maxMemory() / 8;
+
+    /** Pooled bitmaps, by bucket key. */
+    private static final Map<Long, List<Bitmap>> sBuckets = new HashMap<Long, List<Bitmap>>();
+
+    /** Pooled bitmaps, least recently released first. */
+    private static final LinkedList<Bitmap> sReleaseOrder = new LinkedList<Bitmap>();
+
+    /** Maximum size of the pooled bitmaps, in bytes. */
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+
+    /** Size of the pooled bitmaps, in bytes. */
+    private static long sSize;
+
+    /** Number of {@link #obtain(int, int, Bitmap.Config)} calls served by the pool. */
+    private static int sHitCount;
+
+    /** Number of {@link #obtain(int, int, Bitmap.Config)} calls that allocated a bitmap. */
+    private static int sMissCount;
+
+    /**
+     * Empty, private constructor.
+     */
+    private BitmapPool()
+    {
+    }
+
+    /**
+     * Get a transparent, mutable bitmap, pooled if possible.
+     * 
+     * @param width
+     *            the bitmap width, in pixels.
+     * @param height
+     *            the bitmap height, in pixels.
+     * @param config
+     *            the bitmap configuration.
+     * @return the bitmap, to give back with {@link #release(Bitmap)} once it is not used anymore.
+     */
+    static Bitmap obtain(final int width, final int height, final Bitmap.Config config)
+    {
+        Bitmap bitmap = poll(width, height, config);
+
+        if (bitmap == null)
+        {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        // Erased outside of the lock, the bitmap is not shared anymore
+        bitmap.eraseColor(Color.TRANSPARENT);
+
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back to the pool. The caller must not use it afterwards.
+     * 
+     * @param bitmap
+     *            the bitmap to release, may be null.
+     */
+    static void release(final Bitmap bitmap)
+    {
+        if ((bitmap == null) || bitmap.isRecycled())
+        {
+            return;
+        }
+
+        if (!bitmap.isMutable() || (bitmap.getConfig() == null))
+        {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (BitmapPool.class)
+        {
+            Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            List<Bitmap> bucket = sBuckets.get(key);
+
+            if (bucket == null)
+            {
+                bucket = new ArrayList<Bitmap>();
+                sBuckets.put(key, bucket);
+            }
+
+            bucket.add(bitmap);
+            sReleaseOrder.addLast(bitmap);
+            sSize += sizeOf(bitmap);
+
+            trimToSize(sMaxSize);
+        }
+    }
+
+    /**
+     * @return the maximum size of the pooled bitmaps, in bytes.
+     */
+    static synchronized long getMaxSize()
+    {
+        return sMaxSize;
+    }
+
+    /**
+     * Set the maximum size of the pooled bitmaps, recycling the least recently released ones if needed.
+     * 
+     * @param maxSize
+     *            the maximum size, in bytes. 0 disables the pool.
+     */
+    static synchronized void setMaxSize(final long maxSize)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("Invalid pool size: " + maxSize);
+        }
+
+        sMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return the size of the pooled bitmaps, in bytes.
+     */
+    static synchronized long getSize()
+    {
+        return sSize;
+    }
+
+    /**
+     * @return the number of bitmaps obtained from the pool without allocation.
+     */
+    static synchronized int getHitCount()
+    {
+        return sHitCount;
+    }
+
+    /**
+     * @return the number of bitmaps allocated because the pool had none of the requested size.
+     */
+    static synchronized int getMissCount()
+    {
+        return sMissCount;
+    }
+
+    /**
+     * Recycle all the pooled bitmaps, e.g. when the system is low on memory.
+     */
+    static synchronized void clear()
+    {
+        trimToSize(0);
+    }
+
+    /**
+     * Remove a pooled bitmap.
+     * 
+     * @param width
+     *            the bitmap width, in pixels.
+     * @param height
+     *            the bitmap height, in pixels.
+     * @param config
+     *            the bitmap configuration.
+     * @return the most recently released bitmap of this size, or null if there is none.
+     */
+    private static synchronized Bitmap poll(final int width, final int height, final Bitmap.Config config)
+    {
+        List<Bitmap> bucket = sBuckets.get(key(width, height, config));
+
+        if ((bucket == null) || bucket.isEmpty())
+        {
+            ++sMissCount;
+            return null;
+        }
+
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        sReleaseOrder.remove(bitmap);
+        sSize -= sizeOf(bitmap);
+        ++sHitCount;
+
+        return bitmap;
+    }
+
+    /**
+     * Recycle the least recently released bitmaps until the pool fits in a size. Must be called with the lock held.
+     * 
+     * @param maxSize
+     *            the maximum size, in bytes.
+     */
+    private static void trimToSize(final long maxSize)
+    {
+        while ((sSize > maxSize) && !sReleaseOrder.isEmpty())
+        {
+            Bitmap bitmap = sReleaseOrder.removeFirst();
+            sBuckets.get(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+            sSize -= sizeOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @param width
+     *            the bitmap width, in pixels.
+     * @param height
+     *            the bitmap height, in pixels.
+     * @param config
+     *            the bitmap configuration.
+     * @return the key of the bucket holding the bitmaps of this size and configuration.
+     */
+    private static Long key(final int width, final int height, final Bitmap.Config config)
+    {
+        return Long.valueOf(((long) width << 36) | ((long) height << 8) | config.ordinal());
+    }
+
+    /**
+     * @param bitmap
+     *            a bitmap.
+     * @return the size of the bitmap pixels, in bytes.
+     */
+    private static long sizeOf(final Bitmap bitmap)
+    {
+        // getByteCount() requires API level 12
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Damaged area made of a small, bounded set of rectangles. A long diagonal stroke is covered by a chain of rectangles
+ * along the ink instead of its whole bounding box.
+ * <p>
+ * An added rectangle is merged with the existing ones as long as merging does not increase the total area, i.e. when
+ * they overlap a lot. Beyond the maximum number of rectangles, the two rectangles wasting the least area once merged
+ * are merged. This class does not depend on the Android framework.
+ */
+final class DamageRegion
+{
+    /** Default maximum number of rectangles. */
+    static final int DEFAULT_MAX_RECT_COUNT = 8;
+
+    /** Left coordinates. */
+    private final float[] mLeft;
+
+    /** Top coordinates. */
+    private final float[] mTop;
+
+    /** Right coordinates. */
+    private final float[] mRight;
+
+    /** Bottom coordinates. */
+    private final float[] mBottom;
+
+    /** Number of rectangles. */
+    private int mCount;
+
+    /**
+     * Create a new, empty {@link DamageRegion} of at most {@link #DEFAULT_MAX_RECT_COUNT} rectangles.
+     */
+    DamageRegion()
+    {
+        this(DEFAULT_MAX_RECT_COUNT);
+    }
+
+    /**
+     * Create a new, empty {@link DamageRegion}.
+     * 
+     * @param maxRectCount
+     *            the maximum number of rectangles, at least 1.
+     */
+    DamageRegion(final int maxRectCount)
+    {
+        if (maxRectCount < 1)
+        {
+            throw new IllegalArgumentException("Invalid rectangle count: " + maxRectCount);
+        }
+
+        // One spare slot for the rectangle added before merging
+        mLeft = new float[maxRectCount + 1];
+        mTop = new float[maxRectCount + 1];
+        mRight = new float[maxRectCount + 1];
+        mBottom = new float[maxRectCount + 1];
+    }
+
+    /**
+     * Remove all the rectangles.
+     */
+    void clear()
+    {
+        mCount = 0;
+    }
+
+    /**
+     * @return true if the region has no rectangle.
+     */
+    boolean isEmpty()
+    {
+        return mCount == 0;
+    }
+
+    /**
+     * @return the number of rectangles.
+     */
+    int size()
+    {
+        return mCount;
+    }
+
+    /**
+     * Add the bounding box of a segment, expanded by a margin on every side.
+     * 
+     * @param x0
+     *            the segment start X position.
+     * @param y0
+     *            the segment start Y position.
+     * @param x1
+     *            the segment end X position.
+     * @param y1
+     *            the segment end Y position.
+     * @param margin
+     *            the margin, e.g. half the pen width.
+     */
+    void addSegment(final float x0, final float y0, final float x1, final float y1, final float margin)
+    {
+        add(Math.min(x0, x1) - margin, Math.min(y0, y1) - margin, Math.max(x0, x1) + margin, Math.max(y0, y1)
+                + margin);
+    }
+
+    /**
+     * Add a rectangle.
+     * 
+     * @param left
+     *            the left coordinate.
+     * @param top
+     *            the top coordinate.
+     * @param right
+     *            the right coordinate.
+     * @param bottom
+     *            the bottom coordinate.
+     */
+    void add(final float left, final float top, final float right, final float bottom)
+    {
+        mLeft[mCount] = left;
+        mTop[mCount] = top;
+        mRight[mCount] = right;
+        mBottom[mCount] = bottom;
+
+        int index = mCount++;
+        int other = 0;
+
+        // Merge the new rectangle, then the merged ones, as long as it does not increase the total area
+        while (other < mCount)
+        {
+            if ((other != index) && (mergeCost(index, other) <= 0))
+            {
+                index = merge(index, other);
+                other = 0;
+            }
+            else
+            {
+                ++other;
+            }
+        }
+
+        if (mCount == mLeft.length)
+        {
+            mergeCheapestPair();
+        }
+    }
+
+    /**
+     * Add all the rectangles of another region.
+     * 
+     * @param region
+     *            the region to add.
+     */
+    void add(final DamageRegion region)
+    {
+        for (int i = 0; i < region.mCount; ++i)
+        {
+            add(region.mLeft[i], region.mTop[i], region.mRight[i], region.mBottom[i]);
+        }
+    }
+
+    /**
+     * @param index
+     *            the rectangle index.
+     * @return the left coordinate of the rectangle.
+     */
+    float getLeft(final int index)
+    {
+        return mLeft[index];
+    }
+
+    /**
+     * @param index
+     *            the rectangle index.
+     * @return the top coordinate of the rectangle.
+     */
+    float getTop(final int index)
+    {
+        return mTop[index];
+    }
+
+    /**
+     * @param index
+     *            the rectangle index.
+     * @return the right coordinate of the rectangle.
+     */
+    float getRight(final int index)
+    {
+        return mRight[index];
+    }
+
+    /**
+     * @param index
+     *            the rectangle index.
+     * @return the bottom coordinate of the rectangle.
+     */
+    float getBottom(final int index)
+    {
+        return mBottom[index];
+    }
+
+    /**
+     * @return the sum of the rectangles areas.
+     */
+    float getArea()
+    {
+        float area = 0;
+
+        for (int i = 0; i < mCount; ++i)
+        {
+            area += area(i);
+        }
+
+        return area;
+    }
+
+    /**
+     * Check if the region covers a rectangle.
+     * 
+     * @param left
+     *            the left coordinate.
+     * @param top
+     *            the top coordinate.
+     * @param right
+     *            the right coordinate.
+     * @param bottom
+     *            the bottom coordinate.
+     * @return true if the rectangle is inside the bounding box of the region.
+     */
+    boolean isWithinBounds(final float left, final float top, final float right, final float bottom)
+    {
+        if (mCount == 0)
+        {
+            return false;
+        }
+
+        float boundsLeft = mLeft[0];
+        float boundsTop = mTop[0];
+        float boundsRight = mRight[0];
+        float boundsBottom = mBottom[0];
+
+        for (int i = 1; i < mCount; ++i)
+        {
+            boundsLeft = Math.min(boundsLeft, mLeft[i]);
+            boundsTop = Math.min(boundsTop, mTop[i]);
+            boundsRight = Math.max(boundsRight, mRight[i]);
+            boundsBottom = Math.max(boundsBottom, mBottom[i]);
+        }
+
+        return (left >= boundsLeft) && (top >= boundsTop) && (right <= boundsRight) && (bottom <= boundsBottom);
+    }
+
+    /**
+     * Merge the two rectangles wasting the least area once merged.
+     */
+    private void mergeCheapestPair()
+    {
+        int first = 0;
+        int second = 1;
+        float minCost = Float.MAX_VALUE;
+
+        for (int i = 0; i < mCount; ++i)
+        {
+            for (int j = i + 1; j < mCount; ++j)
+            {
+                float cost = mergeCost(i, j);
+
+                if (cost < minCost)
+                {
+                    first = i;
+                    second = j;
+                    minCost = cost;
+                }
+            }
+        }
+
+        merge(first, second);
+    }
+
+    /**
+     * @param first
+     *            the first rectangle index.
+     * @param second
+     *            the second rectangle index.
+     * @return the area added by merging the two rectangles, negative if they overlap a lot.
+     */
+    private float mergeCost(final int first, final int second)
+    {
+        float width = Math.max(mRight[first], mRight[second]) - Math.min(mLeft[first], mLeft[second]);
+        float height = Math.max(mBottom[first], mBottom[second]) - Math.min(mTop[first], mTop[second]);
+
+        return width * height - area(first) - area(second);
+    }
+
+    /**
+     * Replace two rectangles by their union.
+     * 
+     * @param first
+     *            the first rectangle index.
+     * @param second
+     *            the second rectangle index.
+     * @return the index of the union.
+     */
+    private int merge(final int first, final int second)
+    {
+        int index = Math.min(first, second);
+        int removed = Math.max(first, second);
+
+        mLeft[index] = Math.min(mLeft[first], mLeft[second]);
+        mTop[index] = Math.min(mTop[first], mTop[second]);
+        mRight[index] = Math.max(mRight[first], mRight[second]);
+        mBottom[index] = Math.max(mBottom[first], mBottom[second]);
+
+        // Move the last rectangle into the free slot
+        --mCount;
+        mLeft[removed] = mLeft[mCount];
+        mTop[removed] = mTop[mCount];
+        mRight[removed] = mRight[mCount];
+        mBottom[removed] = mBottom[mCount];
+
+        return index;
+    }
+
+    /**
+     * @param index
+     *            the rectangle index.
+     * @return the area of the rectangle.
+     */
+    private float area(final int index)
+    {
+        return (mRight[index] - mLeft[index]) * (mBottom[index] - mTop[index]);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Region touched by a single touch event: the bounding box of the previous touch position and of the event samples.
+ * This class does not depend on the Android framework.
+ */
+final class DirtyRect
+{
+    /** Left coordinate. */
+    private float mLeft;
+
+    /** Top coordinate. */
+    private float mTop;
+
+    /** Right coordinate. */
+    private float mRight;
+
+    /** Bottom coordinate. */
+    private float mBottom;
+
+    /**
+     * Resets the dirty region when the motion event occurs.
+     * 
+     * @param lastX
+     *            the previous touch X position.
+     * @param lastY
+     *            the previous touch Y position.
+     * @param eventX
+     *            the event X position.
+     * @param eventY
+     *            the event Y position.
+     */
+    void reset(final float lastX, final float lastY, final float eventX, final float eventY)
+    {
+        mLeft = Math.min(lastX, eventX);
+        mRight = Math.max(lastX, eventX);
+        mTop = Math.min(lastY, eventY);
+        mBottom = Math.max(lastY, eventY);
+    }
+
+    /**
+     * Called when replaying history to ensure the dirty region includes all points.
+     * 
+     * @param historicalX
+     *            the sample X position.
+     * @param historicalY
+     *            the sample Y position.
+     */
+    void expand(final float historicalX, final float historicalY)
+    {
+        // The bounds contain at least one point since reset(), no sample can be both left and right of them
+        if (historicalX < mLeft)
+        {
+            mLeft = historicalX;
+        }
+        else if (historicalX > mRight)
+        {
+            mRight = historicalX;
+        }
+        if (historicalY < mTop)
+        {
+            mTop = historicalY;
+        }
+        else if (historicalY > mBottom)
+        {
+            mBottom = historicalY;
+        }
+    }
+
+    /**
+     * @return the left coordinate.
+     */
+    float getLeft()
+    {
+        return mLeft;
+    }
+
+    /**
+     * @return the top coordinate.
+     */
+    float getTop()
+    {
+        return mTop;
+    }
+
+    /**
+     * @return the right coordinate.
+     */
+    float getRight()
+    {
+        return mRight;
+    }
+
+    /**
+     * @return the bottom coordinate.
+     */
+    float getBottom()
+    {
+        return mBottom;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Layer of a {@link FingerDrawingView} drawing: its own strokes, undo history and raster surface, displayed with a
+ * visibility and an opacity.
+ * <p>
+ * The surface only exists while the view is laid out, and its tiles are only allocated when something is drawn on
+ * them: an empty layer costs (almost) no memory.
+ */
+final class DrawingLayer
+{
+    /** Opaque layer alpha. */
+    static final int OPAQUE = 0xFF;
+
+    /** Renderer used to rasterize the strokes. */
+    private final StrokeRenderer mRenderer;
+
+    /** Committed strokes. */
+    private StrokeDocument mDocument;
+
+    /** Undo/redo history. */
+    private final StrokeHistory mHistory;
+
+    /** Raster surface, null while the view is not laid out. */
+    private TiledBitmap mSurface;
+
+    /** Visibility indicator. */
+    private boolean mIsVisible = true;
+
+    /** Layer alpha, from 0 (transparent) to {@link #OPAQUE}. */
+    private int mAlpha = OPAQUE;
+
+    /**
+     * Create a new {@link DrawingLayer}, without surface.
+     * 
+     * @param renderer
+     *            the renderer used to rasterize the strokes.
+     * @param document
+     *            the layer strokes.
+     */
+    DrawingLayer(final StrokeRenderer renderer, final StrokeDocument document)
+    {
+        mRenderer = renderer;
+        mDocument = document;
+        mHistory = new StrokeHistory(renderer, document);
+    }
+
+    /**
+     * @return the layer strokes.
+     */
+    StrokeDocument getDocument()
+    {
+        return mDocument;
+    }
+
+    /**
+     * @return the undo/redo history.
+     */
+    StrokeHistory getHistory()
+    {
+        return mHistory;
+    }
+
+    /**
+     * @return the raster surface, null while the view is not laid out.
+     */
+    TiledBitmap getSurface()
+    {
+        return mSurface;
+    }
+
+    /**
+     * @return true if the layer is displayed.
+     */
+    boolean isVisible()
+    {
+        return mIsVisible;
+    }
+
+    /**
+     * @param visible
+     *            true to display the layer.
+     */
+    void setVisible(final boolean visible)
+    {
+        mIsVisible = visible;
+    }
+
+    /**
+     * @return the layer alpha, from 0 (transparent) to {@link #OPAQUE}.
+     */
+    int getAlpha()
+    {
+        return mAlpha;
+    }
+
+    /**
+     * @param alpha
+     *            the layer alpha, from 0 (transparent) to {@link #OPAQUE}.
+     */
+    void setAlpha(final int alpha)
+    {
+        mAlpha = alpha;
+    }
+
+    /**
+     * @return true if the layer is visible and has something to display.
+     */
+    boolean isDisplayed()
+    {
+        return mIsVisible && (mAlpha > 0) && (mSurface != null) && !mSurface.isEmpty();
+    }
+
+    /**
+     * Replace the layer strokes, rendered on the surface if there is one.
+     * 
+     * @param document
+     *            the new strokes, owned by the layer afterwards.
+     */
+    void setDocument(final StrokeDocument document)
+    {
+        mDocument = document;
+        mHistory.reset(document);
+
+        if (mSurface != null)
+        {
+            mSurface.clear();
+            mDocument.setSize(mSurface.getWidth(), mSurface.getHeight());
+            render();
+        }
+    }
+
+    /**
+     * Use a new, empty surface and render the strokes on it.
+     * 
+     * @param surface
+     *            the new surface.
+     */
+    void attachSurface(final TiledBitmap surface)
+    {
+        setSurface(surface);
+        render();
+    }
+
+    /**
+     * Use a surface of another size, keeping the content of the overlapping area.
+     * 
+     * @param surface
+     *            the new, empty surface.
+     */
+    void resizeSurface(final TiledBitmap surface)
+    {
+        surface.copyFrom(mSurface);
+        mSurface.clear();
+        setSurface(surface);
+    }
+
+    /**
+     * Give the surface tiles back to the pool. The strokes are rendered again on the next surface.
+     */
+    void releaseSurface()
+    {
+        if (mSurface != null)
+        {
+            mHistory.setSurface(null);
+            mSurface.clear();
+            mSurface = null;
+        }
+    }
+
+    /**
+     * Use a new surface.
+     * 
+     * @param surface
+     *            the new surface.
+     */
+    private void setSurface(final TiledBitmap surface)
+    {
+        mSurface = surface;
+        mDocument.setSize(surface.getWidth(), surface.getHeight());
+        mHistory.setSurface(surface);
+    }
+
+    /**
+     * Rasterize all the strokes on the surface.
+     */
+    private void render()
+    {
+        for (int i = 0; i < mDocument.size(); ++i)
+        {
+            mRenderer.render(mDocument.get(i), mSurface);
+        }
+    }
+}
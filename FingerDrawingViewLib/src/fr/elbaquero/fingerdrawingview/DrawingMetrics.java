@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Timings of the drawing pipeline phases, see {@link FingerDrawingView#setMetricsEnabled(boolean)}.
+ * <p>
+ * The view records into its own instance; {@link FingerDrawingView#getMetrics()} returns copies, which are not
+ * updated afterwards. This class does not depend on the Android framework.
+ */
+public final class DrawingMetrics
+{
+    /** Touch event processing phase. */
+    public static final int PHASE_EVENT = 0;
+
+    /** Drawing path building phase. */
+    public static final int PHASE_PATH = 1;
+
+    /** View drawing phase. */
+    public static final int PHASE_DRAW = 2;
+
+    /** Stroke commit phase. */
+    public static final int PHASE_COMMIT = 3;
+
+    /** Touch latency: from the touch event time to the drawing of its samples. */
+    public static final int PHASE_TOUCH_LATENCY = 4;
+
+    /** Number of phases. */
+    public static final int PHASE_COUNT = 5;
+
+    /** Histograms, per phase. */
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[PHASE_COUNT];
+
+    /**
+     * Create a new, empty {@link DrawingMetrics}.
+     */
+    public DrawingMetrics()
+    {
+        for (int i = 0; i < PHASE_COUNT; ++i)
+        {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record a phase duration.
+     * 
+     * @param phase
+     *            the phase, one of the PHASE_ constants.
+     * @param nanos
+     *            the duration, in nanoseconds.
+     */
+    void record(final int phase, final long nanos)
+    {
+        mHistograms[phase].record(nanos);
+    }
+
+    /**
+     * @param phase
+     *            the phase, one of the PHASE_ constants.
+     * @return the durations histogram of the phase.
+     */
+    public LatencyHistogram getHistogram(final int phase)
+    {
+        return mHistograms[phase];
+    }
+
+    /**
+     * @return the touch latencies histogram.
+     */
+    public LatencyHistogram getTouchLatency()
+    {
+        return mHistograms[PHASE_TOUCH_LATENCY];
+    }
+
+    /**
+     * Remove all the recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < PHASE_COUNT; ++i)
+        {
+            mHistograms[i].reset();
+        }
+    }
+
+    /**
+     * Copy the recorded values into other metrics, without allocating.
+     * 
+     * @param destination
+     *            the destination metrics, their previous content being replaced.
+     */
+    public void copyTo(final DrawingMetrics destination)
+    {
+        for (int i = 0; i < PHASE_COUNT; ++i)
+        {
+            mHistograms[i].copyTo(destination.mHistograms[i]);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Store of the drawings saved with the view instance state. Only a token goes into the state {@code Bundle}: the
+ * strokes of each layer are written to a file of the application cache directory on the background executor, so that a
+ * large drawing neither blocks the main thread nor exceeds the Binder transaction limit. Restoring from a file decodes
+ * it on the background executor too, after any pending write of the same layer.
+ * <p>
+ * A drawing is also kept in memory until its file is written, so that a view recreated while handling the same main
+ * thread message (a configuration change) gets its strokes back synchronously, in time for its first frame.
+ * <p>
+ * The files of a restored layer are deleted. The files of the other tokens are deleted on save when they predate the
+ * last boot, since no saved state survives it, or when they are not among the {@link #MAX_SAVED_TOKENS} most recently
+ * saved tokens. This class must be used from the main thread.
+ */
+final class DrawingStateStore
+{
+    /** Log tag. */
+    private static final String TAG = DrawingStateStore.class.getSimpleName();
+
+    /** Prefix of the state files. */
+    private static final String FILE_PREFIX = "fingerdrawingview-";
+
+    /** Extension of the state files. */
+    private static final String FILE_SUFFIX = ".strokes";
+
+    /** Maximum number of tokens whose files are kept, besides the token being saved. */
+    private static final int MAX_SAVED_TOKENS = 8;
+
+    /** Drawings whose file is not written yet, by layer token. */
+    private static final Map<String, SavedDrawing> sSavedDrawings = new HashMap<String, SavedDrawing>();
+
+    /**
+     * Listener of a layer restored from its file.
+     */
+    interface RestoreListener
+    {
+        /**
+         * Called on the main thread when the file of a layer is decoded.
+         * 
+         * @param document
+         *            the saved drawing, or null if it cannot be restored.
+         * @return true if the drawing was installed and its file can be deleted.
+         */
+        boolean onDrawingRestored(StrokeDocument document);
+    }
+
+    /**
+     * Empty, private constructor.
+     */
+    private DrawingStateStore()
+    {
+    }
+
+    /**
+     * @return a new state token.
+     */
+    static String newToken()
+    {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Save the drawing of a layer. The file is written asynchronously; saving again with the same token replaces it.
+     * 
+     * @param context
+     *            the context giving the cache directory.
+     * @param token
+     *            the state token.
+     * @param layer
+     *            the layer index.
+     * @param document
+     *            the drawing to save.
+     */
+    static void save(final Context context, final String token, final int layer, final StrokeDocument document)
+    {
+        final String layerToken = getLayerToken(token, layer);
+        final SavedDrawing drawing = new SavedDrawing(document.getWidth(), document.getHeight(),
+                document.copyStrokes());
+        final File file = getFile(context, layerToken);
+
+        sSavedDrawings.put(layerToken, drawing);
+
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File partial = new File(file.getPath() + ExportTask.PARTIAL_FILE_SUFFIX);
+
+                try
+                {
+                    StrokeDocumentWriter.write(drawing.mWidth, drawing.mHeight, drawing.mStrokes, partial);
+
+                    if (!partial.renameTo(file))
+                    {
+                        throw new IOException("Cannot rename " + partial + " to " + file);
+                    }
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Cannot save the drawing state", e);
+                    partial.delete();
+                }
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        // Unless saved again or restored meanwhile
+                        if (sSavedDrawings.get(layerToken) == drawing)
+                        {
+                            sSavedDrawings.remove(layerToken);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Delete the files of the layers above the saved ones, and the stale files of the other tokens. To be called after
+     * the layers of a token are saved.
+     * 
+     * @param context
+     *            the context giving the cache directory.
+     * @param token
+     *            the state token.
+     * @param layerCount
+     *            the number of saved layers.
+     */
+    static void deleteStaleFiles(final Context context, final String token, final int layerCount)
+    {
+        final File directory = context.getCacheDir();
+        final long bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File[] files = directory.listFiles();
+
+                if (files == null)
+                {
+                    return;
+                }
+
+                final Map<String, Long> saveTimes = new HashMap<String, Long>();
+
+                for (File file : files)
+                {
+                    String name = file.getName();
+                    int separator = name.lastIndexOf('-');
+
+                    if (!name.startsWith(FILE_PREFIX) || (separator < FILE_PREFIX.length()))
+                    {
+                        continue;
+                    }
+
+                    String fileToken = name.substring(FILE_PREFIX.length(), separator);
+                    long saveTime = file.lastModified();
+
+                    if (fileToken.equals(token))
+                    {
+                        if (getLayer(name, separator) >= layerCount)
+                        {
+                            file.delete();
+                        }
+                    }
+                    else if (saveTime < bootTime)
+                    {
+                        file.delete();
+                    }
+                    else
+                    {
+                        Long tokenSaveTime = saveTimes.get(fileToken);
+
+                        if ((tokenSaveTime == null) || (tokenSaveTime.longValue() < saveTime))
+                        {
+                            saveTimes.put(fileToken, Long.valueOf(saveTime));
+                        }
+                    }
+                }
+
+                if (saveTimes.size() <= MAX_SAVED_TOKENS)
+                {
+                    return;
+                }
+
+                // Most recently saved first
+                List<String> tokens = new ArrayList<String>(saveTimes.keySet());
+                Collections.sort(tokens, new Comparator<String>()
+                {
+                    @Override
+                    public int compare(final String lhs, final String rhs)
+                    {
+                        return saveTimes.get(rhs).compareTo(saveTimes.get(lhs));
+                    }
+                });
+                List<String> staleTokens = tokens.subList(MAX_SAVED_TOKENS, tokens.size());
+
+                for (File file : files)
+                {
+                    String name = file.getName();
+                    int separator = name.lastIndexOf('-');
+
+                    if (name.startsWith(FILE_PREFIX) && (separator >= FILE_PREFIX.length())
+                            && staleTokens.contains(name.substring(FILE_PREFIX.length(), separator)))
+                    {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Restore the drawing of a layer saved in this process, if its file is not written yet. Its file is then deleted.
+     * 
+     * @param context
+     *            the context giving the cache directory.
+     * @param token
+     *            the state token.
+     * @param layer
+     *            the layer index.
+     * @return the saved drawing, or null if it is not in memory: see
+     *         {@link #restoreFromFile(Context, String, int, RestoreListener)}.
+     */
+    static StrokeDocument restoreFromMemory(final Context context, final String token, final int layer)
+    {
+        String layerToken = getLayerToken(token, layer);
+        SavedDrawing drawing = sSavedDrawings.remove(layerToken);
+
+        if (drawing == null)
+        {
+            return null;
+        }
+
+        StrokeDocument document = new StrokeDocument(drawing.mWidth, drawing.mHeight);
+
+        for (Stroke stroke : drawing.mStrokes)
+        {
+            document.add(stroke);
+        }
+
+        delete(getFile(context, layerToken));
+        return document;
+    }
+
+    /**
+     * Restore the drawing of a layer from its file, decoded on the background executor. The file is deleted if the
+     * listener installs the drawing.
+     * 
+     * @param context
+     *            the context giving the cache directory.
+     * @param token
+     *            the state token.
+     * @param layer
+     *            the layer index.
+     * @param listener
+     *            the listener notified on the main thread.
+     */
+    static void restoreFromFile(final Context context, final String token, final int layer,
+            final RestoreListener listener)
+    {
+        final File file = getFile(context, getLayerToken(token, layer));
+
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final StrokeDocument document = file.exists() ? read(file) : null;
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (listener.onDrawingRestored(document))
+                        {
+                            delete(file);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decode a state file. Must be called on the background executor.
+     * 
+     * @param file
+     *            the state file.
+     * @return the saved drawing, or null if it cannot be read.
+     */
+    private static StrokeDocument read(final File file)
+    {
+        StrokeDocumentReader reader = null;
+
+        try
+        {
+            reader = new StrokeDocumentReader(file);
+            return reader.readDocument();
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Cannot restore the drawing state", e);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (reader != null)
+                {
+                    reader.close();
+                }
+            }
+            catch (IOException ignore)
+            {
+            }
+        }
+    }
+
+    /**
+     * Delete a state file on the background executor, after any pending write of it.
+     * 
+     * @param file
+     *            the state file.
+     */
+    private static void delete(final File file)
+    {
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * @param token
+     *            the state token.
+     * @param layer
+     *            the layer index.
+     * @return the token of the saved layer.
+     */
+    private static String getLayerToken(final String token, final int layer)
+    {
+        return token + '-' + layer;
+    }
+
+    /**
+     * @param name
+     *            the name of a state file.
+     * @param separator
+     *            the index of the separator between the token and the layer index.
+     * @return the layer index, or -1 if the name is not a complete state file name.
+     */
+    private static int getLayer(final String name, final int separator)
+    {
+        if (!name.endsWith(FILE_SUFFIX))
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Integer.parseInt(name.substring(separator + 1, name.length() - FILE_SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @param context
+     *            the context giving the cache directory.
+     * @param layerToken
+     *            the token of the saved layer.
+     * @return the state file.
+     */
+    private static File getFile(final Context context, final String layerToken)
+    {
+        return new File(context.getCacheDir(), FILE_PREFIX + layerToken + FILE_SUFFIX);
+    }
+
+    /**
+     * Strokes of a saved drawing.
+     */
+    private static final class SavedDrawing
+    {
+        /** Drawing width, in pixels. */
+        final int mWidth;
+
+        /** Drawing height, in pixels. */
+        final int mHeight;
+
+        /** Committed strokes, shared with the saved document. */
+        final List<Stroke> mStrokes;
+
+        /**
+         * Create a new {@link SavedDrawing}.
+         * 
+         * @param width
+         *            the drawing width, in pixels.
+         * @param height
+         *            the drawing height, in pixels.
+         * @param strokes
+         *            the committed strokes.
+         */
+        SavedDrawing(final int width, final int height, final List<Stroke> strokes)
+        {
+            mWidth = width;
+            mHeight = height;
+            mStrokes = strokes;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live stroke stream of a view: streams the drawing of its active layer through a {@link StrokeStreamWriter}, and
+ * mirrors a remote drawing into it through a {@link StrokeStreamReader}. It owns the transports and their main thread
+ * receivers, and keeps the live strokes of the mirrored drawing; the view applies the mirrored drawing through its
+ * {@link Host}.
+ * <p>
+ * The stroke events of the view are no-ops while not streaming. Must be used from the main thread.
+ */
+final class DrawingStream
+{
+    /**
+     * View applying the mirrored drawing, and source of the streamed one.
+     */
+    interface Host extends StrokeStreamWriter.Source
+    {
+        /**
+         * Replace the active layer drawing with a snapshot of the mirrored drawing. The live strokes were dropped.
+         * 
+         * @param width
+         *            the canvas width of the mirrored drawing, in pixels.
+         * @param height
+         *            the canvas height of the mirrored drawing, in pixels.
+         * @param strokes
+         *            the committed strokes of the mirrored drawing.
+         */
+        void onMirrorReset(int width, int height, List<Stroke> strokes);
+
+        /**
+         * Apply the new samples of a live eraser stroke of the mirrored drawing to the backing store.
+         * 
+         * @param stroke
+         *            the live eraser stroke.
+         * @param from
+         *            the index of the first new sample.
+         */
+        void onMirrorErase(Stroke stroke, int from);
+
+        /**
+         * Redraw the samples of a live stroke of the mirrored drawing, see {@link DrawingStream#getLiveStrokes()}.
+         * 
+         * @param stroke
+         *            the live stroke, or the stroke which just stopped being live.
+         * @param from
+         *            the index of the first changed sample.
+         */
+        void onMirrorStrokeChanged(Stroke stroke, int from);
+
+        /**
+         * Commit a stroke of the mirrored drawing to the active layer, redrawing it if it was live.
+         * 
+         * @param stroke
+         *            the ended stroke.
+         * @param wasLive
+         *            true if the stroke was drawn as a live stroke, false if it is an eraser already applied.
+         */
+        void onMirrorStrokeEnded(Stroke stroke, boolean wasLive);
+
+        /**
+         * Undo the last stroke of the active layer.
+         * 
+         * @return false if there was nothing to undo.
+         */
+        boolean onMirrorUndo();
+
+        /**
+         * Redo the last undone stroke of the active layer.
+         * 
+         * @return false if there was nothing to redo.
+         */
+        boolean onMirrorRedo();
+
+        /**
+         * Erase the active layer drawing.
+         */
+        void onMirrorClear();
+    }
+
+    /** View applying the mirrored drawing. */
+    private final Host mHost;
+
+    /** Writer streaming the strokes of the active layer, null if not streaming. */
+    private StrokeStreamWriter mWriter;
+
+    /** Transport of {@link #mWriter}. */
+    private StrokeTransport mWriterTransport;
+
+    /** Receiver forwarding the events of {@link #mWriterTransport} to {@link #mWriter}. */
+    private MainThreadReceiver mWriterReceiver;
+
+    /** Reader applying a streamed drawing to the active layer, null if not mirroring. */
+    private StrokeStreamReader mReader;
+
+    /** Transport of {@link #mReader}. */
+    private StrokeTransport mReaderTransport;
+
+    /** Receiver forwarding the events of {@link #mReaderTransport} to {@link #mReader}. */
+    private MainThreadReceiver mReaderReceiver;
+
+    /** Live strokes of the mirrored drawing, drawn over the active layer until they are committed. */
+    private final List<Stroke> mLiveStrokes = new ArrayList<Stroke>();
+
+    /** Listener of the mirrored stream, applying it through the host. */
+    private final StrokeStreamReader.Listener mReaderListener = new StrokeStreamReader.Listener()
+    {
+        @Override
+        public void onReset(final int width, final int height, final List<Stroke> strokes)
+        {
+            mLiveStrokes.clear();
+            mHost.onMirrorReset(width, height, strokes);
+        }
+
+        @Override
+        public void onStrokeSamples(final Stroke stroke, final int from)
+        {
+            if (stroke.getStyle().isEraser())
+            {
+                // Applied to the backing store right away, like local ones
+                mHost.onMirrorErase(stroke, from);
+                return;
+            }
+
+            if (from == 0)
+            {
+                mLiveStrokes.add(stroke);
+            }
+
+            mHost.onMirrorStrokeChanged(stroke, from);
+        }
+
+        @Override
+        public void onStrokeEnded(final Stroke stroke)
+        {
+            mHost.onMirrorStrokeEnded(stroke, mLiveStrokes.remove(stroke));
+        }
+
+        @Override
+        public void onStrokeCancelled(final Stroke stroke)
+        {
+            if (mLiveStrokes.remove(stroke))
+            {
+                mHost.onMirrorStrokeChanged(stroke, 0);
+            }
+            else if (stroke.getStyle().isEraser())
+            {
+                // Its samples are already erased from the backing store
+                mReader.requestResync();
+            }
+        }
+
+        @Override
+        public void onUndo()
+        {
+            if (!mHost.onMirrorUndo())
+            {
+                mReader.requestResync();
+            }
+        }
+
+        @Override
+        public void onRedo()
+        {
+            if (!mHost.onMirrorRedo())
+            {
+                mReader.requestResync();
+            }
+        }
+
+        @Override
+        public void onClear()
+        {
+            mHost.onMirrorClear();
+        }
+    };
+
+    /**
+     * Create a new {@link DrawingStream}, neither streaming nor mirroring.
+     * 
+     * @param host
+     *            the view applying the mirrored drawing.
+     */
+    DrawingStream(final Host host)
+    {
+        mHost = host;
+    }
+
+    /**
+     * Stream the drawing through a transport. Replaces the current stream, if any.
+     * 
+     * @param transport
+     *            the destination transport, opened now and closed by {@link #stopStreaming()}.
+     */
+    void startStreaming(final StrokeTransport transport)
+    {
+        stopStreaming();
+
+        mWriterTransport = transport;
+        mWriter = new StrokeStreamWriter(transport, mHost);
+        mWriterReceiver = new MainThreadReceiver(mWriter);
+
+        transport.open(mWriterReceiver);
+    }
+
+    /**
+     * Stop streaming the drawing and close the transport, if the drawing is streamed.
+     */
+    void stopStreaming()
+    {
+        if (mWriter == null)
+        {
+            return;
+        }
+
+        mWriterReceiver.close();
+        mWriterTransport.close();
+
+        mWriter = null;
+        mWriterTransport = null;
+        mWriterReceiver = null;
+    }
+
+    /**
+     * @return true if the drawing is streamed.
+     */
+    boolean isStreaming()
+    {
+        return mWriter != null;
+    }
+
+    /**
+     * Mirror a streamed drawing. Replaces the current mirrored stream, if any.
+     * 
+     * @param transport
+     *            the source transport, opened now and closed by {@link #stopMirroring()}.
+     */
+    void startMirroring(final StrokeTransport transport)
+    {
+        stopMirroring();
+
+        mReaderTransport = transport;
+        mReader = new StrokeStreamReader(transport, mReaderListener);
+        mReaderReceiver = new MainThreadReceiver(mReader);
+
+        transport.open(mReaderReceiver);
+    }
+
+    /**
+     * Stop mirroring and close the transport, if a drawing is mirrored. The live strokes are dropped.
+     * 
+     * @return true if a drawing was mirrored.
+     */
+    boolean stopMirroring()
+    {
+        if (mReader == null)
+        {
+            return false;
+        }
+
+        mReaderReceiver.close();
+        mReaderTransport.close();
+
+        mReader = null;
+        mReaderTransport = null;
+        mReaderReceiver = null;
+
+        mLiveStrokes.clear();
+        return true;
+    }
+
+    /**
+     * @return true if a streamed drawing is mirrored.
+     */
+    boolean isMirroring()
+    {
+        return mReader != null;
+    }
+
+    /**
+     * @return the live strokes of the mirrored drawing, in drawing order.
+     */
+    List<Stroke> getLiveStrokes()
+    {
+        return mLiveStrokes;
+    }
+
+    /**
+     * The streamed drawing was replaced, e.g. by another layer.
+     */
+    void replaceDrawing()
+    {
+        if (mWriter != null)
+        {
+            mWriter.replaceDrawing();
+        }
+    }
+
+    /**
+     * A stroke was started.
+     * 
+     * @param stroke
+     *            the live stroke, with its style and first samples.
+     */
+    void beginStroke(final Stroke stroke)
+    {
+        if (mWriter != null)
+        {
+            mWriter.beginStroke(stroke);
+        }
+    }
+
+    /**
+     * A touch event was handled: send the new samples of the live stroke with the pending events, so that there is one
+     * frame per event, with all the samples of its history.
+     */
+    void sendSamples()
+    {
+        if (mWriter != null)
+        {
+            mWriter.addSamples();
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * The live stroke was committed.
+     */
+    void endStroke()
+    {
+        if (mWriter != null)
+        {
+            mWriter.endStroke();
+        }
+    }
+
+    /**
+     * The live stroke was dropped.
+     */
+    void cancelStroke()
+    {
+        if (mWriter != null)
+        {
+            mWriter.cancelStroke();
+        }
+    }
+
+    /**
+     * Send the pending stroke events, if any.
+     */
+    void flush()
+    {
+        if (mWriter != null)
+        {
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * The last stroke was undone.
+     */
+    void undo()
+    {
+        if (mWriter != null)
+        {
+            mWriter.undo();
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * The last undone stroke was redone.
+     */
+    void redo()
+    {
+        if (mWriter != null)
+        {
+            mWriter.redo();
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * The drawing was erased.
+     */
+    void clear()
+    {
+        if (mWriter != null)
+        {
+            mWriter.clear();
+            mWriter.flush();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import fr.elbaquero.fingerdrawingview.FingerDrawingView.ExportListener;
+
+/**
+ * Asynchronous PNG export of a {@link FingerDrawingView} drawing.
+ * <p>
+ * The export works on a snapshot of the backing store taken when the task is created, so the user can keep drawing
+ * while the file is encoded on a background thread. The snapshot is flattened one row of tiles at a time and streamed
+ * to a {@link PngEncoder} deflating on every core, so the export never holds the whole drawing in a bitmap. The
+ * listener is notified on the main thread. The result of the task is the destination file name.
+ */
+public final class ExportTask implements Future<String>
+{
+    /** Suffix of a file being written, renamed once complete: exports and saved states. */
+    static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    /** Exported backing store. */
+    private final TiledBitmap mSource;
+
+    /** Snapshot of the exported backing store. */
+    private final TiledBitmapSnapshot mSnapshot;
+
+    /** Destination file name. */
+    private final String mFilename;
+
+    /** Export listener, may be null. */
+    private final ExportListener mListener;
+
+    /** Underlying task. */
+    private final FutureTask<String> mFuture;
+
+    /**
+     * Indicator of a snapshot claimed for release, either by the encoding once it starts, or by a cancellation before
+     * it starts. The snapshot is released by its claimer once it is not read anymore.
+     */
+    private final AtomicBoolean mIsSnapshotClaimed = new AtomicBoolean();
+
+    /** Last published progress, accessed from the background thread only. */
+    private int mLastProgress = -1;
+
+    /**
+     * Create a new {@link ExportTask}, taking a snapshot of the backing store.
+     * 
+     * @param source
+     *            the exported backing store, null if the view has no surface yet: the task then fails.
+     * @param filename
+     *            the destination full path.
+     * @param listener
+     *            the export listener, may be null.
+     */
+    ExportTask(final TiledBitmap source, final String filename, final ExportListener listener)
+    {
+        mSource = source;
+        mSnapshot = (source != null) ? source.snapshot() : null;
+        mFilename = filename;
+        mListener = listener;
+
+        // Without a snapshot, there is nothing to release
+        mIsSnapshotClaimed.set(mSnapshot == null);
+
+        mFuture = new FutureTask<String>(new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                if (mSnapshot == null)
+                {
+                    throw new IOException("Nothing to export, the view is not laid out");
+                }
+
+                if (!mIsSnapshotClaimed.compareAndSet(false, true))
+                {
+                    // Cancelled meanwhile, the snapshot is already released
+                    throw new CancellationException();
+                }
+
+                try
+                {
+                    return encode();
+                }
+                finally
+                {
+                    // Only once the snapshot tiles are not read anymore
+                    releaseSnapshot();
+                }
+            }
+        })
+        {
+            @Override
+            protected void done()
+            {
+                if (mIsSnapshotClaimed.compareAndSet(false, true))
+                {
+                    // Cancelled before the encoding started
+                    releaseSnapshot();
+                }
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onDone();
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Start the export on the background executor.
+     */
+    void start()
+    {
+        BackgroundExecutor.get().execute(mFuture);
+    }
+
+    /**
+     * Run the export on the calling thread. The listener is still notified on the main thread.
+     */
+    void run()
+    {
+        mFuture.run();
+    }
+
+    /**
+     * @return the destination file name.
+     */
+    public String getFilename()
+    {
+        return mFilename;
+    }
+
+    /**
+     * Cancel the export. A partially written file is deleted.
+     * 
+     * @return false if the export is already complete.
+     */
+    public boolean cancel()
+    {
+        return mFuture.cancel(true);
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        return mFuture.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return mFuture.isCancelled();
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return mFuture.isDone();
+    }
+
+    @Override
+    public String get() throws InterruptedException, ExecutionException
+    {
+        return mFuture.get();
+    }
+
+    @Override
+    public String get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException
+    {
+        return mFuture.get(timeout, unit);
+    }
+
+    /**
+     * Flatten the snapshot one row of tiles at a time, and encode the rows. Runs on the background executor.
+     * 
+     * @return the destination file name.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private String encode() throws IOException
+    {
+        final int width = mSnapshot.getWidth();
+        final int height = mSnapshot.getHeight();
+        final int tileSize = mSnapshot.getTileSize();
+        File destination = new File(mFilename);
+        File partial = new File(mFilename + PARTIAL_FILE_SUFFIX);
+        Bitmap band = BitmapPool.obtain(width, tileSize, TiledBitmap.flattenedConfig(mSnapshot.getConfig()));
+        FileOutputStream out = null;
+        PngEncoder encoder = null;
+
+        try
+        {
+            Canvas canvas = new Canvas(band);
+            int[] pixels = new int[width * tileSize];
+            int rowCount = mSnapshot.getRowCount();
+
+            out = new FileOutputStream(partial);
+            encoder = new PngEncoder(out.getChannel(), width, height, BackgroundExecutor.getWorkers());
+
+            for (int row = 0; row < rowCount; ++row)
+            {
+                checkCancelled();
+
+                int bandHeight = Math.min(tileSize, height - row * tileSize);
+
+                band.eraseColor(Color.TRANSPARENT);
+                canvas.save();
+                canvas.translate(0, -row * tileSize);
+                mSnapshot.drawRows(canvas, null, row, row + 1);
+                canvas.restore();
+
+                band.getPixels(pixels, 0, width, 0, 0, width, bandHeight);
+                encoder.writeRows(pixels, 0, width, bandHeight);
+                publishProgress(100 * (row + 1) / (rowCount + 1));
+            }
+
+            encoder.finish();
+            encoder = null;
+            out.close();
+            out = null;
+
+            if (!partial.renameTo(destination))
+            {
+                throw new IOException("Cannot rename " + partial + " to " + destination);
+            }
+
+            publishProgress(100);
+
+            return mFilename;
+        }
+        finally
+        {
+            BitmapPool.release(band);
+
+            if (encoder != null)
+            {
+                encoder.cancel();
+            }
+
+            try
+            {
+                if (out != null)
+                {
+                    out.close();
+                }
+            }
+            catch (Throwable ignore)
+            {
+            }
+
+            if (partial.exists())
+            {
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Abort the export if the task has been cancelled.
+     */
+    private void checkCancelled()
+    {
+        if (mFuture.isCancelled() || Thread.currentThread().isInterrupted())
+        {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Notify the listener of the export progress, if it has changed.
+     * 
+     * @param progress
+     *            the progress, in percents.
+     */
+    private void publishProgress(final int progress)
+    {
+        if ((progress == mLastProgress) || (mListener == null))
+        {
+            return;
+        }
+
+        mLastProgress = progress;
+
+        BackgroundExecutor.postToMainThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!mFuture.isCancelled())
+                {
+                    mListener.onExportProgress(mFilename, progress);
+                }
+            }
+        });
+    }
+
+    /**
+     * Release the snapshot on the main thread, where the source surface is used.
+     */
+    private void releaseSnapshot()
+    {
+        BackgroundExecutor.postToMainThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mSource.releaseSnapshot(mSnapshot);
+            }
+        });
+    }
+
+    /**
+     * Notify the listener. Runs on the main thread.
+     */
+    private void onDone()
+    {
+        if (mListener == null)
+        {
+            return;
+        }
+
+        if (mFuture.isCancelled())
+        {
+            mListener.onExportCancelled(mFilename);
+            return;
+        }
+
+        try
+        {
+            mListener.onExportCompleted(mFuture.get());
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            mListener.onExportFailed(mFilename, (cause instanceof Exception) ? (Exception) cause : e);
+        }
+        catch (InterruptedException e)
+        {
+            mListener.onExportFailed(mFilename, e);
+        }
+    }
+}
@@ -15,20 +15,30 @@
  */
 package fr.elbaquero.fingerdrawingview;
 
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Region;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
@@ -37,6 +47,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.view.ViewParent;
+import android.widget.AdapterView;
 import android.widget.FrameLayout;
 
 /**
@@ -45,7 +56,8 @@ import android.widget.FrameLayout;
 public final class FingerDrawingView extends View
 {
     /**
-     * Touch event listener.
+     * Touch event listener. Positions are in canvas coordinates, which only differ from the view coordinates when the
+     * canvas is zoomed or panned.
      */
     public interface TouchEventListener
     {
@@ -80,6 +92,231 @@ public final class FingerDrawingView extends View
         void onTouchUp(float x, float y);
     }
 
+    /**
+     * Touch event listener receiving every sample of the events, historical ones included.
+     * <p>
+     * The samples instance is reused for every event: its content is only valid during the call. Positions are in
+     * canvas coordinates, like for the {@link TouchEventListener}.
+     */
+    public interface BatchTouchEventListener
+    {
+        /**
+         * Called when a touch down event is dispatched to a view.
+         * 
+         * @param samples
+         *            the event sample.
+         */
+        void onTouchDown(TouchSamples samples);
+
+        /**
+         * Called when a touch move event is dispatched to a view.
+         * 
+         * @param samples
+         *            the event samples, in chronological order.
+         */
+        void onTouchMove(TouchSamples samples);
+
+        /**
+         * Called when a touch up event is dispatched to a view.
+         * 
+         * @param samples
+         *            the event sample.
+         */
+        void onTouchUp(TouchSamples samples);
+    }
+
+    /**
+     * Export listener, notified on the main thread.
+     */
+    public interface ExportListener
+    {
+        /**
+         * Called when the export progresses.
+         * 
+         * @param filename
+         *            the destination file name.
+         * @param progress
+         *            the export progress, in percents.
+         */
+        void onExportProgress(String filename, int progress);
+
+        /**
+         * Called when the file has been written.
+         * 
+         * @param filename
+         *            the destination file name.
+         */
+        void onExportCompleted(String filename);
+
+        /**
+         * Called when the export has failed.
+         * 
+         * @param filename
+         *            the destination file name.
+         * @param exception
+         *            the failure cause.
+         */
+        void onExportFailed(String filename, Exception exception);
+
+        /**
+         * Called when the export has been cancelled.
+         * 
+         * @param filename
+         *            the destination file name.
+         */
+        void onExportCancelled(String filename);
+    }
+
+    /**
+     * Instance state of the view. The strokes of every layer are saved to a file of the application cache directory,
+     * the state only holds a token identifying these files (see {@link DrawingStateStore}) and the layers attributes.
+     * As for any view, the state is only saved if the view has an id.
+     */
+    static final class SavedState extends BaseSavedState
+    {
+        /** Creator of {@link SavedState} instances. */
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>()
+        {
+            @Override
+            public SavedState createFromParcel(final Parcel source)
+            {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(final int size)
+            {
+                return new SavedState[size];
+            }
+        };
+
+        /** Token of the saved drawing. */
+        String mToken;
+
+        /** Index of the active layer. */
+        int mActiveLayer;
+
+        /** Visibility of every layer. */
+        boolean[] mLayerVisibilities;
+
+        /** Alpha of every layer. */
+        int[] mLayerAlphas;
+
+        /**
+         * Create a new {@link SavedState}.
+         * 
+         * @param superState
+         *            the state of the superclass.
+         */
+        SavedState(final Parcelable superState)
+        {
+            super(superState);
+        }
+
+        /**
+         * Create a new {@link SavedState} from a parcel.
+         * 
+         * @param source
+         *            the parcel to read.
+         */
+        private SavedState(final Parcel source)
+        {
+            super(source);
+            mToken = source.readString();
+            mActiveLayer = source.readInt();
+            mLayerVisibilities = new boolean[source.readInt()];
+            mLayerAlphas = new int[mLayerVisibilities.length];
+
+            for (int i = 0; i < mLayerVisibilities.length; ++i)
+            {
+                mLayerVisibilities[i] = source.readInt() != 0;
+                mLayerAlphas[i] = source.readInt();
+            }
+        }
+
+        @Override
+        public void writeToParcel(final Parcel dest, final int flags)
+        {
+            super.writeToParcel(dest, flags);
+            dest.writeString(mToken);
+            dest.writeInt(mActiveLayer);
+            dest.writeInt(mLayerVisibilities.length);
+
+            for (int i = 0; i < mLayerVisibilities.length; ++i)
+            {
+                dest.writeInt(mLayerVisibilities[i] ? 1 : 0);
+                dest.writeInt(mLayerAlphas[i]);
+            }
+        }
+    }
+
+    /**
+     * Restoration of a layer from its state file. The drawing is only installed if the layer is still empty, i.e. it
+     * was neither drawn on nor given another document meanwhile.
+     */
+    private final class LayerRestore implements DrawingStateStore.RestoreListener
+    {
+        /** Restored layer. */
+        final DrawingLayer mLayer;
+
+        /** Index of the layer in the saved state. */
+        final int mIndex;
+
+        /** Document of the layer when the restoration started. */
+        final StrokeDocument mDocument;
+
+        /** Indicator of a state saved meanwhile, which still refers to the file. */
+        boolean mIsHandedOver;
+
+        /**
+         * Create a new {@link LayerRestore}.
+         * 
+         * @param layer
+         *            the restored layer.
+         * @param index
+         *            the index of the layer in the saved state.
+         */
+        LayerRestore(final DrawingLayer layer, final int index)
+        {
+            mLayer = layer;
+            mIndex = index;
+            mDocument = layer.getDocument();
+        }
+
+        /**
+         * @return true if the drawing can still be installed.
+         */
+        boolean isPending()
+        {
+            return mPendingRestores.contains(this) && (mLayers.indexOf(mLayer) >= 0)
+                    && (mLayer.getDocument() == mDocument) && mDocument.isEmpty();
+        }
+
+        @Override
+        public boolean onDrawingRestored(final StrokeDocument document)
+        {
+            boolean isPending = isPending();
+            mPendingRestores.remove(this);
+
+            if (!isPending || (document == null))
+            {
+                return false;
+            }
+
+            mLayer.setDocument(document);
+
+            if (mLayer == mLayers.getActive())
+            {
+                bindActiveLayer();
+            }
+
+            mLayers.invalidateComposites();
+            invalidateBackground();
+
+            return !mIsHandedOver;
+        }
+    }
+
     /** Default drawing pen width, in dip. */
     private static final int DEFAULT_DRAWING_PEN_WIDTH = 2;
 
@@ -89,10 +326,26 @@ public final class FingerDrawingView extends View
     /** Default drawing pen color, in dip. */
     private static final int DEFAULT_DRAWING_PEN_COLOR = Color.WHITE;
 
+    /** Number of nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Default smoothing tolerance, in dip. */
+    private static final float DEFAULT_SMOOTHING_TOLERANCE = 0.5f;
+
+    /** Maximum zoom, in view pixels per canvas pixel. */
+    private static final float MAX_ZOOM = 8;
+
     /** Touch event listener. */
     public WeakReference<TouchEventListener> mTouchEventListener = new WeakReference<FingerDrawingView.TouchEventListener>(
             null);
 
+    /** Batch touch event listener. */
+    private WeakReference<BatchTouchEventListener> mBatchTouchEventListener = new WeakReference<BatchTouchEventListener>(
+            null);
+
+    /** Samples buffer reused for every batch touch event notification. */
+    private final TouchSamples mTouchSamples = new TouchSamples();
+
     /** Drawing mode indicator. */
     private boolean mIsDrawing = true;
 
@@ -108,26 +361,102 @@ public final class FingerDrawingView extends View
     /** Drawing pen color. */
     private int mDrawingPenColor = DEFAULT_DRAWING_PEN_COLOR;
 
-    /** Last touch down event X position. */
-    private int mFirstTouchX;
+    /** Pen style of the last stroke. */
+    private PenStyle mPenStyle;
 
-    /** Last touch down event Y position. */
-    private int mFirstTouchY;
+    /** Last touch down event X position, in canvas coordinates. */
+    private float mFirstTouchX;
 
-    /** Last touch event X position. */
-    private int mLastTouchX;
+    /** Last touch down event Y position, in canvas coordinates. */
+    private float mFirstTouchY;
 
-    /** Last touch event Y position. */
-    private int mLastTouchY;
+    /** Last touch event X position, in canvas coordinates. */
+    private float mLastTouchX;
+
+    /** Last touch event Y position, in canvas coordinates. */
+    private float mLastTouchY;
 
     /** Rectangle used to invalidate the smallest possible area. */
-    private final RectF mDirtyRect = new RectF();
+    private final DirtyRect mDirtyRect = new DirtyRect();
+
+    /** Union of the dirty rectangles of the current stroke. */
+    private final RectF mStrokeRect = new RectF();
+
+    /** Segments touched by the events received since the last frame, including the pen width. */
+    private final DamageRegion mFrameRegion = new DamageRegion();
+
+    /** Indicator of pending changes in {@link #mFrameRegion}. */
+    private boolean mHasFrameChanges;
+
+    /** Start of the next segment added to {@link #mFrameRegion}: the last recorded touch position. */
+    private float mSegmentStartX;
+
+    /** Start of the next segment added to {@link #mFrameRegion}: the last recorded touch position. */
+    private float mSegmentStartY;
+
+    /** Area invalidated since the last draw, in view coordinates, to which drawing the path is clipped. */
+    private final DamageRegion mDrawRegion = new DamageRegion();
+
+    /** Region built from {@link #mDrawRegion} to clip the canvas. */
+    private final Region mClipRegion = new Region();
+
+    /** Canvas clip bounds, reused for every draw. */
+    private final Rect mClipBounds = new Rect();
+
+    /** Frame coalescing indicator: touch moves are applied once per display frame. */
+    private boolean mIsFrameCoalescingEnabled = true;
+
+    /** Alpha-only ink indicator: the drawing is stored as coverage only while it has a single color. */
+    private boolean mIsAlphaInkEnabled;
+
+    /** Self-compositing indicator: the view draws the backing store itself, without a background view. */
+    private boolean mIsSelfCompositing;
+
+    /** Incremental live stroke indicator: each frame only rasterizes the new segments into a scratch layer. */
+    private boolean mIsIncrementalStrokeEnabled = true;
+
+    /** Pipeline timings, null unless the metrics are enabled. */
+    private DrawingMetrics mMetrics;
+
+    /** Time of the oldest touch move not drawn yet, in milliseconds, 0 if none. */
+    private long mUndrawnEventTime;
+
+    /** Trace being recorded, null if no recording is in progress. */
+    private GestureTrace mGestureTrace;
+
+    /** Number of invalidations, of the view and of the background view. */
+    private long mInvalidationCount;
+
+    /** Number of invalidated pixels, counted once per invalidation. */
+    private long mInvalidatedPixelCount;
+
+    /** Number of committed strokes. */
+    private long mCommitCount;
+
+    /** Scheduler applying the touch moves once per display frame. */
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(new FrameScheduler.Callback()
+    {
+        @Override
+        public void onFrame()
+        {
+            applyFrameChanges();
+        }
+    });
 
     private FrameLayout mContainer;
     private View mBackgroundView;
-    private Bitmap mBackgroundBitmap;
-    private Canvas mBackgroundCanvas;
-    private BitmapDrawable mBackgroundDrawable;
+
+    /** Drawing layers, bottom first. */
+    private final LayerStack mLayers = new LayerStack();
+
+    /** Backing store of the active layer, split into lazily allocated tiles. Null while the view is not laid out. */
+    private TiledBitmap mBackgroundTiles;
+
+    /** Drawable displaying {@link #mLayers} in the background view. */
+    private final LayerStackDrawable mBackgroundDrawable = new LayerStackDrawable(mLayers);
+
+    /** Area of the backing store updated by the current stroke, including the pen width. */
+    private final RectF mCommitRect = new RectF();
 
     /***/
     private Paint mPaint = new Paint();
@@ -135,6 +464,196 @@ public final class FingerDrawingView extends View
     /***/
     private Path mPath = new Path();
 
+    /** Current stroke samples, the source of truth for {@link #mPath}. */
+    private final Stroke mStroke = new Stroke();
+
+    /** Committed strokes of the active layer. */
+    private StrokeDocument mDocument;
+
+    /** Renderer used to rasterize the document strokes. */
+    private final StrokeRenderer mStrokeRenderer = new StrokeRenderer();
+
+    /** Undo/redo history of the active layer. */
+    private StrokeHistory mHistory;
+
+    /** Memory budget of the undo checkpoints of every layer. */
+    private long mUndoMemoryBudget = StrokeHistory.DEFAULT_MEMORY_BUDGET;
+
+    /** Number of {@link #mStroke} samples already appended to {@link #mPath}. */
+    private int mPathSampleCount;
+
+    /** Simplifier of the drawing strokes samples. */
+    private final StrokeSimplifier mSimplifier = new StrokeSimplifier(dpToPx(DEFAULT_SMOOTHING_TOLERANCE));
+
+    /** Live end of the drawn stroke, not yet part of {@link #mPath}. */
+    private final Path mTailPath = new Path();
+
+    /** Area covered by {@link #mTailPath}, including the pen width. */
+    private final RectF mTailBounds = new RectF();
+
+    /** Eraser segments not yet applied to the background tiles. */
+    private final Path mEraserPath = new Path();
+
+    /** Number of {@link #mStroke} samples already applied to the background tiles when erasing. */
+    private int mErasedSampleCount;
+
+    /** Ink coverage of the live stroke, null when not laid out or when the incremental live stroke is disabled. */
+    private TiledBitmap mScratchTiles;
+
+    /** Number of {@link #mStroke} samples already rasterized into {@link #mScratchTiles}. */
+    private int mScratchSampleCount;
+
+    /** Curves rasterized into {@link #mScratchTiles} in the current frame. */
+    private final Path mScratchPath = new Path();
+
+    /** Round join between the curves of the previous frames and of the current frame. */
+    private final Path mScratchJoinPath = new Path();
+
+    /** Area covered by {@link #mScratchPath}, including the pen width. */
+    private final RectF mScratchBounds = new RectF();
+
+    /** Paint used to rasterize the live stroke coverage and to draw its live end: the pen paint, opaque. */
+    private final Paint mScratchPaint = new Paint();
+
+    /** Paint used to rasterize the round joins. */
+    private final Paint mScratchJoinPaint = new Paint();
+
+    /** Paint used to composite the live stroke coverage with the pen alpha. */
+    private final Paint mScratchCompositePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Token of the drawing saved with the instance state, null until the state is first saved or restored. */
+    private String mStateToken;
+
+    /** Layers being restored from their state files. */
+    private final List<LayerRestore> mPendingRestores = new ArrayList<LayerRestore>();
+
+    /** Canvas width, 0 to use the view width. */
+    private int mCanvasWidth;
+
+    /** Canvas height, 0 to use the view height. */
+    private int mCanvasHeight;
+
+    /** Zoom gestures indicator. */
+    private boolean mIsZoomEnabled;
+
+    /** Current zoom, in view pixels per canvas pixel. */
+    private float mZoom = 1;
+
+    /** Position of the canvas origin in the view, in view pixels. */
+    private float mPanX;
+
+    /** Position of the canvas origin in the view, in view pixels. */
+    private float mPanY;
+
+    /** Transformation from canvas to view coordinates. */
+    private final Matrix mViewMatrix = new Matrix();
+
+    /** Zoom gesture indicator: until all the fingers are up, the touch events zoom and pan instead of drawing. */
+    private boolean mIsZooming;
+
+    /** Middle of the two first fingers at the previous zoom gesture event, in view pixels. */
+    private float mGestureFocusX;
+
+    /** Middle of the two first fingers at the previous zoom gesture event, in view pixels. */
+    private float mGestureFocusY;
+
+    /** Distance between the two first fingers at the previous zoom gesture event, negative until tracked again. */
+    private float mGestureSpan;
+
+    /** Downsampled layers, displayed when zoomed out. Null while the view is not laid out. */
+    private TilePyramid mPyramid;
+
+    /** Stream of the active layer drawing, and of the mirrored drawing. */
+    private final DrawingStream mStream = new DrawingStream(new DrawingStream.Host()
+    {
+        @Override
+        public int getWidth()
+        {
+            return getCanvasWidth();
+        }
+
+        @Override
+        public int getHeight()
+        {
+            return getCanvasHeight();
+        }
+
+        @Override
+        public List<Stroke> getStrokes()
+        {
+            return mDocument.copyStrokes();
+        }
+
+        @Override
+        public void onMirrorReset(final int width, final int height, final List<Stroke> strokes)
+        {
+            applyRemoteReset(width, height, strokes);
+        }
+
+        @Override
+        public void onMirrorErase(final Stroke stroke, final int from)
+        {
+            applyRemoteErasure(stroke, from);
+        }
+
+        @Override
+        public void onMirrorStrokeChanged(final Stroke stroke, final int from)
+        {
+            // The smoothed path of the changed samples bends up to two samples back
+            setRemoteRect(stroke, Math.max(0, from - 2), stroke.getStyle());
+            invalidateRect(FingerDrawingView.this, mRemoteRect);
+        }
+
+        @Override
+        public void onMirrorStrokeEnded(final Stroke stroke, final boolean wasLive)
+        {
+            applyRemoteStrokeEnd(stroke, wasLive);
+        }
+
+        @Override
+        public boolean onMirrorUndo()
+        {
+            if (!mHistory.undo())
+            {
+                return false;
+            }
+
+            invalidateBackground();
+            return true;
+        }
+
+        @Override
+        public boolean onMirrorRedo()
+        {
+            if (!mHistory.redo())
+            {
+                return false;
+            }
+
+            invalidateBackground();
+            return true;
+        }
+
+        @Override
+        public void onMirrorClear()
+        {
+            mHistory.clear();
+            invalidateBackground();
+        }
+    });
+
+    /** Path of a live stroke of the mirrored drawing, rebuilt at each draw. */
+    private final Path mRemotePath = new Path();
+
+    /** Paint of the live strokes of the mirrored drawing. */
+    private final Paint mRemotePaint = new Paint();
+
+    /** Paint of the eraser strokes of the mirrored drawing. */
+    private final Paint mRemoteEraserPaint = new Paint();
+
+    /** Area of the last updated segments of a live stroke of the mirrored drawing. */
+    private final RectF mRemoteRect = new RectF();
+
     /**
      * Create a new {@link FingerDrawingView}.
      * 
@@ -166,11 +685,16 @@ public final class FingerDrawingView extends View
     {
         super.onAttachedToWindow();
 
-        if (mBackgroundView == null)
+        if (!mIsSelfCompositing && (mBackgroundView == null))
         {
             ViewParent parent = getParent();
 
-            if (parent instanceof ViewGroup)
+            if (!(parent instanceof ViewGroup) || (parent instanceof AdapterView))
+            {
+                // The view cannot be reparented, e.g. in a list
+                mIsSelfCompositing = true;
+            }
+            else
             {
                 ViewGroup parentGroup = (ViewGroup) parent;
                 int positionInGroup = parentGroup.indexOfChild(this);
@@ -193,375 +717,2409 @@ public final class FingerDrawingView extends View
     @Override
     protected void onLayout(final boolean changed, final int left, final int top, final int right, final int bottom)
     {
-        if ((mBackgroundBitmap == null) && ((right - left) != 0) && ((top - bottom) != 0))
+        if (((right - left) != 0) && ((top - bottom) != 0))
         {
-            mBackgroundBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-            mBackgroundCanvas = new Canvas(mBackgroundBitmap);
-            mBackgroundDrawable = new BitmapDrawable(getResources(), mBackgroundBitmap);
+            updateSurfaces();
+
+            // The view size bounds the zoom and the pan
+            updateViewMatrix();
         }
 
         super.onLayout(changed, left, top, right, bottom);
     }
 
-    @Override
-    protected void onDraw(final Canvas canvas)
+    /**
+     * Give the layers surfaces of the canvas size, if they do not have them yet.
+     */
+    private void updateSurfaces()
     {
-        if (mIsDrawing)
+        if (mBackgroundTiles == null)
         {
-            canvas.drawPath(mPath, mPaint);
+            // No pixel is allocated until something is drawn
+            for (int i = 0; i < mLayers.size(); ++i)
+            {
+                mLayers.get(i).attachSurface(createBackgroundTiles());
+            }
+
+            onSurfacesChanged();
         }
-        else
+        else if ((mBackgroundTiles.getWidth() != getCanvasWidth())
+                || (mBackgroundTiles.getHeight() != getCanvasHeight()))
         {
-            // When erasing, draw on the background bitmap directly
-            mBackgroundCanvas.drawPath(mPath, mPaint);
-            super.onDraw(canvas);
+            // Keep the overlapping content; the old tiles go back to the pool
+            for (int i = 0; i < mLayers.size(); ++i)
+            {
+                mLayers.get(i).resizeSurface(createBackgroundTiles());
+            }
+
+            onSurfacesChanged();
         }
     }
 
-    @Override
-    protected void onDetachedFromWindow()
+    /**
+     * @return a new, empty backing store of the canvas size.
+     */
+    private TiledBitmap createBackgroundTiles()
     {
-        mBackgroundView = null;
+        return new TiledBitmap(getCanvasWidth(), getCanvasHeight(), TiledBitmap.DEFAULT_TILE_SIZE,
+                mIsAlphaInkEnabled ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Make the fields of the active layer current.
+     */
+    private void bindActiveLayer()
+    {
+        DrawingLayer activeLayer = mLayers.getActive();
 
-        if (mBackgroundBitmap != null)
+        mDocument = activeLayer.getDocument();
+        mHistory = activeLayer.getHistory();
+        mBackgroundTiles = activeLayer.getSurface();
+
+        // The streamed drawing is replaced
+        mStream.replaceDrawing();
+    }
+
+    /**
+     * Update the view after the layers got new surfaces, of the canvas size.
+     */
+    private void onSurfacesChanged()
+    {
+        bindActiveLayer();
+        mLayers.invalidateComposites();
+
+        if (mPyramid != null)
+        {
+            mPyramid.release();
+        }
+
+        mPyramid = new TilePyramid(getCanvasWidth(), getCanvasHeight(), TiledBitmap.DEFAULT_TILE_SIZE,
+                new TilePyramid.Callback()
+                {
+                    @Override
+                    public void onTilesReady()
+                    {
+                        redrawBackground();
+                    }
+                });
+        mBackgroundDrawable.setPyramid(mPyramid);
+
+        if (mBackgroundView != null)
+        {
+            mBackgroundView.setBackground(mBackgroundDrawable);
+        }
+
+        if (mScratchTiles != null)
+        {
+            mScratchTiles.clear();
+        }
+
+        // The whole live stroke, if any, is rasterized again by the next frame
+        mScratchTiles = mIsIncrementalStrokeEnabled ? new TiledBitmap(getCanvasWidth(), getCanvasHeight(),
+                TiledBitmap.DEFAULT_TILE_SIZE, Bitmap.Config.ALPHA_8) : null;
+        mScratchSampleCount = 0;
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas)
+    {
+        if (mIsDrawing)
+        {
+            final long drawStartTime = (mMetrics != null) ? System.nanoTime() : 0;
+
+            updatePath();
+            updateTailPath();
+
+            if (mMetrics != null)
+            {
+                mMetrics.record(DrawingMetrics.PHASE_PATH, System.nanoTime() - drawStartTime);
+            }
+
+            if (mScratchTiles != null)
+            {
+                rasterizeNewSegments();
+            }
+
+            clipToDrawRegion(canvas);
+
+            int saveCount = canvas.save();
+            canvas.concat(mViewMatrix);
+            drawLayersBelowStroke(canvas);
+
+            if (mScratchTiles != null)
+            {
+                drawLiveStroke(canvas);
+            }
+            else
+            {
+                canvas.drawPath(mPath, mPaint);
+                canvas.drawPath(mTailPath, mPaint);
+            }
+
+            drawRemoteStrokes(canvas);
+            drawLayersAboveStroke(canvas);
+            canvas.restoreToCount(saveCount);
+
+            if (mMetrics != null)
+            {
+                mMetrics.record(DrawingMetrics.PHASE_DRAW, System.nanoTime() - drawStartTime);
+                recordTouchLatency();
+            }
+        }
+        else
+        {
+            // When erasing, the background tiles are updated directly
+            super.onDraw(canvas);
+
+            int saveCount = canvas.save();
+            canvas.concat(mViewMatrix);
+            drawLayersBelowStroke(canvas);
+            drawRemoteStrokes(canvas);
+            drawLayersAboveStroke(canvas);
+            canvas.restoreToCount(saveCount);
+        }
+
+        mDrawRegion.clear();
+    }
+
+    /**
+     * Composite the scratch layer and the live end of the stroke with the pen alpha. The live end overlaps the end of
+     * the rasterized curves: around it, both are drawn opaque into a layer composited once, so that their overlap is
+     * not covered twice.
+     * 
+     * @param canvas
+     *            the destination canvas, in canvas coordinates.
+     */
+    private void drawLiveStroke(final Canvas canvas)
+    {
+        final int alpha = Color.alpha(mPaint.getColor()) * mLayers.getActive().getAlpha() / DrawingLayer.OPAQUE;
+
+        // Constant cost: the layer tiles are composited, whatever the stroke length
+        mScratchCompositePaint.setAlpha(alpha);
+
+        if ((alpha == DrawingLayer.OPAQUE) || mTailPath.isEmpty())
+        {
+            mScratchTiles.draw(canvas, mScratchCompositePaint);
+            canvas.drawPath(mTailPath, mScratchPaint);
+            return;
+        }
+
+        mTailPath.computeBounds(mTailBounds, false);
+        mTailBounds.inset(-mCurrentPenWidth / 2 - 1, -mCurrentPenWidth / 2 - 1);
+
+        final float width = getCanvasWidth();
+        final float height = getCanvasHeight();
+
+        // Around the live end: above, below, left and right
+        drawScratchTiles(canvas, 0, 0, width, mTailBounds.top);
+        drawScratchTiles(canvas, 0, mTailBounds.bottom, width, height);
+        drawScratchTiles(canvas, 0, mTailBounds.top, mTailBounds.left, mTailBounds.bottom);
+        drawScratchTiles(canvas, mTailBounds.right, mTailBounds.top, width, mTailBounds.bottom);
+
+        int saveCount = canvas.saveLayerAlpha(mTailBounds.left, mTailBounds.top, mTailBounds.right,
+                mTailBounds.bottom, alpha, Canvas.ALL_SAVE_FLAG);
+        mScratchCompositePaint.setAlpha(DrawingLayer.OPAQUE);
+        mScratchTiles.draw(canvas, mScratchCompositePaint);
+        canvas.drawPath(mTailPath, mScratchPaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Composite the part of the scratch layer inside a rectangle with {@link #mScratchCompositePaint}.
+     * 
+     * @param canvas
+     *            the destination canvas, in canvas coordinates.
+     * @param left
+     *            the rectangle left coordinate.
+     * @param top
+     *            the rectangle top coordinate.
+     * @param right
+     *            the rectangle right coordinate.
+     * @param bottom
+     *            the rectangle bottom coordinate.
+     */
+    private void drawScratchTiles(final Canvas canvas, final float left, final float top, final float right,
+            final float bottom)
+    {
+        if ((left >= right) || (top >= bottom))
+        {
+            return;
+        }
+
+        int saveCount = canvas.save();
+        canvas.clipRect(left, top, right, bottom);
+        mScratchTiles.draw(canvas, mScratchCompositePaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Rasterize the stroke curves appended since the last frame into the scratch layer. They start where the previous
+     * ones end, with a round join; coverage is opaque so that the seams do not show once composited with the pen alpha.
+     */
+    private void rasterizeNewSegments()
+    {
+        final int from = mScratchSampleCount;
+        final int size = mStroke.size();
+
+        if (from == size)
+        {
+            return;
+        }
+
+        mScratchPath.rewind();
+        mScratchJoinPath.rewind();
+
+        if (from >= 1)
+        {
+            // End of the previous curves, see StrokeRenderer.appendSamples()
+            float startX = (from == 1) ? mStroke.getX(0) : (mStroke.getX(from - 2) + mStroke.getX(from - 1)) / 2;
+            float startY = (from == 1) ? mStroke.getY(0) : (mStroke.getY(from - 2) + mStroke.getY(from - 1)) / 2;
+
+            mScratchPath.moveTo(startX, startY);
+            mScratchJoinPath.addCircle(startX, startY, mCurrentPenWidth / 2, Path.Direction.CW);
+        }
+
+        StrokeRenderer.appendSamples(mStroke, from, mScratchPath, true);
+        mScratchSampleCount = size;
+
+        mScratchPaint.set(mPaint);
+        mScratchPaint.setColor(mPaint.getColor() | Color.BLACK);
+        mScratchJoinPaint.set(mScratchPaint);
+        mScratchJoinPaint.setStyle(Paint.Style.FILL);
+
+        // Include half the stroke width to avoid clipping.
+        mScratchPath.computeBounds(mScratchBounds, false);
+        mScratchBounds.inset(-mCurrentPenWidth / 2 - 1, -mCurrentPenWidth / 2 - 1);
+
+        mScratchTiles.drawPath(mScratchPath, mScratchPaint, mScratchBounds, true);
+
+        if (from >= 1)
+        {
+            mScratchTiles.drawPath(mScratchJoinPath, mScratchJoinPaint, mScratchBounds, true);
+        }
+    }
+
+    /**
+     * Draw the active layer and the layers below it when the view is self-compositing; otherwise the background view
+     * displays all the layers, below the live stroke. When zoomed out, all the layers are drawn from the pyramid.
+     * 
+     * @param canvas
+     *            the destination canvas, in canvas coordinates.
+     */
+    private void drawLayersBelowStroke(final Canvas canvas)
+    {
+        if (mIsSelfCompositing && (mBackgroundTiles != null) && !mPyramid.draw(canvas, null, mZoom, mLayers))
+        {
+            mLayers.drawBelowActive(canvas, null);
+            mLayers.drawActive(canvas, null);
+        }
+    }
+
+    /**
+     * Draw the live strokes of the mirrored drawing, over the active layer.
+     * 
+     * @param canvas
+     *            the destination canvas, in canvas coordinates.
+     */
+    private void drawRemoteStrokes(final Canvas canvas)
+    {
+        List<Stroke> remoteStrokes = mStream.getLiveStrokes();
+
+        for (int i = 0; i < remoteStrokes.size(); ++i)
+        {
+            Stroke stroke = remoteStrokes.get(i);
+
+            mRemotePath.rewind();
+            StrokeRenderer.appendSamples(stroke, 0, mRemotePath, true);
+            StrokeRenderer.appendTail(stroke, mRemotePath);
+
+            mRemotePaint.setColor(stroke.getStyle().getColor());
+            mRemotePaint.setStrokeWidth(stroke.getStyle().getWidth());
+            canvas.drawPath(mRemotePath, mRemotePaint);
+        }
+    }
+
+    /**
+     * Draw the layers above the active layer when the view is self-compositing, unless they are drawn from the
+     * pyramid.
+     * 
+     * @param canvas
+     *            the destination canvas, in canvas coordinates.
+     */
+    private void drawLayersAboveStroke(final Canvas canvas)
+    {
+        if (mIsSelfCompositing && (mBackgroundTiles != null) && (TilePyramid.levelForScale(mZoom) == 0))
+        {
+            mLayers.drawAboveActive(canvas, null);
+        }
+    }
+
+    /**
+     * Clip a canvas to the area invalidated by the touch events since the last draw, when nothing else was
+     * invalidated, so that only the damaged segments of the path are rasterized.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     */
+    private void clipToDrawRegion(final Canvas canvas)
+    {
+        if (!canClipToRegion(canvas) || !canvas.getClipBounds(mClipBounds)
+                || !mDrawRegion.isWithinBounds(mClipBounds.left, mClipBounds.top, mClipBounds.right,
+                        mClipBounds.bottom))
+        {
+            return;
+        }
+
+        mClipRegion.setEmpty();
+
+        for (int i = 0; i < mDrawRegion.size(); ++i)
+        {
+            mClipRegion.op((int) Math.floor(mDrawRegion.getLeft(i)), (int) Math.floor(mDrawRegion.getTop(i)),
+                    (int) Math.ceil(mDrawRegion.getRight(i)), (int) Math.ceil(mDrawRegion.getBottom(i)),
+                    Region.Op.UNION);
+        }
+
+        canvas.clipRegion(mClipRegion);
+    }
+
+    /**
+     * @param canvas
+     *            a canvas.
+     * @return true if the canvas supports region clipping, which hardware accelerated canvases only do from Jelly
+     *         Bean MR2.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean canClipToRegion(final Canvas canvas)
+    {
+        return (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) || !canvas.isHardwareAccelerated();
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        mBackgroundView = null;
+        mFrameScheduler.cancel();
+        mHasFrameChanges = false;
+
+        if (mBackgroundTiles != null)
+        {
+            // The tiles go back to the pool; the layers are rendered again from their documents when re-attached
+            for (int i = 0; i < mLayers.size(); ++i)
+            {
+                mLayers.get(i).releaseSurface();
+            }
+
+            mLayers.releaseComposites();
+            mBackgroundTiles = null;
+
+            mPyramid.release();
+            mPyramid = null;
+            mBackgroundDrawable.setPyramid(null);
+        }
+
+        if (mScratchTiles != null)
+        {
+            mScratchTiles.clear();
+            mScratchTiles = null;
+            mScratchSampleCount = 0;
+        }
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState()
+    {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.mActiveLayer = mLayers.getActiveIndex();
+        state.mLayerVisibilities = new boolean[mLayers.size()];
+        state.mLayerAlphas = new int[mLayers.size()];
+
+        // Saving again overwrites the same files, empty layers included
+        if (mStateToken == null)
+        {
+            mStateToken = DrawingStateStore.newToken();
+        }
+
+        state.mToken = mStateToken;
+
+        for (int i = 0; i < mLayers.size(); ++i)
+        {
+            DrawingLayer layer = mLayers.get(i);
+            state.mLayerVisibilities[i] = layer.isVisible();
+            state.mLayerAlphas[i] = layer.getAlpha();
+
+            LayerRestore restore = getPendingRestore(layer);
+
+            if ((restore != null) && (restore.mIndex == i))
+            {
+                // The file is still being read: it is kept for the next restoration
+                restore.mIsHandedOver = true;
+                continue;
+            }
+
+            DrawingStateStore.save(getContext(), mStateToken, i, layer.getDocument());
+        }
+
+        DrawingStateStore.deleteStaleFiles(getContext(), mStateToken, mLayers.size());
+
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(final Parcelable state)
+    {
+        if (!(state instanceof SavedState))
+        {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        clearPath();
+        mPendingRestores.clear();
+        mStateToken = savedState.mToken;
+
+        while (mLayers.size() < savedState.mLayerVisibilities.length)
+        {
+            addLayer();
+        }
+
+        for (int i = 0; i < savedState.mLayerVisibilities.length; ++i)
+        {
+            DrawingLayer layer = mLayers.get(i);
+            layer.setVisible(savedState.mLayerVisibilities[i]);
+            layer.setAlpha(savedState.mLayerAlphas[i]);
+
+            StrokeDocument document = DrawingStateStore.restoreFromMemory(getContext(), mStateToken, i);
+
+            if (document != null)
+            {
+                // Rendered by the next layout if the view is not laid out yet, in time for the first frame
+                layer.setDocument(document);
+            }
+            else
+            {
+                LayerRestore restore = new LayerRestore(layer, i);
+                mPendingRestores.add(restore);
+                DrawingStateStore.restoreFromFile(getContext(), mStateToken, i, restore);
+            }
+        }
+
+        mLayers.setActiveIndex(savedState.mActiveLayer);
+        mLayers.invalidateComposites();
+        bindActiveLayer();
+        invalidateBackground();
+    }
+
+    /**
+     * @param layer
+     *            a layer.
+     * @return the pending restoration of the layer, or null if there is none.
+     */
+    private LayerRestore getPendingRestore(final DrawingLayer layer)
+    {
+        for (LayerRestore restore : mPendingRestores)
+        {
+            if ((restore.mLayer == layer) && restore.isPending())
+            {
+                return restore;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(final MotionEvent event)
+    {
+        final long eventStartTime = (mMetrics != null) ? System.nanoTime() : 0;
+        boolean isEventHandled = false;
+        boolean invalidate = false;
+
+        if (mGestureTrace != null)
+        {
+            recordTraceEvent(event);
+        }
+
+        if (mIsZoomEnabled && onZoomGesture(event))
+        {
+            return true;
+        }
+
+        if (mStream.isMirroring())
+        {
+            // A mirror only displays the streamed drawing
+            return true;
+        }
+
+        float lastTouchX = toCanvasX(event.getX());
+        float lastTouchY = toCanvasY(event.getY());
+
+        // Resolve the listeners once per event
+        final TouchEventListener touchEventListener = mTouchEventListener.get();
+        final BatchTouchEventListener batchTouchEventListener = mBatchTouchEventListener.get();
+
+        switch (event.getAction())
+        {
+            case MotionEvent.ACTION_DOWN:
+                mFirstTouchX = lastTouchX;
+                mFirstTouchY = lastTouchY;
+
+                // Start a new stroke at the pressed location
+                mStroke.reset();
+                mStroke.setStyle(obtainPenStyle());
+
+                if (mIsDrawing)
+                {
+                    mSimplifier.begin(mStroke);
+                }
+
+                mStroke.add(lastTouchX, lastTouchY, event.getEventTime(), event.getPressure());
+                mStrokeRect.set(lastTouchX, lastTouchY, lastTouchX, lastTouchY);
+
+                mStream.beginStroke(mStroke);
+
+                // Notify the listeners
+                if (touchEventListener != null)
+                {
+                    touchEventListener.onTouchDown(lastTouchX, lastTouchY);
+                }
+
+                if (batchTouchEventListener != null)
+                {
+                    batchTouchEventListener.onTouchDown(fillTouchSamples(event, false));
+                }
+
+                isEventHandled = true;
+                invalidate = false;
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                // Start tracking the dirty region.
+                resetDirtyRect(lastTouchX, lastTouchY);
+
+                // When the hardware tracks events faster than they are delivered, the event will contain a history of
+                // those skipped points.
+                final int historySize = event.getHistorySize();
+
+                for (int i = 0; i < historySize; ++i)
+                {
+                    float historicalX = toCanvasX(event.getHistoricalX(i));
+                    float historicalY = toCanvasY(event.getHistoricalY(i));
+
+                    onMoveEvent(historicalX, historicalY, event.getHistoricalEventTime(i),
+                            event.getHistoricalPressure(i));
+                }
+
+                onMoveEvent(lastTouchX, lastTouchY, event.getEventTime(), event.getPressure());
+                expandDirtyRectToTail();
+                unionDirtyRect(mStrokeRect);
+                mHasFrameChanges = true;
+
+                if ((mMetrics != null) && (mUndrawnEventTime == 0))
+                {
+                    mUndrawnEventTime = event.getEventTime();
+                }
+
+                // Notify the listeners
+                if (touchEventListener != null)
+                {
+                    touchEventListener.onTouchMove(lastTouchX, lastTouchY);
+                }
+
+                if (batchTouchEventListener != null)
+                {
+                    batchTouchEventListener.onTouchMove(fillTouchSamples(event, true));
+                }
+
+                isEventHandled = true;
+                invalidate = true;
+                break;
+
+            case MotionEvent.ACTION_UP:
+                // Start tracking the dirty region.
+                resetDirtyRect(lastTouchX, lastTouchY);
+
+                if (mIsDrawing)
+                {
+                    // Flush the pending samples, the single point samples below are recorded as is
+                    mSimplifier.end();
+                    expandDirtyRectToTail();
+                }
+
+                // Single point case
+                if ((Math.abs(lastTouchX - mFirstTouchX) < 2) || (Math.abs(lastTouchY - mFirstTouchY) < 2))
+                {
+                    long eventTime = event.getEventTime();
+                    float pressure = event.getPressure();
+
+                    onMoveEvent(lastTouchX + 1, lastTouchY + 1, eventTime, pressure);
+                    onMoveEvent(lastTouchX + 1, lastTouchY - 1, eventTime, pressure);
+                    onMoveEvent(lastTouchX - 1, lastTouchY - 1, eventTime, pressure);
+                    onMoveEvent(lastTouchX - 1, lastTouchY + 1, eventTime, pressure);
+                    onMoveEvent(lastTouchX, lastTouchY, eventTime, pressure);
+                }
+
+                unionDirtyRect(mStrokeRect);
+                mHasFrameChanges = true;
+
+                // The the previously drawn path into the background view
+                commitChanges();
+
+                // Notify the listeners
+                if (touchEventListener != null)
+                {
+                    touchEventListener.onTouchUp(lastTouchX, lastTouchY);
+                }
+
+                if (batchTouchEventListener != null)
+                {
+                    batchTouchEventListener.onTouchUp(fillTouchSamples(event, false));
+                }
+
+                isEventHandled = true;
+                invalidate = true;
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                // The gesture was taken over, e.g. by a scrolling parent: the stroke ends and its stream is closed
+                endStroke();
+
+                isEventHandled = true;
+                invalidate = false;
+                break;
+
+            default:
+                break;
+        }
+
+        mLastTouchX = lastTouchX;
+        mLastTouchY = lastTouchY;
+
+        if (invalidate)
+        {
+            if (mIsFrameCoalescingEnabled && (event.getAction() == MotionEvent.ACTION_MOVE))
+            {
+                // Moves received within the same frame share a single invalidation
+                mFrameScheduler.schedule();
+            }
+            else
+            {
+                mFrameScheduler.cancel();
+                applyFrameChanges();
+            }
+        }
+
+        mStream.sendSamples();
+
+        if (mMetrics != null)
+        {
+            mMetrics.record(DrawingMetrics.PHASE_EVENT, System.nanoTime() - eventStartTime);
+        }
+
+        return isEventHandled;
+    }
+
+    /**
+     * Handle the zoom gestures: as soon as a second finger touches the view, the current stroke is ended and the two
+     * first fingers zoom and pan the canvas, until all the fingers are up.
+     * 
+     * @param event
+     *            the touch event.
+     * @return true if the event is part of a zoom gesture.
+     */
+    private boolean onZoomGesture(final MotionEvent event)
+    {
+        switch (event.getAction() & MotionEvent.ACTION_MASK)
+        {
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (!mIsZooming)
+                {
+                    endStroke();
+                    mIsZooming = true;
+                }
+
+                mGestureSpan = -1;
+                trackZoomGesture(event);
+                return true;
+
+            case MotionEvent.ACTION_MOVE:
+                if (mIsZooming)
+                {
+                    trackZoomGesture(event);
+                }
+
+                return mIsZooming;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                // The remaining fingers are tracked from their next move
+                mGestureSpan = -1;
+                return mIsZooming;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean wasZooming = mIsZooming;
+                mIsZooming = false;
+                return wasZooming;
+
+            default:
+                return mIsZooming;
+        }
+    }
+
+    /**
+     * Zoom and pan the canvas so that the canvas point under the middle of the two first fingers at the previous
+     * event follows it, and scales with their distance.
+     * 
+     * @param event
+     *            the touch event.
+     */
+    private void trackZoomGesture(final MotionEvent event)
+    {
+        if (event.getPointerCount() < 2)
+        {
+            return;
+        }
+
+        float focusX = (event.getX(0) + event.getX(1)) / 2;
+        float focusY = (event.getY(0) + event.getY(1)) / 2;
+        float span = (float) Math.hypot(event.getX(0) - event.getX(1), event.getY(0) - event.getY(1));
+
+        if ((mGestureSpan > 0) && (span > 0))
+        {
+            float canvasX = toCanvasX(mGestureFocusX);
+            float canvasY = toCanvasY(mGestureFocusY);
+
+            mZoom = clampZoom(mZoom * span / mGestureSpan);
+            mPanX = focusX - canvasX * mZoom;
+            mPanY = focusY - canvasY * mZoom;
+            updateViewMatrix();
+            redrawBackground();
+        }
+
+        mGestureFocusX = focusX;
+        mGestureFocusY = focusY;
+        mGestureSpan = span;
+    }
+
+    /**
+     * End the current stroke before a zoom gesture, or when its gesture is cancelled: a drawn stroke is dropped, the
+     * erased segments are kept.
+     */
+    private void endStroke()
+    {
+        mFrameScheduler.cancel();
+
+        if (mIsDrawing)
+        {
+            mHasFrameChanges = false;
+            mFrameRegion.clear();
+            clearPath();
+            mStream.cancelStroke();
+        }
+        else if (!mStroke.isEmpty())
+        {
+            // Already applied to the backing store, it has to be undoable
+            applyFrameChanges();
+            commitChanges();
+        }
+
+        mStream.flush();
+    }
+
+    /**
+     * Enable or disable the frame coalescing: when enabled, which is the default, the touch moves received within a
+     * display frame are applied with a single invalidation.
+     * 
+     * @param enabled
+     *            true to enable the frame coalescing.
+     */
+    public void setFrameCoalescingEnabled(final boolean enabled)
+    {
+        if (!enabled)
+        {
+            mFrameScheduler.cancel();
+            applyFrameChanges();
+        }
+
+        mIsFrameCoalescingEnabled = enabled;
+    }
+
+    /**
+     * @return the number of touch moves merged into an already scheduled frame since the view creation.
+     */
+    public long getCoalescedEventCount()
+    {
+        return mFrameScheduler.getCoalescedCount();
+    }
+
+    /**
+     * Enable or disable the timings recording: touch event processing, drawing path building, drawing, stroke commit
+     * and touch latency. Disabled by default. Recording does not allocate.
+     * 
+     * @param enabled
+     *            true to enable the timings recording. Disabling it drops the recorded timings.
+     */
+    public void setMetricsEnabled(final boolean enabled)
+    {
+        if (enabled && (mMetrics == null))
+        {
+            mMetrics = new DrawingMetrics();
+        }
+        else if (!enabled)
+        {
+            mMetrics = null;
+        }
+
+        mUndrawnEventTime = 0;
+    }
+
+    /**
+     * @return a copy of the timings recorded since the metrics were enabled or reset, empty if they are disabled.
+     */
+    public DrawingMetrics getMetrics()
+    {
+        DrawingMetrics metrics = new DrawingMetrics();
+
+        if (mMetrics != null)
+        {
+            mMetrics.copyTo(metrics);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Drop the recorded timings.
+     */
+    public void resetMetrics()
+    {
+        if (mMetrics != null)
+        {
+            mMetrics.reset();
+        }
+    }
+
+    /**
+     * Start recording the touch events received by the view, see {@link GestureTrace}. A recording in progress is
+     * discarded.
+     */
+    public void startGestureTraceRecording()
+    {
+        mGestureTrace = new GestureTrace(getWidth(), getHeight());
+    }
+
+    /**
+     * Stop recording the touch events.
+     * 
+     * @return the recorded trace, null if no recording was in progress.
+     */
+    public GestureTrace stopGestureTraceRecording()
+    {
+        GestureTrace trace = mGestureTrace;
+        mGestureTrace = null;
+
+        return trace;
+    }
+
+    /**
+     * Set the touch event listener.
+     * 
+     * @param touchEventListner
+     *            the touch event listener.
+     */
+    public void setTouchEventListener(final TouchEventListener touchEventListner)
+    {
+        mTouchEventListener = new WeakReference<FingerDrawingView.TouchEventListener>(touchEventListner);
+    }
+
+    /**
+     * Set the batch touch event listener. It is only referenced weakly, like the touch event listener.
+     * 
+     * @param batchTouchEventListener
+     *            the batch touch event listener.
+     */
+    public void setBatchTouchEventListener(final BatchTouchEventListener batchTouchEventListener)
+    {
+        mBatchTouchEventListener = new WeakReference<BatchTouchEventListener>(batchTouchEventListener);
+    }
+
+    /**
+     * Set the drawing pen width.
+     * 
+     * @param drawingPenWidth
+     *            the drawing pen width.
+     */
+    public void setDrawingPenWidth(final int drawingPenWidth)
+    {
+        mDrawingPenWidth = dpToPx(drawingPenWidth);
+
+        if (mIsDrawing)
+        {
+            mPaint.setStrokeWidth(mDrawingPenWidth);
+            mCurrentPenWidth = mDrawingPenWidth;
+        }
+    }
+
+    /**
+     * Set the erasing pen width.
+     * 
+     * @param erasingPenWidth
+     *            the erasing pen width.
+     */
+    public void setErasingPenWidth(final int erasingPenWidth)
+    {
+        mErasingPenWidth = dpToPx(erasingPenWidth);
+
+        if (!mIsDrawing)
+        {
+            mPaint.setStrokeWidth(mErasingPenWidth);
+            mCurrentPenWidth = mErasingPenWidth;
+        }
+    }
+
+    /**
+     * Set the smoothing tolerance: touch samples deviating less than this distance from the drawn curve are dropped.
+     * Applies to the next drawing stroke.
+     * 
+     * @param smoothingTolerance
+     *            the smoothing tolerance, in dip. 0 records every touch sample.
+     */
+    public void setSmoothingTolerance(final float smoothingTolerance)
+    {
+        mSimplifier.setTolerance(dpToPx(smoothingTolerance));
+    }
+
+    /**
+     * Set the maximum memory kept by the bitmap pool shared by all the drawing views. Tiles released by a detached,
+     * resized or cleared view are kept in this pool for the next views, e.g. the rows of a list of drawings.
+     * 
+     * @param maxSize
+     *            the maximum size, in bytes. 0 disables the pool. Defaults to an eighth of the heap.
+     */
+    public static void setBitmapPoolSize(final long maxSize)
+    {
+        BitmapPool.setMaxSize(maxSize);
+    }
+
+    /**
+     * Release the bitmaps kept by the shared bitmap pool, e.g. from {@code onTrimMemory()} or {@code onLowMemory()}.
+     */
+    public static void trimBitmapPool()
+    {
+        BitmapPool.clear();
+    }
+
+    /**
+     * Enable or disable the alpha-only ink storage: while all the strokes have the same color, the drawing only stores
+     * the ink coverage, tinted when displayed, which divides its memory by 4. It switches to full color storage as soon
+     * as another color is drawn. Must be called before the view is laid out.
+     * 
+     * @param enabled
+     *            true to enable the alpha-only ink storage.
+     */
+    public void setAlphaInkEnabled(final boolean enabled)
+    {
+        mIsAlphaInkEnabled = enabled;
+    }
+
+    /**
+     * Enable or disable the self-compositing: the view draws the drawing and the live stroke itself, instead of
+     * replacing itself in its parent with a container holding an extra background view. The view hierarchy is left
+     * untouched and a full-size layer of overdraw is saved. Must be called before the view is attached to a window.
+     * <p>
+     * Self-compositing is always used when the view cannot be reparented, e.g. in an {@link AdapterView}.
+     * 
+     * @param enabled
+     *            true to enable the self-compositing.
+     */
+    public void setSelfCompositingEnabled(final boolean enabled)
+    {
+        mIsSelfCompositing = enabled;
+    }
+
+    /**
+     * Enable or disable the incremental live stroke: while drawing, each frame only rasterizes the segments received
+     * since the previous frame into an offscreen coverage layer, so that the cost of a frame does not grow with the
+     * stroke length. Enabled by default. Must be called before the view is laid out.
+     * 
+     * @param enabled
+     *            true to enable the incremental live stroke.
+     */
+    public void setIncrementalStrokeEnabled(final boolean enabled)
+    {
+        mIsIncrementalStrokeEnabled = enabled;
+    }
+
+    /**
+     * @return true if the view draws the drawing itself, see {@link #setSelfCompositingEnabled(boolean)}.
+     */
+    public boolean isSelfCompositingEnabled()
+    {
+        return mIsSelfCompositing;
+    }
+
+    /**
+     * Set the canvas size: the drawing can be larger than the view, and is then displayed zoomed out to fit in it at
+     * most, or panned. When zoomed out, the drawing is displayed from downsampled tiles, rendered in the background
+     * for the visible area only. Changing the size keeps the drawing area overlapping both sizes.
+     * 
+     * @param width
+     *            the canvas width, in pixels. 0 uses the view width, which is the default.
+     * @param height
+     *            the canvas height, in pixels. 0 uses the view height, which is the default.
+     */
+    public void setCanvasSize(final int width, final int height)
+    {
+        mCanvasWidth = Math.max(0, width);
+        mCanvasHeight = Math.max(0, height);
+
+        if (mBackgroundTiles != null)
+        {
+            clearPath();
+            updateSurfaces();
+            updateViewMatrix();
+            invalidateBackground();
+        }
+    }
+
+    /**
+     * @return the canvas width, in pixels, see {@link #setCanvasSize(int, int)}.
+     */
+    public int getCanvasWidth()
+    {
+        return (mCanvasWidth > 0) ? mCanvasWidth : getWidth();
+    }
+
+    /**
+     * @return the canvas height, in pixels, see {@link #setCanvasSize(int, int)}.
+     */
+    public int getCanvasHeight()
+    {
+        return (mCanvasHeight > 0) ? mCanvasHeight : getHeight();
+    }
+
+    /**
+     * Enable or disable the zoom gestures: touching the view with a second finger ends the current stroke, then the
+     * canvas is zoomed by pinching and panned by moving the fingers. Disabled by default.
+     * 
+     * @param enabled
+     *            true to enable the zoom gestures.
+     */
+    public void setZoomEnabled(final boolean enabled)
+    {
+        mIsZoomEnabled = enabled;
+        mIsZooming = false;
+    }
+
+    /**
+     * @return true if the zoom gestures are enabled, see {@link #setZoomEnabled(boolean)}.
+     */
+    public boolean isZoomEnabled()
+    {
+        return mIsZoomEnabled;
+    }
+
+    /**
+     * @return the current zoom, in view pixels per canvas pixel.
+     */
+    public float getZoom()
+    {
+        return mZoom;
+    }
+
+    /**
+     * Zoom the canvas around a point. The zoom is bounded by the zoom fitting the canvas in the view and by 8, and the
+     * canvas is kept within the view.
+     * 
+     * @param zoom
+     *            the new zoom, in view pixels per canvas pixel.
+     * @param focusX
+     *            the X position of the point staying in place, in view pixels.
+     * @param focusY
+     *            the Y position of the point staying in place, in view pixels.
+     */
+    public void setZoom(final float zoom, final float focusX, final float focusY)
+    {
+        float canvasX = toCanvasX(focusX);
+        float canvasY = toCanvasY(focusY);
+
+        mZoom = clampZoom(zoom);
+        mPanX = focusX - canvasX * mZoom;
+        mPanY = focusY - canvasY * mZoom;
+        updateViewMatrix();
+        redrawBackground();
+    }
+
+    /**
+     * Set the drawing pen color.
+     * 
+     * @param drawingPenColor
+     *            the drawing pen color.
+     */
+    public void setDrawingPenColor(final int drawingPenColor)
+    {
+        mDrawingPenColor = drawingPenColor;
+        mPaint.setColor(mDrawingPenColor);
+    }
+
+    /**
+     * Start the drawing mode.
+     */
+    public void startDrawingMode()
+    {
+        mIsDrawing = true;
+        mPaint.setXfermode(null);
+        mPaint.setStrokeCap(Paint.Cap.BUTT);
+        mPaint.setColor(mDrawingPenColor);
+        mPaint.setStrokeWidth(mDrawingPenWidth);
+
+        mCurrentPenWidth = mDrawingPenWidth;
+    }
+
+    /**
+     * Start the erasing mode.
+     */
+    public void startErasingMode()
+    {
+        mIsDrawing = false;
+        mPaint.setColor(0xFFF44FFF);
+        mPaint.setXfermode(new PorterDuffXfermode(Mode.CLEAR));
+        // Round caps hide the seams between the incrementally applied segments
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(mErasingPenWidth);
+
+        mCurrentPenWidth = mErasingPenWidth;
+    }
+
+    /**
+     * Erase the current drawing.
+     */
+    public void eraseAll()
+    {
+        // Undoable, every tile is released: an empty drawing does not use any memory
+        mHistory.clear();
+        invalidateBackground();
+        clearPath();
+        mStream.clear();
+        startDrawingMode();
+    }
+
+    /**
+     * @return the committed strokes of the active layer. The returned document must not be modified.
+     */
+    public StrokeDocument getDocument()
+    {
+        return mDocument;
+    }
+
+    /**
+     * Replace the active layer drawing with the strokes of a document, e.g. read with a {@link StrokeDocumentReader}.
+     * 
+     * @param document
+     *            the new document, owned by the view afterwards.
+     */
+    public void setDocument(final StrokeDocument document)
+    {
+        clearPath();
+        mLayers.getActive().setDocument(document);
+        bindActiveLayer();
+
+        if (mBackgroundTiles != null)
+        {
+            invalidateBackground();
+        }
+    }
+
+    /**
+     * @return the number of layers, at least 1.
+     */
+    public int getLayerCount()
+    {
+        return mLayers.size();
+    }
+
+    /**
+     * Add an empty layer on top of the others. Its pixels are only allocated when something is drawn on it.
+     * 
+     * @return the index of the new layer, from the bottom.
+     */
+    public int addLayer()
+    {
+        DrawingLayer layer = new DrawingLayer(mStrokeRenderer, new StrokeDocument(0, 0));
+        layer.getHistory().setMemoryBudget(mUndoMemoryBudget);
+
+        if (mBackgroundTiles != null)
+        {
+            layer.attachSurface(createBackgroundTiles());
+        }
+
+        mLayers.add(layer);
+
+        return mLayers.size() - 1;
+    }
+
+    /**
+     * Remove a layer. When the active layer is removed, the layer below it becomes active. The last layer cannot be
+     * removed.
+     * 
+     * @param index
+     *            the index of the layer to remove, from the bottom.
+     */
+    public void removeLayer(final int index)
+    {
+        if (index == mLayers.getActiveIndex())
+        {
+            clearPath();
+        }
+
+        mLayers.remove(index).releaseSurface();
+        bindActiveLayer();
+        invalidateBackground();
+    }
+
+    /**
+     * Move a layer. The active layer stays active.
+     * 
+     * @param from
+     *            the current index of the layer, from the bottom.
+     * @param to
+     *            the new index of the layer, from the bottom.
+     */
+    public void moveLayer(final int from, final int to)
+    {
+        mLayers.move(from, to);
+        invalidateBackground();
+    }
+
+    /**
+     * @return the index of the active layer, from the bottom.
+     */
+    public int getActiveLayer()
+    {
+        return mLayers.getActiveIndex();
+    }
+
+    /**
+     * Set the active layer: the layer the strokes are drawn on, erased from, and undone from. The document and undo
+     * methods also apply to this layer.
+     * 
+     * @param index
+     *            the index of the new active layer, from the bottom.
+     */
+    public void setActiveLayer(final int index)
+    {
+        if (index != mLayers.getActiveIndex())
+        {
+            clearPath();
+            mLayers.setActiveIndex(index);
+            bindActiveLayer();
+            invalidateBackground();
+        }
+    }
+
+    /**
+     * @param index
+     *            the layer index, from the bottom.
+     * @return true if the layer is displayed.
+     */
+    public boolean isLayerVisible(final int index)
+    {
+        return mLayers.get(index).isVisible();
+    }
+
+    /**
+     * Show or hide a layer.
+     * 
+     * @param index
+     *            the layer index, from the bottom.
+     * @param visible
+     *            true to display the layer.
+     */
+    public void setLayerVisible(final int index, final boolean visible)
+    {
+        mLayers.get(index).setVisible(visible);
+        mLayers.invalidateComposites();
+        invalidateBackground();
+    }
+
+    /**
+     * @param index
+     *            the layer index, from the bottom.
+     * @return the layer opacity, from 0 (transparent) to 1 (opaque).
+     */
+    public float getLayerOpacity(final int index)
+    {
+        return (float) mLayers.get(index).getAlpha() / DrawingLayer.OPAQUE;
+    }
+
+    /**
+     * Set the opacity of a layer.
+     * 
+     * @param index
+     *            the layer index, from the bottom.
+     * @param opacity
+     *            the layer opacity, from 0 (transparent) to 1 (opaque).
+     */
+    public void setLayerOpacity(final int index, final float opacity)
+    {
+        mLayers.get(index).setAlpha(Math.round(Math.max(0, Math.min(1, opacity)) * DrawingLayer.OPAQUE));
+        mLayers.invalidateComposites();
+        invalidateBackground();
+    }
+
+    /**
+     * Undo the last stroke or erasure.
+     * 
+     * @return false if there was nothing to undo.
+     */
+    public boolean undo()
+    {
+        if (!mHistory.undo())
+        {
+            return false;
+        }
+
+        invalidateBackground();
+        mStream.undo();
+        return true;
+    }
+
+    /**
+     * Redo the last undone stroke or erasure.
+     * 
+     * @return false if there was nothing to redo.
+     */
+    public boolean redo()
+    {
+        if (!mHistory.redo())
+        {
+            return false;
+        }
+
+        invalidateBackground();
+        mStream.redo();
+        return true;
+    }
+
+    /**
+     * @return true if a stroke or an erasure can be undone.
+     */
+    public boolean canUndo()
+    {
+        return mHistory.canUndo();
+    }
+
+    /**
+     * @return true if a stroke or an erasure can be redone.
+     */
+    public boolean canRedo()
+    {
+        return mHistory.canRedo();
+    }
+
+    /**
+     * Set the memory budget of the undo checkpoints: compressed copies of the drawing, taken every few strokes, from
+     * which undoing replays the strokes. The oldest checkpoints are evicted first.
+     * 
+     * @param memoryBudget
+     *            the budget of each layer, in bytes. 0 disables the checkpoints, undoing then replays the whole
+     *            drawing.
+     */
+    public void setUndoMemoryBudget(final long memoryBudget)
+    {
+        mUndoMemoryBudget = memoryBudget;
+
+        for (int i = 0; i < mLayers.size(); ++i)
+        {
+            mLayers.get(i).getHistory().setMemoryBudget(memoryBudget);
+        }
+    }
+
+    /**
+     * Export the view as a PNG file, at the specified location. The current drawing, the visible layers flattened, is
+     * captured immediately, the file is encoded on a background thread while the user can keep drawing. The export
+     * fails if the view is not laid out yet.
+     * 
+     * @param filename
+     *            the destination full path.
+     * @param listener
+     *            the export listener, may be null.
+     * @return the export task, which can be used to cancel the export.
+     */
+    public ExportTask exportAsFile(final String filename, final ExportListener listener)
+    {
+        TiledBitmap exported = createExportedSurface();
+        ExportTask exportTask = new ExportTask(exported, filename, listener);
+
+        if ((exported != null) && (exported != mBackgroundTiles))
+        {
+            // The flattened tiles are shared with the snapshot, they go back to the pool when it is released
+            exported.clear();
+        }
+
+        exportTask.start();
+
+        return exportTask;
+    }
+
+    /**
+     * Export the strokes of the visible layers as an SVG file, at the specified location. Unlike a PNG export, the
+     * file is written from the strokes, so it stays sharp at any scale. The strokes are captured immediately, the
+     * file is written on a background thread; only the completion or the failure is notified.
+     * 
+     * @param filename
+     *            the destination full path.
+     * @param listener
+     *            the export listener, may be null.
+     */
+    public void exportAsSvg(final String filename, final ExportListener listener)
+    {
+        exportAsVectorFile(filename, false, listener);
+    }
+
+    /**
+     * Export the strokes of the visible layers as a single page PDF file, one point per pixel, at the specified
+     * location. See {@link #exportAsSvg(String, ExportListener)}.
+     * 
+     * @param filename
+     *            the destination full path.
+     * @param listener
+     *            the export listener, may be null.
+     */
+    public void exportAsPdf(final String filename, final ExportListener listener)
+    {
+        exportAsVectorFile(filename, true, listener);
+    }
+
+    /**
+     * Export the strokes of the visible layers as a vector file.
+     * 
+     * @param filename
+     *            the destination full path.
+     * @param pdf
+     *            true for a PDF file, false for an SVG file.
+     * @param listener
+     *            the export listener, may be null.
+     */
+    private void exportAsVectorFile(final String filename, final boolean pdf, final ExportListener listener)
+    {
+        final int width = getCanvasWidth();
+        final int height = getCanvasHeight();
+        final List<List<Stroke>> layers = new ArrayList<List<Stroke>>();
+        final int[] alphas = new int[mLayers.size()];
+
+        for (int i = 0; i < mLayers.size(); ++i)
+        {
+            DrawingLayer layer = mLayers.get(i);
+
+            if (layer.isDisplayed())
+            {
+                alphas[layers.size()] = layer.getAlpha();
+                layers.add(layer.getDocument().copyStrokes());
+            }
+        }
+
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File destination = new File(filename);
+                File partial = new File(filename + ExportTask.PARTIAL_FILE_SUFFIX);
+                Exception failure = null;
+
+                try
+                {
+                    if (pdf)
+                    {
+                        VectorExporter.writePdf(width, height, layers, alphas, partial);
+                    }
+                    else
+                    {
+                        VectorExporter.writeSvg(width, height, layers, alphas, partial);
+                    }
+
+                    if (!partial.renameTo(destination))
+                    {
+                        throw new IOException("Cannot rename " + partial + " to " + destination);
+                    }
+                }
+                catch (IOException e)
+                {
+                    failure = e;
+                    partial.delete();
+                }
+
+                if (listener == null)
+                {
+                    return;
+                }
+
+                final Exception exception = failure;
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (exception == null)
+                        {
+                            listener.onExportCompleted(filename);
+                        }
+                        else
+                        {
+                            listener.onExportFailed(filename, exception);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stream the active layer drawing through a transport, live: the strokes are sent while they are drawn, along with
+     * the undo, redo and erase operations. A mirror, see {@link #startMirroring(StrokeTransport)}, receives a snapshot
+     * of the drawing when it connects or loses frames. Replaces the current stream, if any.
+     * 
+     * @param transport
+     *            the destination transport, opened by the view and closed by {@link #stopStreaming()}.
+     */
+    public void startStreaming(final StrokeTransport transport)
+    {
+        mStream.startStreaming(transport);
+    }
+
+    /**
+     * Stop streaming the drawing and close the transport, if the drawing is streamed.
+     */
+    public void stopStreaming()
+    {
+        mStream.stopStreaming();
+    }
+
+    /**
+     * @return true if the drawing is streamed, see {@link #startStreaming(StrokeTransport)}.
+     */
+    public boolean isStreaming()
+    {
+        return mStream.isStreaming();
+    }
+
+    /**
+     * Display a drawing streamed by another view, see {@link #startStreaming(StrokeTransport)}, in the active layer.
+     * The drawing replaces the active layer drawing when the stream is joined, and the live strokes are drawn over it
+     * until they are committed. The view does not draw while mirroring, it can still be zoomed and panned. Replaces the
+     * current mirrored stream, if any.
+     * 
+     * @param transport
+     *            the source transport, opened by the view and closed by {@link #stopMirroring()}.
+     */
+    public void startMirroring(final StrokeTransport transport)
+    {
+        stopMirroring();
+        endStroke();
+        mStream.startMirroring(transport);
+    }
+
+    /**
+     * Stop displaying the streamed drawing and close the transport, if a drawing is mirrored. The strokes already
+     * committed are kept in the active layer, the live ones are dropped.
+     */
+    public void stopMirroring()
+    {
+        if (mStream.stopMirroring())
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * @return true if a streamed drawing is displayed, see {@link #startMirroring(StrokeTransport)}.
+     */
+    public boolean isMirroring()
+    {
+        return mStream.isMirroring();
+    }
+
+    /**
+     * Replace the active layer drawing with a snapshot of the mirrored drawing.
+     * 
+     * @param width
+     *            the canvas width of the mirrored drawing, in pixels.
+     * @param height
+     *            the canvas height of the mirrored drawing, in pixels.
+     * @param strokes
+     *            the committed strokes of the mirrored drawing.
+     */
+    private void applyRemoteReset(final int width, final int height, final List<Stroke> strokes)
+    {
+        invalidate();
+
+        if ((width != getCanvasWidth()) || (height != getCanvasHeight()))
+        {
+            setCanvasSize(width, height);
+        }
+
+        StrokeDocument document = new StrokeDocument(width, height);
+
+        for (int i = 0; i < strokes.size(); ++i)
+        {
+            document.add(strokes.get(i));
+        }
+
+        setDocument(document);
+    }
+
+    /**
+     * Apply the new samples of a live eraser stroke of the mirrored drawing to the backing store.
+     * 
+     * @param stroke
+     *            the live eraser stroke.
+     * @param from
+     *            the index of the first new sample.
+     */
+    private void applyRemoteErasure(final Stroke stroke, final int from)
+    {
+        if (mBackgroundTiles == null)
+        {
+            return;
+        }
+
+        final int size = stroke.size();
+
+        // Segments start from the last applied sample so that consecutive updates join
+        int first = Math.max(0, from - 1);
+
+        mEraserPath.rewind();
+        mEraserPath.moveTo(stroke.getX(first), stroke.getY(first));
+
+        for (int i = first + 1; i < size; ++i)
+        {
+            mEraserPath.lineTo(stroke.getX(i), stroke.getY(i));
+        }
+
+        if (size == first + 1)
+        {
+            // Single sample: erase a dot
+            mEraserPath.lineTo(stroke.getX(first), stroke.getY(first));
+        }
+
+        mRemoteEraserPaint.setStrokeWidth(stroke.getStyle().getWidth());
+        setRemoteRect(stroke, first, stroke.getStyle());
+        mBackgroundTiles.drawPath(mEraserPath, mRemoteEraserPaint, mRemoteRect, false);
+        invalidateBackground(mRemoteRect);
+    }
+
+    /**
+     * Commit a stroke of the mirrored drawing to the active layer.
+     * 
+     * @param stroke
+     *            the ended stroke.
+     * @param wasLive
+     *            true if the stroke was drawn as a live stroke, false if it is an eraser already applied.
+     */
+    private void applyRemoteStrokeEnd(final Stroke stroke, final boolean wasLive)
+    {
+        if (wasLive)
+        {
+            setRemoteRect(stroke, 0, stroke.getStyle());
+            invalidateRect(this, mRemoteRect);
+
+            if (mBackgroundTiles != null)
+            {
+                mStrokeRenderer.render(stroke, mBackgroundTiles);
+                invalidateBackground(mRemoteRect);
+            }
+        }
+
+        if (!stroke.isEmpty())
+        {
+            mHistory.commit(stroke);
+        }
+    }
+
+    /**
+     * Set {@link #mRemoteRect} to the area covered by samples of a stroke.
+     * 
+     * @param stroke
+     *            the stroke.
+     * @param from
+     *            the index of the first covered sample.
+     * @param style
+     *            the stroke style.
+     */
+    private void setRemoteRect(final Stroke stroke, final int from, final PenStyle style)
+    {
+        mRemoteRect.set(stroke.getX(from), stroke.getY(from), stroke.getX(from), stroke.getY(from));
+
+        for (int i = from + 1; i < stroke.size(); ++i)
+        {
+            mRemoteRect.union(stroke.getX(i), stroke.getY(i));
+        }
+
+        float margin = style.getWidth() / 2 + 1;
+
+        mRemoteRect.inset(-margin, -margin);
+    }
+
+    /**
+     * Save the view as a PNG file, at the specified location. The file is encoded on the calling thread.
+     * 
+     * @param filename
+     *            the destination full path.
+     * @deprecated blocks the calling thread during the encoding, use {@link #exportAsFile(String, ExportListener)}.
+     */
+    @Deprecated
+    public void saveAsFile(final String filename)
+    {
+        TiledBitmap exported = createExportedSurface();
+        ExportTask exportTask = new ExportTask(exported, filename, null);
+
+        if ((exported != null) && (exported != mBackgroundTiles))
+        {
+            exported.clear();
+        }
+
+        // Same streaming encoding as an export, waited for
+        exportTask.run();
+
+        try
+        {
+            exportTask.get();
+        }
+        catch (Exception e)
+        {
+            Log.e(FingerDrawingView.class.getName(), "An error occurred during file saving", e);
+        }
+    }
+
+    /**
+     * @return the backing store of the single, opaque layer, otherwise a new surface flattening the visible layers.
+     *         Null if the view is not laid out yet.
+     */
+    private TiledBitmap createExportedSurface()
+    {
+        if (mBackgroundTiles == null)
+        {
+            return null;
+        }
+
+        DrawingLayer activeLayer = mLayers.getActive();
+
+        if ((mLayers.size() == 1) && activeLayer.isVisible() && (activeLayer.getAlpha() == DrawingLayer.OPAQUE))
+        {
+            return mBackgroundTiles;
+        }
+
+        return mLayers.flatten(mBackgroundTiles.getWidth(), mBackgroundTiles.getHeight());
+    }
+
+    /**
+     * Initialize the view.
+     */
+    private void initialize()
+    {
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+
+        mPath = new Path();
+
+        mRemotePaint.set(mPaint);
+        mRemoteEraserPaint.set(mPaint);
+        mRemoteEraserPaint.setStrokeCap(Paint.Cap.ROUND);
+        mRemoteEraserPaint.setXfermode(new PorterDuffXfermode(Mode.CLEAR));
+
+        mLayers.add(new DrawingLayer(mStrokeRenderer, new StrokeDocument(0, 0)));
+        bindActiveLayer();
+
+        setBackgroundColor(Color.TRANSPARENT);
+
+        startDrawingMode();
+    }
+
+    /**
+     * Erase all the view.
+     */
+    private void clearPath()
+    {
+        resetPath();
+
+        // Repaints the entire view.
+        invalidate();
+        ++mInvalidationCount;
+        mInvalidatedPixelCount += (long) getWidth() * getHeight();
+    }
+
+    /**
+     * Forget the current stroke, without invalidating the view.
+     */
+    private void resetPath()
+    {
+        mStroke.reset();
+        mPath.rewind();
+        mTailPath.rewind();
+        mPathSampleCount = 0;
+        mErasedSampleCount = 0;
+
+        if (mScratchSampleCount > 0)
+        {
+            // The layer tiles go back to the pool
+            mScratchTiles.clear();
+            mScratchSampleCount = 0;
+        }
+    }
+
+    /**
+     * Handle a touch move event.
+     * 
+     * @param eventX
+     *            the event X position, in canvas coordinates.
+     * @param eventY
+     *            the event Y position, in canvas coordinates.
+     * @param eventTime
+     *            the event time, in milliseconds.
+     * @param pressure
+     *            the event pressure.
+     */
+    private void onMoveEvent(final float eventX, final float eventY, final long eventTime, final float pressure)
+    {
+        // Expand the dirty region
+        expandDirtyRect(eventX, eventY);
+        mFrameRegion.addSegment(mSegmentStartX, mSegmentStartY, eventX, eventY, mCurrentPenWidth / 2 + 1);
+        mSegmentStartX = eventX;
+        mSegmentStartY = eventY;
+
+        // Record the new position, the drawing path is only updated when rendering
+        if (mSimplifier.isActive())
+        {
+            mSimplifier.add(eventX, eventY, eventTime, pressure);
+        }
+        else
+        {
+            mStroke.add(eventX, eventY, eventTime, pressure);
+        }
+    }
+
+    /**
+     * Apply the changes accumulated since the last frame: invalidate the area of the drawn path, or erase the new
+     * eraser segments.
+     */
+    private void applyFrameChanges()
+    {
+        if (!mHasFrameChanges)
+        {
+            return;
+        }
+
+        if (mIsDrawing)
+        {
+            // Only the segments touched since the last frame are invalidated, they include the stroke width.
+            for (int i = 0; i < mFrameRegion.size(); ++i)
+            {
+                invalidateRect(this, mFrameRegion.getLeft(i), mFrameRegion.getTop(i), mFrameRegion.getRight(i),
+                        mFrameRegion.getBottom(i));
+            }
+        }
+        else if (mBackgroundTiles != null)
+        {
+            // Apply the new eraser segments, only the touched region is invalidated.
+            eraseNewSegments();
+
+            if (mMetrics != null)
+            {
+                recordTouchLatency();
+            }
+        }
+
+        mFrameRegion.clear();
+        mHasFrameChanges = false;
+    }
+
+    /**
+     * Apply the pending frame changes immediately, as if a display frame occurred. Used for replays.
+     */
+    void flushFrameChanges()
+    {
+        mFrameScheduler.cancel();
+        applyFrameChanges();
+    }
+
+    /**
+     * @return the number of invalidations since the view creation, of the view and of the background view.
+     */
+    long getInvalidationCount()
+    {
+        return mInvalidationCount;
+    }
+
+    /**
+     * @return the number of invalidated pixels since the view creation, counted once per invalidation.
+     */
+    long getInvalidatedPixelCount()
+    {
+        return mInvalidatedPixelCount;
+    }
+
+    /**
+     * @return the number of committed strokes since the view creation.
+     */
+    long getCommitCount()
+    {
+        return mCommitCount;
+    }
+
+    /**
+     * Record a touch event into the trace being recorded.
+     * 
+     * @param event
+     *            the touch event.
+     */
+    private void recordTraceEvent(final MotionEvent event)
+    {
+        final int historySize = event.getHistorySize();
+        final int pointerCount = event.getPointerCount();
+
+        mGestureTrace.addEvent(event.getAction());
+
+        // Every pointer, so that zoom gestures are replayed too
+        for (int pointer = 0; pointer < pointerCount; ++pointer)
+        {
+            mGestureTrace.addPointer(event.getPointerId(pointer));
+        }
+
+        for (int i = 0; i < historySize; ++i)
+        {
+            mGestureTrace.addSample(event.getHistoricalEventTime(i));
+
+            for (int pointer = 0; pointer < pointerCount; ++pointer)
+            {
+                mGestureTrace.addCoordinates(event.getHistoricalX(pointer, i), event.getHistoricalY(pointer, i),
+                        event.getHistoricalPressure(pointer, i));
+            }
+        }
+
+        mGestureTrace.addSample(event.getEventTime());
+
+        for (int pointer = 0; pointer < pointerCount; ++pointer)
+        {
+            mGestureTrace.addCoordinates(event.getX(pointer), event.getY(pointer), event.getPressure(pointer));
+        }
+    }
+
+    /**
+     * Record the latency of the oldest touch move not drawn yet, now drawn.
+     */
+    private void recordTouchLatency()
+    {
+        if (mUndrawnEventTime != 0)
         {
-            mBackgroundBitmap.recycle();
-            mBackgroundBitmap = null;
+            // Event times are in the uptime time base
+            mMetrics.record(DrawingMetrics.PHASE_TOUCH_LATENCY, (SystemClock.uptimeMillis() - mUndrawnEventTime)
+                    * NANOS_PER_MILLI);
+            mUndrawnEventTime = 0;
         }
-
-        super.onDetachedFromWindow();
     }
 
-    @Override
-    public boolean dispatchTouchEvent(final MotionEvent event)
+    /**
+     * Copy the samples of a motion event into the reused samples buffer, in canvas coordinates.
+     * 
+     * @param event
+     *            the motion event.
+     * @param includeHistory
+     *            true to include the historical samples.
+     * @return the samples buffer.
+     */
+    private TouchSamples fillTouchSamples(final MotionEvent event, final boolean includeHistory)
     {
-        boolean isEventHandled = false;
-        boolean invalidate = false;
+        final int historySize = includeHistory ? event.getHistorySize() : 0;
 
-        int lastTouchX = (int) event.getX();
-        int lastTouchY = (int) event.getY();
+        mTouchSamples.reset(historySize + 1);
 
-        switch (event.getAction())
+        for (int i = 0; i < historySize; ++i)
         {
-            case MotionEvent.ACTION_DOWN:
-                mFirstTouchX = lastTouchX;
-                mFirstTouchY = lastTouchY;
-
-                // Move the drawing path to the pressed location
-                mPath.moveTo(lastTouchX, lastTouchY);
-
-                // Notify the listener
-                if (mTouchEventListener.get() != null)
-                {
-                    mTouchEventListener.get().onTouchDown(lastTouchX, lastTouchY);
-                }
-
-                isEventHandled = true;
-                invalidate = false;
-                break;
-
-            case MotionEvent.ACTION_MOVE:
-                // Start tracking the dirty region.
-                resetDirtyRect(lastTouchX, lastTouchY);
-
-                // When the hardware tracks events faster than they are delivered, the event will contain a history of
-                // those skipped points.
-                for (int i = 0; i < event.getHistorySize(); ++i)
-                {
-                    int historicalX = (int) event.getHistoricalX(i);
-                    int historicalY = (int) event.getHistoricalY(i);
+            mTouchSamples.add(toCanvasX(event.getHistoricalX(i)), toCanvasY(event.getHistoricalY(i)),
+                    event.getHistoricalEventTime(i), event.getHistoricalPressure(i));
+        }
 
-                    onMoveEvent(historicalX, historicalY);
-                }
+        mTouchSamples.add(toCanvasX(event.getX()), toCanvasY(event.getY()), event.getEventTime(), event.getPressure());
 
-                onMoveEvent(lastTouchX, lastTouchY);
+        return mTouchSamples;
+    }
 
-                // Notify the listener
-                if (mTouchEventListener.get() != null)
-                {
-                    mTouchEventListener.get().onTouchMove(lastTouchX, lastTouchY);
-                }
+    /**
+     * Append the stroke samples recorded since the last update to the drawing path.
+     */
+    private void updatePath()
+    {
+        StrokeRenderer.appendSamples(mStroke, mPathSampleCount, mPath, true);
+        mPathSampleCount = mStroke.size();
+    }
 
-                isEventHandled = true;
-                invalidate = true;
-                break;
+    /**
+     * Build the live end of the drawn stroke: from the end of {@link #mPath} to the last recorded sample, then to the
+     * last touch position when the simplifier has not emitted it yet.
+     */
+    private void updateTailPath()
+    {
+        mTailPath.rewind();
 
-            case MotionEvent.ACTION_UP:
-                // Start tracking the dirty region.
-                resetDirtyRect(lastTouchX, lastTouchY);
+        final int last = mStroke.size() - 1;
 
-                // Single point case
-                if ((Math.abs(lastTouchX - mFirstTouchX) < 2) || (Math.abs(lastTouchY - mFirstTouchY) < 2))
-                {
-                    onMoveEvent(lastTouchX + 1, lastTouchY + 1);
-                    onMoveEvent(lastTouchX + 1, lastTouchY - 1);
-                    onMoveEvent(lastTouchX - 1, lastTouchY - 1);
-                    onMoveEvent(lastTouchX - 1, lastTouchY + 1);
-                    onMoveEvent(lastTouchX, lastTouchY);
-                }
+        if (last < 0)
+        {
+            return;
+        }
 
-                // The the previously drawn path into the background view
-                commitChanges();
+        if (last == 0)
+        {
+            mTailPath.moveTo(mStroke.getX(0), mStroke.getY(0));
+        }
+        else
+        {
+            mTailPath.moveTo((mStroke.getX(last - 1) + mStroke.getX(last)) / 2,
+                    (mStroke.getY(last - 1) + mStroke.getY(last)) / 2);
+        }
 
-                // Notify the listener
-                if (mTouchEventListener.get() != null)
-                {
-                    mTouchEventListener.get().onTouchUp(lastTouchX, lastTouchY);
-                }
+        mTailPath.lineTo(mStroke.getX(last), mStroke.getY(last));
 
-                isEventHandled = true;
-                invalidate = true;
-                break;
+        if (mSimplifier.hasPendingSample())
+        {
+            mTailPath.lineTo(mSimplifier.getPendingX(), mSimplifier.getPendingY());
+        }
+    }
 
-            default:
-                break;
+    /**
+     * Expand the dirty region to the last recorded samples: emitting a sample replaces the previous live end of the
+     * stroke by a curve, which may lie outside the area touched by the current event.
+     */
+    private void expandDirtyRectToTail()
+    {
+        if (!mIsDrawing)
+        {
+            return;
         }
 
-        mLastTouchX = lastTouchX;
-        mLastTouchY = lastTouchY;
+        final int first = Math.max(0, mStroke.size() - 3);
 
-        if (invalidate)
+        for (int i = first; i < mStroke.size(); ++i)
         {
-            if (mIsDrawing)
-            {
-                // Include half the stroke width to avoid clipping.
-                invalidate((int) (mDirtyRect.left - mCurrentPenWidth / 2),
-                        (int) (mDirtyRect.top - mCurrentPenWidth / 2), (int) (mDirtyRect.right + mCurrentPenWidth / 2),
-                        (int) (mDirtyRect.bottom + mCurrentPenWidth / 2));
-            }
-            else
+            expandDirtyRect(mStroke.getX(i), mStroke.getY(i));
+
+            if (i > first)
             {
-                invalidate();
+                mFrameRegion.addSegment(mStroke.getX(i - 1), mStroke.getY(i - 1), mStroke.getX(i), mStroke.getY(i),
+                        mCurrentPenWidth / 2 + 1);
             }
         }
-
-        return isEventHandled;
     }
 
     /**
-     * Set the touch event listener.
+     * Called when replaying history to ensure the dirty region includes all points.
      * 
-     * @param touchEventListner
-     *            the touch event listener.
+     * @param historicalX
+     * @param historicalY
      */
-    public void setTouchEventListener(final TouchEventListener touchEventListner)
+    private void expandDirtyRect(final float historicalX, final float historicalY)
     {
-        mTouchEventListener = new WeakReference<FingerDrawingView.TouchEventListener>(touchEventListner);
+        mDirtyRect.expand(historicalX, historicalY);
     }
 
     /**
-     * Set the drawing pen width.
+     * Resets the dirty region when the motion event occurs.
      * 
-     * @param drawingPenWidth
-     *            the drawing pen width.
+     * @param eventX
+     * @param eventY
      */
-    public void setDrawingPenWidth(final int drawingPenWidth)
+    private void resetDirtyRect(final float eventX, final float eventY)
     {
-        mDrawingPenWidth = dpToPx(drawingPenWidth);
-
-        if (mIsDrawing)
-        {
-            mPaint.setStrokeWidth(mDrawingPenWidth);
-            mCurrentPenWidth = mDrawingPenWidth;
-        }
+        // The lastTouchX and lastTouchY were set when the ACTION_DOWN motion event occurred.
+        mDirtyRect.reset(mLastTouchX, mLastTouchY, eventX, eventY);
+        mSegmentStartX = mLastTouchX;
+        mSegmentStartY = mLastTouchY;
     }
 
     /**
-     * Set the erasing pen width.
+     * Add the dirty region to a rectangle.
      * 
-     * @param erasingPenWidth
-     *            the erasing pen width.
+     * @param rect
+     *            the rectangle to expand.
      */
-    public void setErasingPenWidth(final int erasingPenWidth)
+    private void unionDirtyRect(final RectF rect)
     {
-        mErasingPenWidth = dpToPx(erasingPenWidth);
-
-        if (!mIsDrawing)
-        {
-            mPaint.setStrokeWidth(mErasingPenWidth);
-            mCurrentPenWidth = mErasingPenWidth;
-        }
+        // RectF.union() ignores empty rectangles, e.g. the dirty region of a horizontal move
+        rect.left = Math.min(rect.left, mDirtyRect.getLeft());
+        rect.top = Math.min(rect.top, mDirtyRect.getTop());
+        rect.right = Math.max(rect.right, mDirtyRect.getRight());
+        rect.bottom = Math.max(rect.bottom, mDirtyRect.getBottom());
     }
 
     /**
-     * Set the drawing pen color.
-     * 
-     * @param drawingPenColor
-     *            the drawing pen color.
+     * Save the drawn path into the background bitmap.
      */
-    public void setDrawingPenColor(final int drawingPenColor)
+    private void commitChanges()
     {
-        mDrawingPenColor = drawingPenColor;
-        mPaint.setColor(mDrawingPenColor);
-    }
+        final long commitStartTime = (mMetrics != null) ? System.nanoTime() : 0;
 
-    /**
-     * Start the drawing mode.
-     */
-    public void startDrawingMode()
-    {
-        mIsDrawing = true;
-        mPaint.setXfermode(null);
-        mPaint.setColor(mDrawingPenColor);
-        mPaint.setStrokeWidth(mDrawingPenWidth);
+        if (mIsDrawing)
+        {
+            updatePath();
+            StrokeRenderer.appendTail(mStroke, mPath);
+            drawPathOnBackground();
+        }
+        else
+        {
+            eraseNewSegments();
+        }
 
-        mCurrentPenWidth = mDrawingPenWidth;
+        if (!mStroke.isEmpty())
+        {
+            mHistory.commit(mStroke.copy());
+            ++mCommitCount;
+        }
+
+        mStream.endStroke();
+
+        // Only the committed area changed, it was invalidated when drawn on the background
+        resetPath();
+
+        if (mMetrics != null)
+        {
+            mMetrics.record(DrawingMetrics.PHASE_COMMIT, System.nanoTime() - commitStartTime);
+        }
     }
 
     /**
-     * Start the erasing mode.
+     * @return the pen style matching the current mode and settings.
      */
-    public void startErasingMode()
+    private PenStyle obtainPenStyle()
     {
-        mIsDrawing = false;
-        mPaint.setColor(0xFFF44FFF);
-        mPaint.setXfermode(new PorterDuffXfermode(Mode.CLEAR));
-        mPaint.setStrokeWidth(mErasingPenWidth);
+        // Styles are shared by consecutive strokes
+        if ((mPenStyle == null) || (mPenStyle.isEraser() == mIsDrawing) || (mPenStyle.getWidth() != mCurrentPenWidth)
+                || (mIsDrawing && (mPenStyle.getColor() != mDrawingPenColor)))
+        {
+            mPenStyle = new PenStyle(mDrawingPenColor, mCurrentPenWidth, !mIsDrawing);
+        }
 
-        mCurrentPenWidth = mErasingPenWidth;
+        return mPenStyle;
     }
 
     /**
-     * Erase the current drawing.
+     * Draw the current path on the background tiles, clipped to the area covered by the stroke. Only that area of the
+     * background view is invalidated.
      */
-    public void eraseAll()
+    private void drawPathOnBackground()
     {
-        mBackgroundView.setBackgroundColor(Color.TRANSPARENT);
-        mBackgroundCanvas.drawColor(Color.TRANSPARENT, Mode.CLEAR);
-        commitChanges();
+        // Include half the stroke width to avoid clipping.
+        mCommitRect.set(mStrokeRect);
+        mCommitRect.inset(-mCurrentPenWidth / 2 - 1, -mCurrentPenWidth / 2 - 1);
 
-        startDrawingMode();
+        mBackgroundTiles.drawPath(mPath, mPaint, mCommitRect, true);
+        invalidateBackground(mCommitRect);
+
+        if (mBackgroundView != null)
+        {
+            // The live path drawn by this view lies within the same area
+            invalidateRect(this, mCommitRect);
+        }
     }
 
     /**
-     * Save the view as a PNG file, at the specified location.
-     * 
-     * @param filename
-     *            the destination full path.
+     * Clear the background tiles along the eraser segments recorded since the last call. Segments start from the last
+     * applied sample so that consecutive calls join.
      */
-    public void saveAsFile(final String filename)
+    private void eraseNewSegments()
     {
-        FileOutputStream out = null;
+        final int size = mStroke.size();
 
-        try
+        if (size == mErasedSampleCount)
         {
-            out = new FileOutputStream(filename);
-            mBackgroundBitmap.compress(Bitmap.CompressFormat.PNG, 90, out);
+            return;
         }
-        catch (Exception e)
+
+        int first = Math.max(0, mErasedSampleCount - 1);
+
+        mEraserPath.rewind();
+        mEraserPath.moveTo(mStroke.getX(first), mStroke.getY(first));
+
+        for (int i = first + 1; i < size; ++i)
         {
-            Log.e(FingerDrawingView.class.getName(), "An error occurred during file saving", e);
+            mEraserPath.lineTo(mStroke.getX(i), mStroke.getY(i));
         }
-        finally
+
+        if (size == first + 1)
         {
-            try
-            {
-                if (out != null)
-                {
-                    out.close();
-                }
-            }
-            catch (Throwable ignore)
-            {
-            }
+            // Single sample: erase a dot
+            mEraserPath.lineTo(mStroke.getX(first), mStroke.getY(first));
+        }
+
+        mErasedSampleCount = size;
+
+        // The frame region covers the new segments, from the last applied sample; only the tiles it touches are updated
+        for (int i = 0; i < mFrameRegion.size(); ++i)
+        {
+            mCommitRect.set(mFrameRegion.getLeft(i), mFrameRegion.getTop(i), mFrameRegion.getRight(i),
+                    mFrameRegion.getBottom(i));
+
+            // Erasing never allocates tiles
+            mBackgroundTiles.drawPath(mEraserPath, mPaint, mCommitRect, false);
+            invalidateBackground(mCommitRect);
         }
     }
 
     /**
-     * Initialize the view.
+     * Invalidate the view displaying the backing store, after a change of the whole drawing: the background view, or
+     * this view when it is self-compositing.
      */
-    private void initialize()
+    private void invalidateBackground()
     {
-        mPaint = new Paint();
-        mPaint.setAntiAlias(true);
-        mPaint.setStyle(Paint.Style.STROKE);
-        mPaint.setStrokeJoin(Paint.Join.ROUND);
+        if (mPyramid != null)
+        {
+            mPyramid.invalidateAll();
+        }
 
-        mPath = new Path();
+        redrawBackground();
+    }
 
-        setBackgroundColor(Color.TRANSPARENT);
+    /**
+     * Invalidate an area of the view displaying the backing store, after a change of this area of the drawing: the
+     * background view, or this view when it is self-compositing.
+     * 
+     * @param rect
+     *            the area to invalidate, in canvas coordinates.
+     */
+    private void invalidateBackground(final RectF rect)
+    {
+        if (mPyramid != null)
+        {
+            mPyramid.invalidate(rect);
+        }
 
-        startDrawingMode();
+        invalidateRect((mBackgroundView != null) ? mBackgroundView : this, rect);
     }
 
     /**
-     * Erase all the view.
+     * Invalidate the view displaying the backing store when only the way the drawing is displayed changed, e.g. the
+     * zoom.
      */
-    private void clearPath()
+    private void redrawBackground()
     {
-        mPath.reset();
+        View view = (mBackgroundView != null) ? mBackgroundView : this;
 
-        // Repaints the entire view.
-        invalidate();
+        view.invalidate();
+        ++mInvalidationCount;
+        mInvalidatedPixelCount += (long) getWidth() * getHeight();
     }
 
     /**
-     * Handle a touch move event.
+     * Invalidate an area of a view, rounded outwards.
      * 
-     * @param eventX
-     *            the event X position.
-     * @param eventY
-     *            the event Y position.
+     * @param view
+     *            the view to invalidate, the background view or this view.
+     * @param rect
+     *            the area to invalidate, in canvas coordinates.
      */
-    private void onMoveEvent(final int eventX, final int eventY)
+    private void invalidateRect(final View view, final RectF rect)
     {
-        // Expand the dirty region
-        expandDirtyRect(eventX, eventY);
-
-        // Update the drawing path with the new position
-        mPath.lineTo(eventX, eventY);
+        invalidateRect(view, rect.left, rect.top, rect.right, rect.bottom);
     }
 
     /**
-     * Called when replaying history to ensure the dirty region includes all points.
+     * Invalidate an area of a view, rounded outwards.
      * 
-     * @param historicalX
-     * @param historicalY
+     * @param view
+     *            the view to invalidate, the background view or this view.
+     * @param areaLeft
+     *            the area left coordinate, in canvas coordinates.
+     * @param areaTop
+     *            the area top coordinate, in canvas coordinates.
+     * @param areaRight
+     *            the area right coordinate, in canvas coordinates.
+     * @param areaBottom
+     *            the area bottom coordinate, in canvas coordinates.
      */
-    private void expandDirtyRect(final int historicalX, final int historicalY)
+    private void invalidateRect(final View view, final float areaLeft, final float areaTop, final float areaRight,
+            final float areaBottom)
     {
-        if (historicalX < mDirtyRect.left)
-        {
-            mDirtyRect.left = historicalX;
-        }
-        else if (historicalX > mDirtyRect.right)
-        {
-            mDirtyRect.right = historicalX;
-        }
-        if (historicalY < mDirtyRect.top)
+        int left = (int) Math.floor(areaLeft * mZoom + mPanX);
+        int top = (int) Math.floor(areaTop * mZoom + mPanY);
+        int right = (int) Math.ceil(areaRight * mZoom + mPanX);
+        int bottom = (int) Math.ceil(areaBottom * mZoom + mPanY);
+
+        view.invalidate(left, top, right, bottom);
+        ++mInvalidationCount;
+        mInvalidatedPixelCount += (long) (right - left) * (bottom - top);
+
+        if (view == this)
         {
-            mDirtyRect.top = historicalY;
+            mDrawRegion.add(left, top, right, bottom);
         }
-        else if (historicalY > mDirtyRect.bottom)
+    }
+
+    /**
+     * @param zoom
+     *            a zoom.
+     * @return the zoom within the allowed range: from the zoom fitting the canvas in the view, unless it is larger
+     *         than 1, to {@link #MAX_ZOOM}.
+     */
+    private float clampZoom(final float zoom)
+    {
+        float minZoom = 1;
+
+        if ((getCanvasWidth() > 0) && (getCanvasHeight() > 0))
         {
-            mDirtyRect.bottom = historicalY;
+            minZoom = Math.min(minZoom, Math.min((float) getWidth() / getCanvasWidth(), (float) getHeight()
+                    / getCanvasHeight()));
         }
+
+        return Math.max(minZoom, Math.min(MAX_ZOOM, zoom));
     }
 
     /**
-     * Resets the dirty region when the motion event occurs.
-     * 
-     * @param eventX
-     * @param eventY
+     * Keep the canvas within the view, centered when it is smaller, and update the transformation from canvas to view
+     * coordinates.
      */
-    private void resetDirtyRect(final int eventX, final int eventY)
+    private void updateViewMatrix()
     {
-        // The lastTouchX and lastTouchY were set when the ACTION_DOWN motion event occurred.
-        mDirtyRect.left = Math.min(mLastTouchX, eventX);
-        mDirtyRect.right = Math.max(mLastTouchX, eventX);
-        mDirtyRect.top = Math.min(mLastTouchY, eventY);
-        mDirtyRect.bottom = Math.max(mLastTouchY, eventY);
+        mZoom = clampZoom(mZoom);
+
+        float scaledWidth = getCanvasWidth() * mZoom;
+        float scaledHeight = getCanvasHeight() * mZoom;
+
+        mPanX = (scaledWidth <= getWidth()) ? (getWidth() - scaledWidth) / 2 : Math.max(getWidth() - scaledWidth,
+                Math.min(0, mPanX));
+        mPanY = (scaledHeight <= getHeight()) ? (getHeight() - scaledHeight) / 2 : Math.max(getHeight()
+                - scaledHeight, Math.min(0, mPanY));
+
+        mViewMatrix.setScale(mZoom, mZoom);
+        mViewMatrix.postTranslate(mPanX, mPanY);
+        mBackgroundDrawable.setTransform(mViewMatrix, mZoom);
     }
 
     /**
-     * Save the drawn path into the background bitmap.
+     * @param viewX
+     *            an X position, in view pixels.
+     * @return the X position, in canvas coordinates.
      */
-    private void commitChanges()
+    private float toCanvasX(final float viewX)
     {
-        mContainer.draw(mBackgroundCanvas);
-        mBackgroundView.setBackground(mBackgroundDrawable);
+        return (viewX - mPanX) / mZoom;
+    }
 
-        clearPath();
+    /**
+     * @param viewY
+     *            a Y position, in view pixels.
+     * @return the Y position, in canvas coordinates.
+     */
+    private float toCanvasY(final float viewY)
+    {
+        return (viewY - mPanY) / mZoom;
     }
 
     /**
@@ -575,4 +3133,16 @@ public final class FingerDrawingView extends View
         Resources r = getResources();
         return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, r.getDisplayMetrics());
     }
+
+    /**
+     * Conversion between dip and pixels, without rounding.
+     * 
+     * @param dp
+     *            the dip value to convert into pixels.
+     */
+    private float dpToPx(final float dp)
+    {
+        Resources r = getResources();
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, r.getDisplayMetrics());
+    }
 }
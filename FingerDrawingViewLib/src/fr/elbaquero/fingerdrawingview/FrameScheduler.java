@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Runs a callback at most once per display frame, however many times it is scheduled in between.
+ * <p>
+ * Frames are aligned on the {@link Choreographer} callbacks from Jelly Bean. Older versions use a main thread handler
+ * and a fixed frame interval.
+ */
+final class FrameScheduler
+{
+    /**
+     * Frame callback.
+     */
+    interface Callback
+    {
+        /**
+         * Called on the main thread, once per frame in which the scheduler was scheduled.
+         */
+        void onFrame();
+    }
+
+    /**
+     * Source of frame notifications.
+     */
+    private interface FrameSource
+    {
+        /**
+         * Request a notification for the next frame.
+         */
+        void post();
+
+        /**
+         * Cancel the requested notification.
+         */
+        void remove();
+    }
+
+    /** Frame interval used before Jelly Bean, in milliseconds. */
+    private static final long FALLBACK_FRAME_INTERVAL = 16;
+
+    /** Frame callback. */
+    private final Callback mCallback;
+
+    /** Frame notifications source. */
+    private final FrameSource mSource;
+
+    /** Pending frame indicator. */
+    private boolean mIsPending;
+
+    /** Number of frames run. */
+    private long mFrameCount;
+
+    /** Number of schedule requests merged into an already pending frame. */
+    private long mCoalescedCount;
+
+    /**
+     * Create a new {@link FrameScheduler}. Must be called on the main thread.
+     * 
+     * @param callback
+     *            the frame callback.
+     */
+    FrameScheduler(final Callback callback)
+    {
+        mCallback = callback;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            mSource = new ChoreographerFrameSource();
+        }
+        else
+        {
+            mSource = new HandlerFrameSource();
+        }
+    }
+
+    /**
+     * Request the callback for the next frame. Does nothing but counting if a frame is already pending.
+     */
+    void schedule()
+    {
+        if (mIsPending)
+        {
+            ++mCoalescedCount;
+            return;
+        }
+
+        mIsPending = true;
+        mSource.post();
+    }
+
+    /**
+     * Cancel the pending frame, if any.
+     */
+    void cancel()
+    {
+        if (mIsPending)
+        {
+            mIsPending = false;
+            mSource.remove();
+        }
+    }
+
+    /**
+     * @return true if a frame is pending.
+     */
+    boolean isPending()
+    {
+        return mIsPending;
+    }
+
+    /**
+     * @return the number of frames run.
+     */
+    long getFrameCount()
+    {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the number of schedule requests merged into an already pending frame.
+     */
+    long getCoalescedCount()
+    {
+        return mCoalescedCount;
+    }
+
+    /**
+     * Run the pending frame.
+     */
+    private void doFrame()
+    {
+        if (mIsPending)
+        {
+            mIsPending = false;
+            ++mFrameCount;
+            mCallback.onFrame();
+        }
+    }
+
+    /**
+     * Frame source based on the {@link Choreographer}, from Jelly Bean.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class ChoreographerFrameSource implements FrameSource, Choreographer.FrameCallback
+    {
+        /** Main thread choreographer. */
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        @Override
+        public void post()
+        {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void remove()
+        {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(final long frameTimeNanos)
+        {
+            FrameScheduler.this.doFrame();
+        }
+    }
+
+    /**
+     * Frame source based on a handler and a fixed frame interval, before Jelly Bean.
+     */
+    private final class HandlerFrameSource implements FrameSource, Runnable
+    {
+        /** Main thread handler. */
+        private final Handler mHandler = new Handler();
+
+        @Override
+        public void post()
+        {
+            long now = SystemClock.uptimeMillis();
+            mHandler.postDelayed(this, FALLBACK_FRAME_INTERVAL - now % FALLBACK_FRAME_INTERVAL);
+        }
+
+        @Override
+        public void remove()
+        {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run()
+        {
+            doFrame();
+        }
+    }
+}
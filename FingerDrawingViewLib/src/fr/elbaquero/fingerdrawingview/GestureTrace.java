@@ -0,0 +1,642 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recorded touch events stream, as received by {@link FingerDrawingView#dispatchTouchEvent(android.view.MotionEvent)}:
+ * the action of each event, its pointers and all its samples, historical ones included. Every pointer is recorded, so
+ * that multi-touch gestures such as a zoom are replayed too.
+ * <p>
+ * Trace files layout, all multi-byte fixed size values being big-endian:
+ * 
+ * <pre>
+ * header:  int32 magic, byte version, varint view width, varint view height
+ * events:  { varint action + 1, varint pointer count, { varint pointer id }*, varint sample count, samples }*,
+ *          varint 0
+ * sample:  { pointer }*, zig-zag varlong time delta (milliseconds)
+ * pointer: zig-zag varint delta of the X, Y and pressure float bits from the previous sample, for the same pointer
+ *          index
+ * </pre>
+ * 
+ * Version 1 files, without the pointer count and ids, hold single pointer events and are still read. Float values are
+ * stored exactly, so that a replay goes through the same code paths as the recording. This class does not depend on
+ * the Android framework.
+ */
+public final class GestureTrace
+{
+    /** File magic number, "FDVT". */
+    private static final int MAGIC = 0x46445654;
+
+    /** Current format version. */
+    private static final int VERSION = 2;
+
+    /** Format version of the single pointer traces. */
+    private static final int SINGLE_POINTER_VERSION = 1;
+
+    /** Initial capacity, in events and samples. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Output buffer size, in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Recording view width, in pixels. */
+    private int mWidth;
+
+    /** Recording view height, in pixels. */
+    private int mHeight;
+
+    /** Events actions. */
+    private int[] mActions = new int[INITIAL_CAPACITY];
+
+    /** Index of the first sample of each event. */
+    private int[] mFirstSamples = new int[INITIAL_CAPACITY + 1];
+
+    /** Index of the first pointer id of each event. */
+    private int[] mFirstPointers = new int[INITIAL_CAPACITY + 1];
+
+    /** Number of events. */
+    private int mEventCount;
+
+    /** Pointer ids of the events. */
+    private int[] mPointerIds = new int[INITIAL_CAPACITY];
+
+    /** Number of pointer ids. */
+    private int mPointerIdCount;
+
+    /** Samples times, in milliseconds. */
+    private long[] mTime = new long[INITIAL_CAPACITY];
+
+    /** Index of the first pointer coordinates of each sample. */
+    private int[] mFirstCoordinates = new int[INITIAL_CAPACITY];
+
+    /** Number of samples. */
+    private int mSampleCount;
+
+    /** Pointers X positions. */
+    private float[] mX = new float[INITIAL_CAPACITY];
+
+    /** Pointers Y positions. */
+    private float[] mY = new float[INITIAL_CAPACITY];
+
+    /** Pointers pressures. */
+    private float[] mPressure = new float[INITIAL_CAPACITY];
+
+    /** Number of pointer coordinates. */
+    private int mCoordinateCount;
+
+    /**
+     * Create a new, empty {@link GestureTrace}.
+     * 
+     * @param width
+     *            the recording view width, in pixels.
+     * @param height
+     *            the recording view height, in pixels.
+     */
+    public GestureTrace(final int width, final int height)
+    {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @return the recording view width, in pixels.
+     */
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the recording view height, in pixels.
+     */
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * @return the number of events.
+     */
+    public int getEventCount()
+    {
+        return mEventCount;
+    }
+
+    /**
+     * @return the total number of samples.
+     */
+    public int getSampleCount()
+    {
+        return mSampleCount;
+    }
+
+    /**
+     * @param event
+     *            the event index.
+     * @return the event action, a {@link android.view.MotionEvent} action, pointer index included.
+     */
+    public int getAction(final int event)
+    {
+        return mActions[event];
+    }
+
+    /**
+     * @param event
+     *            the event index.
+     * @return the number of pointers of the event, at least 1.
+     */
+    public int getPointerCount(final int event)
+    {
+        return mFirstPointers[event + 1] - mFirstPointers[event];
+    }
+
+    /**
+     * @param event
+     *            the event index.
+     * @param pointer
+     *            the pointer index.
+     * @return the pointer id.
+     */
+    public int getPointerId(final int event, final int pointer)
+    {
+        return mPointerIds[mFirstPointers[event] + pointer];
+    }
+
+    /**
+     * @param event
+     *            the event index.
+     * @return the index of the first sample of the event, the oldest one.
+     */
+    public int getFirstSample(final int event)
+    {
+        return mFirstSamples[event];
+    }
+
+    /**
+     * @param event
+     *            the event index.
+     * @return the number of samples of the event, the last one being the current sample.
+     */
+    public int getEventSampleCount(final int event)
+    {
+        return mFirstSamples[event + 1] - mFirstSamples[event];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @return the X position of the first pointer.
+     */
+    public float getX(final int sample)
+    {
+        return mX[mFirstCoordinates[sample]];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @param pointer
+     *            the pointer index, less than the pointer count of the sample event.
+     * @return the pointer X position.
+     */
+    public float getX(final int sample, final int pointer)
+    {
+        return mX[mFirstCoordinates[sample] + pointer];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @return the Y position of the first pointer.
+     */
+    public float getY(final int sample)
+    {
+        return mY[mFirstCoordinates[sample]];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @param pointer
+     *            the pointer index, less than the pointer count of the sample event.
+     * @return the pointer Y position.
+     */
+    public float getY(final int sample, final int pointer)
+    {
+        return mY[mFirstCoordinates[sample] + pointer];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @return the sample time, in milliseconds.
+     */
+    public long getTime(final int sample)
+    {
+        return mTime[sample];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @return the pressure of the first pointer.
+     */
+    public float getPressure(final int sample)
+    {
+        return mPressure[mFirstCoordinates[sample]];
+    }
+
+    /**
+     * @param sample
+     *            the sample index.
+     * @param pointer
+     *            the pointer index, less than the pointer count of the sample event.
+     * @return the pointer pressure.
+     */
+    public float getPressure(final int sample, final int pointer)
+    {
+        return mPressure[mFirstCoordinates[sample] + pointer];
+    }
+
+    /**
+     * Start a new event. Its pointers are added with {@link #addPointer(int)}, then its samples with
+     * {@link #addSample(long)}.
+     * 
+     * @param action
+     *            the event action.
+     */
+    void addEvent(final int action)
+    {
+        if (mEventCount == mActions.length)
+        {
+            mActions = copyOf(mActions, 2 * mEventCount, mEventCount);
+            mFirstSamples = copyOf(mFirstSamples, 2 * mEventCount + 1, mEventCount + 1);
+            mFirstPointers = copyOf(mFirstPointers, 2 * mEventCount + 1, mEventCount + 1);
+        }
+
+        mActions[mEventCount] = action;
+        mFirstSamples[mEventCount] = mSampleCount;
+        mFirstPointers[mEventCount] = mPointerIdCount;
+        ++mEventCount;
+        mFirstSamples[mEventCount] = mSampleCount;
+        mFirstPointers[mEventCount] = mPointerIdCount;
+    }
+
+    /**
+     * Add a pointer to the last event, before its samples.
+     * 
+     * @param id
+     *            the pointer id.
+     */
+    void addPointer(final int id)
+    {
+        if (mPointerIdCount == mPointerIds.length)
+        {
+            mPointerIds = copyOf(mPointerIds, 2 * mPointerIdCount, mPointerIdCount);
+        }
+
+        mPointerIds[mPointerIdCount++] = id;
+        mFirstPointers[mEventCount] = mPointerIdCount;
+    }
+
+    /**
+     * Add a sample to the last event. The coordinates of each of its pointers are then added in order with
+     * {@link #addCoordinates(float, float, float)}.
+     * 
+     * @param time
+     *            the sample time, in milliseconds.
+     */
+    void addSample(final long time)
+    {
+        if (mSampleCount == mTime.length)
+        {
+            mTime = copyOf(mTime, 2 * mSampleCount, mSampleCount);
+            mFirstCoordinates = copyOf(mFirstCoordinates, 2 * mSampleCount, mSampleCount);
+        }
+
+        mTime[mSampleCount] = time;
+        mFirstCoordinates[mSampleCount] = mCoordinateCount;
+        ++mSampleCount;
+        mFirstSamples[mEventCount] = mSampleCount;
+    }
+
+    /**
+     * Add the coordinates of the next pointer to the last sample.
+     * 
+     * @param x
+     *            the pointer X position.
+     * @param y
+     *            the pointer Y position.
+     * @param pressure
+     *            the pointer pressure.
+     */
+    void addCoordinates(final float x, final float y, final float pressure)
+    {
+        if (mCoordinateCount == mX.length)
+        {
+            int capacity = 2 * mCoordinateCount;
+
+            mX = copyOf(mX, capacity, mCoordinateCount);
+            mY = copyOf(mY, capacity, mCoordinateCount);
+            mPressure = copyOf(mPressure, capacity, mCoordinateCount);
+        }
+
+        mX[mCoordinateCount] = x;
+        mY[mCoordinateCount] = y;
+        mPressure[mCoordinateCount] = pressure;
+        ++mCoordinateCount;
+    }
+
+    /**
+     * Write the trace into a file.
+     * 
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public void write(final File file) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            buffer.putInt(MAGIC);
+            buffer.put((byte) VERSION);
+            StrokeFormat.writeVarInt(buffer, mWidth);
+            StrokeFormat.writeVarInt(buffer, mHeight);
+
+            // Previous coordinates float bits, by pointer index
+            int[] previous = new int[3];
+            long previousTime = 0;
+
+            for (int event = 0; event < mEventCount; ++event)
+            {
+                final int pointerCount = getPointerCount(event);
+
+                if (buffer.remaining() < (3 + pointerCount) * StrokeFormat.MAX_VARINT_SIZE)
+                {
+                    flush(buffer, channel);
+                }
+
+                if (previous.length < 3 * pointerCount)
+                {
+                    previous = copyOf(previous, 3 * pointerCount, previous.length);
+                }
+
+                StrokeFormat.writeVarInt(buffer, mActions[event] + 1);
+                StrokeFormat.writeVarInt(buffer, pointerCount);
+
+                for (int pointer = 0; pointer < pointerCount; ++pointer)
+                {
+                    StrokeFormat.writeVarInt(buffer, getPointerId(event, pointer));
+                }
+
+                StrokeFormat.writeVarInt(buffer, getEventSampleCount(event));
+
+                for (int i = mFirstSamples[event]; i < mFirstSamples[event + 1]; ++i)
+                {
+                    if (buffer.remaining() < 3 * pointerCount * StrokeFormat.MAX_VARINT_SIZE
+                            + StrokeFormat.MAX_VARLONG_SIZE)
+                    {
+                        flush(buffer, channel);
+                    }
+
+                    for (int pointer = 0; pointer < pointerCount; ++pointer)
+                    {
+                        int coordinates = mFirstCoordinates[i] + pointer;
+                        int x = Float.floatToIntBits(mX[coordinates]);
+                        int y = Float.floatToIntBits(mY[coordinates]);
+                        int pressure = Float.floatToIntBits(mPressure[coordinates]);
+                        int base = 3 * pointer;
+
+                        StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(x - previous[base]));
+                        StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(y - previous[base + 1]));
+                        StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(pressure - previous[base + 2]));
+
+                        previous[base] = x;
+                        previous[base + 1] = y;
+                        previous[base + 2] = pressure;
+                    }
+
+                    StrokeFormat.writeVarLong(buffer, StrokeFormat.zigZagEncode(mTime[i] - previousTime));
+                    previousTime = mTime[i];
+                }
+            }
+
+            if (buffer.remaining() < StrokeFormat.MAX_VARINT_SIZE)
+            {
+                flush(buffer, channel);
+            }
+
+            // End marker
+            StrokeFormat.writeVarInt(buffer, 0);
+            flush(buffer, channel);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a trace file.
+     * 
+     * @param file
+     *            the file to read.
+     * @return the trace.
+     * @throws IOException
+     *             if the file cannot be read or is not a supported trace file.
+     */
+    public static GestureTrace read(final File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC)
+            {
+                throw new IOException("Not a gesture trace file: " + file);
+            }
+
+            int version = buffer.get() & 0xFF;
+
+            if ((version != VERSION) && (version != SINGLE_POINTER_VERSION))
+            {
+                throw new IOException("Unsupported gesture trace file version " + version + ": " + file);
+            }
+
+            GestureTrace trace = new GestureTrace(StrokeFormat.readVarInt(buffer), StrokeFormat.readVarInt(buffer));
+            int[] previous = new int[3];
+            long previousTime = 0;
+            int action = StrokeFormat.readVarInt(buffer);
+
+            while (action != 0)
+            {
+                trace.addEvent(action - 1);
+
+                int pointerCount = 1;
+
+                if (version == SINGLE_POINTER_VERSION)
+                {
+                    trace.addPointer(0);
+                }
+                else
+                {
+                    pointerCount = StrokeFormat.readVarInt(buffer);
+
+                    if ((pointerCount <= 0) || (pointerCount > buffer.remaining()))
+                    {
+                        throw new IOException("Invalid pointer count " + pointerCount + ": " + file);
+                    }
+
+                    for (int pointer = 0; pointer < pointerCount; ++pointer)
+                    {
+                        trace.addPointer(StrokeFormat.readVarInt(buffer));
+                    }
+                }
+
+                if (previous.length < 3 * pointerCount)
+                {
+                    previous = copyOf(previous, 3 * pointerCount, previous.length);
+                }
+
+                int sampleCount = StrokeFormat.readVarInt(buffer);
+
+                for (int i = 0; i < sampleCount; ++i)
+                {
+                    for (int j = 0; j < 3 * pointerCount; ++j)
+                    {
+                        previous[j] += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(buffer));
+                    }
+
+                    previousTime += StrokeFormat.zigZagDecode(StrokeFormat.readVarLong(buffer));
+                    trace.addSample(previousTime);
+
+                    for (int pointer = 0; pointer < pointerCount; ++pointer)
+                    {
+                        int base = 3 * pointer;
+
+                        trace.addCoordinates(Float.intBitsToFloat(previous[base]),
+                                Float.intBitsToFloat(previous[base + 1]), Float.intBitsToFloat(previous[base + 2]));
+                    }
+                }
+
+                action = StrokeFormat.readVarInt(buffer);
+            }
+
+            return trace;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Truncated gesture trace file: " + file);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a buffer content to a channel.
+     * 
+     * @param buffer
+     *            the buffer, cleared afterwards.
+     * @param channel
+     *            the destination channel.
+     * @throws IOException
+     *             if the buffer cannot be written.
+     */
+    private static void flush(final ByteBuffer buffer, final FileChannel channel) throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static int[] copyOf(final int[] array, final int capacity, final int length)
+    {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static long[] copyOf(final long[] array, final int capacity, final int length)
+    {
+        long[] copy = new long[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static float[] copyOf(final float[] array, final int capacity, final int length)
+    {
+        float[] copy = new float[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+}
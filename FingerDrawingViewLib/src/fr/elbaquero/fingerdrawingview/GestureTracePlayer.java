@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Debug;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+/**
+ * Replays a {@link GestureTrace} into a view, deterministically.
+ * <p>
+ * Events are dispatched synchronously, in order, with their recorded times and samples. Display frames are simulated
+ * from the event times rather than waited for: the frame changes pending in the view are applied whenever an event
+ * falls in a later frame than the previous one, so the result does not depend on the device speed. This makes traces
+ * from the field replayable in local, headless tests (e.g. with Robolectric).
+ * <p>
+ * Multi-pointer events, e.g. of a zoom gesture, need {@link Build.VERSION_CODES#GINGERBREAD} to be rebuilt.
+ */
+public final class GestureTracePlayer
+{
+    /** Simulated display frame interval, in milliseconds. */
+    public static final long FRAME_INTERVAL = 16;
+
+    /**
+     * Empty, private constructor.
+     */
+    private GestureTracePlayer()
+    {
+    }
+
+    /**
+     * Replay a trace. Must be called on the main thread.
+     * 
+     * @param view
+     *            the destination view, laid out.
+     * @param trace
+     *            the trace to replay.
+     * @return the work done by the view.
+     */
+    @SuppressWarnings("deprecation")
+    public static ReplayStats replay(final FingerDrawingView view, final GestureTrace trace)
+    {
+        final long invalidationCount = view.getInvalidationCount();
+        final long invalidatedPixelCount = view.getInvalidatedPixelCount();
+        final long commitCount = view.getCommitCount();
+        final long startTime = System.nanoTime();
+        int eventCount = 0;
+        int frameCount = 0;
+        long currentFrame = Long.MIN_VALUE;
+        long downTime = 0;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+
+        try
+        {
+            for (int event = 0; event < trace.getEventCount(); ++event)
+            {
+                int first = trace.getFirstSample(event);
+                int last = first + trace.getEventSampleCount(event) - 1;
+
+                if (last < first)
+                {
+                    continue;
+                }
+
+                long frame = trace.getTime(last) / FRAME_INTERVAL;
+
+                if (frame != currentFrame)
+                {
+                    view.flushFrameChanges();
+                    currentFrame = frame;
+                    ++frameCount;
+                }
+
+                int action = trace.getAction(event);
+
+                if (action == MotionEvent.ACTION_DOWN)
+                {
+                    downTime = trace.getTime(first);
+                }
+
+                MotionEvent motionEvent;
+
+                if (trace.getPointerCount(event) == 1)
+                {
+                    // The oldest sample creates the event, the others are pushed in order, the last one being current
+                    motionEvent = MotionEvent.obtain(downTime, trace.getTime(first), action, trace.getX(first),
+                            trace.getY(first), trace.getPressure(first), 1, 0, 1, 1, 0, 0);
+
+                    for (int i = first + 1; i <= last; ++i)
+                    {
+                        motionEvent.addBatch(trace.getTime(i), trace.getX(i), trace.getY(i), trace.getPressure(i), 1,
+                                0);
+                    }
+                }
+                else
+                {
+                    motionEvent = obtainMultiPointerEvent(trace, event, downTime);
+                }
+
+                view.dispatchTouchEvent(motionEvent);
+                motionEvent.recycle();
+                ++eventCount;
+            }
+
+            view.flushFrameChanges();
+        }
+        finally
+        {
+            Debug.stopAllocCounting();
+        }
+
+        int allocationCount = Debug.getThreadAllocCount();
+
+        return new ReplayStats(eventCount, frameCount, view.getInvalidationCount() - invalidationCount,
+                view.getInvalidatedPixelCount() - invalidatedPixelCount, view.getCommitCount() - commitCount,
+                allocationCount, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Rebuild a multi-pointer event, with all its samples.
+     * 
+     * @param trace
+     *            the replayed trace.
+     * @param event
+     *            the event index.
+     * @param downTime
+     *            the time of the gesture first pointer down, in milliseconds.
+     * @return the event, to recycle.
+     */
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static MotionEvent obtainMultiPointerEvent(final GestureTrace trace, final int event, final long downTime)
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD)
+        {
+            throw new UnsupportedOperationException("Multi-pointer events cannot be replayed before API "
+                    + Build.VERSION_CODES.GINGERBREAD);
+        }
+
+        final int pointerCount = trace.getPointerCount(event);
+        final int first = trace.getFirstSample(event);
+        final int last = first + trace.getEventSampleCount(event) - 1;
+        int[] pointerIds = new int[pointerCount];
+        MotionEvent.PointerCoords[] coordinates = new MotionEvent.PointerCoords[pointerCount];
+
+        for (int pointer = 0; pointer < pointerCount; ++pointer)
+        {
+            pointerIds[pointer] = trace.getPointerId(event, pointer);
+            coordinates[pointer] = new MotionEvent.PointerCoords();
+            coordinates[pointer].size = 1;
+        }
+
+        setCoordinates(trace, first, coordinates);
+        MotionEvent motionEvent = MotionEvent.obtain(downTime, trace.getTime(first), trace.getAction(event),
+                pointerCount, pointerIds, coordinates, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+
+        for (int i = first + 1; i <= last; ++i)
+        {
+            setCoordinates(trace, i, coordinates);
+            motionEvent.addBatch(trace.getTime(i), coordinates, 0);
+        }
+
+        return motionEvent;
+    }
+
+    /**
+     * Copy the pointers coordinates of a sample.
+     * 
+     * @param trace
+     *            the replayed trace.
+     * @param sample
+     *            the sample index.
+     * @param coordinates
+     *            the destination coordinates, one per pointer of the sample event.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static void setCoordinates(final GestureTrace trace, final int sample,
+            final MotionEvent.PointerCoords[] coordinates)
+    {
+        for (int pointer = 0; pointer < coordinates.length; ++pointer)
+        {
+            coordinates[pointer].x = trace.getX(sample, pointer);
+            coordinates[pointer].y = trace.getY(sample, pointer);
+            coordinates[pointer].pressure = trace.getPressure(sample, pointer);
+        }
+    }
+}
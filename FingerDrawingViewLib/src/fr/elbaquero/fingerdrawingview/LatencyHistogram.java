@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Fixed-size histogram of durations, in nanoseconds.
+ * <p>
+ * Buckets are logarithmic: each power of two is split into {@value #SUB_BUCKET_COUNT} linear sub-buckets, so that
+ * percentiles are within 12.5% of the recorded values, from the nanosecond up to about 18 minutes. Recording never
+ * allocates. Instances are not thread-safe. This class does not depend on the Android framework.
+ */
+public final class LatencyHistogram
+{
+    /** Number of sub-buckets per power of two, a power of two itself. */
+    private static final int SUB_BUCKET_COUNT = 8;
+
+    /** Number of bits of the sub-bucket index. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** Exponent of the largest recorded power of two, larger values being clamped. */
+    private static final int MAX_EXPONENT = 40;
+
+    /** Number of buckets. */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    /** Number of values per bucket. */
+    private final long[] mCounts = new long[BUCKET_COUNT];
+
+    /** Number of recorded values. */
+    private long mCount;
+
+    /** Sum of the recorded values. */
+    private long mSum;
+
+    /** Smallest recorded value. */
+    private long mMin = Long.MAX_VALUE;
+
+    /** Largest recorded value. */
+    private long mMax;
+
+    /**
+     * Create a new, empty {@link LatencyHistogram}.
+     */
+    public LatencyHistogram()
+    {
+    }
+
+    /**
+     * Record a duration.
+     * 
+     * @param nanos
+     *            the duration, in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(final long nanos)
+    {
+        long value = Math.max(0, nanos);
+
+        ++mCounts[bucketIndex(value)];
+        ++mCount;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    /**
+     * Remove all the recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            mCounts[i] = 0;
+        }
+
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /**
+     * Copy the recorded values into another histogram, without allocating.
+     * 
+     * @param destination
+     *            the destination histogram, its previous content being replaced.
+     */
+    public void copyTo(final LatencyHistogram destination)
+    {
+        System.arraycopy(mCounts, 0, destination.mCounts, 0, BUCKET_COUNT);
+        destination.mCount = mCount;
+        destination.mSum = mSum;
+        destination.mMin = mMin;
+        destination.mMax = mMax;
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * @return the smallest recorded value, in nanoseconds, 0 if the histogram is empty.
+     */
+    public long getMin()
+    {
+        return (mCount == 0) ? 0 : mMin;
+    }
+
+    /**
+     * @return the largest recorded value, in nanoseconds.
+     */
+    public long getMax()
+    {
+        return mMax;
+    }
+
+    /**
+     * @return the mean of the recorded values, in nanoseconds, 0 if the histogram is empty.
+     */
+    public long getMean()
+    {
+        return (mCount == 0) ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Compute a percentile.
+     * 
+     * @param percentile
+     *            the percentile, between 0 and 100.
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds, never more than the largest
+     *         recorded value. 0 if the histogram is empty.
+     */
+    public long getPercentile(final double percentile)
+    {
+        if (mCount == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount));
+        long cumulated = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            cumulated += mCounts[i];
+
+            if (cumulated >= rank)
+            {
+                // The last bucket holds the clamped values, up to the largest one
+                long upperBound = (i == BUCKET_COUNT - 1) ? mMax : bucketLowerBound(i + 1) - 1;
+
+                return Math.max(getMin(), Math.min(mMax, upperBound));
+            }
+        }
+
+        return mMax;
+    }
+
+    /**
+     * @param value
+     *            a non-negative value.
+     * @return the index of the bucket holding the value.
+     */
+    private static int bucketIndex(final long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        if (exponent > MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @param index
+     *            a bucket index, up to {@link #BUCKET_COUNT}.
+     * @return the smallest value of the bucket.
+     */
+    private static long bucketLowerBound(final int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+
+        return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Ordered stack of {@link DrawingLayer}, bottom first, with one active layer receiving the strokes.
+ * <p>
+ * The visible layers below and above the active layer are flattened into two cached composites, so that displaying
+ * the stack while drawing on the active layer only composites three surfaces, whatever the number of layers. A
+ * composite is only built when its side has at least two visible layers, and is rebuilt when a layer other than the
+ * active one changes: see {@link #invalidateComposites()}.
+ */
+final class LayerStack
+{
+    /** Layers, bottom first. */
+    private final List<DrawingLayer> mLayers = new ArrayList<DrawingLayer>();
+
+    /** Index of the active layer. */
+    private int mActiveIndex;
+
+    /** Composite of the visible layers below the active layer, null if there are less than two. */
+    private TiledBitmap mBelowComposite;
+
+    /** Composite of the visible layers above the active layer, null if there are less than two. */
+    private TiledBitmap mAboveComposite;
+
+    /** Indicator of up to date composites. */
+    private boolean mAreCompositesValid;
+
+    /** Paint used when no paint is specified. */
+    private final Paint mDefaultPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Paint used to draw a layer with its alpha. */
+    private final Paint mLayerPaint = new Paint();
+
+    /**
+     * @return the number of layers.
+     */
+    int size()
+    {
+        return mLayers.size();
+    }
+
+    /**
+     * @param index
+     *            the layer index, from the bottom.
+     * @return the layer.
+     */
+    DrawingLayer get(final int index)
+    {
+        return mLayers.get(index);
+    }
+
+    /**
+     * @param layer
+     *            a layer.
+     * @return the index of the layer, or -1 if it is not in the stack.
+     */
+    int indexOf(final DrawingLayer layer)
+    {
+        return mLayers.indexOf(layer);
+    }
+
+    /**
+     * @return the active layer.
+     */
+    DrawingLayer getActive()
+    {
+        return mLayers.get(mActiveIndex);
+    }
+
+    /**
+     * @return the index of the active layer.
+     */
+    int getActiveIndex()
+    {
+        return mActiveIndex;
+    }
+
+    /**
+     * @param index
+     *            the index of the new active layer.
+     */
+    void setActiveIndex(final int index)
+    {
+        checkIndex(index);
+
+        if (index != mActiveIndex)
+        {
+            mActiveIndex = index;
+            invalidateComposites();
+        }
+    }
+
+    /**
+     * Add a layer on top of the stack.
+     * 
+     * @param layer
+     *            the layer to add.
+     */
+    void add(final DrawingLayer layer)
+    {
+        mLayers.add(layer);
+        invalidateComposites();
+    }
+
+    /**
+     * Remove a layer. When the active layer is removed, the layer below it becomes active.
+     * 
+     * @param index
+     *            the index of the layer to remove.
+     * @return the removed layer.
+     */
+    DrawingLayer remove(final int index)
+    {
+        checkIndex(index);
+
+        if (mLayers.size() == 1)
+        {
+            throw new IllegalStateException("Cannot remove the last layer");
+        }
+
+        DrawingLayer layer = mLayers.remove(index);
+
+        if ((index < mActiveIndex) || (mActiveIndex == mLayers.size()))
+        {
+            --mActiveIndex;
+        }
+
+        invalidateComposites();
+
+        return layer;
+    }
+
+    /**
+     * Move a layer. The active layer stays active.
+     * 
+     * @param from
+     *            the current index of the layer.
+     * @param to
+     *            the new index of the layer.
+     */
+    void move(final int from, final int to)
+    {
+        checkIndex(from);
+        checkIndex(to);
+
+        DrawingLayer active = getActive();
+        mLayers.add(to, mLayers.remove(from));
+        mActiveIndex = mLayers.indexOf(active);
+
+        invalidateComposites();
+    }
+
+    /**
+     * Mark the composites as outdated, e.g. after a change of a layer other than the active one.
+     */
+    void invalidateComposites()
+    {
+        mAreCompositesValid = false;
+    }
+
+    /**
+     * Give the composites tiles back to the pool.
+     */
+    void releaseComposites()
+    {
+        if (mBelowComposite != null)
+        {
+            mBelowComposite.clear();
+            mBelowComposite = null;
+        }
+
+        if (mAboveComposite != null)
+        {
+            mAboveComposite.clear();
+            mAboveComposite = null;
+        }
+
+        mAreCompositesValid = false;
+    }
+
+    /**
+     * Draw all the visible layers.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void draw(final Canvas canvas, final Paint paint)
+    {
+        drawBelowActive(canvas, paint);
+        drawActive(canvas, paint);
+        drawAboveActive(canvas, paint);
+    }
+
+    /**
+     * Draw the visible layers below the active layer.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void drawBelowActive(final Canvas canvas, final Paint paint)
+    {
+        updateComposites();
+        drawRange(canvas, paint, 0, mActiveIndex, mBelowComposite);
+    }
+
+    /**
+     * Draw the active layer, if visible.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void drawActive(final Canvas canvas, final Paint paint)
+    {
+        drawLayer(canvas, paint, getActive());
+    }
+
+    /**
+     * Draw the visible layers above the active layer.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void drawAboveActive(final Canvas canvas, final Paint paint)
+    {
+        updateComposites();
+        drawRange(canvas, paint, mActiveIndex + 1, mLayers.size(), mAboveComposite);
+    }
+
+    /**
+     * Flatten all the visible layers.
+     * 
+     * @param width
+     *            the surface width, in pixels.
+     * @param height
+     *            the surface height, in pixels.
+     * @return a new full color surface, owned by the caller.
+     */
+    TiledBitmap flatten(final int width, final int height)
+    {
+        TiledBitmap flattened = new TiledBitmap(width, height, TiledBitmap.DEFAULT_TILE_SIZE, Bitmap.Config.ARGB_8888);
+        compositeRange(flattened, 0, mLayers.size());
+
+        return flattened;
+    }
+
+    /**
+     * Rebuild the outdated composites.
+     */
+    private void updateComposites()
+    {
+        if (mAreCompositesValid)
+        {
+            return;
+        }
+
+        releaseComposites();
+        mBelowComposite = buildComposite(0, mActiveIndex);
+        mAboveComposite = buildComposite(mActiveIndex + 1, mLayers.size());
+        mAreCompositesValid = true;
+    }
+
+    /**
+     * Build the composite of a range of layers.
+     * 
+     * @param from
+     *            the index of the first layer.
+     * @param to
+     *            the index of the last layer, exclusive.
+     * @return the composite, or null if there are less than two visible layers in the range.
+     */
+    private TiledBitmap buildComposite(final int from, final int to)
+    {
+        DrawingLayer first = null;
+        int displayedCount = 0;
+
+        for (int i = from; i < to; ++i)
+        {
+            if (mLayers.get(i).isDisplayed())
+            {
+                first = (first == null) ? mLayers.get(i) : first;
+                ++displayedCount;
+            }
+        }
+
+        if (displayedCount < 2)
+        {
+            return null;
+        }
+
+        TiledBitmap surface = first.getSurface();
+        TiledBitmap composite = new TiledBitmap(surface.getWidth(), surface.getHeight(), surface.getTileSize(),
+                Bitmap.Config.ARGB_8888);
+        compositeRange(composite, from, to);
+
+        return composite;
+    }
+
+    /**
+     * Composite a range of layers on a surface.
+     * 
+     * @param target
+     *            the destination surface, in full color.
+     * @param from
+     *            the index of the first layer.
+     * @param to
+     *            the index of the last layer, exclusive.
+     */
+    private void compositeRange(final TiledBitmap target, final int from, final int to)
+    {
+        for (int i = from; i < to; ++i)
+        {
+            DrawingLayer layer = mLayers.get(i);
+
+            if (layer.isDisplayed())
+            {
+                target.composite(layer.getSurface(), layerPaint(null, layer));
+            }
+        }
+    }
+
+    /**
+     * Draw a range of layers, from their composite if there is one.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     * @param from
+     *            the index of the first layer.
+     * @param to
+     *            the index of the last layer, exclusive.
+     * @param composite
+     *            the composite of the range, null if it has less than two visible layers.
+     */
+    private void drawRange(final Canvas canvas, final Paint paint, final int from, final int to,
+            final TiledBitmap composite)
+    {
+        if (composite != null)
+        {
+            composite.draw(canvas, paint);
+            return;
+        }
+
+        for (int i = from; i < to; ++i)
+        {
+            drawLayer(canvas, paint, mLayers.get(i));
+        }
+    }
+
+    /**
+     * Draw a layer, if visible.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     * @param layer
+     *            the layer to draw.
+     */
+    private void drawLayer(final Canvas canvas, final Paint paint, final DrawingLayer layer)
+    {
+        if (layer.isDisplayed())
+        {
+            layer.getSurface().draw(canvas, layerPaint(paint, layer));
+        }
+    }
+
+    /**
+     * Prepare the paint drawing a layer with its alpha.
+     * 
+     * @param paint
+     *            the paint to use, may be null.
+     * @param layer
+     *            the drawn layer.
+     * @return the layer paint.
+     */
+    private Paint layerPaint(final Paint paint, final DrawingLayer layer)
+    {
+        mLayerPaint.set((paint != null) ? paint : mDefaultPaint);
+        mLayerPaint.setAlpha(mLayerPaint.getAlpha() * layer.getAlpha() / DrawingLayer.OPAQUE);
+
+        return mLayerPaint;
+    }
+
+    /**
+     * @param index
+     *            a layer index.
+     * @throws IndexOutOfBoundsException
+     *             if there is no layer at this index.
+     */
+    private void checkIndex(final int index)
+    {
+        if ((index < 0) || (index >= mLayers.size()))
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mLayers.size());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Drawable displaying the visible layers of a {@link LayerStack}, transformed by the view zoom and pan. When zoomed
+ * out, the layers are drawn from a {@link TilePyramid}.
+ */
+final class LayerStackDrawable extends Drawable
+{
+    /** Displayed layers. */
+    private final LayerStack mLayers;
+
+    /** Paint used to draw the tiles. */
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Transformation from layer to drawable coordinates. */
+    private final Matrix mTransform = new Matrix();
+
+    /** Scale of {@link #mTransform}. */
+    private float mScale = 1;
+
+    /** Downsampled layers, null if none. */
+    private TilePyramid mPyramid;
+
+    /**
+     * Create a new {@link LayerStackDrawable}.
+     * 
+     * @param layers
+     *            the displayed layers.
+     */
+    LayerStackDrawable(final LayerStack layers)
+    {
+        mLayers = layers;
+    }
+
+    /**
+     * Set the transformation of the layers.
+     * 
+     * @param transform
+     *            the transformation from layer to drawable coordinates, a scale and a translation.
+     * @param scale
+     *            the scale of the transformation.
+     */
+    void setTransform(final Matrix transform, final float scale)
+    {
+        mTransform.set(transform);
+        mScale = scale;
+    }
+
+    /**
+     * Set the downsampled layers to draw from when zoomed out.
+     * 
+     * @param pyramid
+     *            the downsampled layers, null to always draw the layers.
+     */
+    void setPyramid(final TilePyramid pyramid)
+    {
+        mPyramid = pyramid;
+    }
+
+    @Override
+    public void draw(final Canvas canvas)
+    {
+        int saveCount = canvas.save();
+        canvas.concat(mTransform);
+
+        if ((mPyramid == null) || !mPyramid.draw(canvas, mPaint, mScale, mLayers))
+        {
+            mLayers.draw(canvas, mPaint);
+        }
+
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public void setAlpha(final int alpha)
+    {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter colorFilter)
+    {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity()
+    {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
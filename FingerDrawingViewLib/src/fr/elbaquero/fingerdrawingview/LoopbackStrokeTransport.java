@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * In-process {@link StrokeTransport}: one end of a pair, the other end being {@link #getPeer()}. The pair is
+ * connected once both ends are open.
+ * <p>
+ * The events of both ends are delivered in order on a thread of the pair, as a network transport would, so that a
+ * receiver never runs within the send call of its peer. The link can be cut to exercise the reconnections, see
+ * {@link #setLinkUp(boolean)}. This class does not depend on the Android framework.
+ */
+public final class LoopbackStrokeTransport implements StrokeTransport
+{
+    /** Factory of the daemon delivery threads. */
+    private static final ThreadFactory sThreadFactory = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, LoopbackStrokeTransport.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /** Delivery thread, shared by both ends. */
+    private final ExecutorService mExecutor;
+
+    /** Other end. */
+    private final LoopbackStrokeTransport mPeer;
+
+    /** Receiver, null until open and once closed. Only accessed on the delivery thread, as all the fields below. */
+    private Receiver mReceiver;
+
+    /** Indicator of a closed end. */
+    private boolean mIsClosed;
+
+    /** Indicator of a link up between both ends. */
+    private boolean mIsLinkUp = true;
+
+    /**
+     * Create a new {@link LoopbackStrokeTransport} and its peer.
+     */
+    public LoopbackStrokeTransport()
+    {
+        mExecutor = Executors.newSingleThreadExecutor(sThreadFactory);
+        mPeer = new LoopbackStrokeTransport(this, mExecutor);
+    }
+
+    /**
+     * Create the peer of a {@link LoopbackStrokeTransport}.
+     * 
+     * @param peer
+     *            the other end.
+     * @param executor
+     *            the delivery thread.
+     */
+    private LoopbackStrokeTransport(final LoopbackStrokeTransport peer, final ExecutorService executor)
+    {
+        mExecutor = executor;
+        mPeer = peer;
+    }
+
+    /**
+     * @return the other end.
+     */
+    public LoopbackStrokeTransport getPeer()
+    {
+        return mPeer;
+    }
+
+    /**
+     * Cut or restore the link between both ends, to simulate a network loss: the frames sent meanwhile are lost.
+     * 
+     * @param linkUp
+     *            false to cut the link, true to restore it.
+     */
+    public void setLinkUp(final boolean linkUp)
+    {
+        post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean wasConnected = isConnected();
+                mIsLinkUp = linkUp;
+                mPeer.mIsLinkUp = linkUp;
+
+                if (wasConnected && !isConnected())
+                {
+                    mReceiver.onDisconnected();
+                    mPeer.mReceiver.onDisconnected();
+                }
+                else if (!wasConnected && isConnected())
+                {
+                    mReceiver.onConnected();
+                    mPeer.mReceiver.onConnected();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void open(final Receiver receiver)
+    {
+        post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (mIsClosed)
+                {
+                    return;
+                }
+
+                mReceiver = receiver;
+
+                if (isConnected())
+                {
+                    mReceiver.onConnected();
+                    mPeer.mReceiver.onConnected();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void send(final byte[] frame)
+    {
+        post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (isConnected())
+                {
+                    mPeer.mReceiver.onFrame(frame);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close()
+    {
+        post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (isConnected())
+                {
+                    mPeer.mReceiver.onDisconnected();
+                }
+
+                mReceiver = null;
+                mIsClosed = true;
+
+                if (mPeer.mIsClosed)
+                {
+                    mExecutor.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if both ends are open and linked. Called on the delivery thread.
+     */
+    private boolean isConnected()
+    {
+        return (mReceiver != null) && (mPeer.mReceiver != null) && mIsLinkUp;
+    }
+
+    /**
+     * Run a task on the delivery thread, unless both ends are closed.
+     * 
+     * @param task
+     *            the task.
+     */
+    private void post(final Runnable task)
+    {
+        try
+        {
+            mExecutor.execute(task);
+        }
+        catch (RejectedExecutionException ignore)
+        {
+        }
+    }
+}
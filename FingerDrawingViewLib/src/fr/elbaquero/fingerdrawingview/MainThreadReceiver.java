@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Receiver forwarding the events of a {@link StrokeTransport} to another receiver on the main thread, until it is
+ * closed.
+ */
+final class MainThreadReceiver implements StrokeTransport.Receiver
+{
+    /** Receiver running on the main thread. */
+    private final StrokeTransport.Receiver mReceiver;
+
+    /** Indicator of a closed receiver, only accessed on the main thread. */
+    private boolean mIsClosed;
+
+    /**
+     * Create a new {@link MainThreadReceiver}.
+     * 
+     * @param receiver
+     *            the receiver running on the main thread.
+     */
+    MainThreadReceiver(final StrokeTransport.Receiver receiver)
+    {
+        mReceiver = receiver;
+    }
+
+    /**
+     * Stop forwarding the events, including the ones already posted. Called on the main thread.
+     */
+    void close()
+    {
+        mIsClosed = true;
+    }
+
+    @Override
+    public void onConnected()
+    {
+        BackgroundExecutor.postToMainThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!mIsClosed)
+                {
+                    mReceiver.onConnected();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onFrame(final byte[] frame)
+    {
+        BackgroundExecutor.postToMainThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!mIsClosed)
+                {
+                    mReceiver.onFrame(frame);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnected()
+    {
+        BackgroundExecutor.postToMainThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!mIsClosed)
+                {
+                    mReceiver.onDisconnected();
+                }
+            }
+        });
+    }
+}
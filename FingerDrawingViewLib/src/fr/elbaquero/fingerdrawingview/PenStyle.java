@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Immutable pen style of a {@link Stroke}. This class does not depend on the Android framework.
+ */
+public final class PenStyle
+{
+    /** Pen color, as an ARGB value. */
+    private final int mColor;
+
+    /** Pen width, in pixels. */
+    private final float mWidth;
+
+    /** Eraser indicator. */
+    private final boolean mEraser;
+
+    /**
+     * Create a new {@link PenStyle}.
+     * 
+     * @param color
+     *            the pen color, as an ARGB value. Ignored by erasers.
+     * @param width
+     *            the pen width, in pixels.
+     * @param eraser
+     *            true if the pen erases instead of drawing.
+     */
+    public PenStyle(final int color, final float width, final boolean eraser)
+    {
+        mColor = eraser ? 0 : color;
+        mWidth = width;
+        mEraser = eraser;
+    }
+
+    /**
+     * @return the pen color, as an ARGB value.
+     */
+    public int getColor()
+    {
+        return mColor;
+    }
+
+    /**
+     * @return the pen width, in pixels.
+     */
+    public float getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return true if the pen erases instead of drawing.
+     */
+    public boolean isEraser()
+    {
+        return mEraser;
+    }
+
+    @Override
+    public boolean equals(final Object object)
+    {
+        if (this == object)
+        {
+            return true;
+        }
+
+        if (!(object instanceof PenStyle))
+        {
+            return false;
+        }
+
+        PenStyle other = (PenStyle) object;
+
+        return (mColor == other.mColor) && (Float.floatToIntBits(mWidth) == Float.floatToIntBits(other.mWidth))
+                && (mEraser == other.mEraser);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hashCode = mColor;
+        hashCode = 31 * hashCode + Float.floatToIntBits(mWidth);
+        hashCode = 31 * hashCode + (mEraser ? 1 : 0);
+
+        return hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PenStyle[color=" + Integer.toHexString(mColor) + ", width=" + mWidth + ", eraser=" + mEraser + "]";
+    }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming PNG encoder of 8 bits RGBA images, written row by row to a channel.
+ * <p>
+ * Rows are filtered as they are written, with the filter minimizing the sum of the absolute differences, then deflated
+ * by blocks of about 128 KiB. With an executor, the blocks are deflated in parallel: each block ends on a byte
+ * boundary with a sync flush and is primed with the last 32 KiB of the previous one, so that their concatenation is a
+ * single deflate stream (the technique of pigz). Blocks are written in order as soon as they are deflated, and the
+ * number of blocks in flight is bounded, so the memory used does not depend on the image size. Without an executor,
+ * or when the platform cannot sync flush, the blocks are deflated on the calling thread by a single deflater.
+ * <p>
+ * This class does not depend on the Android framework.
+ */
+public final class PngEncoder
+{
+    /** PNG file signature. */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /** Header chunk type. */
+    private static final int CHUNK_IHDR = 0x49484452;
+
+    /** Image data chunk type. */
+    private static final int CHUNK_IDAT = 0x49444154;
+
+    /** End chunk type. */
+    private static final int CHUNK_IEND = 0x49454E44;
+
+    /** Bit depth of every channel. */
+    private static final int BIT_DEPTH = 8;
+
+    /** Color type: true color with alpha. */
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    /** Number of bytes per pixel. */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /** Filter type: none. */
+    private static final int FILTER_NONE = 0;
+
+    /** Filter type: difference with the left byte. */
+    private static final int FILTER_SUB = 1;
+
+    /** Filter type: difference with the byte above. */
+    private static final int FILTER_UP = 2;
+
+    /** Filter type: difference with the average of the left byte and of the byte above. */
+    private static final int FILTER_AVERAGE = 3;
+
+    /** Filter type: difference with the Paeth predictor. */
+    private static final int FILTER_PAETH = 4;
+
+    /** Deflate compression level, the zlib default. */
+    private static final int COMPRESSION_LEVEL = 6;
+
+    /** zlib stream header: deflate, 32 KiB window, default compression, no dictionary. */
+    private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9C };
+
+    /** Size of the blocks deflated in parallel, in bytes of filtered rows. */
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    /** Deflate window size: the length of the dictionary priming a block. */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /** Size of the output buffer of the deflater used without executor. */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /** Indicator of the support of the sync flush, from Android 4.4. */
+    private static final boolean sCanSyncFlush = canSyncFlush();
+
+    /** Destination channel. */
+    private final WritableByteChannel mChannel;
+
+    /** Image width, in pixels. */
+    private final int mWidth;
+
+    /** Image height, in pixels. */
+    private final int mHeight;
+
+    /** Executor deflating the blocks, null to deflate them on the calling thread. */
+    private final Executor mExecutor;
+
+    /** Maximum number of blocks being deflated. */
+    private final int mMaxPendingBlocks = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Number of rows per block. */
+    private final int mRowsPerBlock;
+
+    /** Current row, unfiltered, without filter type byte. */
+    private byte[] mRow;
+
+    /** Previous row, unfiltered, zeros before the first row. */
+    private byte[] mPreviousRow;
+
+    /** Filtered rows of the current block. */
+    private byte[] mBlock;
+
+    /** Length of the current block, in bytes. */
+    private int mBlockLength;
+
+    /** Previous block, the dictionary of the current one. Null before the first block. */
+    private byte[] mPreviousBlock;
+
+    /** Length of the previous block, in bytes. */
+    private int mPreviousBlockLength;
+
+    /** Number of rows written. */
+    private int mRowCount;
+
+    /** Checksum of the filtered rows, the zlib trailer. */
+    private final Adler32 mAdler = new Adler32();
+
+    /** Blocks being deflated, in order. */
+    private final LinkedList<FutureTask<byte[]>> mPendingBlocks = new LinkedList<FutureTask<byte[]>>();
+
+    /** Deflater used without executor, null with one. */
+    private final Deflater mDeflater;
+
+    /** Output buffer of {@link #mDeflater}. */
+    private final byte[] mDeflaterOutput;
+
+    /** Chunk checksum. */
+    private final CRC32 mCrc = new CRC32();
+
+    /** Chunk length and type, then checksum. */
+    private final ByteBuffer mChunkBuffer = ByteBuffer.allocate(8);
+
+    /**
+     * Create a new {@link PngEncoder} and write the PNG header.
+     * 
+     * @param channel
+     *            the destination channel, left open.
+     * @param width
+     *            the image width, in pixels.
+     * @param height
+     *            the image height, in pixels.
+     * @param executor
+     *            the executor deflating the blocks in parallel, null to deflate them on the calling thread.
+     * @throws IOException
+     *             if the header cannot be written.
+     */
+    public PngEncoder(final WritableByteChannel channel, final int width, final int height, final Executor executor)
+            throws IOException
+    {
+        if ((width <= 0) || (height <= 0))
+        {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+
+        final int rowLength = 1 + BYTES_PER_PIXEL * width;
+
+        mChannel = channel;
+        mWidth = width;
+        mHeight = height;
+        mExecutor = sCanSyncFlush ? executor : null;
+        mRowsPerBlock = Math.max(1, BLOCK_SIZE / rowLength);
+        mRow = new byte[BYTES_PER_PIXEL * width];
+        mPreviousRow = new byte[BYTES_PER_PIXEL * width];
+        mBlock = new byte[mRowsPerBlock * rowLength];
+
+        if (mExecutor == null)
+        {
+            // Header and trailer written by the deflater
+            mDeflater = new Deflater(COMPRESSION_LEVEL);
+            mDeflaterOutput = new byte[OUTPUT_BUFFER_SIZE];
+        }
+        else
+        {
+            mDeflater = null;
+            mDeflaterOutput = null;
+        }
+
+        writeFully(ByteBuffer.wrap(SIGNATURE));
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width);
+        header.putInt(height);
+        header.put((byte) BIT_DEPTH);
+        header.put((byte) COLOR_TYPE_RGBA);
+        header.put((byte) 0); // Deflate compression
+        header.put((byte) 0); // Adaptive filtering
+        header.put((byte) 0); // No interlacing
+        writeChunk(CHUNK_IHDR, header.array(), 0, header.position());
+    }
+
+    /**
+     * @return the image width, in pixels.
+     */
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the image height, in pixels.
+     */
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * Write the next rows of the image.
+     * 
+     * @param pixels
+     *            the rows pixels, as non-premultiplied ARGB colors.
+     * @param offset
+     *            the index of the first pixel of the first row.
+     * @param stride
+     *            the number of pixels between the starts of two rows.
+     * @param count
+     *            the number of rows.
+     * @throws IOException
+     *             if the rows cannot be written.
+     */
+    public void writeRows(final int[] pixels, final int offset, final int stride, final int count) throws IOException
+    {
+        if (mRowCount + count > mHeight)
+        {
+            throw new IllegalStateException("Too many rows: " + (mRowCount + count) + ", height: " + mHeight);
+        }
+
+        for (int row = 0; row < count; ++row)
+        {
+            int rowOffset = offset + row * stride;
+
+            for (int x = 0, i = 0; x < mWidth; ++x, i += BYTES_PER_PIXEL)
+            {
+                int color = pixels[rowOffset + x];
+
+                mRow[i] = (byte) (color >> 16);
+                mRow[i + 1] = (byte) (color >> 8);
+                mRow[i + 2] = (byte) color;
+                mRow[i + 3] = (byte) (color >>> 24);
+            }
+
+            filterRow(mRow, mPreviousRow, mBlock, mBlockLength);
+            mBlockLength += 1 + mRow.length;
+            ++mRowCount;
+
+            byte[] previousRow = mPreviousRow;
+            mPreviousRow = mRow;
+            mRow = previousRow;
+
+            if ((mBlockLength == mBlock.length) || (mRowCount == mHeight))
+            {
+                deflateBlock(mRowCount == mHeight);
+            }
+        }
+    }
+
+    /**
+     * Complete the image: wait for the pending blocks, then write them and the end of the image. The channel is left
+     * open.
+     * 
+     * @throws IOException
+     *             if the image cannot be written.
+     * @throws IllegalStateException
+     *             if some rows have not been written.
+     */
+    public void finish() throws IOException
+    {
+        if (mRowCount != mHeight)
+        {
+            throw new IllegalStateException("Missing rows: " + mRowCount + ", height: " + mHeight);
+        }
+
+        while (!mPendingBlocks.isEmpty())
+        {
+            writePendingBlock();
+        }
+
+        writeChunk(CHUNK_IEND, null, 0, 0);
+    }
+
+    /**
+     * Cancel the pending blocks, e.g. after a failure. The encoder cannot be used afterwards.
+     */
+    public void cancel()
+    {
+        for (FutureTask<byte[]> block : mPendingBlocks)
+        {
+            block.cancel(true);
+        }
+
+        mPendingBlocks.clear();
+
+        if (mDeflater != null)
+        {
+            mDeflater.end();
+        }
+    }
+
+    /**
+     * Deflate the current block, then start a new one.
+     * 
+     * @param last
+     *            true if this is the last block of the image.
+     * @throws IOException
+     *             if the deflated data cannot be written.
+     */
+    private void deflateBlock(final boolean last) throws IOException
+    {
+        if (mExecutor == null)
+        {
+            mDeflater.setInput(mBlock, 0, mBlockLength);
+
+            if (last)
+            {
+                mDeflater.finish();
+            }
+
+            while (!mDeflater.needsInput() || (last && !mDeflater.finished()))
+            {
+                int length = mDeflater.deflate(mDeflaterOutput);
+
+                if (length > 0)
+                {
+                    writeChunk(CHUNK_IDAT, mDeflaterOutput, 0, length);
+                }
+            }
+
+            if (last)
+            {
+                mDeflater.end();
+            }
+
+            // The deflater keeps its own window, the block can be reused
+            mBlockLength = 0;
+            return;
+        }
+
+        while (mPendingBlocks.size() >= mMaxPendingBlocks)
+        {
+            writePendingBlock();
+        }
+
+        mAdler.update(mBlock, 0, mBlockLength);
+
+        final byte[] block = mBlock;
+        final int blockLength = mBlockLength;
+        final byte[] dictionary = mPreviousBlock;
+        final int dictionaryLength = mPreviousBlockLength;
+        final boolean first = dictionary == null;
+        final int checksum = (int) mAdler.getValue();
+
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call()
+            {
+                return deflate(block, blockLength, dictionary, dictionaryLength, first, last, checksum);
+            }
+        });
+
+        mPendingBlocks.add(task);
+        mExecutor.execute(task);
+
+        // Both blocks are read by the task
+        mPreviousBlock = block;
+        mPreviousBlockLength = blockLength;
+        mBlock = new byte[mBlock.length];
+        mBlockLength = 0;
+    }
+
+    /**
+     * Wait for the oldest pending block and write it.
+     * 
+     * @throws IOException
+     *             if the block cannot be deflated or written.
+     */
+    private void writePendingBlock() throws IOException
+    {
+        byte[] data;
+
+        try
+        {
+            data = mPendingBlocks.getFirst().get();
+        }
+        catch (InterruptedException e)
+        {
+            cancel();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            cancel();
+            throw new IOException("PNG encoding failed: " + e.getCause());
+        }
+
+        mPendingBlocks.removeFirst();
+        writeChunk(CHUNK_IDAT, data, 0, data.length);
+    }
+
+    /**
+     * Deflate a block into a part of the zlib stream. Runs on the executor.
+     * 
+     * @param block
+     *            the filtered rows.
+     * @param blockLength
+     *            the length of the filtered rows, in bytes.
+     * @param dictionary
+     *            the previous block, null for the first one.
+     * @param dictionaryLength
+     *            the length of the previous block, in bytes.
+     * @param first
+     *            true to start with the zlib header.
+     * @param last
+     *            true to end the deflate stream and to append the zlib trailer.
+     * @param checksum
+     *            the checksum of all the filtered rows, used for the last block only.
+     * @return the deflated block.
+     */
+    private static byte[] deflate(final byte[] block, final int blockLength, final byte[] dictionary,
+            final int dictionaryLength, final boolean first, final boolean last, final int checksum)
+    {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        byte[] output = new byte[blockLength / 2 + 64];
+        int length = 0;
+
+        try
+        {
+            if (first)
+            {
+                System.arraycopy(ZLIB_HEADER, 0, output, 0, ZLIB_HEADER.length);
+                length = ZLIB_HEADER.length;
+            }
+            else
+            {
+                // Back references may reach into the previous block, which precedes this one in the stream
+                int size = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - size, size);
+            }
+
+            deflater.setInput(block, 0, blockLength);
+
+            if (last)
+            {
+                deflater.finish();
+            }
+
+            // Sync flush: keep flushing while the output buffer gets filled
+            do
+            {
+                if (length == output.length)
+                {
+                    output = copyOf(output, 2 * output.length, length);
+                }
+
+                int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+                length += deflater.deflate(output, length, output.length - length, flush);
+            }
+            while ((length == output.length) || (last && !deflater.finished()));
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        if (last)
+        {
+            output = copyOf(output, length + 4, length);
+            ByteBuffer.wrap(output, length, 4).putInt(checksum);
+            length += 4;
+        }
+
+        return (length == output.length) ? output : copyOf(output, length, length);
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static byte[] copyOf(final byte[] array, final int capacity, final int length)
+    {
+        byte[] copy = new byte[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Filter a row with the filter minimizing the sum of the absolute values of the filtered bytes, taken as signed.
+     * 
+     * @param row
+     *            the row, unfiltered.
+     * @param previousRow
+     *            the previous row, unfiltered.
+     * @param destination
+     *            the destination buffer.
+     * @param offset
+     *            the position of the filtered row, starting with the filter type, in the destination buffer.
+     */
+    private static void filterRow(final byte[] row, final byte[] previousRow, final byte[] destination,
+            final int offset)
+    {
+        // Single pass over the row for the sums of the five filters
+        long noneSum = 0;
+        long subSum = 0;
+        long upSum = 0;
+        long averageSum = 0;
+        long paethSum = 0;
+
+        for (int i = 0; i < row.length; ++i)
+        {
+            int x = row[i] & 0xFF;
+            int a = (i >= BYTES_PER_PIXEL) ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+            int b = previousRow[i] & 0xFF;
+            int c = (i >= BYTES_PER_PIXEL) ? previousRow[i - BYTES_PER_PIXEL] & 0xFF : 0;
+
+            noneSum += Math.abs((byte) x);
+            subSum += Math.abs((byte) (x - a));
+            upSum += Math.abs((byte) (x - b));
+            averageSum += Math.abs((byte) (x - ((a + b) >> 1)));
+            paethSum += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+
+        int filter = FILTER_NONE;
+        long bestSum = noneSum;
+
+        if (subSum < bestSum)
+        {
+            filter = FILTER_SUB;
+            bestSum = subSum;
+        }
+
+        if (upSum < bestSum)
+        {
+            filter = FILTER_UP;
+            bestSum = upSum;
+        }
+
+        if (averageSum < bestSum)
+        {
+            filter = FILTER_AVERAGE;
+            bestSum = averageSum;
+        }
+
+        if (paethSum < bestSum)
+        {
+            filter = FILTER_PAETH;
+        }
+
+        destination[offset] = (byte) filter;
+
+        for (int i = 0; i < row.length; ++i)
+        {
+            int x = row[i] & 0xFF;
+            int a = (i >= BYTES_PER_PIXEL) ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+            int b = previousRow[i] & 0xFF;
+
+            switch (filter)
+            {
+                case FILTER_SUB:
+                    x -= a;
+                    break;
+
+                case FILTER_UP:
+                    x -= b;
+                    break;
+
+                case FILTER_AVERAGE:
+                    x -= (a + b) >> 1;
+                    break;
+
+                case FILTER_PAETH:
+                    x -= paeth(a, b, (i >= BYTES_PER_PIXEL) ? previousRow[i - BYTES_PER_PIXEL] & 0xFF : 0);
+                    break;
+
+                default:
+                    break;
+            }
+
+            destination[offset + 1 + i] = (byte) x;
+        }
+    }
+
+    /**
+     * @param a
+     *            the left byte.
+     * @param b
+     *            the byte above.
+     * @param c
+     *            the byte above the left one.
+     * @return the Paeth predictor: the byte closest to a + b - c.
+     */
+    private static int paeth(final int a, final int b, final int c)
+    {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+
+        return ((pa <= pb) && (pa <= pc)) ? a : (pb <= pc) ? b : c;
+    }
+
+    /**
+     * Write a chunk.
+     * 
+     * @param type
+     *            the chunk type.
+     * @param data
+     *            the chunk data, may be null if empty.
+     * @param offset
+     *            the offset of the data.
+     * @param length
+     *            the length of the data, in bytes.
+     * @throws IOException
+     *             if the chunk cannot be written.
+     */
+    private void writeChunk(final int type, final byte[] data, final int offset, final int length) throws IOException
+    {
+        mChunkBuffer.clear();
+        mChunkBuffer.putInt(length);
+        mChunkBuffer.putInt(type);
+
+        mCrc.reset();
+        mCrc.update(mChunkBuffer.array(), 4, 4);
+
+        mChunkBuffer.flip();
+        writeFully(mChunkBuffer);
+
+        if (length > 0)
+        {
+            mCrc.update(data, offset, length);
+            writeFully(ByteBuffer.wrap(data, offset, length));
+        }
+
+        mChunkBuffer.clear();
+        mChunkBuffer.putInt((int) mCrc.getValue());
+        mChunkBuffer.flip();
+        writeFully(mChunkBuffer);
+    }
+
+    /**
+     * Write a whole buffer to the channel.
+     * 
+     * @param buffer
+     *            the buffer to write.
+     * @throws IOException
+     *             if the buffer cannot be written.
+     */
+    private void writeFully(final ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            mChannel.write(buffer);
+        }
+    }
+
+    /**
+     * @return true if the deflater supports the sync flush, needed to deflate the blocks in parallel.
+     */
+    private static boolean canSyncFlush()
+    {
+        try
+        {
+            Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Work done by a view while replaying a {@link GestureTrace}, see {@link GestureTracePlayer}. This class does not
+ * depend on the Android framework.
+ */
+public final class ReplayStats
+{
+    /** Number of replayed events. */
+    private final int mEventCount;
+
+    /** Number of simulated display frames. */
+    private final int mFrameCount;
+
+    /** Number of invalidations. */
+    private final long mInvalidationCount;
+
+    /** Number of invalidated pixels, counted once per invalidation. */
+    private final long mInvalidatedPixelCount;
+
+    /** Number of committed strokes. */
+    private final long mCommitCount;
+
+    /** Number of allocations. */
+    private final int mAllocationCount;
+
+    /** Replay duration, in nanoseconds. */
+    private final long mDuration;
+
+    /**
+     * Create a new {@link ReplayStats}.
+     * 
+     * @param eventCount
+     *            the number of replayed events.
+     * @param frameCount
+     *            the number of simulated display frames.
+     * @param invalidationCount
+     *            the number of invalidations.
+     * @param invalidatedPixelCount
+     *            the number of invalidated pixels.
+     * @param commitCount
+     *            the number of committed strokes.
+     * @param allocationCount
+     *            the number of allocations.
+     * @param duration
+     *            the replay duration, in nanoseconds.
+     */
+    ReplayStats(final int eventCount, final int frameCount, final long invalidationCount,
+            final long invalidatedPixelCount, final long commitCount, final int allocationCount, final long duration)
+    {
+        mEventCount = eventCount;
+        mFrameCount = frameCount;
+        mInvalidationCount = invalidationCount;
+        mInvalidatedPixelCount = invalidatedPixelCount;
+        mCommitCount = commitCount;
+        mAllocationCount = allocationCount;
+        mDuration = duration;
+    }
+
+    /**
+     * @return the number of replayed events.
+     */
+    public int getEventCount()
+    {
+        return mEventCount;
+    }
+
+    /**
+     * @return the number of simulated display frames.
+     */
+    public int getFrameCount()
+    {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the number of invalidations, of the view and of its background.
+     */
+    public long getInvalidationCount()
+    {
+        return mInvalidationCount;
+    }
+
+    /**
+     * @return the number of invalidated pixels, counted once per invalidation.
+     */
+    public long getInvalidatedPixelCount()
+    {
+        return mInvalidatedPixelCount;
+    }
+
+    /**
+     * @return the number of committed strokes.
+     */
+    public long getCommitCount()
+    {
+        return mCommitCount;
+    }
+
+    /**
+     * @return the number of allocations on the replaying thread, the replayed events included. 0 if the runtime does
+     *         not count allocations.
+     */
+    public int getAllocationCount()
+    {
+        return mAllocationCount;
+    }
+
+    /**
+     * @return the replay duration, in nanoseconds.
+     */
+    public long getDuration()
+    {
+        return mDuration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "events=" + mEventCount + " frames=" + mFrameCount + " invalidations=" + mInvalidationCount
+                + " invalidatedPixels=" + mInvalidatedPixelCount + " commits=" + mCommitCount + " allocations="
+                + mAllocationCount + " durationMs=" + (mDuration / 1000000L);
+    }
+}
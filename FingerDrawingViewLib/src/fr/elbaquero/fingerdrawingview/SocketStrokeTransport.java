@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * {@link StrokeTransport} over a TCP connection to a {@link StrokeStreamServer}, which relays the frames between the
+ * writer and the readers.
+ * <p>
+ * The connection is kept open: when it is lost, the transport reconnects after an increasing delay and notifies the
+ * receiver, so that the stream resynchronizes. Frames are sent by a dedicated thread, without Nagle's delay, and are
+ * dropped while disconnected. This class does not depend on the Android framework.
+ */
+public final class SocketStrokeTransport implements StrokeTransport
+{
+    /** Connection timeout, in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /** Delay before the first reconnection attempt, in milliseconds. */
+    private static final long MIN_RECONNECT_DELAY = 250;
+
+    /** Maximum delay between the reconnection attempts, in milliseconds. */
+    private static final long MAX_RECONNECT_DELAY = 5000;
+
+    /** Socket streams buffer size, in bytes. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Server host. */
+    private final String mHost;
+
+    /** Server port. */
+    private final int mPort;
+
+    /** Role announced to the server. */
+    private final int mRole;
+
+    /** Frames waiting to be sent. */
+    private final BlockingQueue<byte[]> mPendingFrames = new LinkedBlockingQueue<byte[]>();
+
+    /** Connected socket, null while disconnected. */
+    private volatile Socket mSocket;
+
+    /** Indicator of a closed transport. */
+    private volatile boolean mIsClosed;
+
+    /** Thread connecting and reading the frames. */
+    private Thread mThread;
+
+    /**
+     * Create a new {@link SocketStrokeTransport}.
+     * 
+     * @param host
+     *            the server host.
+     * @param port
+     *            the server port.
+     * @param role
+     *            the role announced to the server.
+     */
+    private SocketStrokeTransport(final String host, final int port, final int role)
+    {
+        mHost = host;
+        mPort = port;
+        mRole = role;
+    }
+
+    /**
+     * @param host
+     *            the server host.
+     * @param port
+     *            the server port.
+     * @return a new transport for a {@link StrokeStreamWriter}.
+     */
+    public static SocketStrokeTransport forWriter(final String host, final int port)
+    {
+        return new SocketStrokeTransport(host, port, StrokeStreamFormat.ROLE_WRITER);
+    }
+
+    /**
+     * @param host
+     *            the server host.
+     * @param port
+     *            the server port.
+     * @return a new transport for a {@link StrokeStreamReader}.
+     */
+    public static SocketStrokeTransport forReader(final String host, final int port)
+    {
+        return new SocketStrokeTransport(host, port, StrokeStreamFormat.ROLE_READER);
+    }
+
+    @Override
+    public synchronized void open(final Receiver receiver)
+    {
+        if ((mThread != null) || mIsClosed)
+        {
+            return;
+        }
+
+        mThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connect(receiver);
+            }
+        }, SocketStrokeTransport.class.getSimpleName());
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    @Override
+    public void send(final byte[] frame)
+    {
+        if (mSocket != null)
+        {
+            mPendingFrames.offer(frame);
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        mIsClosed = true;
+        closeQuietly(mSocket);
+
+        if (mThread != null)
+        {
+            mThread.interrupt();
+        }
+    }
+
+    /**
+     * Keep connecting to the server and reading the frames, until the transport is closed. Runs on the transport
+     * thread.
+     * 
+     * @param receiver
+     *            the receiver of the incoming frames.
+     */
+    private void connect(final Receiver receiver)
+    {
+        long reconnectDelay = MIN_RECONNECT_DELAY;
+
+        while (!mIsClosed)
+        {
+            Socket socket = new Socket();
+            Thread sender = null;
+
+            try
+            {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT);
+
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                        BUFFER_SIZE));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                        BUFFER_SIZE));
+
+                out.write(mRole);
+                out.flush();
+
+                // Frames sent while disconnected are lost, the connection resynchronizes the stream
+                mPendingFrames.clear();
+                mSocket = socket;
+
+                if (mIsClosed)
+                {
+                    break;
+                }
+
+                sender = startSender(socket, out);
+                receiver.onConnected();
+                reconnectDelay = MIN_RECONNECT_DELAY;
+
+                while (true)
+                {
+                    receiver.onFrame(StrokeStreamFormat.readFrame(in));
+                }
+            }
+            catch (IOException e)
+            {
+                // Connection failed or lost
+            }
+            finally
+            {
+                mSocket = null;
+                closeQuietly(socket);
+
+                if (sender != null)
+                {
+                    sender.interrupt();
+
+                    if (!mIsClosed)
+                    {
+                        receiver.onDisconnected();
+                    }
+                }
+            }
+
+            try
+            {
+                Thread.sleep(reconnectDelay);
+                reconnectDelay = Math.min(2 * reconnectDelay, MAX_RECONNECT_DELAY);
+            }
+            catch (InterruptedException e)
+            {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Start the thread sending the pending frames on a connection. The stream is flushed when there is no more
+     * pending frame, so that a burst of frames shares the writes.
+     * 
+     * @param socket
+     *            the connected socket, closed when a frame cannot be sent.
+     * @param out
+     *            the socket output stream.
+     * @return the started thread.
+     */
+    private Thread startSender(final Socket socket, final DataOutputStream out)
+    {
+        Thread sender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while (true)
+                    {
+                        StrokeStreamFormat.writeFrame(out, mPendingFrames.take());
+
+                        if (mPendingFrames.isEmpty())
+                        {
+                            out.flush();
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // Disconnected
+                }
+                catch (IOException e)
+                {
+                    // The reading thread notices the closed socket
+                    closeQuietly(socket);
+                }
+            }
+        }, SocketStrokeTransport.class.getSimpleName());
+        sender.setDaemon(true);
+        sender.start();
+
+        return sender;
+    }
+
+    /**
+     * Close a socket, ignoring the errors.
+     * 
+     * @param socket
+     *            the socket, may be null.
+     */
+    static void closeQuietly(final Socket socket)
+    {
+        try
+        {
+            if (socket != null)
+            {
+                socket.close();
+            }
+        }
+        catch (IOException ignore)
+        {
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Recorded stroke: the samples of a single finger gesture, stored in growable primitive arrays.
+ * <p>
+ * Times are kept as offsets from the first sample, in milliseconds, so that they fit in a float without losing
+ * precision. This class does not depend on the Android framework.
+ */
+public final class Stroke
+{
+    /** Default initial capacity, in samples. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** Samples X positions. */
+    private float[] mX;
+
+    /** Samples Y positions. */
+    private float[] mY;
+
+    /** Samples times, relative to the start time, in milliseconds. */
+    private float[] mTime;
+
+    /** Samples pressures. */
+    private float[] mPressure;
+
+    /** Number of recorded samples. */
+    private int mSize;
+
+    /** First sample time, in milliseconds. */
+    private long mStartTime;
+
+    /** Pen style. */
+    private PenStyle mStyle;
+
+    /**
+     * Create a new {@link Stroke} with the default capacity.
+     */
+    public Stroke()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new {@link Stroke}.
+     * 
+     * @param capacity
+     *            the initial capacity, in samples.
+     */
+    public Stroke(final int capacity)
+    {
+        int initialCapacity = Math.max(capacity, 1);
+
+        mX = new float[initialCapacity];
+        mY = new float[initialCapacity];
+        mTime = new float[initialCapacity];
+        mPressure = new float[initialCapacity];
+    }
+
+    /**
+     * Append a sample to the stroke.
+     * 
+     * @param x
+     *            the sample X position.
+     * @param y
+     *            the sample Y position.
+     * @param time
+     *            the sample time, in milliseconds.
+     * @param pressure
+     *            the sample pressure.
+     */
+    public void add(final float x, final float y, final long time, final float pressure)
+    {
+        if (mSize == 0)
+        {
+            mStartTime = time;
+        }
+        else if (mSize == mX.length)
+        {
+            grow();
+        }
+
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mTime[mSize] = time - mStartTime;
+        mPressure[mSize] = pressure;
+        ++mSize;
+    }
+
+    /**
+     * Create a copy of the stroke, with a storage trimmed to its samples.
+     * 
+     * @return the new stroke.
+     */
+    public Stroke copy()
+    {
+        Stroke copy = new Stroke(mSize);
+
+        System.arraycopy(mX, 0, copy.mX, 0, mSize);
+        System.arraycopy(mY, 0, copy.mY, 0, mSize);
+        System.arraycopy(mTime, 0, copy.mTime, 0, mSize);
+        System.arraycopy(mPressure, 0, copy.mPressure, 0, mSize);
+        copy.mSize = mSize;
+        copy.mStartTime = mStartTime;
+        copy.mStyle = mStyle;
+
+        return copy;
+    }
+
+    /**
+     * Remove all the samples. The allocated storage is kept for the next stroke.
+     */
+    public void reset()
+    {
+        mSize = 0;
+        mStartTime = 0;
+    }
+
+    /**
+     * @return the number of recorded samples.
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * @return true if no sample has been recorded.
+     */
+    public boolean isEmpty()
+    {
+        return mSize == 0;
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample X position.
+     */
+    public float getX(final int index)
+    {
+        checkIndex(index);
+        return mX[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample Y position.
+     */
+    public float getY(final int index)
+    {
+        checkIndex(index);
+        return mY[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample time, in milliseconds.
+     */
+    public long getTime(final int index)
+    {
+        checkIndex(index);
+        return mStartTime + (long) mTime[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample pressure.
+     */
+    public float getPressure(final int index)
+    {
+        checkIndex(index);
+        return mPressure[index];
+    }
+
+    /**
+     * @return the first sample time, in milliseconds.
+     */
+    public long getStartTime()
+    {
+        return mStartTime;
+    }
+
+    /**
+     * @return the pen style, may be null.
+     */
+    public PenStyle getStyle()
+    {
+        return mStyle;
+    }
+
+    /**
+     * Set the pen style.
+     * 
+     * @param style
+     *            the pen style.
+     */
+    public void setStyle(final PenStyle style)
+    {
+        mStyle = style;
+    }
+
+    /**
+     * @return the stroke duration, in milliseconds.
+     */
+    public long getDuration()
+    {
+        return (mSize == 0) ? 0 : (long) mTime[mSize - 1];
+    }
+
+    /**
+     * Grow the storage by half its current size.
+     */
+    private void grow()
+    {
+        int capacity = mX.length + (mX.length >> 1) + 1;
+
+        mX = copyOf(mX, capacity, mSize);
+        mY = copyOf(mY, capacity, mSize);
+        mTime = copyOf(mTime, capacity, mSize);
+        mPressure = copyOf(mPressure, capacity, mSize);
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static float[] copyOf(final float[] array, final int capacity, final int length)
+    {
+        float[] copy = new float[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Check a sample index.
+     * 
+     * @param index
+     *            the sample index.
+     */
+    private void checkIndex(final int index)
+    {
+        if ((index < 0) || (index >= mSize))
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vector drawing: the committed strokes, in drawing order. This class does not depend on the Android framework.
+ */
+public final class StrokeDocument
+{
+    /** Drawing width, in pixels. */
+    private int mWidth;
+
+    /** Drawing height, in pixels. */
+    private int mHeight;
+
+    /** Committed strokes. */
+    private final List<Stroke> mStrokes = new ArrayList<Stroke>();
+
+    /** Spatial index of the strokes, kept up to date with the strokes list. */
+    private final StrokeIndex mIndex;
+
+    /**
+     * Create a new, empty {@link StrokeDocument}.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     */
+    public StrokeDocument(final int width, final int height)
+    {
+        mWidth = width;
+        mHeight = height;
+        mIndex = new StrokeIndex(width, height);
+    }
+
+    /**
+     * @return the spatial index of the strokes, maintained as strokes are added and removed.
+     */
+    public StrokeIndex getIndex()
+    {
+        return mIndex;
+    }
+
+    /**
+     * @return the drawing width, in pixels.
+     */
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the drawing height, in pixels.
+     */
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * Set the drawing size.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     */
+    public void setSize(final int width, final int height)
+    {
+        if ((width != mWidth) || (height != mHeight))
+        {
+            mWidth = width;
+            mHeight = height;
+            mIndex.setSize(width, height);
+        }
+    }
+
+    /**
+     * Append a stroke. The stroke must not be modified afterwards.
+     * 
+     * @param stroke
+     *            the stroke to append.
+     */
+    public void add(final Stroke stroke)
+    {
+        mStrokes.add(stroke);
+        mIndex.add(stroke);
+    }
+
+    /**
+     * @param index
+     *            the stroke index.
+     * @return the stroke.
+     */
+    public Stroke get(final int index)
+    {
+        return mStrokes.get(index);
+    }
+
+    /**
+     * Remove the last stroke.
+     * 
+     * @return the removed stroke.
+     */
+    public Stroke removeLast()
+    {
+        Stroke stroke = mStrokes.remove(mStrokes.size() - 1);
+        mIndex.removeLast();
+
+        return stroke;
+    }
+
+    /**
+     * @return a copy of the strokes list. The strokes themselves are shared: committed strokes are never modified.
+     */
+    List<Stroke> copyStrokes()
+    {
+        return new ArrayList<Stroke>(mStrokes);
+    }
+
+    /**
+     * @return the number of strokes.
+     */
+    public int size()
+    {
+        return mStrokes.size();
+    }
+
+    /**
+     * @return true if the document has no stroke.
+     */
+    public boolean isEmpty()
+    {
+        return mStrokes.isEmpty();
+    }
+
+    /**
+     * Remove all the strokes.
+     */
+    public void clear()
+    {
+        mStrokes.clear();
+        mIndex.clear();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of the binary stroke format described in {@link StrokeFormat}.
+ * <p>
+ * The file is memory-mapped. Opening it only decodes the header and indexes the stroke blocks, each stroke is decoded
+ * when it is requested. This class does not depend on the Android framework.
+ */
+public final class StrokeDocumentReader implements Closeable
+{
+    /** Source file stream. */
+    private final FileInputStream mInput;
+
+    /** Mapped file content. */
+    private final ByteBuffer mBuffer;
+
+    /** Drawing width, in pixels. */
+    private final int mWidth;
+
+    /** Drawing height, in pixels. */
+    private final int mHeight;
+
+    /** Coordinates scale, in units per pixel. */
+    private final int mCoordinateScale;
+
+    /** Styles table. */
+    private final PenStyle[] mStyles;
+
+    /** Stroke blocks offsets. */
+    private int[] mBlockOffsets = new int[Stroke.DEFAULT_CAPACITY];
+
+    /** Stroke blocks lengths. */
+    private int[] mBlockLengths = new int[Stroke.DEFAULT_CAPACITY];
+
+    /** Number of strokes. */
+    private int mStrokeCount;
+
+    /**
+     * Open a stroke file.
+     * 
+     * @param file
+     *            the file to read.
+     * @throws IOException
+     *             if the file cannot be read or is not a supported stroke file.
+     */
+    public StrokeDocumentReader(final File file) throws IOException
+    {
+        mInput = new FileInputStream(file);
+
+        try
+        {
+            FileChannel channel = mInput.getChannel();
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (mBuffer.getInt() != StrokeFormat.MAGIC)
+            {
+                throw new IOException("Not a stroke file: " + file);
+            }
+
+            int version = mBuffer.get() & 0xFF;
+
+            if (version != StrokeFormat.VERSION)
+            {
+                throw new IOException("Unsupported stroke file version " + version + ": " + file);
+            }
+
+            mWidth = StrokeFormat.readVarInt(mBuffer);
+            mHeight = StrokeFormat.readVarInt(mBuffer);
+            mCoordinateScale = StrokeFormat.readVarInt(mBuffer);
+
+            if (mCoordinateScale <= 0)
+            {
+                throw new IOException("Invalid coordinate scale " + mCoordinateScale + ": " + file);
+            }
+
+            int styleCount = StrokeFormat.readVarInt(mBuffer);
+
+            if ((styleCount < 0) || (styleCount > mBuffer.remaining() / StrokeFormat.MIN_STYLE_SIZE))
+            {
+                throw new IOException("Invalid style count " + styleCount + ": " + file);
+            }
+
+            mStyles = new PenStyle[styleCount];
+
+            for (int i = 0; i < mStyles.length; ++i)
+            {
+                int color = mBuffer.getInt();
+                float width = (float) StrokeFormat.readVarInt(mBuffer) / mCoordinateScale;
+                int flags = mBuffer.get();
+
+                mStyles[i] = new PenStyle(color, width, (flags & StrokeFormat.FLAG_ERASER) != 0);
+            }
+
+            indexBlocks();
+        }
+        catch (BufferUnderflowException e)
+        {
+            mInput.close();
+            throw new IOException("Truncated stroke file: " + file);
+        }
+        catch (IOException e)
+        {
+            mInput.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the drawing width, in pixels.
+     */
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the drawing height, in pixels.
+     */
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * @return the number of strokes.
+     */
+    public int getStrokeCount()
+    {
+        return mStrokeCount;
+    }
+
+    /**
+     * Decode a stroke.
+     * 
+     * @param index
+     *            the stroke index.
+     * @return the decoded stroke.
+     * @throws IOException
+     *             if the stroke block is corrupted.
+     */
+    public Stroke readStroke(final int index) throws IOException
+    {
+        if ((index < 0) || (index >= mStrokeCount))
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mStrokeCount);
+        }
+
+        // Duplicate the buffer so that strokes can be decoded concurrently
+        ByteBuffer block = mBuffer.duplicate();
+        block.limit(mBlockOffsets[index] + mBlockLengths[index]);
+        block.position(mBlockOffsets[index]);
+
+        try
+        {
+            int styleIndex = StrokeFormat.readVarInt(block);
+
+            if ((styleIndex < 0) || (styleIndex >= mStyles.length))
+            {
+                throw new IOException("Invalid style index " + styleIndex + " in stroke " + index);
+            }
+
+            long time = StrokeFormat.readVarLong(block);
+            int size = StrokeFormat.readVarInt(block);
+
+            if ((size < 0) || (size > block.remaining() / StrokeFormat.MIN_SAMPLE_SIZE))
+            {
+                throw new IOException("Invalid sample count " + size + " in stroke " + index);
+            }
+
+            Stroke stroke = new Stroke(size);
+            stroke.setStyle(mStyles[styleIndex]);
+
+            int x = 0;
+            int y = 0;
+            int pressure = 0;
+
+            for (int i = 0; i < size; ++i)
+            {
+                x += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(block));
+                y += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(block));
+                time += StrokeFormat.readVarInt(block);
+                pressure += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(block));
+
+                stroke.add((float) x / mCoordinateScale, (float) y / mCoordinateScale, time, (float) pressure
+                        / StrokeFormat.PRESSURE_SCALE);
+            }
+
+            return stroke;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Corrupted stroke " + index);
+        }
+    }
+
+    /**
+     * Decode the whole document.
+     * 
+     * @return the decoded document.
+     * @throws IOException
+     *             if a stroke block is corrupted.
+     */
+    public StrokeDocument readDocument() throws IOException
+    {
+        StrokeDocument document = new StrokeDocument(mWidth, mHeight);
+
+        for (int i = 0; i < mStrokeCount; ++i)
+        {
+            document.add(readStroke(i));
+        }
+
+        return document;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        mInput.close();
+    }
+
+    /**
+     * Record the position of every stroke block, without decoding them.
+     * 
+     * @throws IOException
+     *             if the blocks are corrupted.
+     */
+    private void indexBlocks() throws IOException
+    {
+        int length = StrokeFormat.readVarInt(mBuffer);
+
+        while (length != 0)
+        {
+            if ((length < 0) || (length > mBuffer.remaining()))
+            {
+                throw new IOException("Invalid stroke block length " + length);
+            }
+
+            if (mStrokeCount == mBlockOffsets.length)
+            {
+                mBlockOffsets = copyOf(mBlockOffsets, 2 * mStrokeCount, mStrokeCount);
+                mBlockLengths = copyOf(mBlockLengths, 2 * mStrokeCount, mStrokeCount);
+            }
+
+            mBlockOffsets[mStrokeCount] = mBuffer.position();
+            mBlockLengths[mStrokeCount] = length;
+            ++mStrokeCount;
+
+            mBuffer.position(mBuffer.position() + length);
+            length = StrokeFormat.readVarInt(mBuffer);
+        }
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static int[] copyOf(final int[] array, final int capacity, final int length)
+    {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+}
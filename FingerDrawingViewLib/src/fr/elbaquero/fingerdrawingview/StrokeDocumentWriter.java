@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the binary stroke format described in {@link StrokeFormat}. This class does not depend on the Android
+ * framework.
+ */
+public final class StrokeDocumentWriter
+{
+    /** Output buffer size, in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Destination channel. */
+    private final FileChannel mChannel;
+
+    /** Output buffer. */
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Buffer used to encode a stroke block, before its length is known. */
+    private ByteBuffer mBlock = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Styles indexes. */
+    private final Map<PenStyle, Integer> mStyleIndexes = new HashMap<PenStyle, Integer>();
+
+    /**
+     * Create a new {@link StrokeDocumentWriter}.
+     * 
+     * @param channel
+     *            the destination channel.
+     */
+    private StrokeDocumentWriter(final FileChannel channel)
+    {
+        mChannel = channel;
+    }
+
+    /**
+     * Write a document into a file.
+     * 
+     * @param document
+     *            the document to write.
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void write(final StrokeDocument document, final File file) throws IOException
+    {
+        write(document.getWidth(), document.getHeight(), document.copyStrokes(), file);
+    }
+
+    /**
+     * Write strokes into a file. Committed strokes are never modified, so this can run on any thread with a copy of
+     * the document strokes list.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param strokes
+     *            the strokes to write.
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    static void write(final int width, final int height, final List<Stroke> strokes, final File file)
+            throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            StrokeDocumentWriter writer = new StrokeDocumentWriter(out.getChannel());
+            writer.writeDocument(width, height, strokes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a document.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param strokes
+     *            the strokes to write.
+     * @throws IOException
+     *             if the document cannot be written.
+     */
+    private void writeDocument(final int width, final int height, final List<Stroke> strokes) throws IOException
+    {
+        List<PenStyle> styles = new ArrayList<PenStyle>();
+
+        for (int i = 0; i < strokes.size(); ++i)
+        {
+            PenStyle style = strokes.get(i).getStyle();
+
+            if (style == null)
+            {
+                throw new IllegalArgumentException("Stroke " + i + " has no pen style");
+            }
+
+            if (!mStyleIndexes.containsKey(style))
+            {
+                mStyleIndexes.put(style, styles.size());
+                styles.add(style);
+            }
+        }
+
+        writeHeader(width, height, styles);
+
+        for (Stroke stroke : strokes)
+        {
+            writeStroke(stroke);
+        }
+
+        // End marker
+        ensureRemaining(StrokeFormat.MAX_VARINT_SIZE);
+        StrokeFormat.writeVarInt(mBuffer, 0);
+        flush();
+        mChannel.force(false);
+    }
+
+    /**
+     * Write the file header.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param styles
+     *            the styles table.
+     * @throws IOException
+     *             if the header cannot be written.
+     */
+    private void writeHeader(final int width, final int height, final List<PenStyle> styles) throws IOException
+    {
+        ensureRemaining(5 + 4 * StrokeFormat.MAX_VARINT_SIZE);
+        mBuffer.putInt(StrokeFormat.MAGIC);
+        mBuffer.put((byte) StrokeFormat.VERSION);
+        StrokeFormat.writeVarInt(mBuffer, width);
+        StrokeFormat.writeVarInt(mBuffer, height);
+        StrokeFormat.writeVarInt(mBuffer, StrokeFormat.COORDINATE_SCALE);
+        StrokeFormat.writeVarInt(mBuffer, styles.size());
+
+        for (PenStyle style : styles)
+        {
+            ensureRemaining(5 + StrokeFormat.MAX_VARINT_SIZE);
+            mBuffer.putInt(style.getColor());
+            StrokeFormat.writeVarInt(mBuffer, StrokeFormat.quantize(style.getWidth(), StrokeFormat.COORDINATE_SCALE));
+            mBuffer.put((byte) (style.isEraser() ? StrokeFormat.FLAG_ERASER : 0));
+        }
+    }
+
+    /**
+     * Write a length-prefixed stroke block.
+     * 
+     * @param stroke
+     *            the stroke to write.
+     * @throws IOException
+     *             if the block cannot be written.
+     */
+    private void writeStroke(final Stroke stroke) throws IOException
+    {
+        final int size = stroke.size();
+        int maxBlockSize = 2 * StrokeFormat.MAX_VARINT_SIZE + StrokeFormat.MAX_VARLONG_SIZE + size
+                * StrokeFormat.MAX_SAMPLE_SIZE;
+
+        if (mBlock.capacity() < maxBlockSize)
+        {
+            mBlock = ByteBuffer.allocate(Math.max(maxBlockSize, 2 * mBlock.capacity()));
+        }
+
+        mBlock.clear();
+        StrokeFormat.writeVarInt(mBlock, mStyleIndexes.get(stroke.getStyle()));
+        StrokeFormat.writeVarLong(mBlock, stroke.getStartTime());
+        StrokeFormat.writeVarInt(mBlock, size);
+
+        int previousX = 0;
+        int previousY = 0;
+        long previousTime = stroke.getStartTime();
+        int previousPressure = 0;
+
+        for (int i = 0; i < size; ++i)
+        {
+            int x = StrokeFormat.quantize(stroke.getX(i), StrokeFormat.COORDINATE_SCALE);
+            int y = StrokeFormat.quantize(stroke.getY(i), StrokeFormat.COORDINATE_SCALE);
+            long time = stroke.getTime(i);
+            int pressure = StrokeFormat.quantize(stroke.getPressure(i), StrokeFormat.PRESSURE_SCALE);
+
+            StrokeFormat.writeVarInt(mBlock, StrokeFormat.zigZagEncode(x - previousX));
+            StrokeFormat.writeVarInt(mBlock, StrokeFormat.zigZagEncode(y - previousY));
+            StrokeFormat.writeVarInt(mBlock, (int) Math.max(0, time - previousTime));
+            StrokeFormat.writeVarInt(mBlock, StrokeFormat.zigZagEncode(pressure - previousPressure));
+
+            previousX = x;
+            previousY = y;
+            previousTime = Math.max(previousTime, time);
+            previousPressure = pressure;
+        }
+
+        mBlock.flip();
+
+        ensureRemaining(StrokeFormat.MAX_VARINT_SIZE);
+        StrokeFormat.writeVarInt(mBuffer, mBlock.remaining());
+
+        if (mBlock.remaining() > mBuffer.remaining())
+        {
+            // Larger than the output buffer: write it directly
+            flush();
+
+            while (mBlock.hasRemaining())
+            {
+                mChannel.write(mBlock);
+            }
+        }
+        else
+        {
+            mBuffer.put(mBlock);
+        }
+    }
+
+    /**
+     * Make room in the output buffer, flushing it if needed.
+     * 
+     * @param count
+     *            the number of bytes needed.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private void ensureRemaining(final int count) throws IOException
+    {
+        if (mBuffer.remaining() < count)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Write the output buffer content to the channel.
+     * 
+     * @throws IOException
+     *             if the buffer cannot be written.
+     */
+    private void flush() throws IOException
+    {
+        mBuffer.flip();
+
+        while (mBuffer.hasRemaining())
+        {
+            mChannel.write(mBuffer);
+        }
+
+        mBuffer.clear();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary stroke format constants and primitive encoding.
+ * <p>
+ * Layout, all multi-byte fixed size values being big-endian:
+ * 
+ * <pre>
+ * header:  int32 magic, byte version, varint width, varint height, varint coordinate scale,
+ *          varint style count, styles
+ * style:   int32 ARGB color, varint width (scaled), byte flags
+ * strokes: { varint block length, block }*, varint 0
+ * block:   varint style index, varlong start time, varint sample count, samples
+ * sample:  zig-zag varint dx, zig-zag varint dy (scaled, delta from the previous sample),
+ *          varint dt (milliseconds), zig-zag varint dpressure (scaled)
+ * </pre>
+ * 
+ * Blocks are length-prefixed, so a reader can index the strokes without decoding them.
+ */
+final class StrokeFormat
+{
+    /** File magic number, "FDVW". */
+    static final int MAGIC = 0x46445657;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Coordinates and widths scale, in units per pixel. */
+    static final int COORDINATE_SCALE = 8;
+
+    /** Pressure scale, in units per pressure unit. */
+    static final int PRESSURE_SCALE = 255;
+
+    /** Style flag: eraser. */
+    static final int FLAG_ERASER = 0x01;
+
+    /** Maximum encoded size of a varint, in bytes. */
+    static final int MAX_VARINT_SIZE = 5;
+
+    /** Maximum encoded size of a varlong, in bytes. */
+    static final int MAX_VARLONG_SIZE = 10;
+
+    /** Maximum encoded size of a sample, in bytes. */
+    static final int MAX_SAMPLE_SIZE = 4 * MAX_VARINT_SIZE;
+
+    /** Minimum encoded size of a sample, in bytes, bounding the sample count of a block. */
+    static final int MIN_SAMPLE_SIZE = 4;
+
+    /** Minimum encoded size of a style, in bytes, bounding the style count of a header. */
+    static final int MIN_STYLE_SIZE = 6;
+
+    /**
+     * Empty, private constructor.
+     */
+    private StrokeFormat()
+    {
+    }
+
+    /**
+     * Map a signed value to an unsigned one, small magnitudes giving small values.
+     * 
+     * @param value
+     *            the signed value.
+     * @return the zig-zag encoded value.
+     */
+    static int zigZagEncode(final int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reverse {@link #zigZagEncode(int)}.
+     * 
+     * @param value
+     *            the zig-zag encoded value.
+     * @return the signed value.
+     */
+    static int zigZagDecode(final int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Map a signed long to an unsigned one, small magnitudes giving small values.
+     * 
+     * @param value
+     *            the signed value.
+     * @return the zig-zag encoded value.
+     */
+    static long zigZagEncode(final long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse {@link #zigZagEncode(long)}.
+     * 
+     * @param value
+     *            the zig-zag encoded value.
+     * @return the signed value.
+     */
+    static long zigZagDecode(final long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write an unsigned variable length integer, 7 bits per byte, least significant group first.
+     * 
+     * @param buffer
+     *            the destination buffer.
+     * @param value
+     *            the value, interpreted as unsigned.
+     */
+    static void writeVarInt(final ByteBuffer buffer, final int value)
+    {
+        int remaining = value;
+
+        while ((remaining & ~0x7F) != 0)
+        {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+
+        buffer.put((byte) remaining);
+    }
+
+    /**
+     * Write an unsigned variable length long.
+     * 
+     * @param buffer
+     *            the destination buffer.
+     * @param value
+     *            the value, interpreted as unsigned.
+     */
+    static void writeVarLong(final ByteBuffer buffer, final long value)
+    {
+        long remaining = value;
+
+        while ((remaining & ~0x7FL) != 0)
+        {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+
+        buffer.put((byte) remaining);
+    }
+
+    /**
+     * Read an unsigned variable length integer.
+     * 
+     * @param buffer
+     *            the source buffer.
+     * @return the value.
+     * @throws IOException
+     *             if the value is malformed.
+     */
+    static int readVarInt(final ByteBuffer buffer) throws IOException
+    {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned variable length long.
+     * 
+     * @param buffer
+     *            the source buffer.
+     * @return the value.
+     * @throws IOException
+     *             if the value is malformed.
+     */
+    static long readVarLong(final ByteBuffer buffer) throws IOException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 70; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varlong");
+    }
+
+    /**
+     * Convert a value to fixed point.
+     * 
+     * @param value
+     *            the value.
+     * @param scale
+     *            the number of units per value unit.
+     * @return the rounded, scaled value.
+     */
+    static int quantize(final float value, final int scale)
+    {
+        return Math.round(value * scale);
+    }
+}
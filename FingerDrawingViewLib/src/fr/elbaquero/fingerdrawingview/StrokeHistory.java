@@ -0,0 +1,677 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Undo/redo history of a drawing.
+ * <p>
+ * The history is the log of the committed strokes (the {@link StrokeDocument}) plus raster checkpoints taken every few
+ * strokes. Undoing restores the nearest checkpoint and replays the strokes committed after it, instead of re-rendering
+ * the whole document. Checkpoints are PNG-compressed tiles (deflated coverage for alpha-only tiles), encoded on the
+ * background executor from a snapshot of the surface, and the oldest ones are evicted when they exceed the memory
+ * budget. This class must be used from the UI thread.
+ */
+final class StrokeHistory
+{
+    /** Default number of strokes between two checkpoints. */
+    static final int DEFAULT_CHECKPOINT_INTERVAL = 32;
+
+    /** Default checkpoints memory budget, in bytes. */
+    static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+    /** PNG compression quality hint. */
+    private static final int PNG_QUALITY = 100;
+
+    /** Deflater output chunk size, in bytes. */
+    private static final int DEFLATE_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Undoable operation: a committed stroke or an erasure of the whole drawing.
+     */
+    private static final class Entry
+    {
+        /** Committed stroke, null for an erasure. */
+        private final Stroke mStroke;
+
+        /** Strokes removed by an erasure, null in the redo entries. */
+        private final List<Stroke> mClearedStrokes;
+
+        /** Checkpoints of the strokes removed by an erasure, null in the redo entries. */
+        private final List<Checkpoint> mClearedCheckpoints;
+
+        /**
+         * Create a new {@link Entry}.
+         * 
+         * @param stroke
+         *            the committed stroke, null for an erasure.
+         * @param clearedStrokes
+         *            the strokes removed by an erasure.
+         * @param clearedCheckpoints
+         *            the checkpoints of the strokes removed by an erasure.
+         */
+        Entry(final Stroke stroke, final List<Stroke> clearedStrokes, final List<Checkpoint> clearedCheckpoints)
+        {
+            mStroke = stroke;
+            mClearedStrokes = clearedStrokes;
+            mClearedCheckpoints = clearedCheckpoints;
+        }
+    }
+
+    /**
+     * Compressed raster state of the surface after a number of strokes.
+     */
+    private static final class Checkpoint
+    {
+        /** Number of strokes rendered in the checkpoint. */
+        private final int mStrokeCount;
+
+        /** Compressed tiles, row by row. A null entry is an empty tile. */
+        private final byte[][] mTiles;
+
+        /** Tiles bitmap configuration. */
+        private final Bitmap.Config mConfig;
+
+        /** Ink color of {@link Bitmap.Config#ALPHA_8} tiles. */
+        private final int mTint;
+
+        /** Compressed size, in bytes. */
+        private final int mByteCount;
+
+        /**
+         * Create a new {@link Checkpoint}.
+         * 
+         * @param strokeCount
+         *            the number of strokes rendered in the checkpoint.
+         * @param tiles
+         *            the compressed tiles.
+         * @param config
+         *            the tiles bitmap configuration.
+         * @param tint
+         *            the ink color of {@link Bitmap.Config#ALPHA_8} tiles.
+         */
+        Checkpoint(final int strokeCount, final byte[][] tiles, final Bitmap.Config config, final int tint)
+        {
+            int byteCount = 0;
+
+            for (byte[] tile : tiles)
+            {
+                byteCount += (tile == null) ? 0 : tile.length;
+            }
+
+            mStrokeCount = strokeCount;
+            mTiles = tiles;
+            mConfig = config;
+            mTint = tint;
+            mByteCount = byteCount;
+        }
+    }
+
+    /** Renderer used to replay the strokes. */
+    private final StrokeRenderer mRenderer;
+
+    /** Drawing document. */
+    private StrokeDocument mDocument;
+
+    /** Drawing surface, may be null. */
+    private TiledBitmap mSurface;
+
+    /** Operations which can be undone, the last one being the most recent. */
+    private final List<Entry> mUndoEntries = new ArrayList<Entry>();
+
+    /** Operations which can be redone, the last one being the most recently undone. */
+    private final List<Entry> mRedoEntries = new ArrayList<Entry>();
+
+    /** Checkpoints of the current document, by increasing stroke count. */
+    private List<Checkpoint> mCheckpoints = new ArrayList<Checkpoint>();
+
+    /** Total size of the checkpoints, in bytes. */
+    private long mCheckpointByteCount;
+
+    /** Checkpoints memory budget, in bytes. */
+    private long mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** Number of strokes between two checkpoints. */
+    private int mCheckpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    /** Stroke count of the last checkpoint requested. */
+    private int mLastCheckpointStrokeCount;
+
+    /** Incremented whenever the pending checkpoints become invalid. */
+    private int mGeneration;
+
+    /**
+     * Create a new {@link StrokeHistory}.
+     * 
+     * @param renderer
+     *            the renderer used to replay the strokes.
+     * @param document
+     *            the drawing document.
+     */
+    StrokeHistory(final StrokeRenderer renderer, final StrokeDocument document)
+    {
+        mRenderer = renderer;
+        mDocument = document;
+    }
+
+    /**
+     * Forget the whole history and use another document.
+     * 
+     * @param document
+     *            the new document.
+     */
+    void reset(final StrokeDocument document)
+    {
+        mDocument = document;
+        mUndoEntries.clear();
+        mRedoEntries.clear();
+        dropCheckpoints();
+    }
+
+    /**
+     * Set the drawing surface. The existing checkpoints are dropped.
+     * 
+     * @param surface
+     *            the drawing surface, may be null.
+     */
+    void setSurface(final TiledBitmap surface)
+    {
+        mSurface = surface;
+        dropCheckpoints();
+
+        for (Entry entry : mUndoEntries)
+        {
+            if (entry.mClearedCheckpoints != null)
+            {
+                entry.mClearedCheckpoints.clear();
+            }
+        }
+
+    }
+
+    /**
+     * Set the checkpoints memory budget.
+     * 
+     * @param memoryBudget
+     *            the budget, in bytes. 0 disables the checkpoints.
+     */
+    void setMemoryBudget(final long memoryBudget)
+    {
+        mMemoryBudget = memoryBudget;
+        evictCheckpoints();
+    }
+
+    /**
+     * Set the number of strokes between two checkpoints.
+     * 
+     * @param checkpointInterval
+     *            the number of strokes.
+     */
+    void setCheckpointInterval(final int checkpointInterval)
+    {
+        mCheckpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * @return true if an operation can be undone.
+     */
+    boolean canUndo()
+    {
+        return !mUndoEntries.isEmpty();
+    }
+
+    /**
+     * @return true if an operation can be redone.
+     */
+    boolean canRedo()
+    {
+        return !mRedoEntries.isEmpty();
+    }
+
+    /**
+     * Record a stroke already rendered on the surface.
+     * 
+     * @param stroke
+     *            the committed stroke.
+     */
+    void commit(final Stroke stroke)
+    {
+        mDocument.add(stroke);
+        mUndoEntries.add(new Entry(stroke, null, null));
+        mRedoEntries.clear();
+
+        requestCheckpoint();
+    }
+
+    /**
+     * Erase the whole drawing, undoably.
+     */
+    void clear()
+    {
+        mRedoEntries.clear();
+        applyClear();
+    }
+
+    /**
+     * Undo the last operation.
+     * 
+     * @return false if there was nothing to undo.
+     */
+    boolean undo()
+    {
+        if (mUndoEntries.isEmpty())
+        {
+            return false;
+        }
+
+        Entry entry = mUndoEntries.remove(mUndoEntries.size() - 1);
+
+        if (entry.mStroke != null)
+        {
+            mRedoEntries.add(entry);
+            mDocument.removeLast();
+            ++mGeneration;
+
+            // The checkpoints including the removed stroke are obsolete
+            while (!mCheckpoints.isEmpty() && (lastCheckpoint().mStrokeCount > mDocument.size()))
+            {
+                mCheckpointByteCount -= mCheckpoints.remove(mCheckpoints.size() - 1).mByteCount;
+            }
+
+            mLastCheckpointStrokeCount = mCheckpoints.isEmpty() ? 0 : lastCheckpoint().mStrokeCount;
+        }
+        else
+        {
+            // Redoing the erasure only needs the restored document
+            mRedoEntries.add(new Entry(null, null, null));
+
+            for (Stroke stroke : entry.mClearedStrokes)
+            {
+                mDocument.add(stroke);
+            }
+
+            ++mGeneration;
+            mCheckpoints = entry.mClearedCheckpoints;
+            mLastCheckpointStrokeCount = mCheckpoints.isEmpty() ? 0 : lastCheckpoint().mStrokeCount;
+        }
+
+        rebuildSurface();
+
+        return true;
+    }
+
+    /**
+     * Redo the last undone operation.
+     * 
+     * @return false if there was nothing to redo.
+     */
+    boolean redo()
+    {
+        if (mRedoEntries.isEmpty())
+        {
+            return false;
+        }
+
+        Entry entry = mRedoEntries.remove(mRedoEntries.size() - 1);
+
+        if (entry.mStroke != null)
+        {
+            mUndoEntries.add(entry);
+
+            // Only the redone stroke needs to be rendered
+            mDocument.add(entry.mStroke);
+
+            if (mSurface != null)
+            {
+                mRenderer.render(entry.mStroke, mSurface);
+            }
+
+            requestCheckpoint();
+        }
+        else
+        {
+            // The document is back to the state the erasure was applied to
+            applyClear();
+        }
+
+        return true;
+    }
+
+    /**
+     * Clear the document and the surface, recording an erasure entry which keeps the strokes and their checkpoints.
+     */
+    private void applyClear()
+    {
+        List<Stroke> strokes = new ArrayList<Stroke>(mDocument.size());
+
+        for (int i = 0; i < mDocument.size(); ++i)
+        {
+            strokes.add(mDocument.get(i));
+        }
+
+        mUndoEntries.add(new Entry(null, strokes, mCheckpoints));
+        mDocument.clear();
+        ++mGeneration;
+        mCheckpoints = new ArrayList<Checkpoint>();
+        mLastCheckpointStrokeCount = 0;
+
+        if (mSurface != null)
+        {
+            mSurface.clear();
+        }
+    }
+
+    /**
+     * Restore the surface from the nearest checkpoint and replay the following strokes.
+     */
+    private void rebuildSurface()
+    {
+        if (mSurface == null)
+        {
+            return;
+        }
+
+        int firstStroke = 0;
+        Checkpoint checkpoint = mCheckpoints.isEmpty() ? null : lastCheckpoint();
+
+        if ((checkpoint != null) && (checkpoint.mTiles.length == mSurface.getTileCount()))
+        {
+            mSurface.restore(decodeTiles(checkpoint), checkpoint.mConfig, checkpoint.mTint);
+            firstStroke = checkpoint.mStrokeCount;
+        }
+        else
+        {
+            mSurface.clear();
+        }
+
+        for (int i = firstStroke; i < mDocument.size(); ++i)
+        {
+            mRenderer.render(mDocument.get(i), mSurface);
+        }
+    }
+
+    /**
+     * Compress a snapshot of the surface in the background if enough strokes have been committed since the last
+     * checkpoint.
+     */
+    private void requestCheckpoint()
+    {
+        final int strokeCount = mDocument.size();
+
+        if ((mSurface == null) || (mMemoryBudget <= 0)
+                || (strokeCount - mLastCheckpointStrokeCount < mCheckpointInterval))
+        {
+            return;
+        }
+
+        mLastCheckpointStrokeCount = strokeCount;
+
+        final TiledBitmap surface = mSurface;
+        final TiledBitmapSnapshot snapshot = surface.snapshot();
+        final int generation = mGeneration;
+
+        BackgroundExecutor.get().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Checkpoint checkpoint = new Checkpoint(strokeCount, encodeTiles(snapshot), snapshot.getConfig(),
+                        snapshot.getTint());
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        surface.releaseSnapshot(snapshot);
+                        addCheckpoint(checkpoint, surface, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Record a compressed checkpoint, unless the history has changed since it was requested.
+     * 
+     * @param checkpoint
+     *            the new checkpoint.
+     * @param surface
+     *            the surface the checkpoint was taken from.
+     * @param generation
+     *            the history generation when the checkpoint was requested.
+     */
+    private void addCheckpoint(final Checkpoint checkpoint, final TiledBitmap surface, final int generation)
+    {
+        if ((surface != mSurface) || (generation != mGeneration) || (checkpoint.mStrokeCount > mDocument.size()))
+        {
+            return;
+        }
+
+        mCheckpoints.add(checkpoint);
+        mCheckpointByteCount += checkpoint.mByteCount;
+        evictCheckpoints();
+    }
+
+    /**
+     * Evict checkpoints until the memory budget is met: first the checkpoints kept by erasure entries, then the oldest
+     * checkpoints of the current document.
+     */
+    private void evictCheckpoints()
+    {
+        for (int i = 0; (i < mUndoEntries.size()) && (mCheckpointByteCount > mMemoryBudget); ++i)
+        {
+            evictCheckpoints(mUndoEntries.get(i).mClearedCheckpoints);
+        }
+
+        evictCheckpoints(mCheckpoints);
+    }
+
+    /**
+     * Evict the oldest checkpoints of a list until the memory budget is met.
+     * 
+     * @param checkpoints
+     *            the checkpoints, may be null.
+     */
+    private void evictCheckpoints(final List<Checkpoint> checkpoints)
+    {
+        while ((checkpoints != null) && !checkpoints.isEmpty() && (mCheckpointByteCount > mMemoryBudget))
+        {
+            mCheckpointByteCount -= checkpoints.remove(0).mByteCount;
+        }
+    }
+
+    /**
+     * Drop all the checkpoints of the current document, including the pending ones.
+     */
+    private void dropCheckpoints()
+    {
+        ++mGeneration;
+        mCheckpoints = new ArrayList<Checkpoint>();
+        mCheckpointByteCount = 0;
+        mLastCheckpointStrokeCount = 0;
+    }
+
+    /**
+     * @return the most recent checkpoint.
+     */
+    private Checkpoint lastCheckpoint()
+    {
+        return mCheckpoints.get(mCheckpoints.size() - 1);
+    }
+
+    /**
+     * Compress the tiles of a snapshot. Runs on the background executor.
+     * 
+     * @param snapshot
+     *            the snapshot to compress.
+     * @return the compressed tiles.
+     */
+    private static byte[][] encodeTiles(final TiledBitmapSnapshot snapshot)
+    {
+        Bitmap[] tiles = snapshot.getTiles();
+        byte[][] encodedTiles = new byte[tiles.length][];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean isAlpha = snapshot.getConfig() == Bitmap.Config.ALPHA_8;
+        Deflater deflater = isAlpha ? new Deflater(Deflater.BEST_SPEED) : null;
+        ByteBuffer pixels = isAlpha ? ByteBuffer.allocate(snapshot.getTileSize() * snapshot.getTileSize()) : null;
+        byte[] chunk = isAlpha ? new byte[DEFLATE_CHUNK_SIZE] : null;
+
+        for (int i = 0; i < tiles.length; ++i)
+        {
+            if (tiles[i] != null)
+            {
+                out.reset();
+
+                if (isAlpha)
+                {
+                    // The PNG encoder does not support alpha-only bitmaps everywhere: deflate the coverage
+                    pixels.clear();
+                    tiles[i].copyPixelsToBuffer(pixels);
+                    deflater.reset();
+                    deflater.setInput(pixels.array(), 0, pixels.position());
+                    deflater.finish();
+
+                    while (!deflater.finished())
+                    {
+                        out.write(chunk, 0, deflater.deflate(chunk));
+                    }
+                }
+                else
+                {
+                    tiles[i].compress(Bitmap.CompressFormat.PNG, PNG_QUALITY, out);
+                }
+
+                encodedTiles[i] = out.toByteArray();
+            }
+        }
+
+        if (deflater != null)
+        {
+            deflater.end();
+        }
+
+        return encodedTiles;
+    }
+
+    /**
+     * Decompress the tiles of a checkpoint.
+     * 
+     * @param checkpoint
+     *            the checkpoint to decompress.
+     * @return the mutable tiles.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bitmap[] decodeTiles(final Checkpoint checkpoint)
+    {
+        if (checkpoint.mConfig == Bitmap.Config.ALPHA_8)
+        {
+            return inflateTiles(checkpoint);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = checkpoint.mConfig;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+        {
+            options.inMutable = true;
+        }
+
+        Bitmap[] tiles = new Bitmap[checkpoint.mTiles.length];
+
+        for (int i = 0; i < tiles.length; ++i)
+        {
+            byte[] tile = checkpoint.mTiles[i];
+
+            if (tile != null)
+            {
+                tiles[i] = BitmapFactory.decodeByteArray(tile, 0, tile.length, options);
+
+                if (!tiles[i].isMutable())
+                {
+                    // Decoded bitmaps are immutable before Honeycomb
+                    Bitmap decoded = tiles[i];
+                    tiles[i] = decoded.copy(checkpoint.mConfig, true);
+                    decoded.recycle();
+                }
+            }
+        }
+
+        return tiles;
+    }
+
+    /**
+     * Decompress the deflated coverage tiles of a checkpoint.
+     * 
+     * @param checkpoint
+     *            the checkpoint to decompress.
+     * @return the mutable tiles.
+     */
+    private Bitmap[] inflateTiles(final Checkpoint checkpoint)
+    {
+        final int tileSize = mSurface.getTileSize();
+        Bitmap[] tiles = new Bitmap[checkpoint.mTiles.length];
+        byte[] pixels = new byte[tileSize * tileSize];
+        Inflater inflater = new Inflater();
+
+        try
+        {
+            for (int i = 0; i < tiles.length; ++i)
+            {
+                byte[] tile = checkpoint.mTiles[i];
+
+                if (tile != null)
+                {
+                    inflater.reset();
+                    inflater.setInput(tile);
+
+                    int length = 0;
+
+                    while ((length < pixels.length) && !inflater.finished())
+                    {
+                        length += inflater.inflate(pixels, length, pixels.length - length);
+                    }
+
+                    tiles[i] = BitmapPool.obtain(tileSize, tileSize, Bitmap.Config.ALPHA_8);
+                    tiles[i].copyPixelsFromBuffer(ByteBuffer.wrap(pixels, 0, length));
+                }
+            }
+        }
+        catch (DataFormatException e)
+        {
+            // Checkpoints are produced in memory, this is not expected
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        return tiles;
+    }
+}
@@ -0,0 +1,770 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index over the strokes of a {@link StrokeDocument}, identified by their position in the document.
+ * <p>
+ * The strokes are registered in a hierarchical grid: each level divides the drawing area into square cells twice as
+ * large as the level below, and a stroke goes to the finest level whose cells are as large as its bounding box, stroke
+ * width included, in the cell holding the center of that box. Each stroke is thus listed once whatever its length, and
+ * a query scans, in each level, the cells within half a cell of the queried area. Nearest stroke queries use a second
+ * grid of the same kind, holding chunks of {@link #CHUNK_LENGTH} segments, so that only the parts of long strokes near
+ * the point are measured.
+ * <p>
+ * Coordinates outside of the drawing area are clamped to the border cells. Strokes can only be appended and removed
+ * from the end, like in the document, so cell lists stay sorted. This class does not depend on the Android framework.
+ */
+public final class StrokeIndex
+{
+    /** Default cell size of the finest grid level, in pixels. */
+    public static final int DEFAULT_CELL_SIZE = 64;
+
+    /** Number of segments of the stroke chunks of the nearest stroke grid. */
+    private static final int CHUNK_LENGTH = 8;
+
+    /** Initial capacity of the per-stroke arrays and of the cell lists. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Distance of a stroke that cannot be the nearest one: an eraser stroke, or a stroke too far. */
+    private static final float NO_DISTANCE = -1;
+
+    /** Grid of the strokes bounding boxes. */
+    private final Grid mStrokeGrid;
+
+    /** Grid of the stroke chunks bounding boxes. */
+    private final Grid mChunkGrid;
+
+    /** Indexed strokes. */
+    private Stroke[] mStrokes = new Stroke[INITIAL_CAPACITY];
+
+    /** Strokes bounding boxes, 4 values per stroke: left, top, right, bottom. */
+    private float[] mBounds = new float[4 * INITIAL_CAPACITY];
+
+    /** First chunk of each stroke. */
+    private int[] mFirstChunks = new int[INITIAL_CAPACITY];
+
+    /** Number of indexed strokes. */
+    private int mCount;
+
+    /** Stroke of each chunk. */
+    private int[] mChunkStrokes = new int[INITIAL_CAPACITY];
+
+    /** Number of chunks. */
+    private int mChunkCount;
+
+    /** Bounding box of the chunk being registered: left, top, right, bottom. */
+    private final float[] mChunkBounds = new float[4];
+
+    /** Query results, one bit per stroke, cleared as the results are collected. */
+    private long[] mResultBits = new long[1];
+
+    /**
+     * Create a new, empty {@link StrokeIndex} with the default cell size.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     */
+    StrokeIndex(final int width, final int height)
+    {
+        mStrokeGrid = new Grid(DEFAULT_CELL_SIZE, width, height);
+        mChunkGrid = new Grid(DEFAULT_CELL_SIZE, width, height);
+    }
+
+    /**
+     * @return the number of indexed strokes.
+     */
+    public int size()
+    {
+        return mCount;
+    }
+
+    /**
+     * Find the strokes whose bounding box, stroke width included, intersects a rectangle.
+     * 
+     * @param left
+     *            the rectangle left coordinate.
+     * @param top
+     *            the rectangle top coordinate.
+     * @param right
+     *            the rectangle right coordinate.
+     * @param bottom
+     *            the rectangle bottom coordinate.
+     * @return the indexes of the matching strokes, in drawing order.
+     */
+    public int[] findIntersecting(final float left, final float top, final float right, final float bottom)
+    {
+        final Grid grid = mStrokeGrid;
+        int resultCount = 0;
+
+        if (mResultBits.length < (mCount + 63) / 64)
+        {
+            // Cleared by the previous query, nothing to copy
+            mResultBits = new long[(mStrokes.length + 63) / 64];
+        }
+
+        for (int level = 0; level < grid.mLevelCount; ++level)
+        {
+            float margin = grid.getMargin(level);
+            int firstColumn = grid.column(level, left - margin);
+            int lastColumn = grid.column(level, right + margin);
+            int lastRow = grid.row(level, bottom + margin);
+
+            for (int row = grid.row(level, top - margin); row <= lastRow; ++row)
+            {
+                for (int column = firstColumn; column <= lastColumn; ++column)
+                {
+                    int cell = row * grid.mColumnCounts[level] + column;
+                    int[] strokes = grid.mCells[level][cell];
+
+                    for (int i = 0; i < grid.mCellSizes[level][cell]; ++i)
+                    {
+                        int index = strokes[i];
+                        int base = 4 * index;
+
+                        if ((mBounds[base] <= right) && (mBounds[base + 1] <= bottom) && (mBounds[base + 2] >= left)
+                                && (mBounds[base + 3] >= top))
+                        {
+                            mResultBits[index >>> 6] |= 1L << index;
+                            ++resultCount;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Each stroke is listed once: collecting the bits gives the results in drawing order
+        int[] results = new int[resultCount];
+        int resultIndex = 0;
+
+        for (int word = 0; resultIndex < resultCount; ++word)
+        {
+            long bits = mResultBits[word];
+            mResultBits[word] = 0;
+
+            while (bits != 0)
+            {
+                results[resultIndex++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Find the visible stroke nearest to a point. Eraser strokes are ignored, the distance is measured from the stroke
+     * edge. The cost of a query grows with the maximum distance.
+     * 
+     * @param x
+     *            the point X coordinate.
+     * @param y
+     *            the point Y coordinate.
+     * @param maxDistance
+     *            the maximum distance, in pixels.
+     * @return the index of the nearest stroke, or -1 if no stroke is within the maximum distance.
+     */
+    public int findNearest(final float x, final float y, final float maxDistance)
+    {
+        final Grid grid = mChunkGrid;
+        int nearest = -1;
+        float nearestDistance = maxDistance;
+
+        for (int level = 0; level < grid.mLevelCount; ++level)
+        {
+            float margin = nearestDistance + grid.getMargin(level);
+            int firstColumn = grid.column(level, x - margin);
+            int lastColumn = grid.column(level, x + margin);
+            int lastRow = grid.row(level, y + margin);
+
+            for (int row = grid.row(level, y - margin); row <= lastRow; ++row)
+            {
+                for (int column = firstColumn; column <= lastColumn; ++column)
+                {
+                    int cell = row * grid.mColumnCounts[level] + column;
+                    int[] chunks = grid.mCells[level][cell];
+
+                    // Later strokes first
+                    for (int i = grid.mCellSizes[level][cell] - 1; i >= 0; --i)
+                    {
+                        int chunk = chunks[i];
+                        int index = mChunkStrokes[chunk];
+
+                        if ((nearestDistance == 0) && (index <= nearest))
+                        {
+                            // Nothing is nearer than a stroke covering the point, and later strokes win ties
+                            break;
+                        }
+
+                        float distance = distance(index, chunk - mFirstChunks[index], x, y, nearestDistance);
+
+                        if (distance == NO_DISTANCE)
+                        {
+                            continue;
+                        }
+
+                        // Later strokes are drawn above: prefer them on ties
+                        if ((distance < nearestDistance) || ((distance == nearestDistance) && (index > nearest)))
+                        {
+                            nearest = index;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Index a stroke, appended at the end of the document.
+     * 
+     * @param stroke
+     *            the stroke to index.
+     */
+    void add(final Stroke stroke)
+    {
+        if (mCount == mStrokes.length)
+        {
+            int capacity = 2 * mCount;
+
+            mStrokes = copyOf(mStrokes, capacity, mCount);
+            mBounds = copyOf(mBounds, 4 * capacity, 4 * mCount);
+            mFirstChunks = copyOf(mFirstChunks, capacity, mCount);
+        }
+
+        int index = mCount++;
+        mStrokes[index] = stroke;
+        computeBounds(stroke, index);
+        register(index);
+    }
+
+    /**
+     * Remove the last indexed stroke.
+     */
+    void removeLast()
+    {
+        int index = mCount - 1;
+        int base = 4 * index;
+        Stroke stroke = mStrokes[index];
+
+        // Being the highest index, the stroke and its chunks are the last entries of their cells
+        mStrokeGrid.removeLast(mBounds[base], mBounds[base + 1], mBounds[base + 2], mBounds[base + 3]);
+
+        for (int chunk = mFirstChunks[index]; chunk < mChunkCount; ++chunk)
+        {
+            computeChunkBounds(stroke, chunk - mFirstChunks[index]);
+            mChunkGrid.removeLast(mChunkBounds[0], mChunkBounds[1], mChunkBounds[2], mChunkBounds[3]);
+        }
+
+        mChunkCount = mFirstChunks[index];
+        mStrokes[index] = null;
+        mCount = index;
+    }
+
+    /**
+     * Remove all the strokes.
+     */
+    void clear()
+    {
+        Arrays.fill(mStrokes, 0, mCount, null);
+        mStrokeGrid.clear();
+        mChunkGrid.clear();
+        mChunkCount = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Change the drawing size, rebuilding the grids.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     */
+    void setSize(final int width, final int height)
+    {
+        mStrokeGrid.setSize(width, height);
+        mChunkGrid.setSize(width, height);
+        mChunkCount = 0;
+
+        for (int i = 0; i < mCount; ++i)
+        {
+            register(i);
+        }
+    }
+
+    /**
+     * Compute the bounding box of a stroke, stroke width included.
+     * 
+     * @param stroke
+     *            the stroke.
+     * @param index
+     *            the stroke index.
+     */
+    private void computeBounds(final Stroke stroke, final int index)
+    {
+        final int size = stroke.size();
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+
+        for (int i = 0; i < size; ++i)
+        {
+            left = Math.min(left, stroke.getX(i));
+            top = Math.min(top, stroke.getY(i));
+            right = Math.max(right, stroke.getX(i));
+            bottom = Math.max(bottom, stroke.getY(i));
+        }
+
+        if (size == 0)
+        {
+            left = top = right = bottom = 0;
+        }
+
+        float halfWidth = getHalfWidth(stroke);
+        int base = 4 * index;
+
+        mBounds[base] = left - halfWidth;
+        mBounds[base + 1] = top - halfWidth;
+        mBounds[base + 2] = right + halfWidth;
+        mBounds[base + 3] = bottom + halfWidth;
+    }
+
+    /**
+     * Compute the bounding box of a stroke chunk, stroke width included, into {@link #mChunkBounds}.
+     * 
+     * @param stroke
+     *            the stroke.
+     * @param chunk
+     *            the chunk index within the stroke.
+     */
+    private void computeChunkBounds(final Stroke stroke, final int chunk)
+    {
+        final int first = chunk * CHUNK_LENGTH;
+        final int last = Math.min(first + CHUNK_LENGTH, stroke.size() - 1);
+        float left = stroke.getX(first);
+        float top = stroke.getY(first);
+        float right = left;
+        float bottom = top;
+
+        for (int i = first + 1; i <= last; ++i)
+        {
+            left = Math.min(left, stroke.getX(i));
+            top = Math.min(top, stroke.getY(i));
+            right = Math.max(right, stroke.getX(i));
+            bottom = Math.max(bottom, stroke.getY(i));
+        }
+
+        float halfWidth = getHalfWidth(stroke);
+
+        mChunkBounds[0] = left - halfWidth;
+        mChunkBounds[1] = top - halfWidth;
+        mChunkBounds[2] = right + halfWidth;
+        mChunkBounds[3] = bottom + halfWidth;
+    }
+
+    /**
+     * Register a stroke and its chunks in the grids.
+     * 
+     * @param index
+     *            the stroke index.
+     */
+    private void register(final int index)
+    {
+        Stroke stroke = mStrokes[index];
+        int base = 4 * index;
+        int chunkCount = (stroke.size() <= 1) ? stroke.size() : (stroke.size() + CHUNK_LENGTH - 2) / CHUNK_LENGTH;
+
+        mStrokeGrid.add(index, mBounds[base], mBounds[base + 1], mBounds[base + 2], mBounds[base + 3]);
+        mFirstChunks[index] = mChunkCount;
+
+        if (mChunkCount + chunkCount > mChunkStrokes.length)
+        {
+            mChunkStrokes = copyOf(mChunkStrokes, Math.max(2 * mChunkStrokes.length, mChunkCount + chunkCount),
+                    mChunkCount);
+        }
+
+        for (int i = 0; i < chunkCount; ++i)
+        {
+            int chunk = mChunkCount++;
+
+            mChunkStrokes[chunk] = index;
+            computeChunkBounds(stroke, i);
+            mChunkGrid.add(chunk, mChunkBounds[0], mChunkBounds[1], mChunkBounds[2], mChunkBounds[3]);
+        }
+    }
+
+    /**
+     * Compute the distance between a point and the edge of a chunk of a visible stroke.
+     * 
+     * @param index
+     *            the stroke index.
+     * @param chunk
+     *            the chunk index within the stroke.
+     * @param x
+     *            the point X coordinate.
+     * @param y
+     *            the point Y coordinate.
+     * @param maxDistance
+     *            the distance beyond which the exact value is not needed.
+     * @return the distance, 0 inside the stroke, or {@link #NO_DISTANCE} for an eraser stroke or a chunk farther than
+     *         the maximum distance.
+     */
+    private float distance(final int index, final int chunk, final float x, final float y, final float maxDistance)
+    {
+        Stroke stroke = mStrokes[index];
+        PenStyle style = stroke.getStyle();
+        int base = 4 * index;
+
+        if ((style != null) && style.isEraser())
+        {
+            return NO_DISTANCE;
+        }
+
+        // Bounding box distance: a lower bound, avoiding most of the exact computations
+        float dx = Math.max(0, Math.max(mBounds[base] - x, x - mBounds[base + 2]));
+        float dy = Math.max(0, Math.max(mBounds[base + 1] - y, y - mBounds[base + 3]));
+
+        if (dx * dx + dy * dy > maxDistance * maxDistance)
+        {
+            return NO_DISTANCE;
+        }
+
+        final int first = chunk * CHUNK_LENGTH;
+        final int last = Math.min(first + CHUNK_LENGTH, stroke.size() - 1);
+        float squaredDistance = squared(stroke.getX(first) - x) + squared(stroke.getY(first) - y);
+
+        for (int i = first + 1; i <= last; ++i)
+        {
+            squaredDistance = Math.min(squaredDistance, StrokeSimplifier.squaredSegmentDistance(x, y,
+                    stroke.getX(i - 1), stroke.getY(i - 1), stroke.getX(i), stroke.getY(i)));
+        }
+
+        float distance = Math.max(0, (float) Math.sqrt(squaredDistance) - getHalfWidth(stroke));
+
+        return (distance <= maxDistance) ? distance : NO_DISTANCE;
+    }
+
+    /**
+     * @param stroke
+     *            a stroke.
+     * @return half of the stroke width, 0 without a style.
+     */
+    private static float getHalfWidth(final Stroke stroke)
+    {
+        return (stroke.getStyle() != null) ? stroke.getStyle().getWidth() / 2 : 0;
+    }
+
+    /**
+     * @param value
+     *            a value.
+     * @return the squared value.
+     */
+    private static float squared(final float value)
+    {
+        return value * value;
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static Stroke[] copyOf(final Stroke[] array, final int capacity, final int length)
+    {
+        Stroke[] copy = new Stroke[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static float[] copyOf(final float[] array, final int capacity, final int length)
+    {
+        float[] copy = new float[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Copy the beginning of an array into a new array. {@code Arrays.copyOf} is not available before API 9.
+     * 
+     * @param array
+     *            the source array.
+     * @param capacity
+     *            the length of the new array.
+     * @param length
+     *            the number of values to copy.
+     * @return the new array.
+     */
+    private static int[] copyOf(final int[] array, final int capacity, final int length)
+    {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Hierarchical grid of entries, numbered in increasing order. An entry is listed once, in the finest level whose
+     * cells are as large as its bounding box, in the cell holding the center of that box: its box then extends half a
+     * cell at most beyond that cell. The coarsest level has a single cell, holding the entries too large for the
+     * others.
+     */
+    private static final class Grid
+    {
+        /** Cell size of the finest level, in pixels. */
+        private final int mCellSize;
+
+        /** Number of levels. */
+        int mLevelCount;
+
+        /** Number of cell columns of each level. */
+        int[] mColumnCounts;
+
+        /** Number of cell rows of each level. */
+        int[] mRowCounts;
+
+        /** Entries in each cell of each level, by increasing number. */
+        int[][][] mCells;
+
+        /** Number of entries in each cell of each level. */
+        int[][] mCellSizes;
+
+        /**
+         * Create a new, empty {@link Grid}.
+         * 
+         * @param cellSize
+         *            the cell size of the finest level, in pixels.
+         * @param width
+         *            the drawing width, in pixels.
+         * @param height
+         *            the drawing height, in pixels.
+         */
+        Grid(final int cellSize, final int width, final int height)
+        {
+            mCellSize = cellSize;
+            setSize(width, height);
+        }
+
+        /**
+         * Allocate empty levels, down to a single cell.
+         * 
+         * @param width
+         *            the drawing width, in pixels.
+         * @param height
+         *            the drawing height, in pixels.
+         */
+        void setSize(final int width, final int height)
+        {
+            int levelCount = 1;
+
+            while ((getCellSize(levelCount - 1) < width) || (getCellSize(levelCount - 1) < height))
+            {
+                ++levelCount;
+            }
+
+            mLevelCount = levelCount;
+            mColumnCounts = new int[levelCount];
+            mRowCounts = new int[levelCount];
+            mCells = new int[levelCount][][];
+            mCellSizes = new int[levelCount][];
+
+            for (int level = 0; level < levelCount; ++level)
+            {
+                int cellSize = getCellSize(level);
+
+                mColumnCounts[level] = Math.max(1, (width + cellSize - 1) / cellSize);
+                mRowCounts[level] = Math.max(1, (height + cellSize - 1) / cellSize);
+                mCells[level] = new int[mColumnCounts[level] * mRowCounts[level]][];
+                mCellSizes[level] = new int[mColumnCounts[level] * mRowCounts[level]];
+            }
+        }
+
+        /**
+         * Remove all the entries.
+         */
+        void clear()
+        {
+            for (int[] cellSizes : mCellSizes)
+            {
+                Arrays.fill(cellSizes, 0);
+            }
+        }
+
+        /**
+         * Append an entry, numbered above all the others.
+         * 
+         * @param entry
+         *            the entry number.
+         * @param left
+         *            the entry left coordinate.
+         * @param top
+         *            the entry top coordinate.
+         * @param right
+         *            the entry right coordinate.
+         * @param bottom
+         *            the entry bottom coordinate.
+         */
+        void add(final int entry, final float left, final float top, final float right, final float bottom)
+        {
+            int level = level(left, top, right, bottom);
+            int cell = cell(level, left, top, right, bottom);
+            int[] entries = mCells[level][cell];
+            int size = mCellSizes[level][cell];
+
+            if (entries == null)
+            {
+                entries = new int[INITIAL_CAPACITY];
+                mCells[level][cell] = entries;
+            }
+            else if (size == entries.length)
+            {
+                entries = copyOf(entries, 2 * size, size);
+                mCells[level][cell] = entries;
+            }
+
+            entries[size] = entry;
+            mCellSizes[level][cell] = size + 1;
+        }
+
+        /**
+         * Remove the entry numbered above all the others.
+         * 
+         * @param left
+         *            the entry left coordinate.
+         * @param top
+         *            the entry top coordinate.
+         * @param right
+         *            the entry right coordinate.
+         * @param bottom
+         *            the entry bottom coordinate.
+         */
+        void removeLast(final float left, final float top, final float right, final float bottom)
+        {
+            int level = level(left, top, right, bottom);
+
+            --mCellSizes[level][cell(level, left, top, right, bottom)];
+        }
+
+        /**
+         * @param level
+         *            a level.
+         * @return the distance an entry of the level can extend beyond its cell, in pixels.
+         */
+        float getMargin(final int level)
+        {
+            return getCellSize(level) / 2f;
+        }
+
+        /**
+         * @param level
+         *            a level.
+         * @param x
+         *            an X coordinate.
+         * @return the matching column of the level, clamped to the grid.
+         */
+        int column(final int level, final float x)
+        {
+            return Math.max(0, Math.min(mColumnCounts[level] - 1, (int) Math.floor(x / getCellSize(level))));
+        }
+
+        /**
+         * @param level
+         *            a level.
+         * @param y
+         *            a Y coordinate.
+         * @return the matching row of the level, clamped to the grid.
+         */
+        int row(final int level, final float y)
+        {
+            return Math.max(0, Math.min(mRowCounts[level] - 1, (int) Math.floor(y / getCellSize(level))));
+        }
+
+        /**
+         * @param level
+         *            a level.
+         * @return the cell size of the level, in pixels.
+         */
+        private int getCellSize(final int level)
+        {
+            return mCellSize << level;
+        }
+
+        /**
+         * @param left
+         *            the entry left coordinate.
+         * @param top
+         *            the entry top coordinate.
+         * @param right
+         *            the entry right coordinate.
+         * @param bottom
+         *            the entry bottom coordinate.
+         * @return the finest level whose cells are as large as the entry, or the coarsest level.
+         */
+        private int level(final float left, final float top, final float right, final float bottom)
+        {
+            float size = Math.max(right - left, bottom - top);
+            int level = 0;
+
+            while ((level < mLevelCount - 1) && (getCellSize(level) < size))
+            {
+                ++level;
+            }
+
+            return level;
+        }
+
+        /**
+         * @param level
+         *            the entry level.
+         * @param left
+         *            the entry left coordinate.
+         * @param top
+         *            the entry top coordinate.
+         * @param right
+         *            the entry right coordinate.
+         * @param bottom
+         *            the entry bottom coordinate.
+         * @return the cell holding the center of the entry.
+         */
+        private int cell(final int level, final float left, final float top, final float right, final float bottom)
+        {
+            return row(level, (top + bottom) / 2) * mColumnCounts[level] + column(level, (left + right) / 2);
+        }
+    }
+}
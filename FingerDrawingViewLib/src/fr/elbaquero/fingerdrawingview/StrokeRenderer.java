@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff.Mode;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+
+/**
+ * Rasterizes recorded strokes into a {@link TiledBitmap}, e.g. when a document is reloaded.
+ */
+final class StrokeRenderer
+{
+    /** Paint used for drawing strokes. */
+    private final Paint mPaint = new Paint();
+
+    /** Paint used for erasing strokes. */
+    private final Paint mEraserPaint = new Paint();
+
+    /** Path reused for every stroke. */
+    private final Path mPath = new Path();
+
+    /** Area covered by the rendered stroke. */
+    private final RectF mBounds = new RectF();
+
+    /**
+     * Create a new {@link StrokeRenderer}.
+     */
+    StrokeRenderer()
+    {
+        mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+
+        mEraserPaint.set(mPaint);
+        mEraserPaint.setStrokeCap(Paint.Cap.ROUND);
+        mEraserPaint.setXfermode(new PorterDuffXfermode(Mode.CLEAR));
+    }
+
+    /**
+     * Draw a stroke on a tiled bitmap.
+     * 
+     * @param stroke
+     *            the stroke to draw.
+     * @param target
+     *            the destination surface.
+     */
+    void render(final Stroke stroke, final TiledBitmap target)
+    {
+        final int size = stroke.size();
+        PenStyle style = stroke.getStyle();
+
+        if ((size == 0) || (style == null))
+        {
+            return;
+        }
+
+        mPath.rewind();
+        appendSamples(stroke, 0, mPath, !style.isEraser());
+        appendTail(stroke, mPath);
+
+        mBounds.set(stroke.getX(0), stroke.getY(0), stroke.getX(0), stroke.getY(0));
+
+        for (int i = 1; i < size; ++i)
+        {
+            mBounds.union(stroke.getX(i), stroke.getY(i));
+        }
+
+        // Include half the stroke width to avoid clipping.
+        mBounds.inset(-style.getWidth() / 2 - 1, -style.getWidth() / 2 - 1);
+
+        Paint paint = style.isEraser() ? mEraserPaint : mPaint;
+        paint.setStrokeWidth(style.getWidth());
+
+        if (!style.isEraser())
+        {
+            paint.setColor(style.getColor());
+        }
+
+        target.drawPath(mPath, paint, mBounds, !style.isEraser());
+    }
+
+    /**
+     * Append stroke samples to a path, as line segments or as quadratic curves.
+     * <p>
+     * When smoothing, sample <i>i</i> is the control point of a curve joining the middles of the segments around it,
+     * so that the path only ends at the middle of the last segment: appending further samples never changes the
+     * existing curves. {@link #appendTail(Stroke, Path)} completes the path up to the last sample.
+     * 
+     * @param stroke
+     *            the source stroke.
+     * @param from
+     *            the index of the first sample to append. The path is moved to the first sample of the stroke.
+     * @param path
+     *            the destination path.
+     * @param smooth
+     *            true to append quadratic curves, false to append line segments.
+     */
+    static void appendSamples(final Stroke stroke, final int from, final Path path, final boolean smooth)
+    {
+        final int size = stroke.size();
+
+        for (int i = from; i < size; ++i)
+        {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+
+            if (i == 0)
+            {
+                path.moveTo(x, y);
+            }
+            else if (!smooth)
+            {
+                path.lineTo(x, y);
+            }
+            else
+            {
+                float previousX = stroke.getX(i - 1);
+                float previousY = stroke.getY(i - 1);
+                float middleX = (previousX + x) / 2;
+                float middleY = (previousY + y) / 2;
+
+                if (i == 1)
+                {
+                    path.lineTo(middleX, middleY);
+                }
+                else
+                {
+                    path.quadTo(previousX, previousY, middleX, middleY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Complete a path built with {@link #appendSamples(Stroke, int, Path, boolean)} up to the last sample. A single
+     * sample stroke becomes a dot.
+     * 
+     * @param stroke
+     *            the source stroke.
+     * @param path
+     *            the destination path.
+     */
+    static void appendTail(final Stroke stroke, final Path path)
+    {
+        final int last = stroke.size() - 1;
+
+        if (last >= 0)
+        {
+            path.lineTo(stroke.getX(last), stroke.getY(last));
+        }
+    }
+}
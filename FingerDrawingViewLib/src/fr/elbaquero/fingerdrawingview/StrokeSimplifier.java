@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Streaming stroke simplifier, sitting between the touch events and the recorded {@link Stroke}.
+ * <p>
+ * Raw samples closer than the tolerance to the previous one are dropped. The other ones are buffered in a window
+ * starting at the last emitted sample (the anchor): as long as every buffered sample lies within the tolerance of the
+ * segment from the anchor to the newest sample, the newest sample replaces the intermediate ones. Otherwise the
+ * previous sample is emitted and becomes the new anchor. This is an incremental equivalent of the Douglas-Peucker
+ * algorithm, bounded by the window size. The emitted samples are meant to be rendered as quadratic curves, see
+ * {@link StrokeRenderer}. This class does not depend on the Android framework.
+ */
+public final class StrokeSimplifier
+{
+    /** Maximum number of buffered samples, to bound the cost per sample and the rendering latency. */
+    public static final int MAX_WINDOW_SIZE = 32;
+
+    /** Tolerance, in pixels. */
+    private float mTolerance;
+
+    /** Stroke receiving the emitted samples, null when no stroke is in progress. */
+    private Stroke mTarget;
+
+    /** Buffered samples X positions. */
+    private final float[] mWindowX = new float[MAX_WINDOW_SIZE];
+
+    /** Buffered samples Y positions. */
+    private final float[] mWindowY = new float[MAX_WINDOW_SIZE];
+
+    /** Buffered samples times. */
+    private final long[] mWindowTime = new long[MAX_WINDOW_SIZE];
+
+    /** Buffered samples pressures. */
+    private final float[] mWindowPressure = new float[MAX_WINDOW_SIZE];
+
+    /** Number of buffered samples. */
+    private int mWindowSize;
+
+    /** Pending sample indicator: the last raw sample has not been emitted. */
+    private boolean mHasPendingSample;
+
+    /** Last raw sample X position. */
+    private float mPendingX;
+
+    /** Last raw sample Y position. */
+    private float mPendingY;
+
+    /** Last raw sample time. */
+    private long mPendingTime;
+
+    /** Last raw sample pressure. */
+    private float mPendingPressure;
+
+    /**
+     * Create a new {@link StrokeSimplifier}.
+     * 
+     * @param tolerance
+     *            the tolerance, in pixels. 0 disables the simplification.
+     */
+    public StrokeSimplifier(final float tolerance)
+    {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Set the tolerance. Applies to the next stroke.
+     * 
+     * @param tolerance
+     *            the tolerance, in pixels. 0 disables the simplification.
+     */
+    public void setTolerance(final float tolerance)
+    {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * @return the tolerance, in pixels.
+     */
+    public float getTolerance()
+    {
+        return mTolerance;
+    }
+
+    /**
+     * Start a stroke.
+     * 
+     * @param target
+     *            the stroke receiving the emitted samples.
+     */
+    public void begin(final Stroke target)
+    {
+        mTarget = target;
+        mWindowSize = 0;
+        mHasPendingSample = false;
+    }
+
+    /**
+     * @return true if a stroke is in progress.
+     */
+    public boolean isActive()
+    {
+        return mTarget != null;
+    }
+
+    /**
+     * Add a raw sample.
+     * 
+     * @param x
+     *            the sample X position.
+     * @param y
+     *            the sample Y position.
+     * @param time
+     *            the sample time, in milliseconds.
+     * @param pressure
+     *            the sample pressure.
+     */
+    public void add(final float x, final float y, final long time, final float pressure)
+    {
+        if (mTarget.isEmpty() || (mTolerance <= 0))
+        {
+            mTarget.add(x, y, time, pressure);
+            return;
+        }
+
+        mHasPendingSample = true;
+        mPendingX = x;
+        mPendingY = y;
+        mPendingTime = time;
+        mPendingPressure = pressure;
+
+        // Distance filter
+        int last = mTarget.size() - 1;
+        float referenceX = (mWindowSize > 0) ? mWindowX[mWindowSize - 1] : mTarget.getX(last);
+        float referenceY = (mWindowSize > 0) ? mWindowY[mWindowSize - 1] : mTarget.getY(last);
+        float dx = x - referenceX;
+        float dy = y - referenceY;
+
+        if (dx * dx + dy * dy < mTolerance * mTolerance)
+        {
+            return;
+        }
+
+        if ((mWindowSize == MAX_WINDOW_SIZE) || exceedsTolerance(x, y))
+        {
+            emitLastWindowSample();
+        }
+
+        mWindowX[mWindowSize] = x;
+        mWindowY[mWindowSize] = y;
+        mWindowTime[mWindowSize] = time;
+        mWindowPressure[mWindowSize] = pressure;
+        ++mWindowSize;
+    }
+
+    /**
+     * End the stroke, emitting the last raw sample.
+     */
+    public void end()
+    {
+        if (mHasPendingSample)
+        {
+            if ((mWindowSize > 0) && exceedsTolerance(mPendingX, mPendingY))
+            {
+                emitLastWindowSample();
+            }
+
+            int last = mTarget.size() - 1;
+
+            if ((mTarget.getX(last) != mPendingX) || (mTarget.getY(last) != mPendingY))
+            {
+                mTarget.add(mPendingX, mPendingY, mPendingTime, mPendingPressure);
+            }
+        }
+
+        mTarget = null;
+        mWindowSize = 0;
+        mHasPendingSample = false;
+    }
+
+    /**
+     * @return true if the last raw sample has not been emitted yet.
+     */
+    public boolean hasPendingSample()
+    {
+        return mHasPendingSample;
+    }
+
+    /**
+     * @return the last raw sample X position.
+     */
+    public float getPendingX()
+    {
+        return mPendingX;
+    }
+
+    /**
+     * @return the last raw sample Y position.
+     */
+    public float getPendingY()
+    {
+        return mPendingY;
+    }
+
+    /**
+     * Check whether a buffered sample lies farther than the tolerance from the segment between the anchor and a new
+     * sample.
+     * 
+     * @param x
+     *            the new sample X position.
+     * @param y
+     *            the new sample Y position.
+     * @return true if the tolerance is exceeded.
+     */
+    private boolean exceedsTolerance(final float x, final float y)
+    {
+        int last = mTarget.size() - 1;
+        float anchorX = mTarget.getX(last);
+        float anchorY = mTarget.getY(last);
+        float squaredTolerance = mTolerance * mTolerance;
+
+        for (int i = 0; i < mWindowSize; ++i)
+        {
+            if (squaredSegmentDistance(mWindowX[i], mWindowY[i], anchorX, anchorY, x, y) > squaredTolerance)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Emit the newest buffered sample, which becomes the anchor.
+     */
+    private void emitLastWindowSample()
+    {
+        int last = mWindowSize - 1;
+
+        mTarget.add(mWindowX[last], mWindowY[last], mWindowTime[last], mWindowPressure[last]);
+        mWindowSize = 0;
+    }
+
+    /**
+     * Compute the squared distance between a point and a segment.
+     * 
+     * @param x
+     *            the point X position.
+     * @param y
+     *            the point Y position.
+     * @param x1
+     *            the segment start X position.
+     * @param y1
+     *            the segment start Y position.
+     * @param x2
+     *            the segment end X position.
+     * @param y2
+     *            the segment end Y position.
+     * @return the squared distance.
+     */
+    static float squaredSegmentDistance(final float x, final float y, final float x1, final float y1, final float x2,
+            final float y2)
+    {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float squaredLength = dx * dx + dy * dy;
+        float t = (squaredLength == 0) ? 0 : ((x - x1) * dx + (y - y1) * dy) / squaredLength;
+
+        t = Math.max(0, Math.min(1, t));
+
+        float px = x1 + t * dx - x;
+        float py = y1 + t * dy - y;
+
+        return px * px + py * py;
+    }
+}
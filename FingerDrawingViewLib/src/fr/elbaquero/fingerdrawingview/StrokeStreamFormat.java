@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Stroke stream format constants, see {@link StrokeStreamWriter}. Values use the primitive encoding of
+ * {@link StrokeFormat}.
+ * <p>
+ * Layout of a frame, all multi-byte fixed size values being big-endian:
+ * 
+ * <pre>
+ * frame:    int32 sequence, { byte message type, message }*
+ * SNAPSHOT: varint width, varint height, varint stroke count, { style, stroke }*,
+ *           varint live stroke count, { varint stroke id, style, stroke }*
+ * BEGIN:    varint stroke id, style, varlong start time
+ * SAMPLES:  varint stroke id, varint sample count, samples
+ * END:      varint stroke id
+ * CANCEL:   varint stroke id
+ * REPLACE:  same content as SNAPSHOT
+ * UNDO, REDO, CLEAR, RESYNC: no content
+ * style:    int32 ARGB color, varint width (scaled), byte flags
+ * stroke:   varlong start time, varint sample count, samples
+ * sample:   zig-zag varint dx, zig-zag varint dy (scaled, delta from the previous sample of the stroke),
+ *           varint dt (milliseconds), zig-zag varint dpressure (scaled)
+ * </pre>
+ * 
+ * Sequence numbers are consecutive from a random value, so that a reader detects both lost frames and a restarted
+ * writer. A snapshot is alone in its frame. A SNAPSHOT restates the drawing, e.g. for a reader joining the stream,
+ * and readers in sync skip it; a REPLACE snapshot follows a change of the whole drawing, and all readers apply it.
+ * Readers only send RESYNC messages, in frames of sequence 0.
+ * <p>
+ * Over a socket, each frame is prefixed by its int32 length, and a client starts by sending its role byte.
+ */
+final class StrokeStreamFormat
+{
+    /** Message type: whole drawing. */
+    static final int SNAPSHOT = 1;
+
+    /** Message type: start of a live stroke. */
+    static final int BEGIN = 2;
+
+    /** Message type: new samples of a live stroke. */
+    static final int SAMPLES = 3;
+
+    /** Message type: live stroke committed. */
+    static final int END = 4;
+
+    /** Message type: live stroke dropped. */
+    static final int CANCEL = 5;
+
+    /** Message type: last committed stroke undone. */
+    static final int UNDO = 6;
+
+    /** Message type: last undone stroke redone. */
+    static final int REDO = 7;
+
+    /** Message type: drawing erased. */
+    static final int CLEAR = 8;
+
+    /** Message type: snapshot request, from a reader. */
+    static final int RESYNC = 9;
+
+    /** Message type: whole drawing, after it has been replaced. */
+    static final int REPLACE = 10;
+
+    /** Size of the frame header, in bytes. */
+    static final int HEADER_SIZE = 4;
+
+    /** Maximum encoded size of a style, in bytes. */
+    static final int MAX_STYLE_SIZE = 5 + StrokeFormat.MAX_VARINT_SIZE;
+
+    /** Minimum encoded size of a style, in bytes. */
+    static final int MIN_STYLE_SIZE = 6;
+
+    /** Minimum encoded size of a snapshot stroke, in bytes: its style, start time and sample count. */
+    static final int MIN_STROKE_SIZE = MIN_STYLE_SIZE + 2;
+
+    /** Maximum frame size accepted from a socket, in bytes. */
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /** Socket role: the writer. */
+    static final int ROLE_WRITER = 1;
+
+    /** Socket role: a reader. */
+    static final int ROLE_READER = 2;
+
+    /**
+     * Empty, private constructor.
+     */
+    private StrokeStreamFormat()
+    {
+    }
+
+    /**
+     * @param frame
+     *            a frame.
+     * @return true if the frame holds a snapshot, restating or replacing the drawing.
+     */
+    static boolean isSnapshot(final byte[] frame)
+    {
+        return (frame.length > HEADER_SIZE) && ((frame[HEADER_SIZE] == SNAPSHOT) || (frame[HEADER_SIZE] == REPLACE));
+    }
+
+    /**
+     * Write a style.
+     * 
+     * @param buffer
+     *            the destination buffer, with at least {@link #MAX_STYLE_SIZE} bytes remaining.
+     * @param style
+     *            the style.
+     */
+    static void writeStyle(final ByteBuffer buffer, final PenStyle style)
+    {
+        buffer.putInt(style.getColor());
+        StrokeFormat.writeVarInt(buffer, StrokeFormat.quantize(style.getWidth(), StrokeFormat.COORDINATE_SCALE));
+        buffer.put((byte) (style.isEraser() ? StrokeFormat.FLAG_ERASER : 0));
+    }
+
+    /**
+     * Read a style.
+     * 
+     * @param buffer
+     *            the source buffer.
+     * @return the style.
+     * @throws IOException
+     *             if the style is malformed.
+     */
+    static PenStyle readStyle(final ByteBuffer buffer) throws IOException
+    {
+        int color = buffer.getInt();
+        float width = (float) StrokeFormat.readVarInt(buffer) / StrokeFormat.COORDINATE_SCALE;
+        boolean eraser = (buffer.get() & StrokeFormat.FLAG_ERASER) != 0;
+
+        return new PenStyle(color, width, eraser);
+    }
+
+    /**
+     * Write a frame to a socket stream, without flushing it.
+     * 
+     * @param out
+     *            the socket output stream.
+     * @param frame
+     *            the frame.
+     * @throws IOException
+     *             if the frame cannot be written.
+     */
+    static void writeFrame(final DataOutputStream out, final byte[] frame) throws IOException
+    {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    /**
+     * Read a frame from a socket stream.
+     * 
+     * @param in
+     *            the socket input stream.
+     * @return the frame.
+     * @throws IOException
+     *             if the frame cannot be read, or is malformed.
+     */
+    static byte[] readFrame(final DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+
+        if ((length < HEADER_SIZE) || (length > MAX_FRAME_SIZE))
+        {
+            throw new IOException("Invalid frame length " + length);
+        }
+
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+
+        return frame;
+    }
+}
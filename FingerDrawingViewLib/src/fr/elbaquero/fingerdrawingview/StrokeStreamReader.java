@@ -0,0 +1,466 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader of a live stroke stream written by a {@link StrokeStreamWriter}, applying the remote drawing incrementally
+ * through a {@link Listener}.
+ * <p>
+ * The reader starts out of sync: it asks for a snapshot when the transport connects, and ignores the frames until
+ * one arrives. From then on, each frame must follow the previous one; a missing or malformed frame puts the reader
+ * out of sync again and it asks for a new snapshot, which replaces the whole drawing. Snapshots sent for other
+ * readers are skipped while in sync.
+ * <p>
+ * Not thread safe: the transport events must be delivered on the thread of the listener. This class does not depend
+ * on the Android framework.
+ */
+public final class StrokeStreamReader implements StrokeTransport.Receiver
+{
+    /** Transport receiving the frames, and sending the snapshot requests. */
+    private final StrokeTransport mTransport;
+
+    /** Listener applying the stream. */
+    private final Listener mListener;
+
+    /** Indicator of a drawing in sync with the writer. */
+    private boolean mIsSynced;
+
+    /** Indicator of a snapshot requested since the reader got out of sync. */
+    private boolean mIsResyncRequested;
+
+    /** Sequence number of the next frame. */
+    private int mNextSequence;
+
+    /** Live strokes, by identifier. */
+    private final Map<Integer, LiveStroke> mLiveStrokes = new HashMap<Integer, LiveStroke>();
+
+    /**
+     * Create a new {@link StrokeStreamReader}. The transport must then be opened with this reader as receiver.
+     * 
+     * @param transport
+     *            the source transport.
+     * @param listener
+     *            the listener applying the stream.
+     */
+    public StrokeStreamReader(final StrokeTransport transport, final Listener listener)
+    {
+        mTransport = transport;
+        mListener = listener;
+    }
+
+    /**
+     * @return true if the drawing is in sync with the writer.
+     */
+    public boolean isSynced()
+    {
+        return mIsSynced;
+    }
+
+    /**
+     * Ask the writer for a snapshot, e.g. when the drawing cannot be updated as the writer asks. The frames are
+     * ignored until it arrives.
+     */
+    public void requestResync()
+    {
+        mIsSynced = false;
+        mIsResyncRequested = true;
+
+        byte[] frame = new byte[StrokeStreamFormat.HEADER_SIZE + 1];
+        frame[StrokeStreamFormat.HEADER_SIZE] = StrokeStreamFormat.RESYNC;
+        mTransport.send(frame);
+    }
+
+    @Override
+    public void onConnected()
+    {
+        requestResync();
+    }
+
+    @Override
+    public void onFrame(final byte[] frame)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        boolean isSnapshot = StrokeStreamFormat.isSnapshot(frame);
+        int sequence = buffer.getInt();
+
+        if (mIsSynced && (sequence == mNextSequence))
+        {
+            ++mNextSequence;
+
+            if (isSnapshot && (frame[StrokeStreamFormat.HEADER_SIZE] == StrokeStreamFormat.SNAPSHOT))
+            {
+                // The drawing is already in this state
+                return;
+            }
+        }
+        else if (isSnapshot)
+        {
+            mIsSynced = true;
+            mIsResyncRequested = false;
+            mNextSequence = sequence + 1;
+        }
+        else
+        {
+            // Frames were lost, or a snapshot is awaited
+            if (!mIsResyncRequested)
+            {
+                requestResync();
+            }
+
+            return;
+        }
+
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                readMessage(buffer);
+            }
+        }
+        catch (IOException e)
+        {
+            requestResync();
+        }
+        catch (BufferUnderflowException e)
+        {
+            requestResync();
+        }
+    }
+
+    @Override
+    public void onDisconnected()
+    {
+        // Frames may be lost until the reconnection, which requests a snapshot
+        mIsSynced = false;
+        mIsResyncRequested = false;
+    }
+
+    /**
+     * Read and apply a message.
+     * 
+     * @param buffer
+     *            the frame buffer, at the message type.
+     * @throws IOException
+     *             if the message is malformed, or does not apply.
+     */
+    private void readMessage(final ByteBuffer buffer) throws IOException
+    {
+        final int type = buffer.get();
+
+        switch (type)
+        {
+            case StrokeStreamFormat.SNAPSHOT:
+            case StrokeStreamFormat.REPLACE:
+                readSnapshot(buffer);
+                break;
+
+            case StrokeStreamFormat.BEGIN:
+            {
+                int id = StrokeFormat.readVarInt(buffer);
+                PenStyle style = StrokeStreamFormat.readStyle(buffer);
+                long startTime = StrokeFormat.readVarLong(buffer);
+                Stroke stroke = new Stroke();
+                stroke.setStyle(style);
+                mLiveStrokes.put(id, new LiveStroke(stroke, startTime));
+                break;
+            }
+
+            case StrokeStreamFormat.SAMPLES:
+            {
+                LiveStroke liveStroke = getLiveStroke(StrokeFormat.readVarInt(buffer));
+                Stroke stroke = liveStroke.mStroke;
+                int from = stroke.size();
+
+                readSamples(buffer, stroke, liveStroke.mStartTime);
+                mListener.onStrokeSamples(stroke, from);
+                break;
+            }
+
+            case StrokeStreamFormat.END:
+                mListener.onStrokeEnded(removeLiveStroke(StrokeFormat.readVarInt(buffer)));
+                break;
+
+            case StrokeStreamFormat.CANCEL:
+                mListener.onStrokeCancelled(removeLiveStroke(StrokeFormat.readVarInt(buffer)));
+                break;
+
+            case StrokeStreamFormat.UNDO:
+                mListener.onUndo();
+                break;
+
+            case StrokeStreamFormat.REDO:
+                mListener.onRedo();
+                break;
+
+            case StrokeStreamFormat.CLEAR:
+                mListener.onClear();
+                break;
+
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * Read and apply a snapshot.
+     * 
+     * @param buffer
+     *            the frame buffer, after the message type.
+     * @throws IOException
+     *             if the snapshot is malformed.
+     */
+    private void readSnapshot(final ByteBuffer buffer) throws IOException
+    {
+        final int width = StrokeFormat.readVarInt(buffer);
+        final int height = StrokeFormat.readVarInt(buffer);
+        final int strokeCount = readCount(buffer, StrokeStreamFormat.MIN_STROKE_SIZE);
+        List<Stroke> strokes = new ArrayList<Stroke>(strokeCount);
+
+        for (int i = 0; i < strokeCount; ++i)
+        {
+            strokes.add(readStroke(buffer));
+        }
+
+        mLiveStrokes.clear();
+        mListener.onReset(width, height, strokes);
+
+        final int liveStrokeCount = readCount(buffer, StrokeStreamFormat.MIN_STROKE_SIZE);
+
+        for (int i = 0; i < liveStrokeCount; ++i)
+        {
+            int id = StrokeFormat.readVarInt(buffer);
+            Stroke stroke = readStroke(buffer);
+
+            mLiveStrokes.put(id, new LiveStroke(stroke, stroke.getStartTime()));
+            mListener.onStrokeSamples(stroke, 0);
+        }
+    }
+
+    /**
+     * Read a stroke of a snapshot, with its style.
+     * 
+     * @param buffer
+     *            the frame buffer.
+     * @return the stroke.
+     * @throws IOException
+     *             if the stroke is malformed.
+     */
+    private static Stroke readStroke(final ByteBuffer buffer) throws IOException
+    {
+        Stroke stroke = new Stroke();
+        stroke.setStyle(StrokeStreamFormat.readStyle(buffer));
+
+        long startTime = StrokeFormat.readVarLong(buffer);
+        readSamples(buffer, stroke, startTime);
+
+        return stroke;
+    }
+
+    /**
+     * Read a count of items, checking that the frame is long enough to hold them, since a negative or huge count would
+     * otherwise throw an unchecked exception or exhaust the memory.
+     * 
+     * @param buffer
+     *            the frame buffer.
+     * @param minItemSize
+     *            the minimum encoded size of an item, in bytes.
+     * @return the count.
+     * @throws IOException
+     *             if the count is negative or larger than the frame allows.
+     */
+    private static int readCount(final ByteBuffer buffer, final int minItemSize) throws IOException
+    {
+        final int count = StrokeFormat.readVarInt(buffer);
+
+        if ((count < 0) || (count > buffer.remaining() / minItemSize))
+        {
+            throw new IOException("Invalid count " + count + " with " + buffer.remaining() + " bytes remaining");
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a sample count, then the samples, each one a delta from the previous sample of the stroke, and add them to
+     * the stroke.
+     * 
+     * @param buffer
+     *            the frame buffer.
+     * @param stroke
+     *            the destination stroke.
+     * @param startTime
+     *            the stroke start time, in milliseconds.
+     * @throws IOException
+     *             if the samples are malformed.
+     */
+    private static void readSamples(final ByteBuffer buffer, final Stroke stroke, final long startTime)
+            throws IOException
+    {
+        final int count = readCount(buffer, StrokeFormat.MIN_SAMPLE_SIZE);
+        int x = 0;
+        int y = 0;
+        long time = startTime;
+        int pressure = 0;
+
+        if (!stroke.isEmpty())
+        {
+            final int last = stroke.size() - 1;
+            x = StrokeFormat.quantize(stroke.getX(last), StrokeFormat.COORDINATE_SCALE);
+            y = StrokeFormat.quantize(stroke.getY(last), StrokeFormat.COORDINATE_SCALE);
+            time = stroke.getTime(last);
+            pressure = StrokeFormat.quantize(stroke.getPressure(last), StrokeFormat.PRESSURE_SCALE);
+        }
+
+        for (int i = 0; i < count; ++i)
+        {
+            x += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(buffer));
+            y += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(buffer));
+            time += StrokeFormat.readVarInt(buffer);
+            pressure += StrokeFormat.zigZagDecode(StrokeFormat.readVarInt(buffer));
+
+            stroke.add((float) x / StrokeFormat.COORDINATE_SCALE, (float) y / StrokeFormat.COORDINATE_SCALE, time,
+                    (float) pressure / StrokeFormat.PRESSURE_SCALE);
+        }
+    }
+
+    /**
+     * @param id
+     *            a live stroke identifier.
+     * @return the live stroke.
+     * @throws IOException
+     *             if there is no such live stroke.
+     */
+    private LiveStroke getLiveStroke(final int id) throws IOException
+    {
+        LiveStroke liveStroke = mLiveStrokes.get(id);
+
+        if (liveStroke == null)
+        {
+            throw new IOException("Unknown stroke " + id);
+        }
+
+        return liveStroke;
+    }
+
+    /**
+     * @param id
+     *            a live stroke identifier.
+     * @return the live stroke, which is not live anymore.
+     * @throws IOException
+     *             if there is no such live stroke.
+     */
+    private Stroke removeLiveStroke(final int id) throws IOException
+    {
+        Stroke stroke = getLiveStroke(id).mStroke;
+        mLiveStrokes.remove(id);
+
+        return stroke;
+    }
+
+    /**
+     * Stroke being received, with its start time until its first sample gives it.
+     */
+    private static final class LiveStroke
+    {
+        /** Received samples. */
+        private final Stroke mStroke;
+
+        /** Start time, in milliseconds. */
+        private final long mStartTime;
+
+        /**
+         * Create a new {@link LiveStroke}.
+         * 
+         * @param stroke
+         *            the received samples.
+         * @param startTime
+         *            the start time, in milliseconds.
+         */
+        LiveStroke(final Stroke stroke, final long startTime)
+        {
+            mStroke = stroke;
+            mStartTime = startTime;
+        }
+    }
+
+    /**
+     * Listener applying a stroke stream, on the reader thread.
+     */
+    public interface Listener
+    {
+        /**
+         * Called when the drawing is replaced by a snapshot. The live strokes are dropped; those of the snapshot
+         * follow.
+         * 
+         * @param width
+         *            the drawing width, in pixels.
+         * @param height
+         *            the drawing height, in pixels.
+         * @param strokes
+         *            the committed strokes, owned by the listener.
+         */
+        void onReset(int width, int height, List<Stroke> strokes);
+
+        /**
+         * Called when samples are added to a live stroke, starting with its first samples.
+         * 
+         * @param stroke
+         *            the live stroke, with its style. It is updated until it ends.
+         * @param from
+         *            the index of the first new sample.
+         */
+        void onStrokeSamples(Stroke stroke, int from);
+
+        /**
+         * Called when a live stroke is committed.
+         * 
+         * @param stroke
+         *            the stroke, owned by the listener.
+         */
+        void onStrokeEnded(Stroke stroke);
+
+        /**
+         * Called when a live stroke is dropped.
+         * 
+         * @param stroke
+         *            the stroke.
+         */
+        void onStrokeCancelled(Stroke stroke);
+
+        /**
+         * Called when the last committed stroke is undone.
+         */
+        void onUndo();
+
+        /**
+         * Called when the last undone stroke is redone.
+         */
+        void onRedo();
+
+        /**
+         * Called when the drawing is erased.
+         */
+        void onClear();
+    }
+}
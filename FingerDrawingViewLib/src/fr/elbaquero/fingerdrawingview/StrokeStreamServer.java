@@ -0,0 +1,401 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Relay of a stroke stream between one writer and many readers connected with {@link SocketStrokeTransport}s, e.g.
+ * to mirror a drawing on every device of a room. Bound to the loopback address, it also serves as a local stand-in
+ * for the tests.
+ * <p>
+ * The writer frames are forwarded to every reader as they arrive, each reader having its own sending thread, so that
+ * a slow reader does not delay the others: a reader falling more than {@link #MAX_PENDING_FRAMES} frames behind is
+ * disconnected, and resynchronizes when it reconnects. The snapshot requests of the readers are forwarded to the
+ * writer, only one at a time: the snapshot it sends answers all the readers out of sync. A new writer connection
+ * replaces the previous one.
+ * <p>
+ * The server does not decode the frames, nor keep any drawing. This class does not depend on the Android framework.
+ */
+public final class StrokeStreamServer
+{
+    /** Maximum number of frames waiting to be sent to a connection. */
+    private static final int MAX_PENDING_FRAMES = 512;
+
+    /** Maximum number of pending connections. */
+    private static final int BACKLOG = 50;
+
+    /** Socket streams buffer size, in bytes. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Listening socket. */
+    private final ServerSocket mServerSocket;
+
+    /** Connected readers. */
+    private final List<Connection> mReaders = new CopyOnWriteArrayList<Connection>();
+
+    /** Connected writer, null if none. */
+    private volatile Connection mWriter;
+
+    /** Indicator of a snapshot request forwarded to the writer, not answered yet. */
+    private final AtomicBoolean mIsResyncPending = new AtomicBoolean();
+
+    /** Indicator of a closed server. */
+    private volatile boolean mIsClosed;
+
+    /**
+     * Create a new {@link StrokeStreamServer}, listening on a port.
+     * 
+     * @param address
+     *            the local address to bind, e.g. the loopback address; null to accept connections on all the local
+     *            addresses.
+     * @param port
+     *            the port, 0 to pick a free port: see {@link #getPort()}.
+     * @throws IOException
+     *             if the port cannot be bound.
+     */
+    public StrokeStreamServer(final InetAddress address, final int port) throws IOException
+    {
+        mServerSocket = new ServerSocket(port, BACKLOG, address);
+    }
+
+    /**
+     * @return the listening port.
+     */
+    public int getPort()
+    {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Start accepting the connections, on a new thread.
+     */
+    public void start()
+    {
+        startThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!mIsClosed)
+                {
+                    try
+                    {
+                        Socket socket = mServerSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        new Connection(socket).start();
+                    }
+                    catch (IOException e)
+                    {
+                        // Closed, or failed connection
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop accepting the connections, and close the connected ones.
+     */
+    public void close()
+    {
+        mIsClosed = true;
+
+        try
+        {
+            mServerSocket.close();
+        }
+        catch (IOException ignore)
+        {
+        }
+
+        Connection writer = mWriter;
+
+        if (writer != null)
+        {
+            writer.close();
+        }
+
+        for (Connection reader : mReaders)
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Forward a writer frame to the readers. Called on the writer connection thread.
+     * 
+     * @param frame
+     *            the frame.
+     */
+    private void onWriterFrame(final byte[] frame)
+    {
+        if (StrokeStreamFormat.isSnapshot(frame))
+        {
+            mIsResyncPending.set(false);
+        }
+
+        for (Connection reader : mReaders)
+        {
+            reader.send(frame);
+        }
+    }
+
+    /**
+     * Forward a reader frame, a snapshot request, to the writer unless a request is already pending. Called on the
+     * reader connection thread.
+     * 
+     * @param frame
+     *            the frame.
+     */
+    private void onReaderFrame(final byte[] frame)
+    {
+        Connection writer = mWriter;
+
+        if ((writer != null) && mIsResyncPending.compareAndSet(false, true))
+        {
+            writer.send(frame);
+        }
+    }
+
+    /**
+     * Start a daemon thread.
+     * 
+     * @param runnable
+     *            the thread code.
+     * @return the started thread.
+     */
+    private static Thread startThread(final Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, StrokeStreamServer.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    /**
+     * Connection of a writer or a reader, with a thread receiving its frames and another one sending them.
+     */
+    private final class Connection
+    {
+        /** Connected socket. */
+        private final Socket mSocket;
+
+        /** Frames waiting to be sent. */
+        private final BlockingQueue<byte[]> mPendingFrames = new LinkedBlockingQueue<byte[]>();
+
+        /** Thread sending the frames, null until the role is known. */
+        private Thread mSender;
+
+        /**
+         * Create a new {@link Connection}.
+         * 
+         * @param socket
+         *            the connected socket.
+         */
+        Connection(final Socket socket)
+        {
+            mSocket = socket;
+        }
+
+        /**
+         * Start receiving the frames, on a new thread.
+         */
+        void start()
+        {
+            startThread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    receive();
+                }
+            });
+        }
+
+        /**
+         * Queue a frame, or disconnect if too many frames are pending.
+         * 
+         * @param frame
+         *            the frame.
+         */
+        void send(final byte[] frame)
+        {
+            if (mPendingFrames.size() >= MAX_PENDING_FRAMES)
+            {
+                close();
+            }
+            else
+            {
+                mPendingFrames.offer(frame);
+            }
+        }
+
+        /**
+         * Close the connection, which ends both threads.
+         */
+        void close()
+        {
+            SocketStrokeTransport.closeQuietly(mSocket);
+        }
+
+        /**
+         * Register the connection according to its role, and receive its frames until it is closed.
+         */
+        private void receive()
+        {
+            boolean isWriter = false;
+
+            try
+            {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(mSocket.getInputStream(),
+                        BUFFER_SIZE));
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        mSocket.getOutputStream(), BUFFER_SIZE));
+                int role = in.read();
+
+                mSender = startThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        sendPendingFrames(out);
+                    }
+                });
+
+                if (role == StrokeStreamFormat.ROLE_WRITER)
+                {
+                    isWriter = true;
+                    Connection previous;
+
+                    synchronized (StrokeStreamServer.this)
+                    {
+                        previous = mWriter;
+                        mWriter = this;
+
+                        // The new writer sends a snapshot when connected
+                        mIsResyncPending.set(true);
+                    }
+
+                    if (previous != null)
+                    {
+                        previous.close();
+                    }
+                }
+                else if (role == StrokeStreamFormat.ROLE_READER)
+                {
+                    mReaders.add(this);
+                }
+                else
+                {
+                    return;
+                }
+
+                if (mIsClosed)
+                {
+                    return;
+                }
+
+                while (true)
+                {
+                    byte[] frame = StrokeStreamFormat.readFrame(in);
+
+                    if (isWriter)
+                    {
+                        onWriterFrame(frame);
+                    }
+                    else
+                    {
+                        onReaderFrame(frame);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // Disconnected
+            }
+            finally
+            {
+                if (isWriter)
+                {
+                    synchronized (StrokeStreamServer.this)
+                    {
+                        if (mWriter == this)
+                        {
+                            mWriter = null;
+                            mIsResyncPending.set(false);
+                        }
+                    }
+                }
+                else
+                {
+                    mReaders.remove(this);
+                }
+
+                close();
+
+                if (mSender != null)
+                {
+                    mSender.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Send the pending frames until the connection is closed. The stream is flushed when there is no more pending
+         * frame, so that a burst of frames shares the writes.
+         * 
+         * @param out
+         *            the socket output stream.
+         */
+        private void sendPendingFrames(final DataOutputStream out)
+        {
+            try
+            {
+                while (true)
+                {
+                    StrokeStreamFormat.writeFrame(out, mPendingFrames.take());
+
+                    if (mPendingFrames.isEmpty())
+                    {
+                        out.flush();
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Disconnected
+            }
+            catch (IOException e)
+            {
+                close();
+            }
+        }
+    }
+}
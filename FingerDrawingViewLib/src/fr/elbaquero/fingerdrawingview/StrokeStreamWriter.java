@@ -0,0 +1,434 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writer of a live stroke stream, mirroring a drawing on remote {@link StrokeStreamReader}s while it is drawn.
+ * <p>
+ * The stroke events are encoded into the current frame as they happen: the samples of the live stroke, delta
+ * encoded as in {@link StrokeFormat}, its end, undos and redos. The owner sends the frame with {@link #flush()}
+ * once per batch of events, e.g. once per touch event, so that a frame carries all the samples of an event and its
+ * history without adding any latency.
+ * <p>
+ * A snapshot of the whole drawing, including the live stroke, is sent when the transport connects and when a reader
+ * asks for it, after it missed frames. Readers already in sync skip it. See {@link StrokeStreamFormat} for the frame
+ * layout.
+ * <p>
+ * Not thread safe: the transport events must be delivered on the thread generating the stroke events. This class
+ * does not depend on the Android framework.
+ */
+public final class StrokeStreamWriter implements StrokeTransport.Receiver
+{
+    /** Initial frame buffer size, in bytes. */
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    /** Destination transport. */
+    private final StrokeTransport mTransport;
+
+    /** Source of the snapshots. */
+    private final Source mSource;
+
+    /** Current frame, after its header. */
+    private ByteBuffer mBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /** Sequence number of the next frame. */
+    private int mSequence = new Random().nextInt();
+
+    /** Live stroke, null if none. */
+    private Stroke mLiveStroke;
+
+    /** Identifier of the live stroke. */
+    private int mLiveStrokeId;
+
+    /** Number of samples of the live stroke already encoded. */
+    private int mEncodedSampleCount;
+
+    /** Identifier of the next live stroke. */
+    private int mNextStrokeId;
+
+    /**
+     * Create a new {@link StrokeStreamWriter}. The transport must then be opened with this writer as receiver.
+     * 
+     * @param transport
+     *            the destination transport.
+     * @param source
+     *            the source of the snapshots.
+     */
+    public StrokeStreamWriter(final StrokeTransport transport, final Source source)
+    {
+        mTransport = transport;
+        mSource = source;
+        mBuffer.position(StrokeStreamFormat.HEADER_SIZE);
+    }
+
+    /**
+     * Start streaming a live stroke, with its current samples.
+     * 
+     * @param stroke
+     *            the live stroke, with its style. Its samples are read until it ends, it must not be reset before.
+     */
+    public void beginStroke(final Stroke stroke)
+    {
+        if (mLiveStroke != null)
+        {
+            cancelStroke();
+        }
+
+        mLiveStroke = stroke;
+        mLiveStrokeId = mNextStrokeId++;
+        mEncodedSampleCount = 0;
+
+        ensureRemaining(1 + StrokeFormat.MAX_VARINT_SIZE + StrokeStreamFormat.MAX_STYLE_SIZE
+                + StrokeFormat.MAX_VARLONG_SIZE);
+        mBuffer.put((byte) StrokeStreamFormat.BEGIN);
+        StrokeFormat.writeVarInt(mBuffer, mLiveStrokeId);
+        StrokeStreamFormat.writeStyle(mBuffer, stroke.getStyle());
+        StrokeFormat.writeVarLong(mBuffer, stroke.getStartTime());
+
+        addSamples();
+    }
+
+    /**
+     * Encode the samples added to the live stroke since the last call, if any.
+     */
+    public void addSamples()
+    {
+        if (mLiveStroke == null)
+        {
+            return;
+        }
+
+        final int count = mLiveStroke.size() - mEncodedSampleCount;
+
+        if (count > 0)
+        {
+            ensureRemaining(1 + 2 * StrokeFormat.MAX_VARINT_SIZE + count * StrokeFormat.MAX_SAMPLE_SIZE);
+            mBuffer.put((byte) StrokeStreamFormat.SAMPLES);
+            StrokeFormat.writeVarInt(mBuffer, mLiveStrokeId);
+            StrokeFormat.writeVarInt(mBuffer, count);
+            writeSamples(mBuffer, mLiveStroke, mEncodedSampleCount, mLiveStroke.size());
+            mEncodedSampleCount = mLiveStroke.size();
+        }
+    }
+
+    /**
+     * End the live stroke with its remaining samples: it is committed.
+     */
+    public void endStroke()
+    {
+        if (mLiveStroke != null)
+        {
+            addSamples();
+            writeStrokeMessage(StrokeStreamFormat.END);
+        }
+    }
+
+    /**
+     * Drop the live stroke.
+     */
+    public void cancelStroke()
+    {
+        if (mLiveStroke != null)
+        {
+            writeStrokeMessage(StrokeStreamFormat.CANCEL);
+        }
+    }
+
+    /**
+     * Undo the last committed stroke.
+     */
+    public void undo()
+    {
+        writeMessage(StrokeStreamFormat.UNDO);
+    }
+
+    /**
+     * Redo the last undone stroke.
+     */
+    public void redo()
+    {
+        writeMessage(StrokeStreamFormat.REDO);
+    }
+
+    /**
+     * Erase the drawing.
+     */
+    public void clear()
+    {
+        writeMessage(StrokeStreamFormat.CLEAR);
+    }
+
+    /**
+     * Send the current frame, if it is not empty.
+     */
+    public void flush()
+    {
+        if (mBuffer.position() > StrokeStreamFormat.HEADER_SIZE)
+        {
+            sendFrame(mBuffer);
+            mBuffer.clear();
+            mBuffer.position(StrokeStreamFormat.HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Send the current frame, then a snapshot of the whole drawing, for the readers out of sync.
+     */
+    public void sendSnapshot()
+    {
+        sendSnapshot(StrokeStreamFormat.SNAPSHOT);
+    }
+
+    /**
+     * Send the current frame, then a snapshot of the whole drawing applied by all the readers, after the drawing has
+     * been replaced.
+     */
+    public void replaceDrawing()
+    {
+        sendSnapshot(StrokeStreamFormat.REPLACE);
+    }
+
+    /**
+     * Send the current frame, then a snapshot of the whole drawing.
+     * 
+     * @param type
+     *            the snapshot message type, {@link StrokeStreamFormat#SNAPSHOT} or {@link StrokeStreamFormat#REPLACE}.
+     */
+    private void sendSnapshot(final int type)
+    {
+        flush();
+
+        List<Stroke> strokes = mSource.getStrokes();
+        int maxSize = StrokeStreamFormat.HEADER_SIZE + 1 + 4 * StrokeFormat.MAX_VARINT_SIZE;
+
+        for (Stroke stroke : strokes)
+        {
+            maxSize += maxStrokeSize(stroke);
+        }
+
+        if (mLiveStroke != null)
+        {
+            maxSize += StrokeFormat.MAX_VARINT_SIZE + maxStrokeSize(mLiveStroke);
+        }
+
+        ByteBuffer snapshot = ByteBuffer.allocate(maxSize);
+        snapshot.position(StrokeStreamFormat.HEADER_SIZE);
+        snapshot.put((byte) type);
+        StrokeFormat.writeVarInt(snapshot, mSource.getWidth());
+        StrokeFormat.writeVarInt(snapshot, mSource.getHeight());
+        StrokeFormat.writeVarInt(snapshot, strokes.size());
+
+        for (Stroke stroke : strokes)
+        {
+            writeStroke(snapshot, stroke, stroke.size());
+        }
+
+        if (mLiveStroke == null)
+        {
+            StrokeFormat.writeVarInt(snapshot, 0);
+        }
+        else
+        {
+            // Only the encoded samples: the next ones follow in the next frames
+            StrokeFormat.writeVarInt(snapshot, 1);
+            StrokeFormat.writeVarInt(snapshot, mLiveStrokeId);
+            writeStroke(snapshot, mLiveStroke, mEncodedSampleCount);
+        }
+
+        sendFrame(snapshot);
+    }
+
+    @Override
+    public void onConnected()
+    {
+        sendSnapshot();
+    }
+
+    @Override
+    public void onFrame(final byte[] frame)
+    {
+        // Readers only send resynchronization requests
+        if ((frame.length > StrokeStreamFormat.HEADER_SIZE)
+                && (frame[StrokeStreamFormat.HEADER_SIZE] == StrokeStreamFormat.RESYNC))
+        {
+            sendSnapshot();
+        }
+    }
+
+    @Override
+    public void onDisconnected()
+    {
+        // The readers ask for a snapshot when reconnected
+    }
+
+    /**
+     * Encode a message about the live stroke, which ends it.
+     * 
+     * @param type
+     *            the message type, {@link StrokeStreamFormat#END} or {@link StrokeStreamFormat#CANCEL}.
+     */
+    private void writeStrokeMessage(final int type)
+    {
+        ensureRemaining(1 + StrokeFormat.MAX_VARINT_SIZE);
+        mBuffer.put((byte) type);
+        StrokeFormat.writeVarInt(mBuffer, mLiveStrokeId);
+        mLiveStroke = null;
+    }
+
+    /**
+     * Encode a message without content.
+     * 
+     * @param type
+     *            the message type.
+     */
+    private void writeMessage(final int type)
+    {
+        ensureRemaining(1);
+        mBuffer.put((byte) type);
+    }
+
+    /**
+     * Number the frame in a buffer, and send it.
+     * 
+     * @param buffer
+     *            the frame buffer, its content ending at the current position.
+     */
+    private void sendFrame(final ByteBuffer buffer)
+    {
+        buffer.putInt(0, mSequence++);
+
+        byte[] frame = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, frame, 0, frame.length);
+        mTransport.send(frame);
+    }
+
+    /**
+     * Make room in the frame buffer, growing it if needed.
+     * 
+     * @param count
+     *            the number of bytes needed.
+     */
+    private void ensureRemaining(final int count)
+    {
+        if (mBuffer.remaining() < count)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(mBuffer.position() + count, 2 * mBuffer.capacity()));
+            mBuffer.flip();
+            buffer.put(mBuffer);
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * @param stroke
+     *            a stroke.
+     * @return the maximum encoded size of the stroke with its style, in bytes.
+     */
+    private static int maxStrokeSize(final Stroke stroke)
+    {
+        return StrokeStreamFormat.MAX_STYLE_SIZE + StrokeFormat.MAX_VARLONG_SIZE + StrokeFormat.MAX_VARINT_SIZE
+                + stroke.size() * StrokeFormat.MAX_SAMPLE_SIZE;
+    }
+
+    /**
+     * Encode a stroke of a snapshot, with its style.
+     * 
+     * @param buffer
+     *            the destination buffer.
+     * @param stroke
+     *            the stroke.
+     * @param count
+     *            the number of samples to encode.
+     */
+    private static void writeStroke(final ByteBuffer buffer, final Stroke stroke, final int count)
+    {
+        StrokeStreamFormat.writeStyle(buffer, stroke.getStyle());
+        StrokeFormat.writeVarLong(buffer, stroke.getStartTime());
+        StrokeFormat.writeVarInt(buffer, count);
+        writeSamples(buffer, stroke, 0, count);
+    }
+
+    /**
+     * Encode a range of samples, each one as a delta from the previous sample of the stroke.
+     * 
+     * @param buffer
+     *            the destination buffer.
+     * @param stroke
+     *            the stroke.
+     * @param from
+     *            the index of the first sample.
+     * @param to
+     *            the index of the last sample, exclusive.
+     */
+    private static void writeSamples(final ByteBuffer buffer, final Stroke stroke, final int from, final int to)
+    {
+        int previousX = 0;
+        int previousY = 0;
+        long previousTime = stroke.getStartTime();
+        int previousPressure = 0;
+
+        if (from > 0)
+        {
+            previousX = StrokeFormat.quantize(stroke.getX(from - 1), StrokeFormat.COORDINATE_SCALE);
+            previousY = StrokeFormat.quantize(stroke.getY(from - 1), StrokeFormat.COORDINATE_SCALE);
+            previousTime = stroke.getTime(from - 1);
+            previousPressure = StrokeFormat.quantize(stroke.getPressure(from - 1), StrokeFormat.PRESSURE_SCALE);
+        }
+
+        for (int i = from; i < to; ++i)
+        {
+            int x = StrokeFormat.quantize(stroke.getX(i), StrokeFormat.COORDINATE_SCALE);
+            int y = StrokeFormat.quantize(stroke.getY(i), StrokeFormat.COORDINATE_SCALE);
+            long time = stroke.getTime(i);
+            int pressure = StrokeFormat.quantize(stroke.getPressure(i), StrokeFormat.PRESSURE_SCALE);
+
+            StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(x - previousX));
+            StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(y - previousY));
+            StrokeFormat.writeVarInt(buffer, (int) Math.max(0, time - previousTime));
+            StrokeFormat.writeVarInt(buffer, StrokeFormat.zigZagEncode(pressure - previousPressure));
+
+            previousX = x;
+            previousY = y;
+            previousTime = time;
+            previousPressure = pressure;
+        }
+    }
+
+    /**
+     * Source of the committed drawing, read on the writer thread when a snapshot is sent.
+     */
+    public interface Source
+    {
+        /**
+         * @return the drawing width, in pixels.
+         */
+        int getWidth();
+
+        /**
+         * @return the drawing height, in pixels.
+         */
+        int getHeight();
+
+        /**
+         * @return the committed strokes, in drawing order.
+         */
+        List<Stroke> getStrokes();
+    }
+}
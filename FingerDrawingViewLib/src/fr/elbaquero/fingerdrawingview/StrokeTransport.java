@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Channel carrying the frames of a stroke stream between a {@link StrokeStreamWriter} and its
+ * {@link StrokeStreamReader}s, in both directions: strokes one way, resynchronization requests the other way.
+ * <p>
+ * Frames are delivered whole and in order, but frames sent while disconnected are lost: both ends are notified of
+ * each connection, so that the readers resynchronize. Receivers are notified on a transport thread, which must not
+ * be blocked. This interface does not depend on the Android framework.
+ * 
+ * @see LoopbackStrokeTransport
+ * @see SocketStrokeTransport
+ */
+public interface StrokeTransport
+{
+    /**
+     * Start connecting. The receiver is notified of each connection, until the transport is closed.
+     * 
+     * @param receiver
+     *            the receiver of the incoming frames.
+     */
+    void open(Receiver receiver);
+
+    /**
+     * Send a frame, without blocking. The frame is dropped when disconnected.
+     * 
+     * @param frame
+     *            the frame, owned by the transport afterwards.
+     */
+    void send(byte[] frame);
+
+    /**
+     * Disconnect, for good. The receiver is not notified anymore.
+     */
+    void close();
+
+    /**
+     * Receiver of the transport events.
+     */
+    interface Receiver
+    {
+        /**
+         * Called when the transport gets connected, or reconnected.
+         */
+        void onConnected();
+
+        /**
+         * Called when a frame is received.
+         * 
+         * @param frame
+         *            the frame, owned by the receiver.
+         */
+        void onFrame(byte[] frame);
+
+        /**
+         * Called when the transport gets disconnected; it will try to reconnect unless it is closed.
+         */
+        void onDisconnected();
+    }
+}
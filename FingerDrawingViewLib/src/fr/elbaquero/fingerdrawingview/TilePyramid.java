@@ -0,0 +1,604 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Downsampled copies of the visible layers of a {@link LayerStack}, flattened, used to display a zoomed out canvas
+ * without drawing every layer tile scaled down.
+ * <p>
+ * Level <i>n</i> is scaled by 1/2<sup>n</sup>; its tiles have the size of the layer tiles, so each covers
+ * 2<sup>n</sup> by 2<sup>n</sup> layer tiles. A tile is rendered on the rendering executor from snapshots of the
+ * layers, by halving the tiles of the level below it, only when it is displayed: until then, or after the area it
+ * covers is drawn on, the layers are drawn scaled down instead. Tiles which are not displayed are given back to the
+ * {@link BitmapPool}. This class must be used from the UI thread.
+ */
+final class TilePyramid
+{
+    /**
+     * Tile rendering callback.
+     */
+    interface Callback
+    {
+        /**
+         * Called on the main thread when rendered tiles are ready to be displayed.
+         */
+        void onTilesReady();
+    }
+
+    /** Smallest level, displayed from a scale of 1/2<sup>MAX_LEVEL</sup> down. */
+    static final int MAX_LEVEL = 4;
+
+    /** Width of the level 0, the layers, in pixels. */
+    private final int mWidth;
+
+    /** Height of the level 0, the layers, in pixels. */
+    private final int mHeight;
+
+    /** Tile size of every level, in pixels. */
+    private final int mTileSize;
+
+    /** Tile rendering callback. */
+    private final Callback mCallback;
+
+    /** Tiles of every level, row by row; null if not rendered or empty. Level 0 is not stored. */
+    private final Bitmap[][] mTiles = new Bitmap[MAX_LEVEL + 1][];
+
+    /** Indicator of the tiles up to date, including the empty ones. */
+    private final boolean[][] mValid = new boolean[MAX_LEVEL + 1][];
+
+    /** Indicator of the tiles being rendered. */
+    private final boolean[][] mPending = new boolean[MAX_LEVEL + 1][];
+
+    /** Version of every tile, incremented when the area it covers changes. */
+    private final int[][] mVersions = new int[MAX_LEVEL + 1][];
+
+    /** Number of rendered tiles, of all levels. */
+    private int mResidentCount;
+
+    /** Canvas clip bounds, reused for every draw. */
+    private final Rect mClipBounds = new Rect();
+
+    /** Destination of a tile, reused for every draw. */
+    private final RectF mTileRect = new RectF();
+
+    /** Paint used to draw the tiles, filtered. */
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Default paint. */
+    private final Paint mDefaultPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Paint used to halve the tiles, on the rendering executor only. */
+    private final Paint mHalvingPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Create a new, empty {@link TilePyramid}.
+     * 
+     * @param width
+     *            the width of the layers, in pixels.
+     * @param height
+     *            the height of the layers, in pixels.
+     * @param tileSize
+     *            the tile size of the layers, in pixels.
+     * @param callback
+     *            the tile rendering callback.
+     */
+    TilePyramid(final int width, final int height, final int tileSize, final Callback callback)
+    {
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mCallback = callback;
+
+        for (int level = 1; level <= MAX_LEVEL; ++level)
+        {
+            int tileCount = getColumnCount(level) * getRowCount(level);
+
+            mTiles[level] = new Bitmap[tileCount];
+            mValid[level] = new boolean[tileCount];
+            mPending[level] = new boolean[tileCount];
+            mVersions[level] = new int[tileCount];
+        }
+    }
+
+    /**
+     * @param scale
+     *            a display scale, in view pixels per layer pixel.
+     * @return the level to display at this scale, 0 for the layers themselves: the smallest level which is not scaled
+     *         up.
+     */
+    static int levelForScale(final float scale)
+    {
+        int level = 0;
+
+        while ((level < MAX_LEVEL) && (scale * (2 << level) <= 1))
+        {
+            ++level;
+        }
+
+        return level;
+    }
+
+    /**
+     * @return the number of rendered tiles, of all levels.
+     */
+    int getResidentCount()
+    {
+        return mResidentCount;
+    }
+
+    /**
+     * Draw the visible layers at a scale, from the level matching it. Only the tiles within the canvas clip bounds
+     * are drawn; the missing ones are requested and the others are released.
+     * 
+     * @param canvas
+     *            the destination canvas, in layer coordinates.
+     * @param paint
+     *            the paint to use, may be null.
+     * @param scale
+     *            the display scale, in view pixels per layer pixel.
+     * @param layers
+     *            the displayed layers, drawn in place of the tiles which are not rendered yet.
+     * @return false if the scale does not need a downsampled level: nothing is drawn, the layers should be drawn
+     *         directly.
+     */
+    boolean draw(final Canvas canvas, final Paint paint, final float scale, final LayerStack layers)
+    {
+        final int level = levelForScale(scale);
+
+        if ((level == 0) || !canvas.getClipBounds(mClipBounds))
+        {
+            releaseTiles(0, 0, 0, 0, 0);
+            return level != 0;
+        }
+
+        final int span = mTileSize << level;
+        final int columnCount = getColumnCount(level);
+        final int firstColumn = Math.max(0, mClipBounds.left / span);
+        final int lastColumn = Math.min(columnCount, (mClipBounds.right + span - 1) / span);
+        final int firstRow = Math.max(0, mClipBounds.top / span);
+        final int lastRow = Math.min(getRowCount(level), (mClipBounds.bottom + span - 1) / span);
+        int missingCount = 0;
+
+        mTilePaint.set((paint != null) ? paint : mDefaultPaint);
+        mTilePaint.setFilterBitmap(true);
+
+        for (int row = firstRow; row < lastRow; ++row)
+        {
+            for (int column = firstColumn; column < lastColumn; ++column)
+            {
+                int index = row * columnCount + column;
+                mTileRect.set(column * span, row * span, (column + 1) * span, (row + 1) * span);
+
+                if (mValid[level][index])
+                {
+                    if (mTiles[level][index] != null)
+                    {
+                        canvas.drawBitmap(mTiles[level][index], null, mTileRect, mTilePaint);
+                    }
+                }
+                else
+                {
+                    // Correct, but every layer tile is scaled down
+                    int saveCount = canvas.save();
+                    canvas.clipRect(mTileRect);
+                    layers.draw(canvas, paint);
+                    canvas.restoreToCount(saveCount);
+
+                    if (!mPending[level][index])
+                    {
+                        ++missingCount;
+                    }
+                }
+            }
+        }
+
+        if (missingCount > 0)
+        {
+            requestTiles(level, firstColumn, lastColumn, firstRow, lastRow, missingCount, layers);
+        }
+
+        // Keep a margin of one tile, for small pans
+        releaseTiles(level, firstColumn - 1, lastColumn + 1, firstRow - 1, lastRow + 1);
+
+        return true;
+    }
+
+    /**
+     * Mark the tiles covering an area as outdated, e.g. after drawing on a layer.
+     * 
+     * @param area
+     *            the changed area, in layer coordinates.
+     */
+    void invalidate(final RectF area)
+    {
+        for (int level = 1; level <= MAX_LEVEL; ++level)
+        {
+            final int span = mTileSize << level;
+            final int columnCount = getColumnCount(level);
+            final int firstColumn = Math.max(0, (int) Math.floor(area.left / span));
+            final int lastColumn = Math.min(columnCount, (int) Math.ceil(area.right / span));
+            final int firstRow = Math.max(0, (int) Math.floor(area.top / span));
+            final int lastRow = Math.min(getRowCount(level), (int) Math.ceil(area.bottom / span));
+
+            for (int row = firstRow; row < lastRow; ++row)
+            {
+                for (int column = firstColumn; column < lastColumn; ++column)
+                {
+                    invalidateTile(level, row * columnCount + column);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark all the tiles as outdated, e.g. after a layer change.
+     */
+    void invalidateAll()
+    {
+        for (int level = 1; level <= MAX_LEVEL; ++level)
+        {
+            for (int i = 0; i < mTiles[level].length; ++i)
+            {
+                invalidateTile(level, i);
+            }
+        }
+    }
+
+    /**
+     * Give all the tiles back to the pool. Tiles being rendered are dropped when they are ready.
+     */
+    void release()
+    {
+        invalidateAll();
+    }
+
+    /**
+     * Mark a tile as outdated and release it. A pending rendering of the tile is dropped when it is ready.
+     * 
+     * @param level
+     *            the tile level.
+     * @param index
+     *            the tile index in its level.
+     */
+    private void invalidateTile(final int level, final int index)
+    {
+        ++mVersions[level][index];
+        mPending[level][index] = false;
+        mValid[level][index] = false;
+        releaseTile(level, index);
+    }
+
+    /**
+     * Release the tiles outside a range of a level, and all the tiles of the other levels.
+     * 
+     * @param level
+     *            the displayed level, 0 to release every tile.
+     * @param firstColumn
+     *            the first column to keep.
+     * @param lastColumn
+     *            the last column to keep, exclusive.
+     * @param firstRow
+     *            the first row to keep.
+     * @param lastRow
+     *            the last row to keep, exclusive.
+     */
+    private void releaseTiles(final int level, final int firstColumn, final int lastColumn, final int firstRow,
+            final int lastRow)
+    {
+        for (int l = 1; (l <= MAX_LEVEL) && (mResidentCount > 0); ++l)
+        {
+            final int columnCount = getColumnCount(l);
+
+            for (int i = 0; i < mTiles[l].length; ++i)
+            {
+                int column = i % columnCount;
+                int row = i / columnCount;
+
+                // Empty tiles stay valid, they do not use any memory
+                if ((mTiles[l][i] != null)
+                        && ((l != level) || (column < firstColumn) || (column >= lastColumn) || (row < firstRow)
+                                || (row >= lastRow)))
+                {
+                    // Rendered again if displayed again
+                    mValid[l][i] = false;
+                    releaseTile(l, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Give a tile back to the pool.
+     * 
+     * @param level
+     *            the tile level.
+     * @param index
+     *            the tile index in its level.
+     */
+    private void releaseTile(final int level, final int index)
+    {
+        if (mTiles[level][index] != null)
+        {
+            BitmapPool.release(mTiles[level][index]);
+            mTiles[level][index] = null;
+            --mResidentCount;
+        }
+    }
+
+    /**
+     * Render the outdated tiles of a range of a level on the rendering executor.
+     * 
+     * @param level
+     *            the level to render.
+     * @param firstColumn
+     *            the first column of the range.
+     * @param lastColumn
+     *            the last column of the range, exclusive.
+     * @param firstRow
+     *            the first row of the range.
+     * @param lastRow
+     *            the last row of the range, exclusive.
+     * @param count
+     *            the number of outdated tiles in the range which are not being rendered.
+     * @param layers
+     *            the source layers.
+     */
+    private void requestTiles(final int level, final int firstColumn, final int lastColumn, final int firstRow,
+            final int lastRow, final int count, final LayerStack layers)
+    {
+        final int columnCount = getColumnCount(level);
+        final int[] indexes = new int[count];
+        final int[] versions = new int[count];
+        int requested = 0;
+
+        for (int row = firstRow; row < lastRow; ++row)
+        {
+            for (int column = firstColumn; column < lastColumn; ++column)
+            {
+                int index = row * columnCount + column;
+
+                if (!mValid[level][index] && !mPending[level][index])
+                {
+                    mPending[level][index] = true;
+                    indexes[requested] = index;
+                    versions[requested] = mVersions[level][index];
+                    ++requested;
+                }
+            }
+        }
+
+        // Snapshots do not copy any pixel, the layers can be drawn on in the meantime
+        int displayedCount = 0;
+
+        for (int i = 0; i < layers.size(); ++i)
+        {
+            displayedCount += layers.get(i).isDisplayed() ? 1 : 0;
+        }
+
+        final TiledBitmap[] surfaces = new TiledBitmap[displayedCount];
+        final TiledBitmapSnapshot[] snapshots = new TiledBitmapSnapshot[displayedCount];
+        final Paint[] paints = new Paint[displayedCount];
+
+        for (int i = 0, j = 0; i < layers.size(); ++i)
+        {
+            DrawingLayer layer = layers.get(i);
+
+            if (layer.isDisplayed())
+            {
+                surfaces[j] = layer.getSurface();
+                snapshots[j] = surfaces[j].snapshot();
+                paints[j] = new Paint(Paint.FILTER_BITMAP_FLAG);
+                paints[j].setAlpha(layer.getAlpha());
+                ++j;
+            }
+        }
+
+        // Not queued behind the exports and the checkpoints of the background executor
+        BackgroundExecutor.getRenderer().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Bitmap[] tiles = new Bitmap[indexes.length];
+
+                for (int i = 0; i < indexes.length; ++i)
+                {
+                    tiles[i] = renderTile(level, indexes[i] % columnCount, indexes[i] / columnCount, snapshots,
+                            paints);
+                }
+
+                BackgroundExecutor.postToMainThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for (int i = 0; i < surfaces.length; ++i)
+                        {
+                            surfaces[i].releaseSnapshot(snapshots[i]);
+                        }
+
+                        for (int i = 0; i < indexes.length; ++i)
+                        {
+                            addTile(level, indexes[i], versions[i], tiles[i]);
+                        }
+
+                        mCallback.onTilesReady();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Record a rendered tile, unless the area it covers has changed since it was requested.
+     * 
+     * @param level
+     *            the tile level.
+     * @param index
+     *            the tile index in its level.
+     * @param version
+     *            the tile version when it was requested.
+     * @param tile
+     *            the rendered tile, null if empty.
+     */
+    private void addTile(final int level, final int index, final int version, final Bitmap tile)
+    {
+        if (version != mVersions[level][index])
+        {
+            BitmapPool.release(tile);
+            return;
+        }
+
+        mPending[level][index] = false;
+        mValid[level][index] = true;
+        mTiles[level][index] = tile;
+        mResidentCount += (tile != null) ? 1 : 0;
+    }
+
+    /**
+     * Render a tile: level 1 tiles halve the layer tiles, the others halve the tiles of the level below, rendered on
+     * the fly. Runs on the rendering executor.
+     * 
+     * @param level
+     *            the tile level, from 1.
+     * @param column
+     *            the tile column.
+     * @param row
+     *            the tile row.
+     * @param snapshots
+     *            the snapshots of the displayed layers, bottom first.
+     * @param paints
+     *            the paints drawing the layers, with their alpha.
+     * @return the rendered tile, from the {@link BitmapPool}, or null if it is empty.
+     */
+    private Bitmap renderTile(final int level, final int column, final int row,
+            final TiledBitmapSnapshot[] snapshots, final Paint[] paints)
+    {
+        Bitmap tile = null;
+        Canvas canvas = null;
+
+        if (level == 1)
+        {
+            for (int i = 0; i < snapshots.length; ++i)
+            {
+                if (!isEmpty(snapshots[i], 2 * column, 2 * row))
+                {
+                    if (tile == null)
+                    {
+                        tile = BitmapPool.obtain(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+                        canvas = new Canvas(tile);
+                        canvas.scale(0.5f, 0.5f);
+                        canvas.translate(-2 * column * mTileSize, -2 * row * mTileSize);
+                    }
+
+                    int lastRow = Math.min(2 * row + 2, snapshots[i].getRowCount());
+                    snapshots[i].drawRows(canvas, paints[i], 2 * row, lastRow);
+                }
+            }
+
+            return tile;
+        }
+
+        for (int y = 0; y < 2; ++y)
+        {
+            for (int x = 0; x < 2; ++x)
+            {
+                int childColumn = 2 * column + x;
+                int childRow = 2 * row + y;
+
+                if ((childColumn >= getColumnCount(level - 1)) || (childRow >= getRowCount(level - 1)))
+                {
+                    continue;
+                }
+
+                Bitmap child = renderTile(level - 1, childColumn, childRow, snapshots, paints);
+
+                if (child != null)
+                {
+                    if (tile == null)
+                    {
+                        tile = BitmapPool.obtain(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+                        canvas = new Canvas(tile);
+                        canvas.scale(0.5f, 0.5f);
+                    }
+
+                    canvas.drawBitmap(child, x * mTileSize, y * mTileSize, mHalvingPaint);
+                    BitmapPool.release(child);
+                }
+            }
+        }
+
+        return tile;
+    }
+
+    /**
+     * @param snapshot
+     *            a layer snapshot.
+     * @param column
+     *            the first column of a square of 2 by 2 layer tiles.
+     * @param row
+     *            the first row of the square.
+     * @return true if none of the tiles of the square is allocated.
+     */
+    private static boolean isEmpty(final TiledBitmapSnapshot snapshot, final int column, final int row)
+    {
+        final Bitmap[] tiles = snapshot.getTiles();
+        final int columnCount = snapshot.getColumnCount();
+
+        for (int r = row; r < Math.min(row + 2, snapshot.getRowCount()); ++r)
+        {
+            for (int c = column; c < Math.min(column + 2, columnCount); ++c)
+            {
+                if (tiles[r * columnCount + c] != null)
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param level
+     *            a level, from 1.
+     * @return the number of tile columns of the level.
+     */
+    private int getColumnCount(final int level)
+    {
+        final int span = mTileSize << level;
+
+        return (mWidth + span - 1) / span;
+    }
+
+    /**
+     * @param level
+     *            a level, from 1.
+     * @return the number of tile rows of the level.
+     */
+    private int getRowCount(final int level)
+    {
+        final int span = mTileSize << level;
+
+        return (mHeight + span - 1) / span;
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.util.IdentityHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/**
+ * Raster surface split into a grid of square tiles. A tile bitmap is only allocated the first time something is drawn
+ * on it, so that an empty or sparse drawing costs (almost) no memory.
+ * <p>
+ * Snapshots share the tiles with the surface: a shared tile is copied the next time it is drawn on (copy-on-write), so
+ * taking a snapshot does not copy any pixel. Each tile counts the snapshots holding it, and goes back to the pool once
+ * neither the surface nor a snapshot holds it, whatever the order in which overlapping snapshots are released.
+ * <p>
+ * This class must be used from the UI thread, snapshots from any thread.
+ * <p>
+ * With the {@link Bitmap.Config#ALPHA_8} configuration, tiles only store the ink coverage and are tinted with a single
+ * color when drawn, for a quarter of the memory. Drawing with another color converts the surface to
+ * {@link Bitmap.Config#ARGB_8888} first; clearing the surface goes back to the initial configuration.
+ * <p>
+ * Tiles are taken from and given back to the {@link BitmapPool}.
+ */
+final class TiledBitmap
+{
+    /** Default tile size, in pixels. */
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    /** Mask of the RGB components of a color. */
+    private static final int RGB_MASK = 0x00FFFFFF;
+
+    /** Surface width, in pixels. */
+    private final int mWidth;
+
+    /** Surface height, in pixels. */
+    private final int mHeight;
+
+    /** Tile size, in pixels. */
+    private final int mTileSize;
+
+    /** Number of tile columns. */
+    private final int mColumnCount;
+
+    /** Number of tile rows. */
+    private final int mRowCount;
+
+    /** Initial tiles bitmap configuration. */
+    private final Bitmap.Config mPreferredConfig;
+
+    /** Tiles bitmap configuration. */
+    private Bitmap.Config mConfig;
+
+    /** Ink color of {@link Bitmap.Config#ALPHA_8} tiles, opaque. */
+    private int mTint = Color.BLACK;
+
+    /** Paint used to tint {@link Bitmap.Config#ALPHA_8} tiles. */
+    private final Paint mTintPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Tiles, row by row. A null entry is an empty tile. */
+    private final Bitmap[] mTiles;
+
+    /** Number of snapshots holding each tile, for the tiles held by at least one snapshot. */
+    private final IdentityHashMap<Bitmap, int[]> mSnapshotReferences = new IdentityHashMap<Bitmap, int[]>();
+
+    /** Canvas reused to draw on every tile. */
+    private final Canvas mTileCanvas = new Canvas();
+
+    /**
+     * Create a new {@link TiledBitmap}. No tile is allocated.
+     * 
+     * @param width
+     *            the surface width, in pixels.
+     * @param height
+     *            the surface height, in pixels.
+     * @param tileSize
+     *            the tile size, in pixels.
+     * @param config
+     *            the tiles bitmap configuration, {@link Bitmap.Config#ALPHA_8} for a single color surface.
+     */
+    TiledBitmap(final int width, final int height, final int tileSize, final Bitmap.Config config)
+    {
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mPreferredConfig = config;
+        mConfig = config;
+        mColumnCount = (width + tileSize - 1) / tileSize;
+        mRowCount = (height + tileSize - 1) / tileSize;
+        mTiles = new Bitmap[mColumnCount * mRowCount];
+    }
+
+    /**
+     * @return the surface width, in pixels.
+     */
+    int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the surface height, in pixels.
+     */
+    int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * @return the tiles bitmap configuration.
+     */
+    Bitmap.Config getConfig()
+    {
+        return mConfig;
+    }
+
+    /**
+     * @return the ink color of {@link Bitmap.Config#ALPHA_8} tiles.
+     */
+    int getTint()
+    {
+        return mTint;
+    }
+
+    /**
+     * @return the tile size, in pixels.
+     */
+    int getTileSize()
+    {
+        return mTileSize;
+    }
+
+    /**
+     * @return the number of tiles, allocated or not.
+     */
+    int getTileCount()
+    {
+        return mTiles.length;
+    }
+
+    /**
+     * @return true if no tile is allocated.
+     */
+    boolean isEmpty()
+    {
+        for (Bitmap tile : mTiles)
+        {
+            if (tile != null)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Draw a path on every tile intersecting the specified bounds. Drawing is clipped to these bounds.
+     * 
+     * @param path
+     *            the path to draw, in surface coordinates.
+     * @param paint
+     *            the paint to use.
+     * @param bounds
+     *            the area to update, including the stroke width.
+     * @param allocate
+     *            true to allocate the empty tiles intersecting the bounds, false to only draw on existing tiles (e.g.
+     *            when erasing).
+     */
+    void drawPath(final Path path, final Paint paint, final RectF bounds, final boolean allocate)
+    {
+        if (allocate && (mConfig == Bitmap.Config.ALPHA_8) && ((paint.getColor() & RGB_MASK) != (mTint & RGB_MASK)))
+        {
+            if (isEmpty())
+            {
+                // Nothing drawn yet: adopt the new color
+                mTint = paint.getColor() | ~RGB_MASK;
+            }
+            else
+            {
+                convertToColor();
+            }
+        }
+
+        int firstColumn = Math.max(0, (int) Math.floor(bounds.left / mTileSize));
+        int lastColumn = Math.min(mColumnCount - 1, (int) Math.floor(bounds.right / mTileSize));
+        int firstRow = Math.max(0, (int) Math.floor(bounds.top / mTileSize));
+        int lastRow = Math.min(mRowCount - 1, (int) Math.floor(bounds.bottom / mTileSize));
+
+        for (int row = firstRow; row <= lastRow; ++row)
+        {
+            for (int column = firstColumn; column <= lastColumn; ++column)
+            {
+                Bitmap tile = allocate ? obtainTile(column, row) : obtainExistingTile(column, row);
+
+                if (tile != null)
+                {
+                    mTileCanvas.setBitmap(tile);
+                    mTileCanvas.save();
+                    mTileCanvas.translate(-column * mTileSize, -row * mTileSize);
+                    mTileCanvas.clipRect(bounds);
+                    mTileCanvas.drawPath(path, paint);
+                    mTileCanvas.restore();
+                }
+            }
+        }
+
+        mTileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Draw the allocated tiles on a canvas. Tiles outside the canvas clip bounds are skipped.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void draw(final Canvas canvas, final Paint paint)
+    {
+        Paint tilesPaint = (mConfig == Bitmap.Config.ALPHA_8) ? tint(paint, mTint, mTintPaint) : paint;
+        drawTiles(canvas, tilesPaint, mTiles, mColumnCount, mTileSize, 0, mRowCount);
+    }
+
+    /**
+     * Flatten the tiles into a single, full size bitmap.
+     * 
+     * @return a new bitmap, owned by the caller, in full color.
+     */
+    Bitmap createBitmap()
+    {
+        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, flattenedConfig(mConfig));
+        draw(new Canvas(bitmap), null);
+
+        return bitmap;
+    }
+
+    /**
+     * Release all the tiles. The surface is then empty, with its initial configuration.
+     */
+    void clear()
+    {
+        mConfig = mPreferredConfig;
+
+        for (int i = 0; i < mTiles.length; ++i)
+        {
+            // Shared tiles are still used by a snapshot
+            if (!isShared(i))
+            {
+                BitmapPool.release(mTiles[i]);
+            }
+
+            mTiles[i] = null;
+        }
+    }
+
+    /**
+     * Copy the content of another surface, e.g. after a size change. Only the area overlapping both surfaces is
+     * copied; the other tiles of this surface are left untouched.
+     * 
+     * @param source
+     *            the surface to copy, with the same tile size.
+     */
+    void copyFrom(final TiledBitmap source)
+    {
+        if (source.mTileSize != mTileSize)
+        {
+            throw new IllegalArgumentException("Tile size mismatch: " + source.mTileSize + " != " + mTileSize);
+        }
+
+        if (isEmpty())
+        {
+            mConfig = source.mConfig;
+            mTint = source.mTint;
+        }
+        else if (source.mConfig != mConfig)
+        {
+            throw new IllegalStateException("Cannot copy " + source.mConfig + " tiles on " + mConfig + " tiles");
+        }
+
+        final int columnCount = Math.min(mColumnCount, source.mColumnCount);
+        final int rowCount = Math.min(mRowCount, source.mRowCount);
+        final int width = Math.min(mWidth, source.mWidth);
+        final int height = Math.min(mHeight, source.mHeight);
+
+        for (int row = 0; row < rowCount; ++row)
+        {
+            for (int column = 0; column < columnCount; ++column)
+            {
+                Bitmap sourceTile = source.mTiles[row * source.mColumnCount + column];
+
+                if (sourceTile != null)
+                {
+                    // Tiles crossing the edge of the smaller surface are only partially copied
+                    mTileCanvas.setBitmap(obtainTile(column, row));
+                    mTileCanvas.save();
+                    mTileCanvas.clipRect(0, 0, width - column * mTileSize, height - row * mTileSize);
+                    mTileCanvas.drawBitmap(sourceTile, 0, 0, null);
+                    mTileCanvas.restore();
+                }
+            }
+        }
+
+        mTileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Draw the allocated tiles of another surface of the same size on this surface, allocating the needed tiles. This
+     * surface must be in full color.
+     * 
+     * @param source
+     *            the surface to draw, with the same size and tile size.
+     * @param paint
+     *            the paint to use, may be null.
+     */
+    void composite(final TiledBitmap source, final Paint paint)
+    {
+        if ((source.mColumnCount != mColumnCount) || (source.mRowCount != mRowCount)
+                || (source.mTileSize != mTileSize))
+        {
+            throw new IllegalArgumentException("Surfaces size mismatch");
+        }
+
+        Paint tilesPaint = (source.mConfig == Bitmap.Config.ALPHA_8) ? tint(paint, source.mTint, mTintPaint) : paint;
+
+        for (int row = 0; row < mRowCount; ++row)
+        {
+            for (int column = 0; column < mColumnCount; ++column)
+            {
+                Bitmap sourceTile = source.mTiles[row * mColumnCount + column];
+
+                if (sourceTile != null)
+                {
+                    mTileCanvas.setBitmap(obtainTile(column, row));
+                    mTileCanvas.drawBitmap(sourceTile, 0, 0, tilesPaint);
+                }
+            }
+        }
+
+        mTileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Replace all the tiles.
+     * 
+     * @param tiles
+     *            the new tiles, row by row, owned by the surface afterwards. A null entry is an empty tile.
+     * @param config
+     *            the new tiles bitmap configuration.
+     * @param tint
+     *            the ink color of {@link Bitmap.Config#ALPHA_8} tiles.
+     */
+    void restore(final Bitmap[] tiles, final Bitmap.Config config, final int tint)
+    {
+        clear();
+        System.arraycopy(tiles, 0, mTiles, 0, mTiles.length);
+        mConfig = config;
+        mTint = tint;
+    }
+
+    /**
+     * Take a snapshot of the surface. No pixel is copied, see the class documentation.
+     * 
+     * @return the snapshot, to release with {@link #releaseSnapshot(TiledBitmapSnapshot)} once it is not used anymore.
+     */
+    TiledBitmapSnapshot snapshot()
+    {
+        for (int i = 0; i < mTiles.length; ++i)
+        {
+            if (mTiles[i] != null)
+            {
+                int[] count = mSnapshotReferences.get(mTiles[i]);
+
+                if (count == null)
+                {
+                    mSnapshotReferences.put(mTiles[i], new int[] { 1 });
+                }
+                else
+                {
+                    ++count[0];
+                }
+            }
+        }
+
+        return new TiledBitmapSnapshot(mWidth, mHeight, mTileSize, mConfig, mTint, mTiles.clone());
+    }
+
+    /**
+     * Release a snapshot taken from this surface. Its tiles held neither by the surface nor by another snapshot are
+     * given back to the {@link BitmapPool}.
+     * 
+     * @param snapshot
+     *            the snapshot to release, once.
+     */
+    void releaseSnapshot(final TiledBitmapSnapshot snapshot)
+    {
+        Bitmap[] snapshotTiles = snapshot.getTiles();
+
+        for (int i = 0; i < snapshotTiles.length; ++i)
+        {
+            Bitmap tile = snapshotTiles[i];
+            int[] count = (tile != null) ? mSnapshotReferences.get(tile) : null;
+
+            if ((count == null) || (--count[0] > 0))
+            {
+                continue;
+            }
+
+            mSnapshotReferences.remove(tile);
+
+            if (tile != mTiles[i])
+            {
+                BitmapPool.release(tile);
+            }
+        }
+    }
+
+    /**
+     * Draw a range of tile rows on a canvas. Tiles outside the canvas clip bounds are skipped.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     * @param tiles
+     *            the tiles, row by row.
+     * @param columnCount
+     *            the number of tile columns.
+     * @param tileSize
+     *            the tile size, in pixels.
+     * @param firstRow
+     *            the first row to draw.
+     * @param lastRow
+     *            the last row to draw, exclusive.
+     */
+    static void drawTiles(final Canvas canvas, final Paint paint, final Bitmap[] tiles, final int columnCount,
+            final int tileSize, final int firstRow, final int lastRow)
+    {
+        for (int row = firstRow; row < lastRow; ++row)
+        {
+            for (int column = 0; column < columnCount; ++column)
+            {
+                Bitmap tile = tiles[row * columnCount + column];
+
+                if (tile != null)
+                {
+                    float left = column * tileSize;
+                    float top = row * tileSize;
+
+                    if (!canvas.quickReject(left, top, left + tileSize, top + tileSize, Canvas.EdgeType.BW))
+                    {
+                        canvas.drawBitmap(tile, left, top, paint);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepare a paint tinting {@link Bitmap.Config#ALPHA_8} tiles.
+     * 
+     * @param paint
+     *            the paint to use, may be null.
+     * @param tint
+     *            the ink color.
+     * @param tintPaint
+     *            the tinting paint to set up.
+     * @return the tinting paint.
+     */
+    static Paint tint(final Paint paint, final int tint, final Paint tintPaint)
+    {
+        int alpha = 0xFF;
+
+        if (paint != null)
+        {
+            tintPaint.set(paint);
+            alpha = paint.getAlpha();
+        }
+
+        tintPaint.setColor(tint);
+        tintPaint.setAlpha(alpha);
+
+        return tintPaint;
+    }
+
+    /**
+     * @param config
+     *            a tiles bitmap configuration.
+     * @return the configuration of a bitmap holding the tiles in full color.
+     */
+    static Bitmap.Config flattenedConfig(final Bitmap.Config config)
+    {
+        return (config == Bitmap.Config.ALPHA_8) ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    /**
+     * Convert {@link Bitmap.Config#ALPHA_8} tiles to {@link Bitmap.Config#ARGB_8888}, applying the ink color. Tiles
+     * shared with a snapshot are left to it.
+     */
+    private void convertToColor()
+    {
+        Paint tintPaint = tint(null, mTint, mTintPaint);
+
+        for (int i = 0; i < mTiles.length; ++i)
+        {
+            if (mTiles[i] != null)
+            {
+                Bitmap tile = BitmapPool.obtain(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+                mTileCanvas.setBitmap(tile);
+                mTileCanvas.drawBitmap(mTiles[i], 0, 0, tintPaint);
+
+                if (!isShared(i))
+                {
+                    BitmapPool.release(mTiles[i]);
+                }
+
+                mTiles[i] = tile;
+            }
+        }
+
+        mTileCanvas.setBitmap(null);
+        mConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Get a tile, allocating it if needed.
+     * 
+     * @param column
+     *            the tile column.
+     * @param row
+     *            the tile row.
+     * @return the tile bitmap.
+     */
+    private Bitmap obtainTile(final int column, final int row)
+    {
+        int index = row * mColumnCount + column;
+
+        if (mTiles[index] == null)
+        {
+            mTiles[index] = BitmapPool.obtain(mTileSize, mTileSize, mConfig);
+        }
+
+        return obtainExistingTile(column, row);
+    }
+
+    /**
+     * Get an allocated tile to draw on, copying it first if it is shared with a snapshot.
+     * 
+     * @param column
+     *            the tile column.
+     * @param row
+     *            the tile row.
+     * @return the tile bitmap, or null if the tile is empty.
+     */
+    private Bitmap obtainExistingTile(final int column, final int row)
+    {
+        int index = row * mColumnCount + column;
+
+        if (isShared(index))
+        {
+            // The shared tile is left to the snapshots holding it
+            Bitmap copy = BitmapPool.obtain(mTileSize, mTileSize, mConfig);
+            mTileCanvas.setBitmap(copy);
+            mTileCanvas.drawBitmap(mTiles[index], 0, 0, null);
+
+            mTiles[index] = copy;
+        }
+
+        return mTiles[index];
+    }
+
+    /**
+     * @param index
+     *            the tile index.
+     * @return true if the tile is allocated and held by a snapshot, so it must not be drawn on nor released.
+     */
+    private boolean isShared(final int index)
+    {
+        return (mTiles[index] != null) && mSnapshotReferences.containsKey(mTiles[index]);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Read-only snapshot of a {@link TiledBitmap}. Its tiles are never modified, so it can be read from any thread.
+ */
+final class TiledBitmapSnapshot
+{
+    /** Surface width, in pixels. */
+    private final int mWidth;
+
+    /** Surface height, in pixels. */
+    private final int mHeight;
+
+    /** Tile size, in pixels. */
+    private final int mTileSize;
+
+    /** Number of tile columns. */
+    private final int mColumnCount;
+
+    /** Number of tile rows. */
+    private final int mRowCount;
+
+    /** Tiles bitmap configuration. */
+    private final Bitmap.Config mConfig;
+
+    /** Ink color of {@link Bitmap.Config#ALPHA_8} tiles. */
+    private final int mTint;
+
+    /** Paint used to tint {@link Bitmap.Config#ALPHA_8} tiles. */
+    private final Paint mTintPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Tiles, row by row. A null entry is an empty tile. */
+    private final Bitmap[] mTiles;
+
+    /**
+     * Create a new {@link TiledBitmapSnapshot}.
+     * 
+     * @param width
+     *            the surface width, in pixels.
+     * @param height
+     *            the surface height, in pixels.
+     * @param tileSize
+     *            the tile size, in pixels.
+     * @param config
+     *            the tiles bitmap configuration.
+     * @param tint
+     *            the ink color of {@link Bitmap.Config#ALPHA_8} tiles.
+     * @param tiles
+     *            the tiles, row by row.
+     */
+    TiledBitmapSnapshot(final int width, final int height, final int tileSize, final Bitmap.Config config,
+            final int tint, final Bitmap[] tiles)
+    {
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mConfig = config;
+        mTint = tint;
+        mColumnCount = (width + tileSize - 1) / tileSize;
+        mRowCount = (height + tileSize - 1) / tileSize;
+        mTiles = tiles;
+    }
+
+    /**
+     * @return the surface width, in pixels.
+     */
+    int getWidth()
+    {
+        return mWidth;
+    }
+
+    /**
+     * @return the surface height, in pixels.
+     */
+    int getHeight()
+    {
+        return mHeight;
+    }
+
+    /**
+     * @return the tile size, in pixels.
+     */
+    int getTileSize()
+    {
+        return mTileSize;
+    }
+
+    /**
+     * @return the number of tile columns.
+     */
+    int getColumnCount()
+    {
+        return mColumnCount;
+    }
+
+    /**
+     * @return the number of tile rows.
+     */
+    int getRowCount()
+    {
+        return mRowCount;
+    }
+
+    /**
+     * @return the tiles bitmap configuration.
+     */
+    Bitmap.Config getConfig()
+    {
+        return mConfig;
+    }
+
+    /**
+     * @return the ink color of {@link Bitmap.Config#ALPHA_8} tiles.
+     */
+    int getTint()
+    {
+        return mTint;
+    }
+
+    /**
+     * @return the tiles, row by row. A null entry is an empty tile.
+     */
+    Bitmap[] getTiles()
+    {
+        return mTiles;
+    }
+
+    /**
+     * Draw a range of tile rows on a canvas, in full color. Not thread-safe.
+     * 
+     * @param canvas
+     *            the destination canvas.
+     * @param paint
+     *            the paint to use, may be null.
+     * @param firstRow
+     *            the first row to draw.
+     * @param lastRow
+     *            the last row to draw, exclusive.
+     */
+    void drawRows(final Canvas canvas, final Paint paint, final int firstRow, final int lastRow)
+    {
+        Paint tilesPaint = (mConfig == Bitmap.Config.ALPHA_8) ? TiledBitmap.tint(paint, mTint, mTintPaint) : paint;
+        TiledBitmap.drawTiles(canvas, tilesPaint, mTiles, mColumnCount, mTileSize, firstRow, lastRow);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+/**
+ * Samples of a single touch event, historical ones included, in chronological order.
+ * <p>
+ * A single instance is reused for every event: its content is only valid during the listener call, and must be copied
+ * to be kept. This class does not depend on the Android framework.
+ */
+public final class TouchSamples
+{
+    /** Default initial capacity, in samples. */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Samples X positions. */
+    private float[] mX = new float[DEFAULT_CAPACITY];
+
+    /** Samples Y positions. */
+    private float[] mY = new float[DEFAULT_CAPACITY];
+
+    /** Samples times, in milliseconds. */
+    private long[] mTime = new long[DEFAULT_CAPACITY];
+
+    /** Samples pressures. */
+    private float[] mPressure = new float[DEFAULT_CAPACITY];
+
+    /** Number of samples. */
+    private int mCount;
+
+    /**
+     * Create a new, empty {@link TouchSamples}.
+     */
+    TouchSamples()
+    {
+    }
+
+    /**
+     * Remove all the samples, and make room for a number of samples.
+     * 
+     * @param capacity
+     *            the number of samples about to be added.
+     */
+    void reset(final int capacity)
+    {
+        mCount = 0;
+
+        if (capacity > mX.length)
+        {
+            int newCapacity = Math.max(capacity, 2 * mX.length);
+
+            // The samples are discarded, nothing to copy
+            mX = new float[newCapacity];
+            mY = new float[newCapacity];
+            mTime = new long[newCapacity];
+            mPressure = new float[newCapacity];
+        }
+    }
+
+    /**
+     * Append a sample. The capacity must have been reserved with {@link #reset(int)}.
+     * 
+     * @param x
+     *            the sample X position.
+     * @param y
+     *            the sample Y position.
+     * @param time
+     *            the sample time, in milliseconds.
+     * @param pressure
+     *            the sample pressure.
+     */
+    void add(final float x, final float y, final long time, final float pressure)
+    {
+        mX[mCount] = x;
+        mY[mCount] = y;
+        mTime[mCount] = time;
+        mPressure[mCount] = pressure;
+        ++mCount;
+    }
+
+    /**
+     * @return the number of samples.
+     */
+    public int getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample X position.
+     */
+    public float getX(final int index)
+    {
+        return mX[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample Y position.
+     */
+    public float getY(final int index)
+    {
+        return mY[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample time, in milliseconds, in the {@code SystemClock.uptimeMillis()} time base.
+     */
+    public long getTime(final int index)
+    {
+        return mTime[index];
+    }
+
+    /**
+     * @param index
+     *            the sample index.
+     * @return the sample pressure.
+     */
+    public float getPressure(final int index)
+    {
+        return mPressure[index];
+    }
+}
@@ -0,0 +1,1139 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Vector export of the strokes, as SVG or as a single page PDF, written straight from the stroke samples: the output
+ * is resolution independent and stays as smooth as the displayed curves, which are rebuilt the same way as
+ * {@link StrokeRenderer} builds them.
+ * <p>
+ * The file is streamed through a fixed size buffer while the strokes are walked, so the memory used does not depend on
+ * the drawing size. Coordinates are written with two decimals; SVG paths use relative commands to stay compact and PDF
+ * content streams are deflated.
+ * <p>
+ * An erasure clears what was drawn before it on its layer, not what is drawn after. Each run of consecutive erasers
+ * therefore becomes a mask applied to everything drawn before it: an SVG {@code <mask>} hiding the eraser paths, or
+ * a PDF luminosity soft mask applied to a form holding the previous strokes. Layers are grouped, so that their
+ * opacity applies to the layer as a whole. This class does not depend on the Android framework.
+ */
+public final class VectorExporter
+{
+    /** Output buffer size, in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Number of decimals of the coordinates and widths. */
+    private static final int COORDINATE_DECIMALS = 2;
+
+    /** Number of decimals of the color components and opacities. */
+    private static final int COLOR_DECIMALS = 3;
+
+    /** Deflate compression level of the PDF streams, the zlib default. */
+    private static final int COMPRESSION_LEVEL = 6;
+
+    /** Powers of ten, indexed by their exponent. */
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000 };
+
+    /** Alpha of a fully opaque color or layer. */
+    private static final int OPAQUE = 0xFF;
+
+    /** Hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** PDF object number of the catalog. */
+    private static final int PDF_CATALOG = 1;
+
+    /** PDF object number of the pages tree. */
+    private static final int PDF_PAGES = 2;
+
+    /** PDF object number of the page. */
+    private static final int PDF_PAGE = 3;
+
+    /** Drawing width, in pixels. */
+    private final int mWidth;
+
+    /** Drawing height, in pixels. */
+    private final int mHeight;
+
+    /** Destination file. */
+    private final OutputStream mFile;
+
+    /** Number of bytes written to the file. */
+    private long mPosition;
+
+    /** Output buffer, holding ASCII text. */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in {@link #mBuffer}. */
+    private int mLength;
+
+    /** Compressor of the current PDF stream, null outside streams. */
+    private Deflater mCompressor;
+
+    /** Stream compressing the current PDF stream, null outside streams. */
+    private DeflaterOutputStream mDeflater;
+
+    /** Last SVG path command written, to omit repeated commands. */
+    private char mPathCommand;
+
+    /** Indicator of a path command letter just written, which separates the next number. */
+    private boolean mIsAfterCommand;
+
+    /** Current point of the SVG path, quantized. */
+    private int mPathX;
+
+    /** Current point of the SVG path, quantized. */
+    private int mPathY;
+
+    /** File offsets of the PDF objects, indexed by object number minus one. */
+    private final List<Long> mObjectOffsets = new ArrayList<Long>();
+
+    /** Object number of the length of the current PDF stream. */
+    private int mStreamLengthObject;
+
+    /** File offset of the current PDF stream data. */
+    private long mStreamStart;
+
+    /** Stroke color of the current PDF content stream, RGB only. */
+    private int mPdfColor;
+
+    /** Stroke alpha of the current PDF content stream. */
+    private int mPdfAlpha;
+
+    /** Stroke width of the current PDF content stream. */
+    private float mPdfWidth;
+
+    /**
+     * Create a new {@link VectorExporter}.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param file
+     *            the destination file.
+     */
+    private VectorExporter(final int width, final int height, final OutputStream file)
+    {
+        mWidth = width;
+        mHeight = height;
+        mFile = new CountingOutputStream(file);
+    }
+
+    /**
+     * Export a document as SVG.
+     * 
+     * @param document
+     *            the document to export.
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void writeSvg(final StrokeDocument document, final File file) throws IOException
+    {
+        writeSvg(document.getWidth(), document.getHeight(), Collections.singletonList(document.copyStrokes()),
+                new int[] { OPAQUE }, file);
+    }
+
+    /**
+     * Export a document as a single page PDF, one point per pixel.
+     * 
+     * @param document
+     *            the document to export.
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void writePdf(final StrokeDocument document, final File file) throws IOException
+    {
+        writePdf(document.getWidth(), document.getHeight(), Collections.singletonList(document.copyStrokes()),
+                new int[] { OPAQUE }, file);
+    }
+
+    /**
+     * Export layers as SVG. Committed strokes are never modified, so this can run on any thread with copies of the
+     * layers strokes lists.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param layers
+     *            the strokes of each layer, bottom first.
+     * @param alphas
+     *            the alpha of each layer, in [0, 255].
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    static void writeSvg(final int width, final int height, final List<List<Stroke>> layers, final int[] alphas,
+            final File file) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            VectorExporter exporter = new VectorExporter(width, height, out);
+            exporter.writeSvgDocument(layers, alphas);
+            exporter.flushBuffer();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Export layers as a single page PDF, one point per pixel. Committed strokes are never modified, so this can run
+     * on any thread with copies of the layers strokes lists.
+     * 
+     * @param width
+     *            the drawing width, in pixels.
+     * @param height
+     *            the drawing height, in pixels.
+     * @param layers
+     *            the strokes of each layer, bottom first.
+     * @param alphas
+     *            the alpha of each layer, in [0, 255].
+     * @param file
+     *            the destination file, overwritten if it exists.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    static void writePdf(final int width, final int height, final List<List<Stroke>> layers, final int[] alphas,
+            final File file) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            VectorExporter exporter = new VectorExporter(width, height, out);
+            exporter.writePdfDocument(layers, alphas);
+            exporter.flushBuffer();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Write an SVG document.
+     * 
+     * @param layers
+     *            the strokes of each layer, bottom first.
+     * @param alphas
+     *            the alpha of each layer.
+     * @throws IOException
+     *             if the document cannot be written.
+     */
+    private void writeSvgDocument(final List<List<Stroke>> layers, final int[] alphas) throws IOException
+    {
+        append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\"");
+        appendSvgSize();
+        append(" viewBox=\"0 0 ").appendInt(mWidth).append(' ').appendInt(mHeight).append("\">\n");
+        append("<g fill=\"none\" stroke-linejoin=\"round\">\n");
+
+        for (int layer = 0; layer < layers.size(); ++layer)
+        {
+            writeSvgLayer(layer, layers.get(layer), alphas[layer]);
+        }
+
+        append("</g>\n</svg>\n");
+    }
+
+    /**
+     * Write the group of a layer. The group of the strokes drawn before the n-th erasure is nested in the group
+     * masked by this erasure, so the groups of all the erasures are opened first, the last one outermost.
+     * 
+     * @param layer
+     *            the layer index, making the masks identifiers unique.
+     * @param strokes
+     *            the layer strokes.
+     * @param alpha
+     *            the layer alpha.
+     * @throws IOException
+     *             if the group cannot be written.
+     */
+    private void writeSvgLayer(final int layer, final List<Stroke> strokes, final int alpha) throws IOException
+    {
+        append("<g");
+
+        if (alpha != OPAQUE)
+        {
+            append(" opacity=\"").appendFixed(byteToFixed(alpha), COLOR_DECIMALS).append('"');
+        }
+
+        append(">\n");
+
+        for (int erasure = countErasures(strokes); erasure > 0; --erasure)
+        {
+            append("<g mask=\"url(#m").appendInt(layer).append('-').appendInt(erasure).append(")\">\n");
+        }
+
+        final int size = strokes.size();
+        int erasure = 0;
+        int i = 0;
+
+        while (i < size)
+        {
+            if (!strokes.get(i).getStyle().isEraser())
+            {
+                writeSvgPath(strokes.get(i++));
+                continue;
+            }
+
+            // Close the group masked by this erasure, then define its mask
+            ++erasure;
+            append("</g>\n<mask id=\"m").appendInt(layer).append('-').appendInt(erasure);
+            append("\" maskUnits=\"userSpaceOnUse\" x=\"0\" y=\"0\"");
+            appendSvgSize();
+            append(">\n<rect");
+            appendSvgSize();
+            append(" fill=\"#fff\"/>\n");
+
+            while ((i < size) && strokes.get(i).getStyle().isEraser())
+            {
+                writeSvgPath(strokes.get(i++));
+            }
+
+            append("</mask>\n");
+        }
+
+        append("</g>\n");
+    }
+
+    /**
+     * Write a stroke as an SVG path. An eraser stroke is written in black, to be used in a mask.
+     * 
+     * @param stroke
+     *            the stroke to write.
+     * @throws IOException
+     *             if the path cannot be written.
+     */
+    private void writeSvgPath(final Stroke stroke) throws IOException
+    {
+        if (stroke.isEmpty())
+        {
+            return;
+        }
+
+        PenStyle style = stroke.getStyle();
+
+        append("<path d=\"");
+        appendSvgPathData(stroke, !style.isEraser());
+
+        if (style.isEraser())
+        {
+            append("\" stroke=\"#000\" stroke-linecap=\"round\"");
+        }
+        else
+        {
+            final int color = style.getColor();
+            append("\" stroke=\"#");
+
+            for (int shift = 20; shift >= 0; shift -= 4)
+            {
+                append(HEX_DIGITS[(color >> shift) & 0xF]);
+            }
+
+            append('"');
+
+            if ((color >>> 24) != OPAQUE)
+            {
+                append(" stroke-opacity=\"").appendFixed(byteToFixed(color >>> 24), COLOR_DECIMALS).append('"');
+            }
+        }
+
+        append(" stroke-width=\"").appendFixed(quantize(style.getWidth()), COORDINATE_DECIMALS).append("\"/>\n");
+    }
+
+    /**
+     * Write the data of an SVG path, with the same curves as
+     * {@link StrokeRenderer#appendSamples(Stroke, int, android.graphics.Path, boolean)} followed by
+     * {@link StrokeRenderer#appendTail(Stroke, android.graphics.Path)}.
+     * 
+     * @param stroke
+     *            the stroke, not empty.
+     * @param smooth
+     *            true for quadratic curves, false for line segments.
+     * @throws IOException
+     *             if the data cannot be written.
+     */
+    private void appendSvgPathData(final Stroke stroke, final boolean smooth) throws IOException
+    {
+        final int size = stroke.size();
+
+        mPathX = quantize(stroke.getX(0));
+        mPathY = quantize(stroke.getY(0));
+        mPathCommand = 0;
+        appendSvgCommand('M');
+        appendSvgNumber(mPathX);
+        appendSvgNumber(mPathY);
+
+        for (int i = 1; i < size; ++i)
+        {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+
+            if (!smooth)
+            {
+                appendSvgLine(quantize(x), quantize(y));
+                continue;
+            }
+
+            float previousX = stroke.getX(i - 1);
+            float previousY = stroke.getY(i - 1);
+            int middleX = quantize((previousX + x) / 2);
+            int middleY = quantize((previousY + y) / 2);
+
+            if (i == 1)
+            {
+                appendSvgLine(middleX, middleY);
+            }
+            else
+            {
+                appendSvgCommand('q');
+                appendSvgNumber(quantize(previousX) - mPathX);
+                appendSvgNumber(quantize(previousY) - mPathY);
+                appendSvgNumber(middleX - mPathX);
+                appendSvgNumber(middleY - mPathY);
+                mPathX = middleX;
+                mPathY = middleY;
+            }
+        }
+
+        appendSvgLine(quantize(stroke.getX(size - 1)), quantize(stroke.getY(size - 1)));
+    }
+
+    /**
+     * Append a relative line to an SVG path.
+     * 
+     * @param x
+     *            the quantized destination.
+     * @param y
+     *            the quantized destination.
+     * @throws IOException
+     *             if the line cannot be written.
+     */
+    private void appendSvgLine(final int x, final int y) throws IOException
+    {
+        appendSvgCommand('l');
+        appendSvgNumber(x - mPathX);
+        appendSvgNumber(y - mPathY);
+        mPathX = x;
+        mPathY = y;
+    }
+
+    /**
+     * Append a path command, unless it repeats the previous one.
+     * 
+     * @param command
+     *            the command letter.
+     * @throws IOException
+     *             if the command cannot be written.
+     */
+    private void appendSvgCommand(final char command) throws IOException
+    {
+        if (command != mPathCommand)
+        {
+            append(command);
+            mPathCommand = command;
+            mIsAfterCommand = true;
+        }
+    }
+
+    /**
+     * Append a quantized number to an SVG path, separated from what precedes it.
+     * 
+     * @param value
+     *            the quantized number.
+     * @throws IOException
+     *             if the number cannot be written.
+     */
+    private void appendSvgNumber(final int value) throws IOException
+    {
+        if ((value >= 0) && !mIsAfterCommand)
+        {
+            append(' ');
+        }
+
+        appendFixed(value, COORDINATE_DECIMALS);
+        mIsAfterCommand = false;
+    }
+
+    /**
+     * Append the width and height attributes of the drawing size.
+     * 
+     * @throws IOException
+     *             if the attributes cannot be written.
+     */
+    private void appendSvgSize() throws IOException
+    {
+        append(" width=\"").appendInt(mWidth).append("\" height=\"").appendInt(mHeight).append('"');
+    }
+
+    /**
+     * Write a PDF document: a page drawing the form of each layer, flipped so that the y axis points downwards as on
+     * the view.
+     * 
+     * @param layers
+     *            the strokes of each layer, bottom first.
+     * @param alphas
+     *            the alpha of each layer.
+     * @throws IOException
+     *             if the document cannot be written.
+     */
+    private void writePdfDocument(final List<List<Stroke>> layers, final int[] alphas) throws IOException
+    {
+        // Binary comment, so that transfers keep the file as binary
+        append("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+        newPdfObject(); // Catalog
+        newPdfObject(); // Pages
+        newPdfObject(); // Page
+
+        int[] layerForms = new int[layers.size()];
+
+        for (int layer = 0; layer < layers.size(); ++layer)
+        {
+            layerForms[layer] = writePdfLayer(layers.get(layer));
+        }
+
+        int contents = newPdfObject();
+        beginPdfObject(contents);
+        append("<<");
+        openPdfStream();
+        append("1 0 0 -1 0 ").appendInt(mHeight).append(" cm\n");
+
+        for (int layer = 0; layer < layers.size(); ++layer)
+        {
+            append("q ");
+
+            if (alphas[layer] != OPAQUE)
+            {
+                append("/G").appendInt(layer).append(" gs ");
+            }
+
+            append("/L").appendInt(layer).append(" Do Q\n");
+        }
+
+        endPdfStream();
+
+        beginPdfObject(PDF_PAGE);
+        append("<< /Type /Page /Parent ").appendInt(PDF_PAGES).append(" 0 R /MediaBox [0 0 ").appendInt(mWidth);
+        append(' ').appendInt(mHeight).append("]\n/Resources << /XObject <<");
+
+        for (int layer = 0; layer < layers.size(); ++layer)
+        {
+            append(" /L").appendInt(layer).append(' ').appendInt(layerForms[layer]).append(" 0 R");
+        }
+
+        append(" >>\n/ExtGState <<");
+
+        for (int layer = 0; layer < layers.size(); ++layer)
+        {
+            if (alphas[layer] != OPAQUE)
+            {
+                append(" /G").appendInt(layer).append(" << /CA ");
+                appendFixed(byteToFixed(alphas[layer]), COLOR_DECIMALS).append(" /ca ");
+                appendFixed(byteToFixed(alphas[layer]), COLOR_DECIMALS).append(" >>");
+            }
+        }
+
+        append(" >> >>\n/Contents ").appendInt(contents).append(" 0 R >>\n");
+        endPdfObject();
+
+        beginPdfObject(PDF_PAGES);
+        append("<< /Type /Pages /Kids [").appendInt(PDF_PAGE).append(" 0 R] /Count 1 >>\n");
+        endPdfObject();
+
+        beginPdfObject(PDF_CATALOG);
+        append("<< /Type /Catalog /Pages ").appendInt(PDF_PAGES).append(" 0 R >>\n");
+        endPdfObject();
+
+        writePdfTrailer();
+    }
+
+    /**
+     * Write the forms of a layer: one form per run of strokes between two erasures, each one drawing the previous
+     * form through the soft mask of the erasure separating them, then its own strokes.
+     * 
+     * @param strokes
+     *            the layer strokes.
+     * @return the object number of the last form, holding the whole layer.
+     * @throws IOException
+     *             if the forms cannot be written.
+     */
+    private int writePdfLayer(final List<Stroke> strokes) throws IOException
+    {
+        final int size = strokes.size();
+        int previousForm = 0;
+        int mask = 0;
+        int i = 0;
+
+        while (true)
+        {
+            int end = i;
+
+            while ((end < size) && !strokes.get(end).getStyle().isEraser())
+            {
+                ++end;
+            }
+
+            int form = newPdfObject();
+            beginPdfObject(form);
+            appendPdfFormEntries();
+            append(" /Group << /S /Transparency >>\n/Resources << /ExtGState <<");
+
+            boolean[] usedAlphas = new boolean[OPAQUE + 1];
+
+            for (int j = i; j < end; ++j)
+            {
+                usedAlphas[strokes.get(j).getStyle().getColor() >>> 24] = true;
+            }
+
+            for (int alpha = 0; alpha <= OPAQUE; ++alpha)
+            {
+                if (usedAlphas[alpha])
+                {
+                    append(" /A").appendInt(alpha).append(" << /CA ");
+                    appendFixed(byteToFixed(alpha), COLOR_DECIMALS).append(" >>");
+                }
+            }
+
+            if (previousForm != 0)
+            {
+                append(" /M << /Type /ExtGState /SMask << /S /Luminosity /G ").appendInt(mask).append(" 0 R >> >>");
+                append(" >> /XObject << /P ").appendInt(previousForm).append(" 0 R");
+            }
+
+            append(" >> >>");
+            openPdfStream();
+
+            if (previousForm != 0)
+            {
+                append("q /M gs /P Do Q\n");
+            }
+
+            writePdfStrokes(strokes, i, end);
+            endPdfStream();
+
+            if (end == size)
+            {
+                return form;
+            }
+
+            // Mask of the erasure following this run
+            i = end;
+
+            while ((end < size) && strokes.get(end).getStyle().isEraser())
+            {
+                ++end;
+            }
+
+            mask = newPdfObject();
+            beginPdfObject(mask);
+            appendPdfFormEntries();
+            append(" /Group << /S /Transparency /CS /DeviceGray >>");
+            openPdfStream();
+            append("1 g 0 0 ").appendInt(mWidth).append(' ').appendInt(mHeight).append(" re f\n0 G 1 J\n");
+            writePdfStrokes(strokes, i, end);
+            endPdfStream();
+
+            previousForm = form;
+            i = end;
+        }
+    }
+
+    /**
+     * Append the dictionary entries common to all the forms.
+     * 
+     * @throws IOException
+     *             if the entries cannot be written.
+     */
+    private void appendPdfFormEntries() throws IOException
+    {
+        append("<< /Type /XObject /Subtype /Form /BBox [0 0 ").appendInt(mWidth).append(' ').appendInt(mHeight);
+        append("]");
+    }
+
+    /**
+     * Write a range of strokes into the current content stream. Eraser strokes keep the current color: the mask
+     * stream sets it once.
+     * 
+     * @param strokes
+     *            the strokes list.
+     * @param from
+     *            the index of the first stroke.
+     * @param to
+     *            the index of the last stroke, exclusive.
+     * @throws IOException
+     *             if the strokes cannot be written.
+     */
+    private void writePdfStrokes(final List<Stroke> strokes, final int from, final int to) throws IOException
+    {
+        append("1 j\n");
+        mPdfColor = 0;
+        mPdfAlpha = OPAQUE;
+        mPdfWidth = -1;
+
+        for (int i = from; i < to; ++i)
+        {
+            Stroke stroke = strokes.get(i);
+
+            if (stroke.isEmpty())
+            {
+                continue;
+            }
+
+            PenStyle style = stroke.getStyle();
+
+            if (!style.isEraser())
+            {
+                int color = style.getColor() & 0xFFFFFF;
+                int alpha = style.getColor() >>> 24;
+
+                if (color != mPdfColor)
+                {
+                    appendFixed(byteToFixed(color >> 16), COLOR_DECIMALS).append(' ');
+                    appendFixed(byteToFixed((color >> 8) & 0xFF), COLOR_DECIMALS).append(' ');
+                    appendFixed(byteToFixed(color & 0xFF), COLOR_DECIMALS).append(" RG\n");
+                    mPdfColor = color;
+                }
+
+                if (alpha != mPdfAlpha)
+                {
+                    append("/A").appendInt(alpha).append(" gs\n");
+                    mPdfAlpha = alpha;
+                }
+            }
+
+            if (style.getWidth() != mPdfWidth)
+            {
+                appendFixed(quantize(style.getWidth()), COORDINATE_DECIMALS).append(" w\n");
+                mPdfWidth = style.getWidth();
+            }
+
+            appendPdfPath(stroke, !style.isEraser());
+            append("S\n");
+        }
+    }
+
+    /**
+     * Append the path of a stroke, with the same curves as the SVG paths; quadratic curves are written as the
+     * equivalent cubic curves.
+     * 
+     * @param stroke
+     *            the stroke, not empty.
+     * @param smooth
+     *            true for curves, false for line segments.
+     * @throws IOException
+     *             if the path cannot be written.
+     */
+    private void appendPdfPath(final Stroke stroke, final boolean smooth) throws IOException
+    {
+        final int size = stroke.size();
+        float currentX = stroke.getX(0);
+        float currentY = stroke.getY(0);
+
+        appendPdfPoint(currentX, currentY).append("m\n");
+
+        for (int i = 1; i < size; ++i)
+        {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+
+            if (!smooth)
+            {
+                appendPdfPoint(x, y).append("l\n");
+                continue;
+            }
+
+            float previousX = stroke.getX(i - 1);
+            float previousY = stroke.getY(i - 1);
+            float middleX = (previousX + x) / 2;
+            float middleY = (previousY + y) / 2;
+
+            if (i == 1)
+            {
+                appendPdfPoint(middleX, middleY).append("l\n");
+            }
+            else
+            {
+                appendPdfPoint(currentX + 2 * (previousX - currentX) / 3, currentY + 2 * (previousY - currentY) / 3);
+                appendPdfPoint(middleX + 2 * (previousX - middleX) / 3, middleY + 2 * (previousY - middleY) / 3);
+                appendPdfPoint(middleX, middleY).append("c\n");
+            }
+
+            currentX = middleX;
+            currentY = middleY;
+        }
+
+        appendPdfPoint(stroke.getX(size - 1), stroke.getY(size - 1)).append("l\n");
+    }
+
+    /**
+     * Append the coordinates of a point, each followed by a space.
+     * 
+     * @param x
+     *            the point abscissa.
+     * @param y
+     *            the point ordinate.
+     * @return this exporter.
+     * @throws IOException
+     *             if the point cannot be written.
+     */
+    private VectorExporter appendPdfPoint(final float x, final float y) throws IOException
+    {
+        appendFixed(quantize(x), COORDINATE_DECIMALS).append(' ');
+        return appendFixed(quantize(y), COORDINATE_DECIMALS).append(' ');
+    }
+
+    /**
+     * Write the cross-reference table and the trailer.
+     * 
+     * @throws IOException
+     *             if they cannot be written.
+     */
+    private void writePdfTrailer() throws IOException
+    {
+        long crossReference = position();
+
+        append("xref\n0 ").appendInt(mObjectOffsets.size() + 1).append("\n0000000000 65535 f \n");
+
+        for (Long offset : mObjectOffsets)
+        {
+            String digits = Long.toString(offset);
+
+            for (int i = digits.length(); i < 10; ++i)
+            {
+                append('0');
+            }
+
+            append(digits).append(" 00000 n \n");
+        }
+
+        append("trailer\n<< /Size ").appendInt(mObjectOffsets.size() + 1).append(" /Root ").appendInt(PDF_CATALOG);
+        append(" 0 R >>\nstartxref\n").appendInt(crossReference).append("\n%%EOF\n");
+    }
+
+    /**
+     * Allocate a PDF object number.
+     * 
+     * @return the object number.
+     */
+    private int newPdfObject()
+    {
+        mObjectOffsets.add(Long.valueOf(-1));
+        return mObjectOffsets.size();
+    }
+
+    /**
+     * Start writing a PDF object.
+     * 
+     * @param number
+     *            the object number.
+     * @throws IOException
+     *             if the object cannot be written.
+     */
+    private void beginPdfObject(final int number) throws IOException
+    {
+        mObjectOffsets.set(number - 1, Long.valueOf(position()));
+        appendInt(number).append(" 0 obj\n");
+    }
+
+    /**
+     * End a PDF object.
+     * 
+     * @throws IOException
+     *             if the object cannot be written.
+     */
+    private void endPdfObject() throws IOException
+    {
+        append("endobj\n");
+    }
+
+    /**
+     * End the dictionary of a stream object, whose length is written after the data as an indirect object, and start
+     * compressing the stream data.
+     * 
+     * @throws IOException
+     *             if the stream cannot be written.
+     */
+    private void openPdfStream() throws IOException
+    {
+        mStreamLengthObject = newPdfObject();
+        append(" /Filter /FlateDecode /Length ").appendInt(mStreamLengthObject).append(" 0 R >>\nstream\n");
+        mStreamStart = position();
+        mCompressor = new Deflater(COMPRESSION_LEVEL);
+        mDeflater = new DeflaterOutputStream(mFile, mCompressor, BUFFER_SIZE);
+    }
+
+    /**
+     * End the current PDF stream and write its length.
+     * 
+     * @throws IOException
+     *             if the stream cannot be written.
+     */
+    private void endPdfStream() throws IOException
+    {
+        flushBuffer();
+        mDeflater.finish();
+        mCompressor.end();
+        mCompressor = null;
+        mDeflater = null;
+
+        long length = mPosition - mStreamStart;
+
+        append("\nendstream\n");
+        endPdfObject();
+
+        beginPdfObject(mStreamLengthObject);
+        appendInt(length).append('\n');
+        endPdfObject();
+    }
+
+    /**
+     * @param strokes
+     *            the strokes of a layer.
+     * @return the number of runs of consecutive eraser strokes.
+     */
+    private static int countErasures(final List<Stroke> strokes)
+    {
+        int count = 0;
+        boolean wasEraser = false;
+
+        for (Stroke stroke : strokes)
+        {
+            boolean isEraser = stroke.getStyle().isEraser();
+
+            if (isEraser && !wasEraser)
+            {
+                ++count;
+            }
+
+            wasEraser = isEraser;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param value
+     *            a coordinate or a width.
+     * @return the value in hundredths.
+     */
+    private static int quantize(final float value)
+    {
+        return Math.round(value * POWERS_OF_TEN[COORDINATE_DECIMALS]);
+    }
+
+    /**
+     * @param value
+     *            an alpha or a color component, in [0, 255].
+     * @return the value in [0, 1], in thousandths.
+     */
+    private static int byteToFixed(final int value)
+    {
+        return (value * POWERS_OF_TEN[COLOR_DECIMALS] + OPAQUE / 2) / OPAQUE;
+    }
+
+    /**
+     * @return the number of bytes written to the file, the buffer flushed.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private long position() throws IOException
+    {
+        flushBuffer();
+        return mPosition;
+    }
+
+    /**
+     * Append a fixed point number, without its trailing zeros.
+     * 
+     * @param value
+     *            the number, scaled by 10 to the power of decimals.
+     * @param decimals
+     *            the number of decimals.
+     * @return this exporter.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private VectorExporter appendFixed(final int value, final int decimals) throws IOException
+    {
+        if (value < 0)
+        {
+            append('-');
+        }
+
+        final int scale = POWERS_OF_TEN[decimals];
+        final int absolute = Math.abs(value);
+        appendInt(absolute / scale);
+
+        int fraction = absolute % scale;
+
+        if (fraction != 0)
+        {
+            int digits = decimals;
+
+            while (fraction % 10 == 0)
+            {
+                fraction /= 10;
+                --digits;
+            }
+
+            append('.');
+
+            for (int power = POWERS_OF_TEN[digits - 1]; (power > 1) && (fraction < power); power /= 10)
+            {
+                append('0');
+            }
+
+            appendInt(fraction);
+        }
+
+        return this;
+    }
+
+    /**
+     * Append a decimal integer.
+     * 
+     * @param value
+     *            the integer.
+     * @return this exporter.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private VectorExporter appendInt(final long value) throws IOException
+    {
+        if (value < 0)
+        {
+            append('-');
+            return appendInt(-value);
+        }
+
+        if (value >= 10)
+        {
+            appendInt(value / 10);
+        }
+
+        return append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Append ASCII or Latin-1 text.
+     * 
+     * @param text
+     *            the text.
+     * @return this exporter.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private VectorExporter append(final String text) throws IOException
+    {
+        final int length = text.length();
+
+        for (int i = 0; i < length; ++i)
+        {
+            append(text.charAt(i));
+        }
+
+        return this;
+    }
+
+    /**
+     * Append an ASCII or Latin-1 character.
+     * 
+     * @param character
+     *            the character.
+     * @return this exporter.
+     * @throws IOException
+     *             if the buffer cannot be flushed.
+     */
+    private VectorExporter append(final char character) throws IOException
+    {
+        if (mLength == BUFFER_SIZE)
+        {
+            flushBuffer();
+        }
+
+        mBuffer[mLength++] = (byte) character;
+
+        return this;
+    }
+
+    /**
+     * Write the buffer content to the file, or to the current PDF stream compressor.
+     * 
+     * @throws IOException
+     *             if the buffer cannot be written.
+     */
+    private void flushBuffer() throws IOException
+    {
+        if (mLength > 0)
+        {
+            ((mDeflater != null) ? mDeflater : mFile).write(mBuffer, 0, mLength);
+            mLength = 0;
+        }
+    }
+
+    /**
+     * Stream counting the bytes written to the file, to locate the PDF objects.
+     */
+    private final class CountingOutputStream extends FilterOutputStream
+    {
+        /**
+         * Create a new {@link CountingOutputStream}.
+         * 
+         * @param out
+         *            the destination stream.
+         */
+        CountingOutputStream(final OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(final int oneByte) throws IOException
+        {
+            out.write(oneByte);
+            ++mPosition;
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int count) throws IOException
+        {
+            out.write(buffer, offset, count);
+            mPosition += count;
+        }
+    }
+}
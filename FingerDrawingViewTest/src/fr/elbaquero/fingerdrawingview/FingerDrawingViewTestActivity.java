@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.Toast;
 
 /**
  * {@link FingerDrawingView} test activity.
@@ -49,6 +50,8 @@ public class FingerDrawingViewTestActivity extends Activity
         View drawingModeButton = findViewById(R.id.fabb_drawing_mode);
         View erasingModeButton = findViewById(R.id.fabb_erasing_mode);
         View eraseAllButton = findViewById(R.id.fabb_erase_all);
+        View undoButton = findViewById(R.id.fabb_undo);
+        View redoButton = findViewById(R.id.fabb_redo);
         View saveFileButton = findViewById(R.id.fabb_save_file);
 
         OnClickListener onClickListener = new OnClickListener()
@@ -76,6 +79,14 @@ public class FingerDrawingViewTestActivity extends Activity
                         mFingerDrawingView.eraseAll();
                         break;
 
+                    case R.id.fabb_undo:
+                        mFingerDrawingView.undo();
+                        break;
+
+                    case R.id.fabb_redo:
+                        mFingerDrawingView.redo();
+                        break;
+
                     case R.id.fabb_save_file:
                         saveViewAsFile();
                         break;
@@ -91,6 +102,8 @@ public class FingerDrawingViewTestActivity extends Activity
         drawingModeButton.setOnClickListener(onClickListener);
         erasingModeButton.setOnClickListener(onClickListener);
         eraseAllButton.setOnClickListener(onClickListener);
+        undoButton.setOnClickListener(onClickListener);
+        redoButton.setOnClickListener(onClickListener);
         saveFileButton.setOnClickListener(onClickListener);
 
     }
@@ -122,7 +135,32 @@ public class FingerDrawingViewTestActivity extends Activity
         destFolder.mkdirs();
 
         path = path + System.currentTimeMillis() + ".png";
-        mFingerDrawingView.saveAsFile(path);
+        mFingerDrawingView.exportAsFile(path, new FingerDrawingView.ExportListener()
+        {
+            @Override
+            public void onExportProgress(final String filename, final int progress)
+            {
+            }
+
+            @Override
+            public void onExportCompleted(final String filename)
+            {
+                Toast.makeText(FingerDrawingViewTestActivity.this, getString(R.string.save_file_completed, filename),
+                        Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onExportFailed(final String filename, final Exception exception)
+            {
+                Toast.makeText(FingerDrawingViewTestActivity.this, R.string.save_file_failed, Toast.LENGTH_SHORT)
+                        .show();
+            }
+
+            @Override
+            public void onExportCancelled(final String filename)
+            {
+            }
+        });
 
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link DamageRegion}.
+ */
+public class DamageRegionTest
+{
+    /**
+     * Overlapping rectangles are merged, distant ones are kept apart.
+     */
+    @Test
+    public void merging()
+    {
+        DamageRegion region = new DamageRegion();
+
+        region.add(0, 0, 100, 100);
+        region.add(10, 10, 90, 90);
+        assertEquals(1, region.size());
+        assertEquals(10000, region.getArea(), 0);
+
+        region.add(500, 500, 600, 600);
+        assertEquals(2, region.size());
+        assertEquals(20000, region.getArea(), 0);
+
+        region.clear();
+        assertTrue(region.isEmpty());
+        assertFalse(region.isWithinBounds(0, 0, 1, 1));
+    }
+
+    /**
+     * The number of rectangles stays bounded, and every added rectangle stays covered by one of them.
+     */
+    @Test
+    public void randomRectanglesAreCovered()
+    {
+        Random random = new Random(1);
+        DamageRegion region = new DamageRegion(4);
+        float[][] added = new float[200][];
+
+        for (int i = 0; i < added.length; ++i)
+        {
+            float left = random.nextFloat() * 1000;
+            float top = random.nextFloat() * 1000;
+
+            added[i] = new float[] { left, top, left + random.nextFloat() * 100, top + random.nextFloat() * 100 };
+            region.add(added[i][0], added[i][1], added[i][2], added[i][3]);
+
+            assertTrue(region.size() <= 4);
+
+            for (int j = 0; j <= i; ++j)
+            {
+                assertCovered(region, added[j]);
+            }
+        }
+    }
+
+    /**
+     * A long diagonal stroke is covered by far less than its bounding box.
+     */
+    @Test
+    public void diagonalStroke()
+    {
+        DamageRegion region = new DamageRegion();
+
+        for (int i = 0; i < 100; ++i)
+        {
+            region.addSegment(10 * i, 10 * i, 10 * (i + 1), 10 * (i + 1), 4);
+        }
+
+        assertTrue(region.size() <= DamageRegion.DEFAULT_MAX_RECT_COUNT);
+        assertTrue(region.isWithinBounds(-4, -4, 1004, 1004));
+        assertTrue(region.getArea() < 1008 * 1008 / 4);
+    }
+
+    /**
+     * Adding a region adds each of its rectangles.
+     */
+    @Test
+    public void addRegion()
+    {
+        DamageRegion first = new DamageRegion();
+        DamageRegion second = new DamageRegion();
+
+        first.add(0, 0, 10, 10);
+        second.add(100, 100, 110, 110);
+        second.add(200, 0, 210, 10);
+        first.add(second);
+
+        assertEquals(3, first.size());
+        assertEquals(300, first.getArea(), 0);
+        assertTrue(first.isWithinBounds(0, 0, 210, 110));
+        assertFalse(first.isWithinBounds(0, 0, 211, 110));
+    }
+
+    /**
+     * A region needs room for one rectangle at least.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRectangleCount()
+    {
+        new DamageRegion(0);
+    }
+
+    /**
+     * Check that a rectangle is inside one of the rectangles of a region.
+     * 
+     * @param region
+     *            the region.
+     * @param rect
+     *            the rectangle: left, top, right, bottom.
+     */
+    private static void assertCovered(final DamageRegion region, final float[] rect)
+    {
+        for (int i = 0; i < region.size(); ++i)
+        {
+            if ((region.getLeft(i) <= rect[0]) && (region.getTop(i) <= rect[1]) && (region.getRight(i) >= rect[2])
+                    && (region.getBottom(i) >= rect[3]))
+            {
+                return;
+            }
+        }
+
+        throw new AssertionError("Not covered: " + rect[0] + ", " + rect[1] + ", " + rect[2] + ", " + rect[3]);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyHistogram}, checked against the exact percentiles of the recorded values.
+ */
+public class LatencyHistogramTest
+{
+    /** Checked percentiles. */
+    private static final double[] PERCENTILES = { 0, 1, 10, 50, 90, 99, 99.9, 100 };
+
+    /** Relative precision of the percentiles. */
+    private static final double PRECISION = 0.125;
+
+    /**
+     * An empty histogram reports zeros.
+     */
+    @Test
+    public void emptyHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    /**
+     * Count, minimum, maximum and mean are exact, and negative durations are recorded as 0.
+     */
+    @Test
+    public void summary()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(-5);
+        histogram.record(1000);
+        histogram.record(2000);
+        histogram.record(5000);
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(5000, histogram.getMax());
+        assertEquals(2000, histogram.getMean());
+    }
+
+    /**
+     * Values below the number of sub-buckets have a bucket each: their percentiles are exact.
+     */
+    @Test
+    public void smallValuesAreExact()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int value = 0; value < 8; ++value)
+        {
+            histogram.record(value);
+        }
+
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(6, histogram.getPercentile(87.5));
+        assertEquals(7, histogram.getPercentile(100));
+    }
+
+    /**
+     * Percentiles of uniform durations are within the precision of the exact ones, and never below.
+     */
+    @Test
+    public void uniformPercentiles()
+    {
+        long[] values = new long[100000];
+
+        for (int i = 0; i < values.length; ++i)
+        {
+            values[i] = 1000L * (i + 1);
+        }
+
+        assertPercentiles(values);
+    }
+
+    /**
+     * Percentiles of long-tailed durations, from microseconds to seconds, are within the precision of the exact ones.
+     */
+    @Test
+    public void longTailedPercentiles()
+    {
+        Random random = new Random(1);
+        long[] values = new long[50000];
+
+        for (int i = 0; i < values.length; ++i)
+        {
+            values[i] = (long) Math.exp(Math.log(1000000) + 2.5 * random.nextGaussian());
+        }
+
+        assertPercentiles(values);
+    }
+
+    /**
+     * Durations beyond the largest bucket are clamped to it, the maximum staying exact.
+     */
+    @Test
+    public void hugeValuesAreClamped()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(10);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(100));
+        assertEquals(10, histogram.getPercentile(50));
+    }
+
+    /**
+     * A copy reports the same values, and a reset empties the histogram.
+     */
+    @Test
+    public void copyAndReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram copy = new LatencyHistogram();
+
+        copy.record(42);
+
+        for (int i = 1; i <= 1000; ++i)
+        {
+            histogram.record(i * 100L);
+        }
+
+        histogram.copyTo(copy);
+        histogram.reset();
+
+        assertEquals(1000, copy.getCount());
+        assertEquals(100, copy.getMin());
+        assertEquals(100000, copy.getMax());
+        assertEquals(50050, copy.getMean());
+
+        for (double percentile : PERCENTILES)
+        {
+            assertTrue(copy.getPercentile(percentile) > 0);
+        }
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    /**
+     * Record values, and compare the histogram percentiles with the exact ones.
+     * 
+     * @param values
+     *            the recorded values, non-negative.
+     */
+    private static void assertPercentiles(final long[] values)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value : values)
+        {
+            histogram.record(value);
+        }
+
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double percentile : PERCENTILES)
+        {
+            int rank = Math.max(1, (int) Math.ceil(percentile / 100 * sorted.length));
+            long exact = sorted[rank - 1];
+            long estimate = histogram.getPercentile(percentile);
+
+            assertTrue(percentile + "th percentile " + estimate + " below " + exact, estimate >= exact);
+            assertTrue(percentile + "th percentile " + estimate + " above " + exact,
+                    estimate <= exact + (long) (exact * PRECISION));
+        }
+
+        assertEquals(sorted[0], histogram.getMin());
+        assertEquals(sorted[sorted.length - 1], histogram.getMax());
+    }
+}
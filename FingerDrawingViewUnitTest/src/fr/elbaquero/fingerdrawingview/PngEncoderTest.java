@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link PngEncoder}: the encoded images are checked chunk by chunk, inflated as a single zlib stream, and
+ * decoded by {@link ImageIO}.
+ */
+public class PngEncoderTest
+{
+    /** PNG file signature length. */
+    private static final int SIGNATURE_LENGTH = 8;
+
+    /** Image data chunk type. */
+    private static final int CHUNK_IDAT = 0x49444154;
+
+    /** End chunk type. */
+    private static final int CHUNK_IEND = 0x49454E44;
+
+    /** Executor deflating the blocks in parallel. */
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+
+    /**
+     * Stop the executor.
+     */
+    @After
+    public void tearDown()
+    {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * An image of several deflate blocks round-trips when deflated on the calling thread.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    @Test
+    public void singleThreadRoundTrip() throws IOException
+    {
+        assertRoundTrip(300, 400, null);
+    }
+
+    /**
+     * An image of several deflate blocks round-trips when deflated in parallel: each block is primed with the previous
+     * one and ends with a sync flush.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    @Test
+    public void parallelRoundTrip() throws IOException
+    {
+        assertRoundTrip(300, 400, mExecutor);
+    }
+
+    /**
+     * Rows longer than a block get a block each.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    @Test
+    public void wideImageRoundTrip() throws IOException
+    {
+        assertRoundTrip(40000, 6, mExecutor);
+    }
+
+    /**
+     * A single pixel image round-trips.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    @Test
+    public void singlePixelRoundTrip() throws IOException
+    {
+        assertRoundTrip(1, 1, null);
+        assertRoundTrip(1, 1, mExecutor);
+    }
+
+    /**
+     * An image can be written by rows of any count.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    @Test
+    public void rowsWrittenOneByOne() throws IOException
+    {
+        int width = 200;
+        int height = 700;
+        int[] pixels = newImage(width, height, new Random(3));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PngEncoder encoder = new PngEncoder(Channels.newChannel(output), width, height, mExecutor);
+
+        for (int row = 0; row < height; ++row)
+        {
+            encoder.writeRows(pixels, row * width, width, 1);
+        }
+
+        encoder.finish();
+
+        assertArrayEquals(pixels, decode(output.toByteArray(), width, height));
+    }
+
+    /**
+     * Writing too many rows fails.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void tooManyRows() throws IOException
+    {
+        PngEncoder encoder = new PngEncoder(Channels.newChannel(new ByteArrayOutputStream()), 10, 10, null);
+
+        encoder.writeRows(new int[110], 0, 10, 11);
+    }
+
+    /**
+     * Finishing an incomplete image fails.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void missingRows() throws IOException
+    {
+        PngEncoder encoder = new PngEncoder(Channels.newChannel(new ByteArrayOutputStream()), 10, 10, mExecutor);
+
+        encoder.writeRows(new int[90], 0, 10, 9);
+        encoder.finish();
+    }
+
+    /**
+     * An empty image is rejected.
+     * 
+     * @throws IOException
+     *             if the image cannot be encoded.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyImage() throws IOException
+    {
+        new PngEncoder(Channels.newChannel(new ByteArrayOutputStream()), 0, 10, null);
+    }
+
+    /**
+     * Encode an image, check its chunks and its zlib stream, then decode it and compare the pixels.
+     * 
+     * @param width
+     *            the image width.
+     * @param height
+     *            the image height.
+     * @param executor
+     *            the executor deflating the blocks in parallel, null to deflate them on the calling thread.
+     * @throws IOException
+     *             if the image cannot be encoded or decoded.
+     */
+    private static void assertRoundTrip(final int width, final int height, final ExecutorService executor)
+            throws IOException
+    {
+        int[] pixels = newImage(width, height, new Random(width * 31 + height));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PngEncoder encoder = new PngEncoder(Channels.newChannel(output), width, height, executor);
+
+        // Rows written in uneven batches, with a stride
+        int stride = width + 3;
+        int[] rows = new int[stride * height];
+
+        for (int row = 0; row < height; ++row)
+        {
+            System.arraycopy(pixels, row * width, rows, row * stride, width);
+        }
+
+        for (int row = 0; row < height; row += 7)
+        {
+            encoder.writeRows(rows, row * stride, stride, Math.min(7, height - row));
+        }
+
+        encoder.finish();
+
+        byte[] png = output.toByteArray();
+
+        assertEquals(height * (1 + 4 * width), inflateImageData(png).length);
+        assertArrayEquals(pixels, decode(png, width, height));
+    }
+
+    /**
+     * Check the chunk checksums of a PNG file and inflate its image data, checking the zlib checksum.
+     * 
+     * @param png
+     *            the PNG file.
+     * @return the filtered rows.
+     * @throws IOException
+     *             if the file is invalid.
+     */
+    private static byte[] inflateImageData(final byte[] png) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        int type;
+
+        buffer.position(SIGNATURE_LENGTH);
+
+        do
+        {
+            int length = buffer.getInt();
+            int start = buffer.position();
+
+            type = buffer.getInt();
+            buffer.position(start + 4 + length);
+            crc.reset();
+            crc.update(png, start, 4 + length);
+            assertEquals((int) crc.getValue(), buffer.getInt());
+
+            if (type == CHUNK_IDAT)
+            {
+                data.write(png, start + 4, length);
+            }
+        }
+        while (type != CHUNK_IEND);
+
+        assertEquals(png.length, buffer.position());
+
+        // A single zlib stream, its Adler-32 trailer included
+        Inflater inflater = new Inflater();
+        byte[] compressed = data.toByteArray();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+
+        inflater.setInput(compressed);
+
+        try
+        {
+            while (!inflater.finished())
+            {
+                int length = inflater.inflate(chunk);
+
+                if ((length == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Truncated zlib stream");
+                }
+
+                inflated.write(chunk, 0, length);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        assertEquals(0, inflater.getRemaining());
+        assertTrue(inflated.size() > 0);
+
+        return inflated.toByteArray();
+    }
+
+    /**
+     * Decode a PNG file.
+     * 
+     * @param png
+     *            the PNG file.
+     * @param width
+     *            the expected image width.
+     * @param height
+     *            the expected image height.
+     * @return the pixels, as non-premultiplied ARGB colors.
+     * @throws IOException
+     *             if the file cannot be decoded.
+     */
+    private static int[] decode(final byte[] png, final int width, final int height) throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * @param width
+     *            the image width.
+     * @param height
+     *            the image height.
+     * @param random
+     *            the random generator.
+     * @return the pixels of an image mixing gradients, flat areas and noise, so that every filter gets used.
+     */
+    private static int[] newImage(final int width, final int height, final Random random)
+    {
+        int[] pixels = new int[width * height];
+
+        for (int y = 0; y < height; ++y)
+        {
+            for (int x = 0; x < width; ++x)
+            {
+                int alpha = ((x / 16 + y / 16) % 3 == 0) ? 0xFF : (x * 7 + y) & 0xFF;
+                int red = (x + y) & 0xFF;
+                int green = (y % 40 < 20) ? 0x80 : random.nextInt(256);
+                int blue = (x * y) & 0xFF;
+
+                pixels[y * width + x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+        }
+
+        return pixels;
+    }
+}
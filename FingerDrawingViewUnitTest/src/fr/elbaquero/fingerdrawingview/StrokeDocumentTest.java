@@ -0,0 +1,384 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trip and corruption tests of {@link StrokeDocumentWriter} and {@link StrokeDocumentReader}.
+ */
+public class StrokeDocumentTest
+{
+    /** Drawing width, in pixels. */
+    private static final int WIDTH = 1080;
+
+    /** Drawing height, in pixels. */
+    private static final int HEIGHT = 1920;
+
+    /** Temporary files. */
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Strokes read back with their styles, and their samples rounded to the format resolution.
+     * 
+     * @throws IOException
+     *             if the file cannot be written or read.
+     */
+    @Test
+    public void documentRoundTrip() throws IOException
+    {
+        StrokeDocument document = newDocument(200, new Random(1));
+        File file = mFolder.newFile();
+        StrokeDocumentWriter.write(document, file);
+
+        StrokeDocumentReader reader = new StrokeDocumentReader(file);
+
+        try
+        {
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+            assertEquals(document.size(), reader.getStrokeCount());
+
+            // Strokes can be read in any order
+            for (int i = document.size() - 1; i >= 0; --i)
+            {
+                assertStrokeEquals(document.get(i), reader.readStroke(i));
+            }
+
+            StrokeDocument read = reader.readDocument();
+            assertEquals(document.size(), read.size());
+
+            for (int i = 0; i < document.size(); ++i)
+            {
+                assertStrokeEquals(document.get(i), read.get(i));
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * An empty document round-trips.
+     * 
+     * @throws IOException
+     *             if the file cannot be written or read.
+     */
+    @Test
+    public void emptyDocumentRoundTrip() throws IOException
+    {
+        File file = mFolder.newFile();
+        StrokeDocumentWriter.write(new StrokeDocument(WIDTH, HEIGHT), file);
+
+        StrokeDocumentReader reader = new StrokeDocumentReader(file);
+
+        try
+        {
+            assertEquals(0, reader.getStrokeCount());
+            assertTrue(reader.readDocument().isEmpty());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * A file without the magic number is rejected.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void foreignFileIsRejected() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(0x89504E47);
+        buffer.put((byte) StrokeFormat.VERSION);
+
+        assertRejected(buffer);
+    }
+
+    /**
+     * A file of a newer version is rejected.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void unsupportedVersionIsRejected() throws IOException
+    {
+        ByteBuffer buffer = newHeader(0);
+        // The version follows the magic number
+        buffer.put(4, (byte) (StrokeFormat.VERSION + 1));
+
+        assertRejected(buffer);
+    }
+
+    /**
+     * A truncated file is rejected, at any length.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void truncatedFileIsRejected() throws IOException
+    {
+        File file = mFolder.newFile();
+        StrokeDocumentWriter.write(newDocument(3, new Random(2)), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        for (int length = 0; length < bytes.length; ++length)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.put(bytes, 0, length);
+
+            assertRejected(buffer);
+        }
+    }
+
+    /**
+     * A negative or oversized style count is rejected before any allocation.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void invalidStyleCountIsRejected() throws IOException
+    {
+        assertRejected(newHeader(-1));
+        assertRejected(newHeader(Integer.MAX_VALUE));
+        assertRejected(newHeader(1000));
+    }
+
+    /**
+     * A negative or oversized sample count is rejected when the stroke is read.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void invalidSampleCountIsRejected() throws IOException
+    {
+        assertStrokeRejected(-1);
+        assertStrokeRejected(Integer.MAX_VALUE);
+        assertStrokeRejected(100);
+    }
+
+    /**
+     * A stroke block longer than the file is rejected.
+     * 
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    @Test
+    public void invalidBlockLengthIsRejected() throws IOException
+    {
+        ByteBuffer buffer = newHeader(0);
+        StrokeFormat.writeVarInt(buffer, 1000);
+        buffer.put(new byte[10]);
+
+        assertRejected(buffer);
+    }
+
+    /**
+     * @param strokeCount
+     *            the number of strokes.
+     * @param random
+     *            the random generator.
+     * @return a document of random strokes, erasers included.
+     */
+    private static StrokeDocument newDocument(final int strokeCount, final Random random)
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+        PenStyle[] styles = { new PenStyle(0xFF000000, 2, false), new PenStyle(0x80FF0000, 12.5f, false),
+                new PenStyle(0, 24, true) };
+
+        for (int i = 0; i < strokeCount; ++i)
+        {
+            Stroke stroke = new Stroke();
+            stroke.setStyle(styles[random.nextInt(styles.length)]);
+
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            long time = 1000000L + 1000L * i;
+            int size = 1 + random.nextInt(100);
+
+            for (int j = 0; j < size; ++j)
+            {
+                stroke.add(x, y, time, random.nextFloat());
+                x += random.nextFloat() * 20 - 10;
+                y += random.nextFloat() * 20 - 10;
+                time += random.nextInt(20);
+            }
+
+            document.add(stroke);
+        }
+
+        return document;
+    }
+
+    /**
+     * Check that a stroke was read back at the format resolution.
+     * 
+     * @param expected
+     *            the written stroke.
+     * @param actual
+     *            the read stroke.
+     */
+    private static void assertStrokeEquals(final Stroke expected, final Stroke actual)
+    {
+        assertEquals(expected.getStyle(), actual.getStyle());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            assertEquals(expected.getX(i), actual.getX(i), 0.5f / StrokeFormat.COORDINATE_SCALE);
+            assertEquals(expected.getY(i), actual.getY(i), 0.5f / StrokeFormat.COORDINATE_SCALE);
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getPressure(i), actual.getPressure(i), 0.5f / StrokeFormat.PRESSURE_SCALE);
+        }
+    }
+
+    /**
+     * @param styleCount
+     *            the style count to write, followed by no style.
+     * @return a buffer holding a file header, ready for more writes.
+     */
+    private static ByteBuffer newHeader(final int styleCount)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.putInt(StrokeFormat.MAGIC);
+        buffer.put((byte) StrokeFormat.VERSION);
+        StrokeFormat.writeVarInt(buffer, WIDTH);
+        StrokeFormat.writeVarInt(buffer, HEIGHT);
+        StrokeFormat.writeVarInt(buffer, StrokeFormat.COORDINATE_SCALE);
+        StrokeFormat.writeVarInt(buffer, styleCount);
+        return buffer;
+    }
+
+    /**
+     * Check that a file with a single stroke of one sample, announcing another sample count, is opened and that the
+     * stroke is rejected.
+     * 
+     * @param sampleCount
+     *            the announced sample count.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private void assertStrokeRejected(final int sampleCount) throws IOException
+    {
+        ByteBuffer block = ByteBuffer.allocate(64);
+        StrokeFormat.writeVarInt(block, 0);
+        StrokeFormat.writeVarLong(block, 1000);
+        StrokeFormat.writeVarInt(block, sampleCount);
+
+        for (int i = 0; i < 4; ++i)
+        {
+            StrokeFormat.writeVarInt(block, 1);
+        }
+
+        block.flip();
+
+        ByteBuffer buffer = newHeader(1);
+        buffer.putInt(0xFF000000);
+        StrokeFormat.writeVarInt(buffer, 2 * StrokeFormat.COORDINATE_SCALE);
+        buffer.put((byte) 0);
+        StrokeFormat.writeVarInt(buffer, block.remaining());
+        buffer.put(block);
+        StrokeFormat.writeVarInt(buffer, 0);
+        buffer.flip();
+
+        StrokeDocumentReader reader = new StrokeDocumentReader(writeFile(buffer));
+
+        try
+        {
+            assertEquals(1, reader.getStrokeCount());
+            reader.readStroke(0);
+            fail("Sample count " + sampleCount + " accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Check that a file is rejected when opened.
+     * 
+     * @param buffer
+     *            the file content, up to the buffer position.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private void assertRejected(final ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        File file = writeFile(buffer);
+
+        try
+        {
+            new StrokeDocumentReader(file).close();
+            fail("Corrupted file accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    /**
+     * @param content
+     *            the file content, the remaining bytes of the buffer.
+     * @return a new temporary file.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private File writeFile(final ByteBuffer content) throws IOException
+    {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            out.getChannel().write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the primitive encoding of {@link StrokeFormat}.
+ */
+public class StrokeFormatTest
+{
+    /** Values covering every varint length, and the sign boundaries. */
+    private static final int[] INT_VALUES = { 0, 1, -1, 63, -64, 64, 127, 128, 8191, 16383, 16384, 2097151, 2097152,
+            268435455, 268435456, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    /** Values covering every varlong length, and the sign boundaries. */
+    private static final long[] LONG_VALUES = { 0, 1, -1, 127, 128, 1L << 35, (1L << 56) - 1, 1L << 56, 1L << 63,
+            Long.MAX_VALUE, Long.MIN_VALUE };
+
+    /**
+     * Zig-zag encoding maps small magnitudes to small values, and is reversible.
+     */
+    @Test
+    public void zigZagRoundTrip()
+    {
+        assertEquals(0, StrokeFormat.zigZagEncode(0));
+        assertEquals(1, StrokeFormat.zigZagEncode(-1));
+        assertEquals(2, StrokeFormat.zigZagEncode(1));
+        assertEquals(3, StrokeFormat.zigZagEncode(-2));
+        assertEquals(-1, StrokeFormat.zigZagEncode(Integer.MIN_VALUE));
+        assertEquals(-2, StrokeFormat.zigZagEncode(Integer.MAX_VALUE));
+
+        for (int value : INT_VALUES)
+        {
+            assertEquals(value, StrokeFormat.zigZagDecode(StrokeFormat.zigZagEncode(value)));
+        }
+
+        for (long value : LONG_VALUES)
+        {
+            assertEquals(value, StrokeFormat.zigZagDecode(StrokeFormat.zigZagEncode(value)));
+        }
+    }
+
+    /**
+     * Varints take 7 bits per byte and read back the written value, whatever its length.
+     * 
+     * @throws IOException
+     *             if a value cannot be read.
+     */
+    @Test
+    public void varIntRoundTrip() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(INT_VALUES.length * StrokeFormat.MAX_VARINT_SIZE);
+
+        for (int value : INT_VALUES)
+        {
+            int position = buffer.position();
+            StrokeFormat.writeVarInt(buffer, value);
+            assertEquals(varIntSize(value), buffer.position() - position);
+        }
+
+        buffer.flip();
+
+        for (int value : INT_VALUES)
+        {
+            assertEquals(value, StrokeFormat.readVarInt(buffer));
+        }
+
+        assertEquals(0, buffer.remaining());
+    }
+
+    /**
+     * Varlongs read back the written value, whatever its length.
+     * 
+     * @throws IOException
+     *             if a value cannot be read.
+     */
+    @Test
+    public void varLongRoundTrip() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(LONG_VALUES.length * StrokeFormat.MAX_VARLONG_SIZE);
+
+        for (long value : LONG_VALUES)
+        {
+            StrokeFormat.writeVarLong(buffer, value);
+        }
+
+        buffer.flip();
+
+        for (long value : LONG_VALUES)
+        {
+            assertEquals(value, StrokeFormat.readVarLong(buffer));
+        }
+
+        assertEquals(0, buffer.remaining());
+    }
+
+    /**
+     * A varint longer than {@link StrokeFormat#MAX_VARINT_SIZE} bytes is rejected.
+     */
+    @Test
+    public void overlongVarIntIsRejected()
+    {
+        byte[] bytes = new byte[StrokeFormat.MAX_VARINT_SIZE + 1];
+        Arrays.fill(bytes, (byte) 0x80);
+
+        try
+        {
+            StrokeFormat.readVarInt(ByteBuffer.wrap(bytes));
+            fail("Overlong varint accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    /**
+     * A varlong longer than {@link StrokeFormat#MAX_VARLONG_SIZE} bytes is rejected.
+     */
+    @Test
+    public void overlongVarLongIsRejected()
+    {
+        byte[] bytes = new byte[StrokeFormat.MAX_VARLONG_SIZE + 1];
+        Arrays.fill(bytes, (byte) 0x80);
+
+        try
+        {
+            StrokeFormat.readVarLong(ByteBuffer.wrap(bytes));
+            fail("Overlong varlong accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    /**
+     * Quantization rounds to the nearest unit.
+     */
+    @Test
+    public void quantizeRounds()
+    {
+        assertEquals(12, StrokeFormat.quantize(1.5f, StrokeFormat.COORDINATE_SCALE));
+        assertEquals(13, StrokeFormat.quantize(1.6f, StrokeFormat.COORDINATE_SCALE));
+        assertEquals(-12, StrokeFormat.quantize(-1.5f, StrokeFormat.COORDINATE_SCALE));
+        assertEquals(StrokeFormat.PRESSURE_SCALE, StrokeFormat.quantize(1, StrokeFormat.PRESSURE_SCALE));
+    }
+
+    /**
+     * @param value
+     *            a value, interpreted as unsigned.
+     * @return the number of bytes of its varint encoding.
+     */
+    private static int varIntSize(final int value)
+    {
+        int size = 1;
+
+        for (int remaining = value >>> 7; remaining != 0; remaining >>>= 7)
+        {
+            ++size;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link StrokeIndex}, checked against a linear scan of the document strokes.
+ */
+public class StrokeIndexTest
+{
+    /** Drawing width, in pixels. */
+    private static final int WIDTH = 1000;
+
+    /** Drawing height, in pixels. */
+    private static final int HEIGHT = 700;
+
+    /** Number of random queries per check. */
+    private static final int QUERY_COUNT = 500;
+
+    /** Style of the drawn strokes. */
+    private static final PenStyle STYLE = new PenStyle(0xFF000000, 6, false);
+
+    /** Style of the eraser strokes. */
+    private static final PenStyle ERASER_STYLE = new PenStyle(0, 20, true);
+
+    /**
+     * Queries match a linear scan after strokes are added.
+     */
+    @Test
+    public void insertion()
+    {
+        Random random = new Random(1);
+        StrokeDocument document = newDocument(300, random);
+
+        assertEquals(300, document.getIndex().size());
+        assertQueries(document, random);
+    }
+
+    /**
+     * Queries match a linear scan after the last strokes are removed, and after strokes are added again.
+     */
+    @Test
+    public void removal()
+    {
+        Random random = new Random(2);
+        StrokeDocument document = newDocument(300, random);
+
+        for (int i = 0; i < 150; ++i)
+        {
+            document.removeLast();
+        }
+
+        assertEquals(150, document.getIndex().size());
+        assertQueries(document, random);
+
+        for (int i = 0; i < 50; ++i)
+        {
+            document.add(newStroke(random));
+        }
+
+        assertQueries(document, random);
+
+        while (!document.isEmpty())
+        {
+            document.removeLast();
+        }
+
+        assertEquals(0, document.getIndex().findIntersecting(-WIDTH, -HEIGHT, 2 * WIDTH, 2 * HEIGHT).length);
+        assertEquals(-1, document.getIndex().findNearest(WIDTH / 2, HEIGHT / 2, WIDTH));
+    }
+
+    /**
+     * A cleared index is empty, and can be filled again.
+     */
+    @Test
+    public void clear()
+    {
+        Random random = new Random(3);
+        StrokeDocument document = newDocument(100, random);
+
+        document.clear();
+        assertEquals(0, document.getIndex().size());
+        assertEquals(0, document.getIndex().findIntersecting(-WIDTH, -HEIGHT, 2 * WIDTH, 2 * HEIGHT).length);
+
+        for (int i = 0; i < 100; ++i)
+        {
+            document.add(newStroke(random));
+        }
+
+        assertQueries(document, random);
+    }
+
+    /**
+     * Queries match a linear scan after the drawing is resized, strokes now outside of the drawing included.
+     */
+    @Test
+    public void resize()
+    {
+        Random random = new Random(4);
+        StrokeDocument document = newDocument(200, random);
+
+        document.setSize(WIDTH / 3, HEIGHT / 2);
+        assertQueries(document, random);
+
+        document.setSize(3 * WIDTH, 2 * HEIGHT);
+        assertQueries(document, random);
+    }
+
+    /**
+     * A stroke crossing the whole drawing is found near its middle, and not near its bounding box corners.
+     */
+    @Test
+    public void longStroke()
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+        Stroke stroke = new Stroke();
+
+        stroke.setStyle(STYLE);
+        stroke.add(0, 0, 0, 1);
+        stroke.add(WIDTH, HEIGHT, 1, 1);
+        document.add(stroke);
+
+        StrokeIndex index = document.getIndex();
+
+        assertArrayEquals(new int[] { 0 }, index.findIntersecting(WIDTH / 2, HEIGHT / 2, WIDTH / 2, HEIGHT / 2));
+        assertEquals(0, index.findNearest(WIDTH / 2 + 10, HEIGHT / 2 - 10, 20));
+        assertEquals(-1, index.findNearest(WIDTH - 10, 10, 20));
+    }
+
+    /**
+     * Compare random queries with a linear scan of the document.
+     * 
+     * @param document
+     *            the indexed document.
+     * @param random
+     *            the random generator.
+     */
+    private static void assertQueries(final StrokeDocument document, final Random random)
+    {
+        StrokeIndex index = document.getIndex();
+
+        assertEquals(document.size(), index.size());
+
+        for (int i = 0; i < QUERY_COUNT; ++i)
+        {
+            float left = (random.nextFloat() * 1.5f - 0.25f) * WIDTH;
+            float top = (random.nextFloat() * 1.5f - 0.25f) * HEIGHT;
+            float right = left + random.nextFloat() * WIDTH / 2;
+            float bottom = top + random.nextFloat() * HEIGHT / 2;
+            float maxDistance = random.nextFloat() * 50;
+
+            assertArrayEquals(findIntersecting(document, left, top, right, bottom),
+                    index.findIntersecting(left, top, right, bottom));
+            assertEquals(findNearest(document, left, top, maxDistance), index.findNearest(left, top, maxDistance));
+        }
+    }
+
+    /**
+     * Find the strokes whose bounding box intersects a rectangle, by a linear scan.
+     * 
+     * @param document
+     *            the document.
+     * @param left
+     *            the rectangle left coordinate.
+     * @param top
+     *            the rectangle top coordinate.
+     * @param right
+     *            the rectangle right coordinate.
+     * @param bottom
+     *            the rectangle bottom coordinate.
+     * @return the indexes of the matching strokes, in drawing order.
+     */
+    private static int[] findIntersecting(final StrokeDocument document, final float left, final float top,
+            final float right, final float bottom)
+    {
+        int[] results = new int[document.size()];
+        int resultCount = 0;
+
+        for (int i = 0; i < document.size(); ++i)
+        {
+            Stroke stroke = document.get(i);
+            float halfWidth = stroke.getStyle().getWidth() / 2;
+            float strokeLeft = Float.MAX_VALUE;
+            float strokeTop = Float.MAX_VALUE;
+            float strokeRight = -Float.MAX_VALUE;
+            float strokeBottom = -Float.MAX_VALUE;
+
+            for (int j = 0; j < stroke.size(); ++j)
+            {
+                strokeLeft = Math.min(strokeLeft, stroke.getX(j));
+                strokeTop = Math.min(strokeTop, stroke.getY(j));
+                strokeRight = Math.max(strokeRight, stroke.getX(j));
+                strokeBottom = Math.max(strokeBottom, stroke.getY(j));
+            }
+
+            if ((strokeLeft - halfWidth <= right) && (strokeTop - halfWidth <= bottom)
+                    && (strokeRight + halfWidth >= left) && (strokeBottom + halfWidth >= top))
+            {
+                results[resultCount++] = i;
+            }
+        }
+
+        int[] intersecting = new int[resultCount];
+        System.arraycopy(results, 0, intersecting, 0, resultCount);
+
+        return intersecting;
+    }
+
+    /**
+     * Find the visible stroke nearest to a point, by a linear scan.
+     * 
+     * @param document
+     *            the document.
+     * @param x
+     *            the point X coordinate.
+     * @param y
+     *            the point Y coordinate.
+     * @param maxDistance
+     *            the maximum distance, in pixels.
+     * @return the index of the nearest stroke, the latest one on ties, or -1 if no stroke is within the maximum
+     *         distance.
+     */
+    private static int findNearest(final StrokeDocument document, final float x, final float y,
+            final float maxDistance)
+    {
+        int nearest = -1;
+        float nearestDistance = maxDistance;
+
+        for (int i = 0; i < document.size(); ++i)
+        {
+            Stroke stroke = document.get(i);
+
+            if (stroke.getStyle().isEraser())
+            {
+                continue;
+            }
+
+            float squaredDistance = (x - stroke.getX(0)) * (x - stroke.getX(0))
+                    + (y - stroke.getY(0)) * (y - stroke.getY(0));
+
+            for (int j = 1; j < stroke.size(); ++j)
+            {
+                squaredDistance = Math.min(squaredDistance, StrokeSimplifier.squaredSegmentDistance(x, y,
+                        stroke.getX(j - 1), stroke.getY(j - 1), stroke.getX(j), stroke.getY(j)));
+            }
+
+            float distance = Math.max(0, (float) Math.sqrt(squaredDistance) - stroke.getStyle().getWidth() / 2);
+
+            if (distance <= nearestDistance)
+            {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * @param strokeCount
+     *            the number of strokes.
+     * @param random
+     *            the random generator.
+     * @return a new document of random strokes.
+     */
+    private static StrokeDocument newDocument(final int strokeCount, final Random random)
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+
+        for (int i = 0; i < strokeCount; ++i)
+        {
+            document.add(newStroke(random));
+        }
+
+        return document;
+    }
+
+    /**
+     * @param random
+     *            the random generator.
+     * @return a new random stroke: a dot, a scribble or a straight line, possibly crossing the drawing, possibly an
+     *         eraser.
+     */
+    private static Stroke newStroke(final Random random)
+    {
+        Stroke stroke = new Stroke();
+        float x = (random.nextFloat() * 1.2f - 0.1f) * WIDTH;
+        float y = (random.nextFloat() * 1.2f - 0.1f) * HEIGHT;
+
+        stroke.setStyle((random.nextInt(8) == 0) ? ERASER_STYLE : STYLE);
+        stroke.add(x, y, 0, 1);
+
+        int shape = random.nextInt(3);
+
+        if (shape == 1)
+        {
+            int size = 2 + random.nextInt(100);
+
+            for (int i = 1; i < size; ++i)
+            {
+                x += random.nextGaussian() * 10;
+                y += random.nextGaussian() * 10;
+                stroke.add(x, y, i, 1);
+            }
+        }
+        else if (shape == 2)
+        {
+            stroke.add(random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT, 1, 1);
+        }
+
+        return stroke;
+    }
+}
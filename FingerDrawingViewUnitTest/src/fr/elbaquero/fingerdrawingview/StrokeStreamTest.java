@@ -0,0 +1,766 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link StrokeStreamWriter} and {@link StrokeStreamReader}: the frames are either handed over explicitly,
+ * to drop or forge some, or carried by a {@link LoopbackStrokeTransport} whose link is cut and restored. The loopback
+ * events are forwarded to an owner thread, as {@link MainThreadReceiver} does to the main thread.
+ */
+public class StrokeStreamTest
+{
+    /** Drawing width, in pixels. */
+    private static final int WIDTH = 800;
+
+    /** Drawing height, in pixels. */
+    private static final int HEIGHT = 600;
+
+    /** Maximum time waited for the loopback events, in milliseconds. */
+    private static final long TIMEOUT = 5000;
+
+    /** Thread running the writer, the reader and their receivers. */
+    private ExecutorService mOwner;
+
+    /** Committed strokes of the written drawing. */
+    private final List<Stroke> mStrokes = new ArrayList<Stroke>();
+
+    /** Source of the writer snapshots. */
+    private final StrokeStreamWriter.Source mSource = new StrokeStreamWriter.Source()
+    {
+        @Override
+        public int getWidth()
+        {
+            return WIDTH;
+        }
+
+        @Override
+        public int getHeight()
+        {
+            return HEIGHT;
+        }
+
+        @Override
+        public List<Stroke> getStrokes()
+        {
+            return new ArrayList<Stroke>(mStrokes);
+        }
+    };
+
+    /**
+     * Start the owner thread.
+     */
+    @Before
+    public void setUp()
+    {
+        mOwner = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Stop the owner thread.
+     */
+    @After
+    public void tearDown()
+    {
+        mOwner.shutdownNow();
+    }
+
+    /**
+     * A reader in sync applies the live strokes, undos, redos and erasures of the writer.
+     */
+    @Test
+    public void mirrorsOperations()
+    {
+        RecordingTransport writerTransport = new RecordingTransport();
+        RecordingTransport readerTransport = new RecordingTransport();
+        StrokeStreamWriter writer = new StrokeStreamWriter(writerTransport, mSource);
+        Mirror mirror = new Mirror();
+        StrokeStreamReader reader = new StrokeStreamReader(readerTransport, mirror);
+
+        mStrokes.add(newStroke(1, 3));
+        connect(writer, reader, writerTransport, readerTransport);
+        assertTrue(reader.isSynced());
+
+        Stroke stroke = newStroke(2, 1);
+        writer.beginStroke(stroke);
+        writer.flush();
+        addSamples(stroke, 10);
+        writer.addSamples();
+        writer.flush();
+        writer.endStroke();
+        writer.flush();
+        mStrokes.add(stroke);
+
+        Stroke cancelled = newStroke(3, 5);
+        writer.beginStroke(cancelled);
+        writer.cancelStroke();
+        writer.undo();
+        writer.flush();
+        mStrokes.remove(mStrokes.size() - 1);
+        deliver(writerTransport, reader);
+
+        assertEquals(0, mirror.mLiveStrokes.size());
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+
+        writer.redo();
+        writer.flush();
+        mStrokes.add(stroke);
+        deliver(writerTransport, reader);
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+
+        writer.clear();
+        writer.flush();
+        mStrokes.clear();
+        deliver(writerTransport, reader);
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+        assertEquals(1, mirror.mResetCount);
+        assertTrue(reader.isSynced());
+    }
+
+    /**
+     * A reader connecting during a live stroke gets its samples from the snapshot, then the next ones.
+     */
+    @Test
+    public void joinsDuringLiveStroke()
+    {
+        RecordingTransport writerTransport = new RecordingTransport();
+        RecordingTransport readerTransport = new RecordingTransport();
+        StrokeStreamWriter writer = new StrokeStreamWriter(writerTransport, mSource);
+        Mirror mirror = new Mirror();
+        StrokeStreamReader reader = new StrokeStreamReader(readerTransport, mirror);
+
+        Stroke stroke = newStroke(1, 7);
+        writer.beginStroke(stroke);
+        writer.flush();
+        writerTransport.mFrames.clear();
+
+        connect(writer, reader, writerTransport, readerTransport);
+        assertEquals(1, mirror.mLiveStrokes.size());
+        assertEquals(7, mirror.mLiveStrokes.get(0).size());
+
+        addSamples(stroke, 5);
+        writer.endStroke();
+        writer.flush();
+        mStrokes.add(stroke);
+        deliver(writerTransport, reader);
+
+        assertEquals(0, mirror.mLiveStrokes.size());
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+    }
+
+    /**
+     * A reader missing a frame asks for a snapshot once, ignores the frames until it arrives, then is in sync again,
+     * while a reader already in sync skips the snapshot.
+     */
+    @Test
+    public void resyncsAfterLostFrame()
+    {
+        RecordingTransport writerTransport = new RecordingTransport();
+        RecordingTransport readerTransport = new RecordingTransport();
+        StrokeStreamWriter writer = new StrokeStreamWriter(writerTransport, mSource);
+        Mirror mirror = new Mirror();
+        StrokeStreamReader reader = new StrokeStreamReader(readerTransport, mirror);
+
+        connect(writer, reader, writerTransport, readerTransport);
+        writer.sendSnapshot();
+        deliver(writerTransport, reader);
+        assertEquals(1, mirror.mResetCount);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            commitStroke(writer, newStroke(i, 4));
+        }
+
+        // The first stroke frames are lost
+        writerTransport.mFrames.remove(0);
+        deliver(writerTransport, reader);
+
+        assertFalse(reader.isSynced());
+        assertEquals(1, countResyncRequests(readerTransport));
+        assertEquals(0, mirror.mStrokes.size());
+
+        forward(readerTransport, writer);
+        deliver(writerTransport, reader);
+
+        assertTrue(reader.isSynced());
+        assertEquals(2, mirror.mResetCount);
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+    }
+
+    /**
+     * A reader cut from the writer by the loopback link asks for a snapshot when the link is restored, and gets the
+     * strokes committed meanwhile.
+     * 
+     * @throws Exception
+     *             if the owner thread fails.
+     */
+    @Test
+    public void resyncsAfterDroppedConnection() throws Exception
+    {
+        final LoopbackStrokeTransport transport = new LoopbackStrokeTransport();
+        final StrokeStreamWriter writer = new StrokeStreamWriter(transport, mSource);
+        final Mirror mirror = new Mirror();
+        final StrokeStreamReader reader = new StrokeStreamReader(transport.getPeer(), mirror);
+        final ConnectionCounter writerCounter = new ConnectionCounter(writer);
+        final ConnectionCounter readerCounter = new ConnectionCounter(reader);
+
+        transport.getPeer().open(readerCounter);
+        transport.open(writerCounter);
+        await(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return reader.isSynced();
+            }
+        });
+        onOwner(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                commitStroke(writer, newStroke(1, 6));
+                return Boolean.TRUE;
+            }
+        });
+        await(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return mirror.mStrokes.size() == mStrokes.size();
+            }
+        });
+        assertStrokesEqual(mStrokes, mirror.mStrokes);
+
+        transport.setLinkUp(false);
+        await(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return (writerCounter.mDisconnections == 1) && (readerCounter.mDisconnections == 1);
+            }
+        });
+        onOwner(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                assertFalse(reader.isSynced());
+
+                for (int i = 0; i < 3; ++i)
+                {
+                    commitStroke(writer, newStroke(i, 5));
+                }
+
+                writer.undo();
+                writer.flush();
+                mStrokes.remove(mStrokes.size() - 1);
+                return Boolean.TRUE;
+            }
+        });
+
+        transport.setLinkUp(true);
+        await(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return reader.isSynced() && (readerCounter.mConnections == 2);
+            }
+        });
+        onOwner(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                assertEquals(2, writerCounter.mConnections);
+                assertStrokesEqual(mStrokes, mirror.mStrokes);
+                return Boolean.TRUE;
+            }
+        });
+
+        transport.close();
+        transport.getPeer().close();
+    }
+
+    /**
+     * Snapshot stroke counts and sample counts larger than their frame, or negative, make the reader ask for a new
+     * snapshot instead of allocating or failing.
+     */
+    @Test
+    public void rejectsInvalidCounts()
+    {
+        int[] counts = { Integer.MAX_VALUE, -1, 2 };
+
+        for (int count : counts)
+        {
+            RecordingTransport transport = new RecordingTransport();
+            Mirror mirror = new Mirror();
+            StrokeStreamReader reader = new StrokeStreamReader(transport, mirror);
+            ByteBuffer frame = ByteBuffer.allocate(64);
+
+            frame.putInt(0);
+            frame.put((byte) StrokeStreamFormat.SNAPSHOT);
+            StrokeFormat.writeVarInt(frame, WIDTH);
+            StrokeFormat.writeVarInt(frame, HEIGHT);
+            StrokeFormat.writeVarInt(frame, count);
+            frame.put(new byte[StrokeStreamFormat.MIN_STROKE_SIZE]);
+
+            reader.onFrame(toArray(frame));
+
+            assertEquals(0, mirror.mResetCount);
+            assertEquals(1, countResyncRequests(transport));
+        }
+
+        for (int count : counts)
+        {
+            RecordingTransport transport = new RecordingTransport();
+            Mirror mirror = new Mirror();
+            StrokeStreamReader reader = new StrokeStreamReader(transport, mirror);
+            ByteBuffer frame = ByteBuffer.allocate(64);
+
+            frame.putInt(0);
+            frame.put((byte) StrokeStreamFormat.SNAPSHOT);
+            StrokeFormat.writeVarInt(frame, WIDTH);
+            StrokeFormat.writeVarInt(frame, HEIGHT);
+            StrokeFormat.writeVarInt(frame, 0);
+            StrokeFormat.writeVarInt(frame, 0);
+            frame.put((byte) StrokeStreamFormat.BEGIN);
+            StrokeFormat.writeVarInt(frame, 0);
+            StrokeStreamFormat.writeStyle(frame, new PenStyle(0xFF000000, 2, false));
+            StrokeFormat.writeVarLong(frame, 0);
+            frame.put((byte) StrokeStreamFormat.SAMPLES);
+            StrokeFormat.writeVarInt(frame, 0);
+            StrokeFormat.writeVarInt(frame, count);
+            frame.put(new byte[StrokeFormat.MIN_SAMPLE_SIZE]);
+
+            reader.onFrame(toArray(frame));
+
+            assertEquals(1, mirror.mResetCount);
+            assertEquals(0, mirror.mSampleCount);
+            assertFalse(reader.isSynced());
+            assertEquals(1, countResyncRequests(transport));
+        }
+    }
+
+    /**
+     * Connect a writer and a reader whose frames are handed over explicitly: the reader asks for a snapshot, the
+     * writer sends it.
+     * 
+     * @param writer
+     *            the writer.
+     * @param reader
+     *            the reader.
+     * @param writerTransport
+     *            the writer transport.
+     * @param readerTransport
+     *            the reader transport.
+     */
+    private static void connect(final StrokeStreamWriter writer, final StrokeStreamReader reader,
+            final RecordingTransport writerTransport, final RecordingTransport readerTransport)
+    {
+        reader.onConnected();
+        forward(readerTransport, writer);
+        deliver(writerTransport, reader);
+    }
+
+    /**
+     * Hand the frames sent by a writer over to a reader.
+     * 
+     * @param writerTransport
+     *            the writer transport.
+     * @param reader
+     *            the reader.
+     */
+    private static void deliver(final RecordingTransport writerTransport, final StrokeStreamReader reader)
+    {
+        for (byte[] frame : writerTransport.mFrames)
+        {
+            reader.onFrame(frame);
+        }
+
+        writerTransport.mFrames.clear();
+    }
+
+    /**
+     * Hand the frames sent by a reader over to a writer.
+     * 
+     * @param readerTransport
+     *            the reader transport.
+     * @param writer
+     *            the writer.
+     */
+    private static void forward(final RecordingTransport readerTransport, final StrokeStreamWriter writer)
+    {
+        for (byte[] frame : readerTransport.mFrames)
+        {
+            writer.onFrame(frame);
+        }
+
+        readerTransport.mFrames.clear();
+    }
+
+    /**
+     * @param readerTransport
+     *            a reader transport.
+     * @return the number of snapshot requests sent by the reader.
+     */
+    private static int countResyncRequests(final RecordingTransport readerTransport)
+    {
+        int count = 0;
+
+        for (byte[] frame : readerTransport.mFrames)
+        {
+            assertEquals(StrokeStreamFormat.HEADER_SIZE + 1, frame.length);
+            assertEquals(StrokeStreamFormat.RESYNC, frame[StrokeStreamFormat.HEADER_SIZE]);
+            ++count;
+        }
+
+        return count;
+    }
+
+    /**
+     * Stream a whole stroke and commit it to the written drawing.
+     * 
+     * @param writer
+     *            the writer.
+     * @param stroke
+     *            the stroke.
+     */
+    private void commitStroke(final StrokeStreamWriter writer, final Stroke stroke)
+    {
+        writer.beginStroke(stroke);
+        writer.endStroke();
+        writer.flush();
+        mStrokes.add(stroke);
+    }
+
+    /**
+     * Run a task on the owner thread and wait for it.
+     * 
+     * @param task
+     *            the task.
+     * @return the task result.
+     * @throws Exception
+     *             if the task fails.
+     */
+    private Boolean onOwner(final Callable<Boolean> task) throws Exception
+    {
+        try
+        {
+            return mOwner.submit(task).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            // Failed assertions are errors
+            if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Run a condition on the owner thread until it holds.
+     * 
+     * @param condition
+     *            the condition.
+     * @throws Exception
+     *             if the condition does not hold in time, or fails.
+     */
+    private void await(final Callable<Boolean> condition) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!onOwner(condition).booleanValue())
+        {
+            assertTrue("Timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @param index
+     *            the stroke index, giving its position and style.
+     * @param size
+     *            the number of samples.
+     * @return a new stroke.
+     */
+    private static Stroke newStroke(final int index, final int size)
+    {
+        Stroke stroke = new Stroke();
+
+        stroke.setStyle(new PenStyle(0xFF000000 | (index * 0x10203), 2 + index * 0.5f, (index % 3) == 2));
+        stroke.add(10 + 20 * index, 30 + 10 * index, 1000 + 100 * index, 0.5f);
+        addSamples(stroke, size - 1);
+
+        return stroke;
+    }
+
+    /**
+     * Add samples to a stroke, moving away from its last sample.
+     * 
+     * @param stroke
+     *            the stroke.
+     * @param count
+     *            the number of samples to add.
+     */
+    private static void addSamples(final Stroke stroke, final int count)
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            int last = stroke.size() - 1;
+
+            stroke.add(stroke.getX(last) + 3.3f, stroke.getY(last) - 1.7f, stroke.getTime(last) + 8,
+                    stroke.getPressure(last) * 0.9f);
+        }
+    }
+
+    /**
+     * Check that strokes are equal, once quantized as in the stream.
+     * 
+     * @param expected
+     *            the expected strokes.
+     * @param actual
+     *            the actual strokes.
+     */
+    private static void assertStrokesEqual(final List<Stroke> expected, final List<Stroke> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            Stroke expectedStroke = expected.get(i);
+            Stroke actualStroke = actual.get(i);
+
+            assertEquals(expectedStroke.getStyle(), actualStroke.getStyle());
+            assertEquals(expectedStroke.size(), actualStroke.size());
+
+            for (int j = 0; j < expectedStroke.size(); ++j)
+            {
+                assertEquals(StrokeFormat.quantize(expectedStroke.getX(j), StrokeFormat.COORDINATE_SCALE),
+                        StrokeFormat.quantize(actualStroke.getX(j), StrokeFormat.COORDINATE_SCALE));
+                assertEquals(StrokeFormat.quantize(expectedStroke.getY(j), StrokeFormat.COORDINATE_SCALE),
+                        StrokeFormat.quantize(actualStroke.getY(j), StrokeFormat.COORDINATE_SCALE));
+                assertEquals(expectedStroke.getTime(j), actualStroke.getTime(j));
+                assertEquals(StrokeFormat.quantize(expectedStroke.getPressure(j), StrokeFormat.PRESSURE_SCALE),
+                        StrokeFormat.quantize(actualStroke.getPressure(j), StrokeFormat.PRESSURE_SCALE));
+            }
+        }
+    }
+
+    /**
+     * @param buffer
+     *            a frame buffer, its content ending at the current position.
+     * @return the frame.
+     */
+    private static byte[] toArray(final ByteBuffer buffer)
+    {
+        byte[] frame = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, frame, 0, frame.length);
+
+        return frame;
+    }
+
+    /**
+     * Transport recording the sent frames, to hand them over explicitly.
+     */
+    private static final class RecordingTransport implements StrokeTransport
+    {
+        /** Sent frames, in order. */
+        final List<byte[]> mFrames = new ArrayList<byte[]>();
+
+        @Override
+        public void open(final Receiver receiver)
+        {
+        }
+
+        @Override
+        public void send(final byte[] frame)
+        {
+            mFrames.add(frame);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * Listener keeping the mirrored drawing.
+     */
+    private static final class Mirror implements StrokeStreamReader.Listener
+    {
+        /** Committed strokes. */
+        List<Stroke> mStrokes = new ArrayList<Stroke>();
+
+        /** Undone strokes, the last undone first. */
+        final LinkedList<Stroke> mUndoneStrokes = new LinkedList<Stroke>();
+
+        /** Live strokes. */
+        final List<Stroke> mLiveStrokes = new ArrayList<Stroke>();
+
+        /** Number of resets. */
+        int mResetCount;
+
+        /** Number of samples added to the live strokes. */
+        int mSampleCount;
+
+        @Override
+        public void onReset(final int width, final int height, final List<Stroke> strokes)
+        {
+            assertEquals(WIDTH, width);
+            assertEquals(HEIGHT, height);
+            mStrokes = strokes;
+            mUndoneStrokes.clear();
+            mLiveStrokes.clear();
+            ++mResetCount;
+        }
+
+        @Override
+        public void onStrokeSamples(final Stroke stroke, final int from)
+        {
+            if (from == 0)
+            {
+                mLiveStrokes.add(stroke);
+            }
+
+            mSampleCount += stroke.size() - from;
+        }
+
+        @Override
+        public void onStrokeEnded(final Stroke stroke)
+        {
+            assertTrue(mLiveStrokes.remove(stroke));
+            mStrokes.add(stroke);
+            mUndoneStrokes.clear();
+        }
+
+        @Override
+        public void onStrokeCancelled(final Stroke stroke)
+        {
+            assertTrue(mLiveStrokes.remove(stroke));
+        }
+
+        @Override
+        public void onUndo()
+        {
+            mUndoneStrokes.addFirst(mStrokes.remove(mStrokes.size() - 1));
+        }
+
+        @Override
+        public void onRedo()
+        {
+            mStrokes.add(mUndoneStrokes.removeFirst());
+        }
+
+        @Override
+        public void onClear()
+        {
+            mStrokes.clear();
+            mUndoneStrokes.clear();
+        }
+    }
+
+    /**
+     * Receiver counting the connections, and forwarding the events to another receiver on the owner thread.
+     */
+    private final class ConnectionCounter implements StrokeTransport.Receiver
+    {
+        /** Receiver running on the owner thread. */
+        private final StrokeTransport.Receiver mReceiver;
+
+        /** Number of connections, only accessed on the owner thread. */
+        int mConnections;
+
+        /** Number of disconnections, only accessed on the owner thread. */
+        int mDisconnections;
+
+        /**
+         * Create a new {@link ConnectionCounter}.
+         * 
+         * @param receiver
+         *            the receiver running on the owner thread.
+         */
+        ConnectionCounter(final StrokeTransport.Receiver receiver)
+        {
+            mReceiver = receiver;
+        }
+
+        @Override
+        public void onConnected()
+        {
+            mOwner.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ++mConnections;
+                    mReceiver.onConnected();
+                }
+            });
+        }
+
+        @Override
+        public void onFrame(final byte[] frame)
+        {
+            mOwner.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mReceiver.onFrame(frame);
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnected()
+        {
+            mOwner.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ++mDisconnections;
+                    mReceiver.onDisconnected();
+                }
+            });
+        }
+    }
+}
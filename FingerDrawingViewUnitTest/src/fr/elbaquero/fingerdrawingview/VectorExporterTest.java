@@ -0,0 +1,476 @@
+/*
+ * Copyright 2014 elbaquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package fr.elbaquero.fingerdrawingview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests of {@link VectorExporter}: the SVG files are parsed as XML and their paths replayed, the PDF files are checked
+ * object by object through their cross-reference table.
+ */
+public class VectorExporterTest
+{
+    /** Drawing width, in pixels. */
+    private static final int WIDTH = 640;
+
+    /** Drawing height, in pixels. */
+    private static final int HEIGHT = 480;
+
+    /** Style of the opaque strokes. */
+    private static final PenStyle OPAQUE_STYLE = new PenStyle(0xFF336699, 6, false);
+
+    /** Style of the translucent strokes. */
+    private static final PenStyle TRANSLUCENT_STYLE = new PenStyle(0x80FF0000, 12.5f, false);
+
+    /** Style of the eraser strokes. */
+    private static final PenStyle ERASER_STYLE = new PenStyle(0, 20, true);
+
+    /** Encoding of the PDF files: one char per byte. */
+    private static final Charset PDF_CHARSET = Charset.forName("ISO-8859-1");
+
+    /** Numbers of an SVG path. */
+    private static final Pattern SVG_NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    /** Cross-reference table entry. */
+    private static final Pattern XREF_ENTRY = Pattern.compile("(\\d{10}) 00000 n \n");
+
+    /** Temporary directory. */
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * An SVG file is well-formed, with a path per stroke, a mask per run of erasers, and the styles of the strokes.
+     * 
+     * @throws Exception
+     *             if the file cannot be written or parsed.
+     */
+    @Test
+    public void svgStructure() throws Exception
+    {
+        StrokeDocument document = newDocument();
+        File file = mFolder.newFile();
+
+        VectorExporter.writeSvg(document, file);
+
+        Element svg = parseXml(file).getDocumentElement();
+
+        assertEquals("svg", svg.getTagName());
+        assertEquals(Integer.toString(WIDTH), svg.getAttribute("width"));
+        assertEquals(Integer.toString(HEIGHT), svg.getAttribute("height"));
+        assertEquals("0 0 " + WIDTH + " " + HEIGHT, svg.getAttribute("viewBox"));
+
+        NodeList paths = svg.getElementsByTagName("path");
+        NodeList masks = svg.getElementsByTagName("mask");
+
+        assertEquals(document.size(), paths.getLength());
+        assertEquals(2, masks.getLength());
+        assertEquals(2, ((Element) masks.item(0)).getElementsByTagName("path").getLength());
+        assertEquals(1, ((Element) masks.item(1)).getElementsByTagName("path").getLength());
+
+        Element translucent = (Element) paths.item(2);
+
+        assertEquals("#ff0000", translucent.getAttribute("stroke"));
+        assertEquals("0.502", translucent.getAttribute("stroke-opacity"));
+        assertEquals("12.5", translucent.getAttribute("stroke-width"));
+        Element eraser = (Element) ((Element) masks.item(0)).getElementsByTagName("path").item(0);
+
+        assertEquals("#000", eraser.getAttribute("stroke"));
+    }
+
+    /**
+     * The relative commands of each SVG path start on the first sample of its stroke and end on the last one.
+     * 
+     * @throws Exception
+     *             if the file cannot be written or parsed.
+     */
+    @Test
+    public void svgPathsFollowTheStrokes() throws Exception
+    {
+        StrokeDocument document = newDocument();
+        File file = mFolder.newFile();
+
+        VectorExporter.writeSvg(document, file);
+
+        NodeList paths = parseXml(file).getElementsByTagName("path");
+        List<Element> ordered = new ArrayList<Element>();
+
+        for (int i = 0; i < paths.getLength(); ++i)
+        {
+            ordered.add((Element) paths.item(i));
+        }
+
+        for (int i = 0; i < document.size(); ++i)
+        {
+            Stroke stroke = document.get(i);
+            int[] end = replaySvgPath(ordered.get(i).getAttribute("d"), stroke);
+
+            assertEquals(hundredths(stroke.getX(stroke.size() - 1)), end[0]);
+            assertEquals(hundredths(stroke.getY(stroke.size() - 1)), end[1]);
+        }
+    }
+
+    /**
+     * Layers are grouped with their opacity, and their masks have distinct identifiers.
+     * 
+     * @throws Exception
+     *             if the file cannot be written or parsed.
+     */
+    @Test
+    public void svgLayers() throws Exception
+    {
+        List<Stroke> strokes = newDocument().copyStrokes();
+        File file = mFolder.newFile();
+
+        VectorExporter.writeSvg(WIDTH, HEIGHT, Arrays.asList(strokes, strokes), new int[] { 255, 128 }, file);
+
+        Element root = (Element) parseXml(file).getDocumentElement().getElementsByTagName("g").item(0);
+        NodeList children = root.getChildNodes();
+        List<Element> layers = new ArrayList<Element>();
+
+        for (int i = 0; i < children.getLength(); ++i)
+        {
+            if (children.item(i) instanceof Element)
+            {
+                layers.add((Element) children.item(i));
+            }
+        }
+
+        assertEquals(2, layers.size());
+        assertEquals("", layers.get(0).getAttribute("opacity"));
+        assertEquals("0.502", layers.get(1).getAttribute("opacity"));
+
+        NodeList masks = root.getElementsByTagName("mask");
+        List<String> ids = new ArrayList<String>();
+
+        for (int i = 0; i < masks.getLength(); ++i)
+        {
+            String id = ((Element) masks.item(i)).getAttribute("id");
+
+            assertTrue(id, !ids.contains(id));
+            ids.add(id);
+        }
+
+        assertEquals(4, ids.size());
+    }
+
+    /**
+     * A PDF file has a valid cross-reference table, every object at its offset and every stream of its length,
+     * inflating completely. The page draws each layer, and the forms stroke each path.
+     * 
+     * @throws Exception
+     *             if the file cannot be written or parsed.
+     */
+    @Test
+    public void pdfStructure() throws Exception
+    {
+        StrokeDocument document = newDocument();
+        File file = mFolder.newFile();
+
+        VectorExporter.writePdf(document, file);
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String pdf = new String(bytes, PDF_CHARSET);
+
+        assertTrue(pdf.startsWith("%PDF-1.4\n"));
+        assertTrue(pdf.endsWith("%%EOF\n"));
+
+        Matcher startMatcher = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$").matcher(pdf);
+        assertTrue(startMatcher.find());
+
+        int crossReference = Integer.parseInt(startMatcher.group(1));
+        assertTrue(pdf.startsWith("xref\n0 ", crossReference));
+
+        Matcher entryMatcher = XREF_ENTRY.matcher(pdf);
+        entryMatcher.region(crossReference, pdf.length());
+        List<Integer> offsets = new ArrayList<Integer>();
+
+        while (entryMatcher.find())
+        {
+            offsets.add(Integer.valueOf(entryMatcher.group(1)));
+        }
+
+        Matcher sizeMatcher = Pattern.compile("/Size (\\d+) ").matcher(pdf);
+        assertTrue(sizeMatcher.find(crossReference));
+        assertEquals(offsets.size() + 1, Integer.parseInt(sizeMatcher.group(1)));
+
+        StringBuilder contents = new StringBuilder();
+
+        for (int i = 0; i < offsets.size(); ++i)
+        {
+            int offset = offsets.get(i).intValue();
+
+            assertTrue("object " + (i + 1), pdf.startsWith((i + 1) + " 0 obj\n", offset));
+
+            int end = pdf.indexOf("endobj\n", offset);
+            int streamStart = pdf.indexOf("stream\n", offset);
+
+            if ((streamStart >= 0) && (streamStart < end))
+            {
+                Matcher lengthMatcher = Pattern.compile("/Length (\\d+) 0 R").matcher(pdf);
+                assertTrue(lengthMatcher.find(offset));
+
+                int lengthObject = Integer.parseInt(lengthMatcher.group(1));
+                int lengthOffset = offsets.get(lengthObject - 1).intValue();
+                String lengthText = pdf.substring(pdf.indexOf('\n', lengthOffset) + 1, pdf.indexOf("\nendobj",
+                        lengthOffset));
+                int dataStart = streamStart + "stream\n".length();
+                int dataEnd = dataStart + Integer.parseInt(lengthText);
+
+                assertTrue(pdf.startsWith("\nendstream\nendobj\n", dataEnd));
+                contents.append(inflate(bytes, dataStart, dataEnd - dataStart));
+            }
+        }
+
+        String operators = contents.toString();
+
+        assertTrue(operators.contains("1 0 0 -1 0 " + HEIGHT + " cm\n"));
+        assertTrue(operators.contains("/L0 Do"));
+        // Every stroke, dots included, is stroked once in a form or in a mask
+        assertEquals(document.size(), count(operators, "S\n"));
+        assertEquals(2, count(operators, "/S /Luminosity") + count(pdf, "/S /Luminosity"));
+    }
+
+    /**
+     * An empty document is exported as an empty drawing.
+     * 
+     * @throws Exception
+     *             if the files cannot be written or parsed.
+     */
+    @Test
+    public void emptyDocument() throws Exception
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+        File svg = mFolder.newFile();
+        File pdf = mFolder.newFile();
+
+        VectorExporter.writeSvg(document, svg);
+        VectorExporter.writePdf(document, pdf);
+
+        assertEquals(0, parseXml(svg).getElementsByTagName("path").getLength());
+        assertTrue(new String(Files.readAllBytes(pdf.toPath()), PDF_CHARSET).endsWith("%%EOF\n"));
+    }
+
+    /**
+     * @return a document with smooth strokes, a dot, a translucent stroke and two runs of erasers.
+     */
+    private static StrokeDocument newDocument()
+    {
+        StrokeDocument document = new StrokeDocument(WIDTH, HEIGHT);
+
+        document.add(newStroke(OPAQUE_STYLE, 10.25f, 20, 12));
+        document.add(newStroke(OPAQUE_STYLE, 300, 200, 1));
+        document.add(newStroke(TRANSLUCENT_STYLE, 50, 400.5f, 30));
+        document.add(newStroke(ERASER_STYLE, 20, 30, 5));
+        document.add(newStroke(ERASER_STYLE, 100, 100, 2));
+        document.add(newStroke(OPAQUE_STYLE, 600, 10, 7));
+        document.add(newStroke(ERASER_STYLE, 590, 20, 9));
+        document.add(newStroke(TRANSLUCENT_STYLE, 0, 0, 40));
+
+        return document;
+    }
+
+    /**
+     * @param style
+     *            the stroke style.
+     * @param x
+     *            the first sample X position.
+     * @param y
+     *            the first sample Y position.
+     * @param size
+     *            the number of samples.
+     * @return a new stroke, curving away from its first sample.
+     */
+    private static Stroke newStroke(final PenStyle style, final float x, final float y, final int size)
+    {
+        Stroke stroke = new Stroke();
+
+        stroke.setStyle(style);
+
+        for (int i = 0; i < size; ++i)
+        {
+            stroke.add(x + 7.123f * i, y + 0.05f * i * i - 3.3f * i, 8 * i, 1);
+        }
+
+        return stroke;
+    }
+
+    /**
+     * Replay the commands of an SVG path, checking that it starts on the first sample of a stroke.
+     * 
+     * @param data
+     *            the path data.
+     * @param stroke
+     *            the stroke.
+     * @return the end point of the path, in hundredths.
+     */
+    private static int[] replaySvgPath(final String data, final Stroke stroke)
+    {
+        assertTrue(data, data.startsWith("M"));
+
+        int x = 0;
+        int y = 0;
+        char command = 0;
+        int index = 0;
+
+        while (index < data.length())
+        {
+            if (Character.isLetter(data.charAt(index)))
+            {
+                command = data.charAt(index++);
+                continue;
+            }
+
+            Matcher matcher = SVG_NUMBER.matcher(data);
+            int[] numbers = new int[(command == 'q') ? 4 : 2];
+
+            for (int i = 0; i < numbers.length; ++i)
+            {
+                if ((index < data.length()) && (data.charAt(index) == ' '))
+                {
+                    ++index;
+                }
+
+                assertTrue(data, matcher.find(index) && (matcher.start() == index));
+                numbers[i] = hundredths(Float.parseFloat(matcher.group()));
+                index = matcher.end();
+            }
+
+            if (command == 'M')
+            {
+                assertEquals(hundredths(stroke.getX(0)), numbers[0]);
+                assertEquals(hundredths(stroke.getY(0)), numbers[1]);
+                x = numbers[0];
+                y = numbers[1];
+            }
+            else
+            {
+                x += numbers[numbers.length - 2];
+                y += numbers[numbers.length - 1];
+            }
+        }
+
+        return new int[] { x, y };
+    }
+
+    /**
+     * @param value
+     *            a coordinate.
+     * @return the coordinate in hundredths, as written in the files.
+     */
+    private static int hundredths(final float value)
+    {
+        return Math.round(value * 100);
+    }
+
+    /**
+     * @param file
+     *            an XML file.
+     * @return the parsed document.
+     * @throws Exception
+     *             if the file cannot be parsed.
+     */
+    private static Document parseXml(final File file) throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    /**
+     * Inflate a zlib stream completely.
+     * 
+     * @param bytes
+     *            the file bytes.
+     * @param offset
+     *            the stream offset.
+     * @param length
+     *            the stream length.
+     * @return the inflated stream, one char per byte.
+     * @throws DataFormatException
+     *             if the stream is invalid.
+     */
+    private static String inflate(final byte[] bytes, final int offset, final int length) throws DataFormatException
+    {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+
+        inflater.setInput(bytes, offset, length);
+
+        try
+        {
+            while (!inflater.finished())
+            {
+                int count = inflater.inflate(chunk);
+
+                if ((count == 0) && inflater.needsInput())
+                {
+                    throw new DataFormatException("Truncated stream");
+                }
+
+                inflated.write(chunk, 0, count);
+            }
+
+            assertEquals(0, inflater.getRemaining());
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        return new String(inflated.toByteArray(), PDF_CHARSET);
+    }
+
+    /**
+     * @param text
+     *            a text.
+     * @param pattern
+     *            a substring.
+     * @return the number of occurrences of the substring.
+     */
+    private static int count(final String text, final String pattern)
+    {
+        int count = 0;
+
+        for (int index = text.indexOf(pattern); index >= 0; index = text.indexOf(pattern, index + 1))
+        {
+            ++count;
+        }
+
+        return count;
+    }
+}